@@ -10,7 +10,16 @@ import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.MultithreadEventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.Promise;
 import org.slf4j.Logger;
@@ -23,19 +32,42 @@ public class Application {
 	private static final int HALT_ON_SHUTDOWN_EXIT_CODE = Config.getFWInt("Application.haltOnShutdownExitCode", 0);
 	private static final long SHUTDOWN_QUIET_PERIOD = Config.getFWInt("Application.shutdownQuietPeriod", 0);
 	private static final long SHUTDOWN_MAX_WAIT = Config.getFWInt("Application.shutdownMaxWait", 15000);
+	private static final String IO_TRANSPORT = Config.getFWString("core.Application.ioTransport", "nio");
 
 	private static final CounterMetric m_applicationStart = MetricsEngine.newCounterMetric("application-start");
 	private static final CounterMetric m_applicationStop = MetricsEngine.newCounterMetric("application-stop");
 
 	private static final PooledByteBufAllocator m_ioBufferPool = PooledByteBufAllocator.DEFAULT;
-	private static final NioEventLoopGroup m_ioPool;
+	private static final EventLoopGroup m_ioPool;
+	private static final int m_ioPoolSize;
 	private static final EventLoopGroup m_taskPool;
+	private static final boolean m_nativeTransport;
+	private static final Class<? extends ServerSocketChannel> m_serverSocketChannelClass;
+	private static final Class<? extends SocketChannel> m_socketChannelClass;
+	private static Throwable m_nativeTransportUnavailableCause;
 	private static boolean m_haltOnFatalExit = true;
 	private static IShutdownHandler m_userShutdownHandler;
 
 	static {
 		ApplicationRun.registerFatalExitHandler(() -> Application.fatalExit());
-		m_ioPool = new NioEventLoopGroup(Config.getFWInt("core.Application.ioPoolCount", 2));
+		final int ioPoolSize = Config.getFWInt("core.Application.ioPoolCount", 2);
+		// The native epoll transport is only used when asked for and when the native library loaded, otherwise
+		// we fall back to NIO so the same configuration can run on every platform
+		if ("epoll".equalsIgnoreCase(IO_TRANSPORT) && Epoll.isAvailable()) {
+			m_ioPool = new EpollEventLoopGroup(ioPoolSize);
+			m_serverSocketChannelClass = EpollServerSocketChannel.class;
+			m_socketChannelClass = EpollSocketChannel.class;
+			m_nativeTransport = true;
+		} else {
+			if ("epoll".equalsIgnoreCase(IO_TRANSPORT)) {
+				m_nativeTransportUnavailableCause = Epoll.unavailabilityCause();
+			}
+			m_ioPool = new NioEventLoopGroup(ioPoolSize);
+			m_serverSocketChannelClass = NioServerSocketChannel.class;
+			m_socketChannelClass = NioSocketChannel.class;
+			m_nativeTransport = false;
+		}
+		m_ioPoolSize = ((MultithreadEventLoopGroup)m_ioPool).executorCount();
 		int taskPoolSize = Config.getFWInt("core.Application.taskPoolCount", -1);
 		if (taskPoolSize <= 0) {
 			m_taskPool = new DenaliEventLoopGroup();
@@ -89,10 +121,35 @@ public class Application {
 		return m_ioBufferPool.compositeBuffer(maxNumComponents);
 	}
 
-	public static NioEventLoopGroup getIOPool() {
+	public static EventLoopGroup getIOPool() {
 		return m_ioPool;
 	}
 
+	public static int getIOPoolSize() {
+		return m_ioPoolSize;
+	}
+
+	/**
+	 * True when the IO pool is running the native (epoll) transport instead of NIO
+	 */
+	public static boolean isNativeTransport() {
+		return m_nativeTransport;
+	}
+
+	/**
+	 * The listening channel class that matches the IO pool returned by getIOPool()
+	 */
+	public static Class<? extends ServerSocketChannel> serverSocketChannelClass() {
+		return m_serverSocketChannelClass;
+	}
+
+	/**
+	 * The client channel class that matches the IO pool returned by getIOPool()
+	 */
+	public static Class<? extends SocketChannel> socketChannelClass() {
+		return m_socketChannelClass;
+	}
+
 	public static EventLoopGroup getTaskPool() {
 		return m_taskPool;
 	}
@@ -138,6 +195,12 @@ public class Application {
 		} else {
 			LOG.info("Starting");
 		}
+		if (m_nativeTransportUnavailableCause != null) {
+			LOG.warn("Native epoll transport was requested but is not available, using NIO", m_nativeTransportUnavailableCause);
+			m_nativeTransportUnavailableCause = null;
+		} else if (LOG.isDebugEnabled()) {
+			LOG.debug("IO pool is using the {} transport", m_nativeTransport ? "epoll" : "nio");
+		}
 		m_applicationStart.increment();
 		Runtime.getRuntime().addShutdownHook(new ShutdownHook());
 	}
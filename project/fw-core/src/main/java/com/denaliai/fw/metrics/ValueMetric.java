@@ -12,6 +12,10 @@ public class ValueMetric extends SingleIndexMetricBase {
 		MetricsEngine.add(index, value);
 	}
 
+	public void add(long value) {
+		MetricsEngine.add(index, value);
+	}
+
 	public void set(int value) {
 		MetricsEngine.set(index, value);
 	}
@@ -15,11 +15,11 @@ public abstract class PerpetualWork
 	private volatile Thread m_currentWorker;
 
 	public PerpetualWork() {
-		this(Application.getTaskPool(), 1);
+		this(null, 1);
 	}
 
 	public PerpetualWork(int maxNumWorkPerRun) {
-		this(Application.getTaskPool(), maxNumWorkPerRun);
+		this(null, maxNumWorkPerRun);
 	}
 
 	public PerpetualWork(EventLoopGroup eventGroup) {
@@ -31,6 +31,13 @@ public abstract class PerpetualWork
 		m_eventGroup = eventGroup;
 	}
 
+	/*
+	 * Work created before the Application is running has no group yet, it runs on the task pool
+	 */
+	private EventLoopGroup executor() {
+		return (m_eventGroup != null) ? m_eventGroup : Application.getTaskPool();
+	}
+
 	/*
 	 *
 	 * Support multiple threads calling this method
@@ -50,7 +57,7 @@ public abstract class PerpetualWork
 				// work is not scheduled to run
 				if (m_currentWorker != Thread.currentThread()) {
 					// We are not already in the loop
-					Application.getTaskPool().execute(m_runner);
+					executor().execute(m_runner);
 				}
 			}
 			else
@@ -63,7 +70,7 @@ public abstract class PerpetualWork
 			// work is not scheduled to run
 			if (m_currentWorker != Thread.currentThread()) {
 				// We are not already in the loop
-				Application.getTaskPool().execute(m_runner);
+				executor().execute(m_runner);
 			}
 		}
 		else
@@ -128,7 +135,7 @@ public abstract class PerpetualWork
 				{
 					// Starting tick didn't match, so we got another request for work while running
 					if (numProcessed >= m_maxNumWorkPerRun) {
-						Application.getTaskPool().execute(this);
+						executor().execute(this);
 						return false;
 					} else {
 						// We are staying in the loop, restore so we don't have to hit API
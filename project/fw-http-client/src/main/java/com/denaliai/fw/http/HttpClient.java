@@ -5,21 +5,32 @@ import com.denaliai.fw.config.Config;
 import com.denaliai.fw.metrics.*;
 import com.denaliai.fw.utility.concurrent.PerpetualWork;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.CompositeByteBuf;
-import io.netty.handler.codec.http.HttpHeaderNames;
-import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.*;
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolNames;
 import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
 import io.netty.util.internal.PlatformDependent;
-import org.asynchttpclient.*;
-import org.asynchttpclient.netty.LazyResponseBodyPart;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.net.ssl.SSLException;
 import java.io.File;
-import java.security.NoSuchAlgorithmException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class HttpClient {
@@ -27,7 +38,20 @@ public class HttpClient {
 
 	private static final Integer Config_MaxConnections = Config.getFWInt("http.HttpClient.maxConnections", null);
 	private static final Integer Config_MaxConnectionsPerHost = Config.getFWInt("http.HttpClient.maxConnectionsPerHost", null);
+	private static final int Config_MaxQueuedRequestsPerHost = Config.getFWInt("http.HttpClient.maxQueuedRequestsPerHost", 0);
 	private static final Boolean Config_KeepAlive = Config.getFWBoolean("http.HttpClient.keepAlive", null);
+	private static final int CONNECT_TIMEOUT_MS = Config.getFWInt("http.HttpClient.connectTimeoutMS", 5000);
+	private static final int READ_TIMEOUT_MS = Config.getFWInt("http.HttpClient.readTimeoutMS", 60000);
+	private static final int REQUEST_TIMEOUT_MS = Config.getFWInt("http.HttpClient.requestTimeoutMS", 60000);
+	private static final int POOLED_CONNECTION_IDLE_TIMEOUT_MS = Config.getFWInt("http.HttpClient.pooledConnectionIdleTimeoutMS", 60000);
+	private static final int POOL_SWEEP_INTERVAL_MS = Config.getFWInt("http.HttpClient.poolSweepIntervalMS", 1000);
+	private static final int MAX_RESPONSE_SIZE = Config.getFWInt("http.HttpClient.maxResponseSize", 64*1024*1024);
+	private static final int MAX_REDIRECTS = Config.getFWInt("http.HttpClient.maxRedirects", 5);
+	private static final int Config_RetryBudgetPercent = Config.getFWInt("http.HttpClient.retryBudgetPercent", 20);
+	private static final int Config_RetryBudgetMinPerSecond = Config.getFWInt("http.HttpClient.retryBudgetMinPerSecond", 10);
+	private static final boolean Config_Http2 = Config.getFWBoolean("http.HttpClient.http2", false);
+	private static final boolean Config_Http2PriorKnowledge = Config.getFWBoolean("http.HttpClient.http2PriorKnowledge", false);
+	private static final int Config_Http2MaxConcurrentStreams = Config.getFWInt("http.HttpClient.http2MaxConcurrentStreams", 100);
 
 	private static final CounterMetric m_newRequests = MetricsEngine.newCounterMetric("HttpClient.new-requests");
 	private static final DurationRateMetric m_successRequests = MetricsEngine.newRateMetric("HttpClient.successful-requests");
@@ -35,9 +59,17 @@ public class HttpClient {
 	private static final ValueMetric m_requestDataSize = MetricsEngine.newValueMetric("HttpClient.request-content-bytes");
 	private static final ValueMetric m_responseDataSize = MetricsEngine.newValueMetric("HttpClient.response-content-bytes");
 	private static final TotalCounterMetric m_outstandingRequests = MetricsEngine.newTotalCounterMetric("HttpClient.outstanding-requests");
+	private static final CounterMetric m_staleConnectionRetries = MetricsEngine.newCounterMetric("HttpClient.stale-connection-retries");
+	private static final CounterAndRateMetric m_retries = MetricsEngine.newCounterAndRateMetric("HttpClient.retries");
+	private static final CounterMetric m_retriesOverBudget = MetricsEngine.newCounterMetric("HttpClient.retries-over-budget");
+	private static final CounterAndRateMetric m_hedges = MetricsEngine.newCounterAndRateMetric("HttpClient.hedges");
+	private static final CounterMetric m_hedgeWins = MetricsEngine.newCounterMetric("HttpClient.hedge-wins");
 
 	private final AtomicInteger m_requestNum = new AtomicInteger();
 	private final Worker m_worker = new Worker();
+	// Created when the client starts
+	private volatile HttpClientConnectionPool m_pool;
+	private volatile HttpClientRetryBudget m_retryBudget;
 	private final Promise<Void> m_startPromise = Application.newPromise();
 	private final Promise<Void> m_stopPromise = Application.newPromise();
 	private volatile boolean m_requestStart;
@@ -46,12 +78,18 @@ public class HttpClient {
 	private AtomicInteger m_requestsDone = new AtomicInteger();
 	private Integer m_connectionTTL = null;
 	private Integer m_maxConnectionsPerHost = Config_MaxConnectionsPerHost;
+	private int m_maxQueuedRequestsPerHost = Config_MaxQueuedRequestsPerHost;
+	private int m_retryBudgetPercent = Config_RetryBudgetPercent;
+	private int m_retryBudgetMinPerSecond = Config_RetryBudgetMinPerSecond;
 	private Boolean m_keepAlive = Config_KeepAlive;
 	private Boolean m_useInsecureTrustManager;
 	private String m_trustManagerCertPath;
 	private String m_keyManagerCertPath;
 	private String m_privateKeyPath;
 	private String m_passPhrase;
+	private boolean m_http2 = Config_Http2;
+	private boolean m_http2PriorKnowledge = Config_Http2PriorKnowledge;
+	private int m_http2MaxConcurrentStreams = Config_Http2MaxConcurrentStreams;
 
 	public HttpClient() {
 	}
@@ -69,10 +107,49 @@ public class HttpClient {
 		m_maxConnectionsPerHost = num;
 	}
 
+	/**
+	 * The most requests that can wait for one host's connections, past it requests fail right away with
+	 * HttpClientQueueFullException.  0 is no limit.
+	 */
+	public void setMaxQueuedRequestsPerHost(int num) {
+		m_maxQueuedRequestsPerHost = num;
+	}
+
+	/**
+	 * Retries made by the requests' retry policies are limited to this percent of the requests made in the last 10
+	 * seconds, with minRetriesPerSecond always allowed.  The defaults are 20% and 10.
+	 */
+	public void setRetryBudget(int percent, int minRetriesPerSecond) {
+		m_retryBudgetPercent = percent;
+		m_retryBudgetMinPerSecond = minRetriesPerSecond;
+	}
+
 	public void setKeepAlive(boolean value) {
 		m_keepAlive = value;
 	}
 
+	/**
+	 * Offer HTTP/2 in ALPN for https requests, concurrent requests to a host then share a connection.  Servers that
+	 * don't pick it are spoken to with HTTP/1.1.
+	 */
+	public void setHttp2(boolean value) {
+		m_http2 = value;
+	}
+
+	/**
+	 * Speak HTTP/2 from the start for http requests, every server used has to support it.  Needs setHttp2(true).
+	 */
+	public void setHttp2PriorKnowledge(boolean value) {
+		m_http2PriorKnowledge = value;
+	}
+
+	/**
+	 * The most requests in flight on one HTTP/2 connection, the server's limit is used when it is lower
+	 */
+	public void setHttp2MaxConcurrentStreams(int num) {
+		m_http2MaxConcurrentStreams = num;
+	}
+
 	public void setCertificate(String trustCertPath, String keyCertPath, String keyPath, String passphrase) {
 		m_trustManagerCertPath = trustCertPath;
 		m_keyManagerCertPath = keyCertPath;
@@ -104,7 +181,6 @@ public class HttpClient {
 
 	private final class Worker extends PerpetualWork {
 		private final Logger LOG = LoggerFactory.getLogger(Worker.class);
-		private AsyncHttpClient m_client;
 		private boolean m_started;
 		private boolean m_stopped;
 		private boolean m_stopWaitLogged;
@@ -155,48 +231,9 @@ public class HttpClient {
 				m_newRequests.increment();
 				m_runningRequests++;
 
-				final BoundRequestBuilder clientReq;
+				final RequestHandler handler;
 				try {
-					clientReq = m_client.prepareGet(req.getURL());
-
-					clientReq.setMethod(req.getMethod());
-					if (req.getQueryParams() != null) {
-						for(HttpClientRequest.NameValue nv :  req.getQueryParams()) {
-							clientReq.addQueryParam(nv.name, nv.value);
-						}
-					}
-					if (req.getFormParams() != null) {
-						for(HttpClientRequest.NameValue nv :  req.getFormParams()) {
-							clientReq.addFormParam(nv.name, nv.value);
-						}
-					} else if (req.getBodyData() != null) {
-						clientReq.setBody(req.getBodyData());
-						m_requestDataSize.add(req.getBodyData().length());
-					} else if (req.getBodyBuf() != null) {
-						// Need to ensure we keep the req alive until the end of the HTTP request
-						clientReq.setBody(req.getBodyBuf().nioBuffer());
-						m_requestDataSize.add(req.getBodyBuf().readableBytes());
-					}
-					if (m_keepAlive == Boolean.TRUE) {
-						clientReq.addHeader(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
-					}
-					if (req.getHeaders() != null) {
-						for(HttpClientRequest.NameValue nv :  req.getHeaders()) {
-							clientReq.addHeader(nv.name, nv.value);
-						}
-					}
-					if (req.followRedirect()  != null) {
-						clientReq.setFollowRedirect(req.followRedirect());
-					}
-					if (req.readTimeout() != null) {
-						clientReq.setReadTimeout(req.readTimeout());
-					}
-					if (req.requestTimeout() != null) {
-						clientReq.setRequestTimeout(req.requestTimeout());
-					}
-					//req.setRealm(realm)
-					//req.setSignatureCalculator(signatureCalculator);
-
+					handler = new RequestHandler(req);
 				} catch(Exception ex) {
 					LOG.error("Unexpected exception", ex);
 					if (req.getFailedHandler() != null) {
@@ -212,34 +249,10 @@ public class HttpClient {
 					req.recycle();
 					continue;
 				}
-				// I am splitting up the try/catch blocks in case we want to do something differently
-				// in the second block given the exception was thrown by an async method
-				try {
-					final RequestHandler handler = new RequestHandler(req);
-
-					if (LOG.isDebugEnabled()) {
-						LOG.debug("[{}] Request start", handler.m_requestId);
-					}
-
-					// I am trusting that if req.execute throws an exception it is not in a bad state.  If it catches an
-					// exception I am expecting it to call the future it returns.  If it allows an exception to be thrown
-					// I trust that it means that it will not put anything into the future
-					handler.setResponseFuture(clientReq.execute(handler));
-
-				} catch(Exception ex) {
-					LOG.error("Unexpected exception", ex);
-					if (req.getFailedHandler() != null) {
-						try {
-							req.getFailedHandler().requestFailed(ex);
-						} catch(Exception ex2) {
-							LOG.error("Unexpected exception in user callback", ex2);
-						}
-					}
-					m_requestFailures.increment();
-					m_outstandingRequests.decrement();
-					m_runningRequests--;
-					req.recycle();
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("[{}] Request start", handler.m_requestId);
 				}
+				handler.start();
 			}
 		}
 
@@ -257,144 +270,513 @@ public class HttpClient {
 		private void stop() {
 			m_started = true; // If someone calls stop() we should never even try to start
 			m_stopped = true;
-			try {
-				if (LOG.isDebugEnabled()) {
-					LOG.debug("Closing client");
-				}
-				m_client.close();
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Closing client");
+			}
+			if (m_pool == null) {
 				m_stopPromise.setSuccess(null);
-			} catch(Exception ex) {
-				LOG.debug("stop() exception", ex);
-				m_stopPromise.setFailure(ex);
-			}
-		}
-
-		private void _start() throws NoSuchAlgorithmException {
-			DefaultAsyncHttpClientConfig.Builder dsl = Dsl.config()
-				.setEventLoopGroup(Application.getIOPool())
-				.setAllocator(Application.allocator())
-				.setResponseBodyPartFactory(AsyncHttpClientConfig.ResponseBodyPartFactory.LAZY);
-			// .setTcpNoDelay(tcpNoDelay)
-			// .setUserAgent(userAgent)
-			// .setConnectionTtl(connectionTtl)
-			// .setConnectTimeout(connectTimeout)
-			//	.setKeepAliveStrategy(keepAliveStrategy)
-			// .setFollowRedirect(followRedirect)
-			// .setMaxRedirects(maxRedirects)
-			// .setPooledConnectionIdleTimeout(pooledConnectionIdleTimeout)
-			// .setReadTimeout(readTimeout)
-			// .setSoLinger(soLinger)
-			// .addIOExceptionFilter(ioExceptionFilter)  allow retry on I/O exceptions
-			// .addResponseFilter(responseFilter) allow retry on certain HTTP statuses (or no HTTP status)
-			// .setEnabledProtocols(enabledProtocols)
-			// .setEnabledCipherSuites(enabledCipherSuites)
-			// .setDisableHttpsEndpointIdentificationAlgorithm(disableHttpsEndpointIdentificationAlgorithm);
-			// .setFilterInsecureCipherSuites(filterInsecureCipherSuites)
-			// .setHandshakeTimeout(handshakeTimeout)
-			// .setSslSessionTimeout(sslSessionTimeout)
-			// .setStrict302Handling(strict302Handling)
-			// .setUseNativeTransport(useNativeTransport)
-			if (Config_MaxConnections != null) {
-				dsl.setMaxConnections(Config_MaxConnections);
-			}
-			if (m_maxConnectionsPerHost != null) {
-				dsl.setMaxConnectionsPerHost(m_maxConnectionsPerHost);
-			}
-			if (m_keepAlive != null) {
-				dsl.setKeepAlive(m_keepAlive);
+				return;
 			}
+			m_pool.close().addListener((f) -> {
+				if (f.isSuccess()) {
+					m_stopPromise.setSuccess(null);
+				} else {
+					LOG.debug("stop() exception", f.cause());
+					m_stopPromise.setFailure(f.cause());
+				}
+			});
+		}
+
+		private void _start() throws SSLException {
+			final SslContextBuilder sslContextBuilder = SslContextBuilder.forClient();
 			if (m_trustManagerCertPath != null && m_keyManagerCertPath != null && m_privateKeyPath != null) {
 				try{
 					File trustCertFile = new File(m_trustManagerCertPath);
 					File keyCertFile = new File(m_keyManagerCertPath);
 					File keyFile = new File(m_privateKeyPath);
 
-					dsl.setSslContext(SslContextBuilder.forClient()
-							.keyManager(keyCertFile, keyFile, m_passPhrase)
-							.trustManager(trustCertFile)
-							.build());
+					sslContextBuilder.keyManager(keyCertFile, keyFile, m_passPhrase).trustManager(trustCertFile);
 				} catch (Exception e){
 					LOG.error("Failed to Set SSL Context", e);
 				}
 			}
-			if (m_useInsecureTrustManager != null) {
-				dsl.setUseInsecureTrustManager(m_useInsecureTrustManager);
+			final boolean insecure = (m_useInsecureTrustManager == Boolean.TRUE);
+			if (insecure) {
+				sslContextBuilder.trustManager(InsecureTrustManagerFactory.INSTANCE);
 			}
-			if (m_connectionTTL != null) {
-				dsl.setConnectionTtl(m_connectionTTL);
+
+			if (m_http2) {
+				sslContextBuilder
+					.ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+					.applicationProtocolConfig(new ApplicationProtocolConfig(
+						ApplicationProtocolConfig.Protocol.ALPN,
+						ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+						ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT,
+						ApplicationProtocolNames.HTTP_2,
+						ApplicationProtocolNames.HTTP_1_1));
 			}
 
 			if (LOG.isDebugEnabled()) {
 				LOG.debug("Creating client");
 			}
-			m_client = Dsl.asyncHttpClient(dsl);
+			m_pool = new HttpClientConnectionPool(LOG, sslContextBuilder.build(), !insecure,
+				(Config_MaxConnections != null) ? Config_MaxConnections : 0,
+				(m_maxConnectionsPerHost != null) ? m_maxConnectionsPerHost : 0,
+				CONNECT_TIMEOUT_MS, POOLED_CONNECTION_IDLE_TIMEOUT_MS, (m_connectionTTL != null) ? m_connectionTTL : 0,
+				MAX_RESPONSE_SIZE, POOL_SWEEP_INTERVAL_MS,
+				m_http2, m_http2PriorKnowledge, m_http2MaxConcurrentStreams, m_maxQueuedRequestsPerHost);
+			m_pool.start();
+			m_retryBudget = new HttpClientRetryBudget(m_retryBudgetPercent, m_retryBudgetMinPerSecond);
 		}
 	}
 
 
-	private class RequestHandler extends AsyncCompletionHandlerBase implements Runnable, HttpClientResponse {
+	/*
+		One submitted request, through any redirects, the retries of its retry policy, a hedge and a retry on a new
+		connection when a kept-alive one turns out to have been closed by the server.  Each try is an Attempt, with a
+		hedge two of them run at once and the first response wins.  The state is changed under the handler's lock
+		since the timeouts, the pool and the connections' event loops all call in.
+	 */
+	private class RequestHandler implements HttpClientResponse {
 		private final int m_requestId = m_requestNum.incrementAndGet();
 		private final HttpClientRequest m_request;
 		private final MetricsEngine.IMetricTimer m_requestTimer;
-		private ByteBuf m_responseBuf;
-		private CompositeByteBuf m_responseCBuf;
-		private ListenableFuture<Response> m_responseFuture;
-		private Response m_response;
-
-		RequestHandler(HttpClientRequest request) {
+		private final long m_readTimeoutMS;
+		private final long m_requestTimeoutMS;
+		private HttpClientConnectionPool.HostMetrics m_hostMetrics;
+		private URI m_uri;
+		private HttpMethod m_method;
+		// Owned by the handler, each attempt sends a duplicate of it
+		private ByteBuf m_body;
+		private int m_redirects;
+		private int m_retryCount;
+		private ScheduledFuture<?> m_retryWait;
+		private ScheduledFuture<?> m_hedgeWait;
+		private Attempt m_attempt;
+		// The copy sent when the attempt was slow to get a response, it runs alongside the attempt
+		private Attempt m_hedge;
+		private ScheduledFuture<?> m_requestTimeout;
+		private boolean m_done;
+		private FullHttpResponse m_response;
+		private Throwable m_failure;
+
+		RequestHandler(HttpClientRequest request) throws URISyntaxException {
 			m_request = request;
 			m_requestTimer = MetricsEngine.startTimer();
+			m_readTimeoutMS = (request.readTimeout() != null) ? request.readTimeout() : READ_TIMEOUT_MS;
+			m_requestTimeoutMS = (request.requestTimeout() != null) ? request.requestTimeout() : REQUEST_TIMEOUT_MS;
+			m_method = HttpMethod.valueOf(request.getMethod().toUpperCase());
+			m_uri = new URI(withQueryParams(request.getURL(), request.getQueryParams()));
+			checkURI(m_uri);
+			if (request.getFormParams() != null) {
+				m_body = ByteBufUtil.writeUtf8(Application.allocator(), formBody(request.getFormParams()));
+			} else if (request.getBodyData() != null) {
+				m_body = ByteBufUtil.writeUtf8(Application.allocator(), request.getBodyData());
+			} else if (request.getBodyBuf() != null) {
+				// The request keeps its reference until it is recycled
+				m_body = request.getBodyBuf().retainedDuplicate();
+			}
+			if (m_body != null) {
+				m_requestDataSize.add(m_body.readableBytes());
+			}
 		}
 
-		void setResponseFuture(ListenableFuture<Response> responseFuture) {
-			m_responseFuture = responseFuture;
-			// It appears that the executor passed in here is being ignored
-			m_responseFuture.addListener(this, null);
+		synchronized void start() {
+			m_retryBudget.requestStarted();
+			if (m_requestTimeoutMS > 0) {
+				m_requestTimeout = Application.getTaskPool().schedule(() -> {
+					fail(new TimeoutException("Request timeout of " + m_requestTimeoutMS + " ms expired"));
+				}, m_requestTimeoutMS, TimeUnit.MILLISECONDS);
+			}
+			m_attempt = new Attempt();
+			acquireConnection(m_attempt);
+			scheduleHedge();
 		}
 
-		/**
-		 * Called when the request is completed from the response future
-		 */
-		@Override
-		public void run() {
-			Application.getTaskPool().execute(this::_run);
+		private void acquireConnection(Attempt attempt) {
+			final boolean ssl = m_uri.getScheme().equalsIgnoreCase("https");
+			// A redirect to another host moves the request to its metrics
+			m_hostMetrics = m_pool.hostMetrics(ssl, connectHost(m_uri), port(m_uri));
+			attempt.m_startNS = System.nanoTime();
+			m_pool.acquire(ssl, connectHost(m_uri), port(m_uri), attempt);
 		}
 
-		private void _run() {
+		private synchronized void attemptConnected(Attempt attempt, HttpClientConnectionPool.Connection conn) {
+			if (m_done || attempt.m_cancelled) {
+				// Timed out, or lost to the other attempt, while waiting for the connection
+				m_pool.release(conn, true);
+				return;
+			}
+			attempt.m_connection = conn;
+			attempt.m_requestWritten = false;
+			conn.setExchange(attempt);
+			if (m_readTimeoutMS > 0) {
+				attempt.m_readTimeoutCheck = conn.channel().eventLoop().schedule(() -> checkReadTimeout(attempt, conn), m_readTimeoutMS, TimeUnit.MILLISECONDS);
+			}
 			if (LOG.isDebugEnabled()) {
-				LOG.debug("[{}] Request complete", m_requestId);
+				LOG.debug("[{}] {} {} on {}", m_requestId, m_method, m_uri, conn.channel());
 			}
-			try {
-				Exception httpException = null;
+			conn.channel().writeAndFlush(newHttpRequest()).addListener((f) -> {
+				if (f.isSuccess()) {
+					writeDone(attempt, conn);
+				} else {
+					attemptFailure(attempt, conn, f.cause());
+				}
+			});
+		}
+
+		private synchronized void writeDone(Attempt attempt, HttpClientConnectionPool.Connection conn) {
+			if (conn == attempt.m_connection) {
+				attempt.m_requestWritten = true;
+			}
+		}
+
+		private synchronized void attemptConnectFailed(Attempt attempt, Throwable cause) {
+			if (m_done || attempt.m_cancelled) {
+				return;
+			}
+			attemptFailed(attempt, cause);
+		}
+
+		private synchronized void attemptResponse(Attempt attempt, HttpClientConnectionPool.Connection conn, FullHttpResponse response) {
+			if (conn != attempt.m_connection || m_done) {
+				response.release();
+				return;
+			}
+			detach(attempt);
+			m_pool.release(conn, m_keepAlive != Boolean.FALSE && HttpUtil.isKeepAlive(response));
+			m_hostMetrics.recordResponseTime(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - attempt.m_startNS));
+
+			if (attempt == m_hedge) {
+				m_hedgeWins.increment();
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("[{}] The hedge answered first", m_requestId);
+				}
+				m_hedge = m_attempt;
+				m_attempt = attempt;
+			}
+			// The other attempt lost
+			cancelHedge();
+
+			final HttpClientRetryPolicy retryPolicy = m_request.retryPolicy();
+			if (retryPolicy != null && retryPolicy.isRetryableStatus(response.status().code())
+				&& retry(attempt, new HttpRequestFailureException("Response status " + response.status().code()), retryAfterMS(response))) {
+				response.release();
+				return;
+			}
+
+			final String location = response.headers().get(HttpHeaderNames.LOCATION);
+			if (location != null && isRedirect(response.status().code()) && m_request.followRedirect() == Boolean.TRUE && m_redirects < MAX_REDIRECTS) {
+				response.release();
 				try {
-					m_response = m_responseFuture.get();
+					redirect(response.status().code(), location);
 				} catch(Exception ex) {
-					if (LOG.isDebugEnabled()) {
-						LOG.info("HTTP processing exception", ex);
-					}
-					httpException = ex;
-					m_response = null;
+					finish(ex);
+				}
+				return;
+			}
+			m_response = response;
+			finish(null);
+		}
+
+		private synchronized void attemptFailure(Attempt attempt, HttpClientConnectionPool.Connection conn, Throwable cause) {
+			if (conn != attempt.m_connection || m_done) {
+				return;
+			}
+			detach(attempt);
+			m_pool.release(conn, false);
+			// A kept-alive connection the server closed before seeing the request, it is safe to send it again
+			if (conn.reused() && !attempt.m_retriedStaleConnection && (!attempt.m_requestWritten || isIdempotent(m_method))) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("[{}] Reused connection failed, retrying on a new one", m_requestId, cause);
 				}
-				// m_response could be null if there is no Http status (any kind of protocol failure)
+				attempt.m_retriedStaleConnection = true;
+				m_staleConnectionRetries.increment();
+				acquireConnection(attempt);
+				return;
+			}
+			attemptFailed(attempt, cause);
+		}
+
+		private synchronized void fail(Throwable cause) {
+			if (m_done) {
+				return;
+			}
+			cancel(m_attempt);
+			cancelHedge();
+			finish(cause);
+		}
+
+		private synchronized void checkReadTimeout(Attempt attempt, HttpClientConnectionPool.Connection conn) {
+			if (conn != attempt.m_connection || m_done) {
+				return;
+			}
+			final long idleMS = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - conn.lastReadNS());
+			if (idleMS >= m_readTimeoutMS) {
+				detach(attempt);
+				m_pool.release(conn, false);
+				attemptFailed(attempt, new TimeoutException("Read timeout of " + m_readTimeoutMS + " ms expired"));
+			} else {
+				attempt.m_readTimeoutCheck = conn.channel().eventLoop().schedule(() -> checkReadTimeout(attempt, conn), m_readTimeoutMS - idleMS, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		/*
+			The attempt's connection has already been let go
+		 */
+		private void attemptFailed(Attempt attempt, Throwable cause) {
+			if (attempt == m_hedge) {
+				// The first attempt is still running
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("[{}] The hedge failed", m_requestId, cause);
+				}
+				m_hedge = null;
+				return;
+			}
+			if (m_hedge != null) {
+				// The hedge carries on in the failed attempt's place
+				m_attempt = m_hedge;
+				m_hedge = null;
+				return;
+			}
+			cancelHedge();
+			if (!retry(attempt, cause, 0)) {
+				finish(cause);
+			}
+		}
+
+		/*
+			Schedules the next attempt when the retry policy and the retry budget allow one
+		 */
+		private boolean retry(Attempt attempt, Throwable cause, long minDelayMS) {
+			final HttpClientRetryPolicy retryPolicy = m_request.retryPolicy();
+			if (retryPolicy == null || m_retryCount >= retryPolicy.maxRetries()) {
+				return false;
+			}
+			if (cause instanceof HttpClientShutdownException || cause instanceof HttpClientQueueFullException) {
+				return false;
+			}
+			// The server may have acted on it already
+			if (attempt.m_requestWritten && !isIdempotent(m_method) && !retryPolicy.retryNonIdempotent()) {
+				return false;
+			}
+			if (!m_retryBudget.tryRetry()) {
+				m_retriesOverBudget.increment();
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("[{}] Not retried, the retry budget is used up", m_requestId);
+				}
+				return false;
+			}
+			m_retryCount++;
+			m_retries.increment();
+			final long delayMS = Math.max(retryPolicy.backoffMS(m_retryCount), minDelayMS);
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("[{}] Retry {} in {} ms after {}", m_requestId, m_retryCount, delayMS, cause.toString());
+			}
+			m_retryWait = Application.getIOPool().schedule(this::retryNow, delayMS, TimeUnit.MILLISECONDS);
+			return true;
+		}
+
+		private synchronized void retryNow() {
+			m_retryWait = null;
+			if (m_done) {
+				return;
+			}
+			m_attempt = new Attempt();
+			acquireConnection(m_attempt);
+			scheduleHedge();
+		}
+
+		private void scheduleHedge() {
+			final HttpClientHedgePolicy hedgePolicy = m_request.hedgePolicy();
+			if (hedgePolicy == null || !isIdempotent(m_method)) {
+				return;
+			}
+			final long delayMS = hedgePolicy.delayMS(m_hostMetrics.responseTimeP95MS());
+			m_hedgeWait = Application.getIOPool().schedule(this::sendHedge, delayMS, TimeUnit.MILLISECONDS);
+		}
+
+		private synchronized void sendHedge() {
+			m_hedgeWait = null;
+			if (m_done || m_hedge != null) {
+				return;
+			}
+			// Hedges add load the same as retries
+			if (!m_retryBudget.tryRetry()) {
+				m_retriesOverBudget.increment();
+				return;
+			}
+			m_hedges.increment();
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("[{}] No response yet, sending a hedge", m_requestId);
+			}
+			m_hedge = new Attempt();
+			acquireConnection(m_hedge);
+		}
+
+		/*
+			Stops the hedge from being sent, or cancels it if it has been
+		 */
+		private void cancelHedge() {
+			if (m_hedgeWait != null) {
+				m_hedgeWait.cancel(false);
+				m_hedgeWait = null;
+			}
+			if (m_hedge != null) {
+				cancel(m_hedge);
+				m_hedge = null;
+			}
+		}
+
+		/*
+			Closing the connection, or the stream with HTTP/2, stops the server's work on it and frees what was
+			in flight.  A response that comes in anyway is released.
+		 */
+		private void cancel(Attempt attempt) {
+			attempt.m_cancelled = true;
+			final HttpClientConnectionPool.Connection conn = attempt.m_connection;
+			if (conn != null) {
+				detach(attempt);
+				m_pool.release(conn, false);
+			}
+		}
+
+		private void detach(Attempt attempt) {
+			attempt.m_connection = null;
+			if (attempt.m_readTimeoutCheck != null) {
+				attempt.m_readTimeoutCheck.cancel(false);
+				attempt.m_readTimeoutCheck = null;
+			}
+		}
+
+		private void redirect(int statusCode, String location) throws URISyntaxException {
+			m_redirects++;
+			final URI uri = m_uri.resolve(new URI(location));
+			checkURI(uri);
+			if (statusCode == 303 || ((statusCode == 301 || statusCode == 302) && m_method == HttpMethod.POST)) {
+				// What browsers do, the body isn't sent again
+				m_method = HttpMethod.GET;
+				if (m_body != null) {
+					m_body.release();
+					m_body = null;
+				}
+			}
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("[{}] Redirected to {}", m_requestId, uri);
+			}
+			m_uri = uri;
+			m_attempt = new Attempt();
+			acquireConnection(m_attempt);
+		}
+
+		private void finish(Throwable failure) {
+			m_done = true;
+			m_failure = failure;
+			if (m_requestTimeout != null) {
+				m_requestTimeout.cancel(false);
+			}
+			if (m_retryWait != null) {
+				m_retryWait.cancel(false);
+				m_retryWait = null;
+			}
+			if (m_hedgeWait != null) {
+				m_hedgeWait.cancel(false);
+				m_hedgeWait = null;
+			}
+			Application.getTaskPool().execute(this::complete);
+		}
+
+		/*
+			One try of the request, it is what the pool and the connection call back
+		 */
+		private final class Attempt implements HttpClientConnectionPool.IConnectionListener, HttpClientConnectionPool.IExchange {
+			// The rest is guarded by the handler
+			private HttpClientConnectionPool.Connection m_connection;
+			private boolean m_requestWritten;
+			private boolean m_retriedStaleConnection;
+			private boolean m_cancelled;
+			private ScheduledFuture<?> m_readTimeoutCheck;
+			private long m_startNS;
+
+			@Override
+			public void connected(HttpClientConnectionPool.Connection conn) {
+				attemptConnected(this, conn);
+			}
+
+			@Override
+			public void connectFailed(Throwable cause) {
+				attemptConnectFailed(this, cause);
+			}
+
+			@Override
+			public void onResponse(HttpClientConnectionPool.Connection conn, FullHttpResponse response) {
+				attemptResponse(this, conn, response);
+			}
+
+			@Override
+			public void onFailure(HttpClientConnectionPool.Connection conn, Throwable cause) {
+				attemptFailure(this, conn, cause);
+			}
+		}
+
+		private FullHttpRequest newHttpRequest() {
+			final ByteBuf body = (m_body != null) ? m_body.retainedDuplicate() : Unpooled.EMPTY_BUFFER;
+			final String rawPath = m_uri.getRawPath();
+			final String pathAndQuery = ((rawPath == null || rawPath.isEmpty()) ? "/" : rawPath) + ((m_uri.getRawQuery() != null) ? "?" + m_uri.getRawQuery() : "");
+			final FullHttpRequest httpRequest = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, m_method, pathAndQuery, body);
+			final HttpHeaders headers = httpRequest.headers();
+			if (m_request.getHeaders() != null) {
+				for(HttpClientRequest.NameValue nv :  m_request.getHeaders()) {
+					headers.add(nv.name, nv.value);
+				}
+			}
+			if (!headers.contains(HttpHeaderNames.HOST)) {
+				headers.set(HttpHeaderNames.HOST, (m_uri.getPort() == -1) ? m_uri.getHost() : m_uri.getHost() + ":" + m_uri.getPort());
+			}
+			if (!headers.contains(HttpHeaderNames.ACCEPT)) {
+				headers.set(HttpHeaderNames.ACCEPT, "*/*");
+			}
+			if (m_keepAlive == Boolean.TRUE) {
+				headers.set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+			} else if (m_keepAlive == Boolean.FALSE) {
+				headers.set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+			}
+			if (m_body != null || m_method == HttpMethod.POST || m_method == HttpMethod.PUT || m_method == HttpMethod.PATCH) {
+				HttpUtil.setContentLength(httpRequest, body.readableBytes());
+			}
+			return httpRequest;
+		}
+
+		private void complete() {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("[{}] Request complete", m_requestId);
+			}
+			try {
 				if (m_response == null) {
-					if (m_request.getFailedHandler() != null) {
+					if (m_failure instanceof HttpClientShutdownException || m_failure instanceof HttpClientQueueFullException) {
+						if (m_request.getFailedHandler() != null) {
+							try {
+								m_request.getFailedHandler().requestFailed(m_failure);
+							} catch(Exception ex2) {
+								LOG.error("Unexpected exception in user callback", ex2);
+							}
+						}
+					} else if (m_request.getFailedHandler() != null) {
 						try {
-							m_request.getFailedHandler().requestFailed(new HttpRequestFailureException("A protocol failure or I/O exception occurred during the processing of the request", httpException));
+							m_request.getFailedHandler().requestFailed(new HttpRequestFailureException("A protocol failure or I/O exception occurred during the processing of the request", m_failure));
 						} catch(Exception ex2) {
 							LOG.error("Unexpected exception in user callback", ex2);
 						}
 					} else {
-						LOG.info("[{}] A protocol failure or I/O exception occurred during the processing of the request", m_requestId, httpException);
+						LOG.info("[{}] A protocol failure or I/O exception occurred during the processing of the request", m_requestId, m_failure);
 					}
 					m_requestFailures.increment();
+					m_hostMetrics.requestFailed();
 
 				} else {
-					if (m_responseBuf != null) {
-						m_responseDataSize.add(m_responseBuf.readableBytes());
-					} else if (m_responseCBuf != null) {
-						m_responseDataSize.add(m_responseCBuf.readableBytes());
-					}
+					m_responseDataSize.add(m_response.content().readableBytes());
 					m_successRequests.record(m_requestTimer);
+					m_hostMetrics.requestSucceeded(m_requestTimer);
 					if (m_request.getSuccessHandler() != null) {
 						try {
 							m_request.getSuccessHandler().requestComplete(this);
@@ -409,55 +791,114 @@ public class HttpClient {
 			m_outstandingRequests.decrement();
 			m_requestsDone.incrementAndGet();
 			m_worker.requestMoreWork();
-			if (m_responseBuf != null) {
-				m_responseBuf.release();
-				m_responseBuf = null;
-			} else if (m_responseCBuf != null) {
-				m_responseCBuf.release();
-				m_responseCBuf = null;
+			if (m_response != null) {
+				m_response.release();
+				m_response = null;
+			}
+			if (m_body != null) {
+				m_body.release();
+				m_body = null;
 			}
 			m_requestTimer.close();
 			m_request.recycle();
 		}
 
 		@Override
-		public State onBodyPartReceived(HttpResponseBodyPart content) {
-			if (m_responseBuf != null) {
-				m_responseCBuf = Application.allocateCompositeBuffer();
-				m_responseCBuf.addComponent(true, m_responseBuf);
-				m_responseBuf = null;
-			}
-			if (m_responseCBuf != null) {
-				m_responseCBuf.addComponent(true, ((LazyResponseBodyPart) content).getBuf().retain());
-			} else {
-				m_responseBuf = ((LazyResponseBodyPart) content).getBuf().retain();
-			}
-			return State.CONTINUE;
+		public int getHttpStatusCode() {
+			return m_response.status().code();
 		}
 
 		@Override
-		public void onThrowable(Throwable t) {
-			// TODO Need to do what with this, is it returned in the m_responseFuture?
-			// Yes it is.
+		public String getHttpStatusText() {
+			return m_response.status().reasonPhrase();
 		}
 
 		@Override
-		public int getHttpStatusCode() {
-			return m_response.getStatusCode();
+		public ByteBuf getResponseData() {
+			final ByteBuf content = m_response.content();
+			return content.isReadable() ? content : null;
 		}
+	}
 
-		@Override
-		public String getHttpStatusText() {
-			return m_response.getStatusText();
+	private static String withQueryParams(String url, List<HttpClientRequest.NameValue> queryParams) {
+		if (queryParams == null || queryParams.isEmpty()) {
+			return url;
 		}
+		final int fragmentStart = url.indexOf('#');
+		final StringBuilder sb = new StringBuilder((fragmentStart == -1) ? url : url.substring(0, fragmentStart));
+		char separator = (sb.indexOf("?") == -1) ? '?' : '&';
+		for(HttpClientRequest.NameValue nv : queryParams) {
+			sb.append(separator).append(urlEncode(nv.name)).append('=').append(urlEncode(nv.value));
+			separator = '&';
+		}
+		return sb.toString();
+	}
 
-		@Override
-		public ByteBuf getResponseData() {
-			if (m_responseBuf != null) {
-				return m_responseBuf;
+	private static String formBody(List<HttpClientRequest.NameValue> formParams) {
+		final StringBuilder sb = new StringBuilder();
+		for(HttpClientRequest.NameValue nv : formParams) {
+			if (sb.length() != 0) {
+				sb.append('&');
 			}
-			return m_responseCBuf;
+			sb.append(urlEncode(nv.name)).append('=').append(urlEncode(nv.value));
+		}
+		return sb.toString();
+	}
+
+	private static String urlEncode(String value) {
+		try {
+			return URLEncoder.encode((value != null) ? value : "", "UTF-8");
+		} catch(UnsupportedEncodingException ex) {
+			throw new IllegalStateException(ex);
 		}
 	}
 
+	private static void checkURI(URI uri) throws URISyntaxException {
+		final String scheme = uri.getScheme();
+		if (scheme == null || !(scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https"))) {
+			throw new URISyntaxException(uri.toString(), "Only http and https URLs are supported");
+		}
+		if (uri.getHost() == null) {
+			throw new URISyntaxException(uri.toString(), "The URL has no host");
+		}
+	}
+
+	private static String connectHost(URI uri) {
+		final String host = uri.getHost();
+		// IPv6 addresses are in brackets
+		if (host.startsWith("[") && host.endsWith("]")) {
+			return host.substring(1, host.length() - 1);
+		}
+		return host;
+	}
+
+	private static int port(URI uri) {
+		if (uri.getPort() != -1) {
+			return uri.getPort();
+		}
+		return uri.getScheme().equalsIgnoreCase("https") ? 443 : 80;
+	}
+
+	/*
+		Only the delay-seconds form of Retry-After is used
+	 */
+	private static long retryAfterMS(HttpResponse response) {
+		final String retryAfter = response.headers().get(HttpHeaderNames.RETRY_AFTER);
+		if (retryAfter == null) {
+			return 0;
+		}
+		try {
+			return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+		} catch(NumberFormatException ex) {
+			return 0;
+		}
+	}
+
+	private static boolean isRedirect(int statusCode) {
+		return statusCode == 301 || statusCode == 302 || statusCode == 303 || statusCode == 307 || statusCode == 308;
+	}
+
+	private static boolean isIdempotent(HttpMethod method) {
+		return method == HttpMethod.GET || method == HttpMethod.HEAD || method == HttpMethod.OPTIONS || method == HttpMethod.PUT || method == HttpMethod.DELETE || method == HttpMethod.TRACE;
+	}
 }
@@ -0,0 +1,945 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import com.denaliai.fw.config.Config;
+import com.denaliai.fw.metrics.CounterAndRateMetric;
+import com.denaliai.fw.metrics.CounterMetric;
+import com.denaliai.fw.metrics.DurationRateMetric;
+import com.denaliai.fw.metrics.MetricsEngine;
+import com.denaliai.fw.metrics.TotalCounterMetric;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.*;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpContentDecompressor;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http2.*;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+	Keep-alive connections for each scheme, host and port.  A request is given an idle connection when there is one,
+	a new one when the limits allow it, and otherwise waits for one to be released.  Connections are put back after
+	their response is read and are closed once they have been idle too long or are older than the TTL.  When a limit
+	is set on the requests waiting for a host's connections, requests past it are failed right away.
+
+	With HTTP/2 a connection is shared, each request gets its own stream on it until the connection is at its stream
+	limit.  HTTP/2 is negotiated with ALPN for https and spoken from the start (prior knowledge) for http when asked
+	to, a server that only picks HTTP/1.1 in ALPN gets HTTP/1.1 connections.
+ */
+final class HttpClientConnectionPool {
+	private static final AttributeKey<Connection> CONNECTION = AttributeKey.newInstance("HttpClientConnection");
+
+	private static final TotalCounterMetric m_openConnections = MetricsEngine.newTotalCounterMetric("HttpClient.open-connections");
+	private static final CounterAndRateMetric m_newConnections = MetricsEngine.newCounterAndRateMetric("HttpClient.new-connections");
+	private static final CounterAndRateMetric m_reusedConnections = MetricsEngine.newCounterAndRateMetric("HttpClient.reused-connections");
+	private static final CounterMetric m_connectFailures = MetricsEngine.newCounterMetric("HttpClient.connect-failures");
+	private static final TotalCounterMetric m_openHttp2Streams = MetricsEngine.newTotalCounterMetric("HttpClient.open-http2-streams");
+	private static final CounterMetric m_http2Fallbacks = MetricsEngine.newCounterMetric("HttpClient.http2-fallbacks");
+	private static final CounterMetric m_rejectedRequests = MetricsEngine.newCounterMetric("HttpClient.rejected-requests");
+	// Handed out by lease() when a new connection was reserved
+	private static final Connection NEW_CONNECTION = new Connection(null, null, null);
+
+	private final Logger LOG;
+	private final Bootstrap m_bootstrap;
+	private final SslContext m_sslContext;
+	private final boolean m_verifyHostname;
+	private final int m_maxConnections;
+	private final int m_maxConnectionsPerHost;
+	private final long m_idleTimeoutNS;
+	private final long m_connectionTTLNS;
+	private final int m_maxResponseSize;
+	private final long m_sweepIntervalMS;
+	private final boolean m_http2;
+	private final boolean m_http2PriorKnowledge;
+	private final int m_http2MaxConcurrentStreams;
+	private final int m_maxQueuedRequestsPerHost;
+	private final ConcurrentHashMap<String, HostPool> m_hosts = new ConcurrentHashMap<>();
+	// Open and connecting
+	private final AtomicInteger m_totalConnections = new AtomicInteger();
+	private final ChannelGroup m_channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+	private final ReadTracker m_readTracker = new ReadTracker();
+	private final ResponseHandler m_responseHandler = new ResponseHandler();
+	private final Http2StreamInitializer m_http2StreamInitializer = new Http2StreamInitializer();
+	private final Http2ConnectionHandler m_http2ConnectionHandler = new Http2ConnectionHandler();
+	private ScheduledFuture<?> m_sweeper;
+	private volatile boolean m_closed;
+
+	interface IConnectionListener {
+		void connected(Connection conn);
+		void connectFailed(Throwable cause);
+	}
+
+	/*
+		The request using a connection, it is called on the connection's event loop
+	 */
+	interface IExchange {
+		void onResponse(Connection conn, FullHttpResponse response);
+		void onFailure(Connection conn, Throwable cause);
+	}
+
+	/**
+	 * A limit of 0 or less means there isn't one, the same for the TTL and the queued requests.  The SSL context has
+	 * to offer h2 in ALPN for https connections to use HTTP/2.
+	 */
+	HttpClientConnectionPool(Logger parentLogger, SslContext sslContext, boolean verifyHostname, int maxConnections, int maxConnectionsPerHost, int connectTimeoutMS, long idleTimeoutMS, long connectionTTLMS, int maxResponseSize, long sweepIntervalMS,
+		boolean http2, boolean http2PriorKnowledge, int http2MaxConcurrentStreams, int maxQueuedRequestsPerHost) {
+		LOG = parentLogger;
+		m_sslContext = sslContext;
+		m_verifyHostname = verifyHostname;
+		m_maxConnections = maxConnections;
+		m_maxConnectionsPerHost = maxConnectionsPerHost;
+		m_idleTimeoutNS = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMS);
+		m_connectionTTLNS = TimeUnit.MILLISECONDS.toNanos(connectionTTLMS);
+		m_maxResponseSize = maxResponseSize;
+		m_sweepIntervalMS = sweepIntervalMS;
+		m_http2 = http2;
+		m_http2PriorKnowledge = http2 && http2PriorKnowledge;
+		m_http2MaxConcurrentStreams = http2MaxConcurrentStreams;
+		m_maxQueuedRequestsPerHost = maxQueuedRequestsPerHost;
+		m_bootstrap = new Bootstrap()
+			.group(Application.getIOPool())
+			.channel(Application.socketChannelClass())
+			.option(ChannelOption.ALLOCATOR, Application.allocator())
+			.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMS)
+			.option(ChannelOption.TCP_NODELAY, true)
+			.option(ChannelOption.SO_KEEPALIVE, true);
+	}
+
+	synchronized void start() {
+		if (m_sweeper == null) {
+			m_sweeper = Application.getTaskPool().scheduleWithFixedDelay(this::sweep, m_sweepIntervalMS, m_sweepIntervalMS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Requests still waiting for a connection are failed, the connections in use are closed along with the idle ones
+	 */
+	Future<Void> close() {
+		m_closed = true;
+		synchronized(this) {
+			if (m_sweeper != null) {
+				m_sweeper.cancel(false);
+				m_sweeper = null;
+			}
+		}
+		for(HostPool pool : m_hosts.values()) {
+			final List<IConnectionListener> waiters;
+			synchronized(pool) {
+				waiters = new ArrayList<>(pool.m_waiters);
+				pool.m_waiters.clear();
+				pool.updateGauges();
+			}
+			for(IConnectionListener waiter : waiters) {
+				waiter.connectFailed(new HttpClientShutdownException());
+			}
+		}
+		return m_channels.close();
+	}
+
+	static String key(boolean ssl, String host, int port) {
+		return (ssl ? "https://" : "http://") + host + ":" + port;
+	}
+
+	/**
+	 * The metrics for the requests to a host, the same host and port over http and https share them
+	 */
+	HostMetrics hostMetrics(boolean ssl, String host, int port) {
+		return HostMetrics.forHost(host, port);
+	}
+
+	private HostPool hostPool(boolean ssl, String host, int port) {
+		final String key = key(ssl, host, port);
+		final HostPool pool = m_hosts.get(key);
+		if (pool != null) {
+			return pool;
+		}
+		return m_hosts.computeIfAbsent(key, (k) -> new HostPool(ssl, host, port, m_http2PriorKnowledge && !ssl));
+	}
+
+	void acquire(boolean ssl, String host, int port, IConnectionListener listener) {
+		if (m_closed) {
+			listener.connectFailed(new HttpClientShutdownException());
+			return;
+		}
+		final List<Connection> expired = new ArrayList<>();
+		HostPool pool;
+		Connection lease;
+		boolean rejected = false;
+		while(true) {
+			pool = hostPool(ssl, host, port);
+			synchronized(pool) {
+				if (!pool.m_removed) {
+					break;
+				}
+			}
+			// The sweeper dropped it in the meantime, the next look up makes a new one
+		}
+		synchronized(pool) {
+			pool.m_lastUsedNS = System.nanoTime();
+			lease = lease(pool, expired);
+			if (lease == null) {
+				if (m_maxQueuedRequestsPerHost > 0 && pool.m_waiters.size() >= m_maxQueuedRequestsPerHost) {
+					rejected = true;
+				} else {
+					pool.m_waiters.add(new QueuedListener(pool, listener));
+				}
+			}
+			pool.updateGauges();
+		}
+		closeAll(expired);
+		if (rejected) {
+			m_rejectedRequests.increment();
+			pool.m_metrics.m_rejectedRequests.increment();
+			listener.connectFailed(new HttpClientQueueFullException("There are already " + m_maxQueuedRequestsPerHost + " requests waiting for a connection to " + pool.m_key));
+		} else if (lease != null) {
+			dispatch(pool, lease, listener);
+		} else if (m_maxConnections > 0) {
+			// The other hosts might be holding all the connections without using them
+			evictIdle(pool);
+		}
+	}
+
+	/*
+		Called with the pool locked.  Returns an idle connection, an HTTP/2 connection with a stream reserved on it,
+		NEW_CONNECTION when a new one was reserved, or null when the request has to wait.
+	 */
+	private Connection lease(HostPool pool, List<Connection> expired) {
+		final long nowNS = System.nanoTime();
+		for(Connection conn : pool.m_http2Connections) {
+			if (conn.m_activeStreams < conn.m_maxStreams && !conn.m_goingAway && !expired(conn, nowNS)) {
+				conn.m_activeStreams++;
+				return conn;
+			}
+		}
+		final Connection idle = pollIdle(pool, expired);
+		if (idle != null) {
+			return idle;
+		}
+		if (pool.m_http2 && pool.m_connecting > 0) {
+			// The HTTP/2 connection on its way will have room for this request
+			return null;
+		}
+		return reserve(pool) ? NEW_CONNECTION : null;
+	}
+
+	private void dispatch(HostPool pool, Connection lease, IConnectionListener listener) {
+		if (lease == NEW_CONNECTION) {
+			connect(pool, listener);
+		} else if (lease.m_http2) {
+			openStream(lease, listener);
+		} else {
+			reuse(lease, listener);
+		}
+	}
+
+	/**
+	 * Called once the response has been read, the connection is closed instead of being kept when it can't be used again
+	 */
+	void release(Connection conn, boolean reusable) {
+		conn.m_exchange = null;
+		if (conn.m_parent != null) {
+			// The stream is over, the slot on its connection is given back once the stream channel has closed
+			conn.m_channel.close();
+			return;
+		}
+		if (!reusable || m_closed || !conn.m_channel.isActive() || expired(conn, System.nanoTime())) {
+			conn.m_channel.close();
+			return;
+		}
+		final HostPool pool = conn.m_pool;
+		final IConnectionListener waiter;
+		synchronized(pool) {
+			waiter = pool.m_waiters.poll();
+			if (waiter == null) {
+				conn.m_idleSinceNS = System.nanoTime();
+				pool.m_idle.addLast(conn);
+			}
+			pool.updateGauges();
+		}
+		if (waiter != null) {
+			reuse(conn, waiter);
+		}
+	}
+
+	private void reuse(Connection conn, IConnectionListener listener) {
+		conn.m_reused = true;
+		m_reusedConnections.increment();
+		listener.connected(conn);
+	}
+
+	/*
+		Called with the pool locked, the most recently used connection is handed out so the others can go idle
+	 */
+	private Connection pollIdle(HostPool pool, List<Connection> expired) {
+		final long nowNS = System.nanoTime();
+		Connection conn;
+		while((conn = pool.m_idle.pollLast()) != null) {
+			if (conn.m_channel.isActive() && !expired(conn, nowNS)) {
+				return conn;
+			}
+			expired.add(conn);
+		}
+		return null;
+	}
+
+	/*
+		Called with the pool locked
+	 */
+	private boolean reserve(HostPool pool) {
+		if (m_maxConnectionsPerHost > 0 && pool.m_connections >= m_maxConnectionsPerHost) {
+			return false;
+		}
+		while(true) {
+			final int total = m_totalConnections.get();
+			if (m_maxConnections > 0 && total >= m_maxConnections) {
+				return false;
+			}
+			if (m_totalConnections.compareAndSet(total, total + 1)) {
+				break;
+			}
+		}
+		pool.m_connections++;
+		pool.m_connecting++;
+		return true;
+	}
+
+	private boolean expired(Connection conn, long nowNS) {
+		return m_connectionTTLNS > 0 && nowNS - conn.m_createdAtNS >= m_connectionTTLNS;
+	}
+
+	private void evictIdle(HostPool except) {
+		for(HostPool pool : m_hosts.values()) {
+			if (pool == except) {
+				continue;
+			}
+			final Connection idle;
+			synchronized(pool) {
+				idle = pool.m_idle.pollFirst();
+				pool.updateGauges();
+			}
+			if (idle != null) {
+				// Its slot goes to the waiting requests once it is closed
+				idle.m_channel.close();
+				return;
+			}
+		}
+	}
+
+	private void connect(HostPool pool, IConnectionListener listener) {
+		final MetricsEngine.IMetricTimer connectTimer = MetricsEngine.startTimer();
+		final ChannelFuture connectFuture;
+		try {
+			connectFuture = m_bootstrap.clone().handler(new Initializer(pool)).connect(pool.m_host, pool.m_port);
+		} catch(Exception ex) {
+			connectTimer.close();
+			connectFailed(pool, listener, ex);
+			return;
+		}
+		connectFuture.addListener((ChannelFutureListener) (f) -> {
+			if (!f.isSuccess()) {
+				connectTimer.close();
+				connectFailed(pool, listener, f.cause());
+				return;
+			}
+			pool.m_metrics.m_connectTime.record(connectTimer);
+			connectTimer.close();
+			final Channel channel = f.channel();
+			final Connection conn = new Connection(pool, channel, null);
+			channel.attr(CONNECTION).set(conn);
+			m_channels.add(channel);
+			m_openConnections.increment();
+			m_newConnections.increment();
+			channel.closeFuture().addListener((cf) -> onClosed(conn));
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("[{}] Connected to {}", channel.localAddress(), pool.m_key);
+			}
+			if (!pool.m_ssl) {
+				connectionReady(conn, listener, m_http2PriorKnowledge);
+				return;
+			}
+			final SslHandler sslHandler = channel.pipeline().get(SslHandler.class);
+			sslHandler.handshakeFuture().addListener((hf) -> {
+				if (!hf.isSuccess()) {
+					connectionReady(conn, null, false);
+					listener.connectFailed(hf.cause());
+					channel.close();
+					return;
+				}
+				final boolean http2 = ApplicationProtocolNames.HTTP_2.equals(sslHandler.applicationProtocol());
+				if (m_http2 && !http2) {
+					m_http2Fallbacks.increment();
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("[{}] {} didn't pick HTTP/2, using HTTP/1.1", channel.localAddress(), pool.m_key);
+					}
+				}
+				connectionReady(conn, listener, http2);
+			});
+		});
+	}
+
+	/*
+		The rest of the pipeline goes in once the protocol is known.  The listener is null when the connection failed.
+	 */
+	private void connectionReady(Connection conn, IConnectionListener listener, boolean http2) {
+		final HostPool pool = conn.m_pool;
+		if (listener == null) {
+			synchronized(pool) {
+				pool.m_connecting--;
+				pool.updateGauges();
+			}
+			return;
+		}
+		final ChannelPipeline pipeline = conn.m_channel.pipeline();
+		if (!http2) {
+			synchronized(pool) {
+				pool.m_connecting--;
+				pool.updateGauges();
+			}
+			addHttp1Handlers(pipeline);
+			listener.connected(conn);
+			return;
+		}
+		conn.m_http2 = true;
+		conn.m_maxStreams = m_http2MaxConcurrentStreams;
+		pipeline.addLast("http2Codec", Http2FrameCodecBuilder.forClient()
+			.initialSettings(Http2Settings.defaultSettings().pushEnabled(false).maxConcurrentStreams(m_http2MaxConcurrentStreams))
+			.build());
+		pipeline.addLast("http2Multiplexer", new Http2MultiplexHandler(new PushedStreamRejecter()));
+		pipeline.addLast("http2Handler", m_http2ConnectionHandler);
+		synchronized(pool) {
+			pool.m_connecting--;
+			pool.m_http2 = true;
+			pool.m_http2Connections.add(conn);
+			// The first stream is for the request that opened the connection
+			conn.m_activeStreams++;
+			pool.updateGauges();
+		}
+		openStream(conn, listener);
+		// The requests that waited on this connection
+		serviceWaiters(pool);
+	}
+
+	private void openStream(Connection conn, IConnectionListener listener) {
+		new Http2StreamChannelBootstrap(conn.m_channel).handler(m_http2StreamInitializer).open().addListener((f) -> {
+			if (!f.isSuccess()) {
+				streamClosed(conn);
+				listener.connectFailed(f.cause());
+				return;
+			}
+			final Http2StreamChannel streamChannel = (Http2StreamChannel)f.getNow();
+			final Connection stream = new Connection(conn.m_pool, streamChannel, conn);
+			// A stream on a connection that served others may be refused if the server is going away
+			stream.m_reused = (conn.m_streamsOpened++ > 0);
+			streamChannel.attr(CONNECTION).set(stream);
+			m_openHttp2Streams.increment();
+			streamChannel.closeFuture().addListener((cf) -> {
+				m_openHttp2Streams.decrement();
+				final IExchange exchange = stream.m_exchange;
+				if (exchange != null) {
+					exchange.onFailure(stream, new ClosedChannelException());
+				}
+				streamClosed(conn);
+			});
+			if (stream.m_reused) {
+				m_reusedConnections.increment();
+			}
+			listener.connected(stream);
+		});
+	}
+
+	private void streamClosed(Connection conn) {
+		final HostPool pool = conn.m_pool;
+		synchronized(pool) {
+			if (--conn.m_activeStreams == 0) {
+				conn.m_idleSinceNS = System.nanoTime();
+			}
+		}
+		serviceWaiters(pool);
+	}
+
+	private void connectFailed(HostPool pool, IConnectionListener listener, Throwable cause) {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Connecting to {} failed", pool.m_key, cause);
+		}
+		synchronized(pool) {
+			pool.m_connections--;
+			pool.m_connecting--;
+			pool.updateGauges();
+		}
+		m_totalConnections.decrementAndGet();
+		m_connectFailures.increment();
+		listener.connectFailed(cause);
+		serviceWaiters();
+	}
+
+	private void onClosed(Connection conn) {
+		final HostPool pool = conn.m_pool;
+		synchronized(pool) {
+			pool.m_idle.remove(conn);
+			pool.m_http2Connections.remove(conn);
+			pool.m_connections--;
+			pool.updateGauges();
+		}
+		m_totalConnections.decrementAndGet();
+		m_openConnections.decrement();
+		final IExchange exchange = conn.m_exchange;
+		if (exchange != null) {
+			exchange.onFailure(conn, new ClosedChannelException());
+		}
+		serviceWaiters();
+	}
+
+	/*
+		A connection closed or failed to open, the requests waiting on any host might be able to have its slot
+	 */
+	private void serviceWaiters() {
+		for(HostPool pool : m_hosts.values()) {
+			serviceWaiters(pool);
+		}
+	}
+
+	private void serviceWaiters(HostPool pool) {
+		while(true) {
+			final List<Connection> expired = new ArrayList<>();
+			final IConnectionListener waiter;
+			final Connection lease;
+			synchronized(pool) {
+				if (pool.m_waiters.isEmpty()) {
+					return;
+				}
+				lease = lease(pool, expired);
+				waiter = (lease != null) ? pool.m_waiters.poll() : null;
+				pool.updateGauges();
+			}
+			closeAll(expired);
+			if (waiter == null) {
+				return;
+			}
+			dispatch(pool, lease, waiter);
+		}
+	}
+
+	private void sweep() {
+		final long nowNS = System.nanoTime();
+		final List<Connection> expired = new ArrayList<>();
+		for(HostPool pool : m_hosts.values()) {
+			synchronized(pool) {
+				if (pool.m_connections == 0 && pool.m_waiters.isEmpty() && nowNS - pool.m_lastUsedNS >= m_idleTimeoutNS) {
+					// Nothing is left of it and it hasn't been asked for in as long as a connection is kept idle
+					pool.m_removed = true;
+					m_hosts.remove(pool.m_key, pool);
+					continue;
+				}
+				final Iterator<Connection> it = pool.m_idle.iterator();
+				while(it.hasNext()) {
+					final Connection conn = it.next();
+					if ((m_idleTimeoutNS > 0 && nowNS - conn.m_idleSinceNS >= m_idleTimeoutNS) || expired(conn, nowNS)) {
+						it.remove();
+						expired.add(conn);
+					}
+				}
+				for(Connection conn : pool.m_http2Connections) {
+					if (conn.m_activeStreams == 0 && ((m_idleTimeoutNS > 0 && nowNS - conn.m_idleSinceNS >= m_idleTimeoutNS) || expired(conn, nowNS))) {
+						// Taken out of the list when it has closed
+						conn.m_goingAway = true;
+						expired.add(conn);
+					}
+				}
+				pool.updateGauges();
+			}
+		}
+		if (!expired.isEmpty() && LOG.isDebugEnabled()) {
+			LOG.debug("Closing {} idle connections", expired.size());
+		}
+		closeAll(expired);
+	}
+
+	private static void closeAll(List<Connection> conns) {
+		for(Connection conn : conns) {
+			conn.m_channel.close();
+		}
+	}
+
+	private SslHandler sslHandler(Channel channel, HostPool pool) {
+		final SslHandler handler = m_sslContext.newHandler(channel.alloc(), pool.m_host, pool.m_port);
+		if (m_verifyHostname) {
+			final SSLEngine engine = handler.engine();
+			final SSLParameters params = engine.getSSLParameters();
+			params.setEndpointIdentificationAlgorithm("HTTPS");
+			engine.setSSLParameters(params);
+		}
+		return handler;
+	}
+
+	private final class Initializer extends ChannelInitializer<Channel> {
+		private final HostPool m_pool;
+
+		private Initializer(HostPool pool) {
+			m_pool = pool;
+		}
+
+		@Override
+		protected void initChannel(Channel channel) {
+			final ChannelPipeline pipeline = channel.pipeline();
+			pipeline.addLast("readTracker", m_readTracker);
+			if (m_pool.m_ssl) {
+				pipeline.addLast("ssl", sslHandler(channel, m_pool));
+			}
+		}
+	}
+
+	private void addHttp1Handlers(ChannelPipeline pipeline) {
+		pipeline.addLast("codec", new HttpClientCodec());
+		pipeline.addLast("decompressor", new HttpContentDecompressor());
+		pipeline.addLast("aggregator", new HttpObjectAggregator(m_maxResponseSize));
+		pipeline.addLast("handler", m_responseHandler);
+	}
+
+	private final class Http2StreamInitializer extends ChannelInitializer<Http2StreamChannel> {
+		@Override
+		protected void initChannel(Http2StreamChannel streamChannel) {
+			final ChannelPipeline pipeline = streamChannel.pipeline();
+			pipeline.addLast("readTracker", m_readTracker);
+			pipeline.addLast("codec", new Http2StreamFrameToHttpObjectCodec(false));
+			pipeline.addLast("decompressor", new HttpContentDecompressor());
+			pipeline.addLast("aggregator", new HttpObjectAggregator(m_maxResponseSize));
+			pipeline.addLast("handler", m_responseHandler);
+		}
+	}
+
+	/*
+		Push is turned off in our SETTINGS, a server that pushes anyway has its streams closed
+	 */
+	@ChannelHandler.Sharable
+	private static final class PushedStreamRejecter extends ChannelInboundHandlerAdapter {
+		@Override
+		public void channelRegistered(ChannelHandlerContext ctx) {
+			ctx.close();
+		}
+	}
+
+	/*
+		Last in an HTTP/2 connection's pipeline, it keeps the stream limit in line with the server's and stops new
+		streams from being opened once the server sends GOAWAY
+	 */
+	@ChannelHandler.Sharable
+	private final class Http2ConnectionHandler extends ChannelInboundHandlerAdapter {
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) {
+			final Connection conn = ctx.channel().attr(CONNECTION).get();
+			try {
+				if (conn == null) {
+					return;
+				}
+				if (msg instanceof Http2SettingsFrame) {
+					final Long serverMaxStreams = ((Http2SettingsFrame)msg).settings().maxConcurrentStreams();
+					if (serverMaxStreams != null) {
+						synchronized(conn.m_pool) {
+							conn.m_maxStreams = (int)Math.min(m_http2MaxConcurrentStreams, serverMaxStreams);
+						}
+					}
+				} else if (msg instanceof Http2GoAwayFrame) {
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("[{}] GOAWAY from {}", ctx.channel().localAddress(), conn.m_pool.m_key);
+					}
+					synchronized(conn.m_pool) {
+						conn.m_goingAway = true;
+					}
+				}
+			} finally {
+				ReferenceCountUtil.release(msg);
+			}
+			// The streams it allows might let waiting requests go
+			if (conn != null && msg instanceof Http2SettingsFrame) {
+				serviceWaiters(conn.m_pool);
+			}
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("[{}] HTTP/2 connection failed", ctx.channel().localAddress(), cause);
+			}
+			ctx.close();
+		}
+	}
+
+	/*
+		First in the pipeline so any bytes from the server count for the read timeout
+	 */
+	@ChannelHandler.Sharable
+	private static final class ReadTracker extends ChannelInboundHandlerAdapter {
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+			final Connection conn = ctx.channel().attr(CONNECTION).get();
+			if (conn != null) {
+				conn.m_lastReadNS = System.nanoTime();
+			}
+			super.channelRead(ctx, msg);
+		}
+	}
+
+	@ChannelHandler.Sharable
+	private final class ResponseHandler extends ChannelInboundHandlerAdapter {
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) {
+			final Connection conn = ctx.channel().attr(CONNECTION).get();
+			final IExchange exchange = (conn != null) ? conn.m_exchange : null;
+			if (exchange == null || !(msg instanceof FullHttpResponse)) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("[{}] Unexpected {} with no request outstanding, closing connection", ctx.channel().remoteAddress(), msg.getClass().getSimpleName());
+				}
+				ReferenceCountUtil.release(msg);
+				ctx.close();
+				return;
+			}
+			exchange.onResponse(conn, (FullHttpResponse)msg);
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+			final Connection conn = ctx.channel().attr(CONNECTION).get();
+			final IExchange exchange = (conn != null) ? conn.m_exchange : null;
+			if (exchange != null) {
+				exchange.onFailure(conn, cause);
+			} else if (LOG.isDebugEnabled()) {
+				LOG.debug("[{}] Exception on idle connection", ctx.channel().remoteAddress(), cause);
+			}
+			ctx.close();
+		}
+	}
+
+	private static final class HostPool {
+		private final String m_key;
+		private final boolean m_ssl;
+		private final String m_host;
+		private final int m_port;
+		// The rest is guarded by the pool
+		private final ArrayDeque<Connection> m_idle = new ArrayDeque<>();
+		private final ArrayDeque<IConnectionListener> m_waiters = new ArrayDeque<>();
+		private final List<Connection> m_http2Connections = new ArrayList<>();
+		// Open and connecting
+		private int m_connections;
+		private int m_connecting;
+		// Set once the host is known to speak HTTP/2, new requests wait for a connection on its way instead of opening more
+		private boolean m_http2;
+		private long m_lastUsedNS = System.nanoTime();
+		// Set when the sweeper has taken it out of the hosts
+		private boolean m_removed;
+		private final HostMetrics m_metrics;
+		// What the gauges were last moved to
+		private int m_gaugeActive;
+		private int m_gaugeIdle;
+		private int m_gaugePending;
+		private int m_gaugeQueued;
+
+		private HostPool(boolean ssl, String host, int port, boolean http2) {
+			m_key = key(ssl, host, port);
+			m_ssl = ssl;
+			m_host = host;
+			m_port = port;
+			m_http2 = http2;
+			m_metrics = HostMetrics.forHost(host, port);
+		}
+
+		/*
+			Called with the pool locked after its counts have changed
+		 */
+		private void updateGauges() {
+			final int idle = m_idle.size();
+			final int active = m_connections - m_connecting - idle;
+			final int queued = m_waiters.size();
+			m_metrics.m_activeConnections.add(active - m_gaugeActive);
+			m_metrics.m_idleConnections.add(idle - m_gaugeIdle);
+			m_metrics.m_pendingConnections.add(m_connecting - m_gaugePending);
+			m_metrics.m_queuedRequests.add(queued - m_gaugeQueued);
+			m_gaugeActive = active;
+			m_gaugeIdle = idle;
+			m_gaugePending = m_connecting;
+			m_gaugeQueued = queued;
+		}
+	}
+
+	/*
+		The metrics of one host are named HttpClient.host.<host>:<port>.<metric>.  The metrics engine keeps a metric for
+		good, so past http.HttpClient.maxHostMetrics hosts the rest are counted together as HttpClient.host.other.
+	 */
+	static final class HostMetrics {
+		private static final int MAX_HOST_METRICS = Config.getFWInt("http.HttpClient.maxHostMetrics", 256);
+		private static final ConcurrentHashMap<String, HostMetrics> HOSTS = new ConcurrentHashMap<>();
+		private static final int RESPONSE_TIME_SAMPLES = 256;
+		// The percentile is worked out again after this many more responses
+		private static final int RESPONSE_TIME_RECALC = 32;
+
+		// Connections handed out to requests, an HTTP/2 connection is active while it is open
+		private final TotalCounterMetric m_activeConnections;
+		private final TotalCounterMetric m_idleConnections;
+		// Connections being opened
+		private final TotalCounterMetric m_pendingConnections;
+		// Requests waiting for a connection
+		private final TotalCounterMetric m_queuedRequests;
+		private final DurationRateMetric m_connectTime;
+		private final DurationRateMetric m_poolWaitTime;
+		private final DurationRateMetric m_requestTime;
+		private final CounterMetric m_failedRequests;
+		private final CounterMetric m_rejectedRequests;
+		// The latest response times, guarded by this
+		private final long[] m_responseTimes = new long[RESPONSE_TIME_SAMPLES];
+		private int m_responseTimeIndex;
+		private int m_responseTimeCount;
+		private volatile long m_responseTimeP95MS = -1;
+
+		static HostMetrics forHost(String host, int port) {
+			final String prefix = "HttpClient.host." + host + ":" + port;
+			final HostMetrics metrics = HOSTS.get(prefix);
+			if (metrics != null) {
+				return metrics;
+			}
+			if (HOSTS.size() >= MAX_HOST_METRICS) {
+				return HOSTS.computeIfAbsent("HttpClient.host.other", HostMetrics::new);
+			}
+			return HOSTS.computeIfAbsent(prefix, HostMetrics::new);
+		}
+
+		private HostMetrics(String prefix) {
+			m_activeConnections = MetricsEngine.newTotalCounterMetric(prefix + ".active-connections");
+			m_idleConnections = MetricsEngine.newTotalCounterMetric(prefix + ".idle-connections");
+			m_pendingConnections = MetricsEngine.newTotalCounterMetric(prefix + ".pending-connections");
+			m_queuedRequests = MetricsEngine.newTotalCounterMetric(prefix + ".queued-requests");
+			m_connectTime = MetricsEngine.newRateMetric(prefix + ".connect-time");
+			m_poolWaitTime = MetricsEngine.newRateMetric(prefix + ".pool-wait-time");
+			m_requestTime = MetricsEngine.newRateMetric(prefix + ".successful-requests");
+			m_failedRequests = MetricsEngine.newCounterMetric(prefix + ".failed-requests");
+			m_rejectedRequests = MetricsEngine.newCounterMetric(prefix + ".rejected-requests");
+		}
+
+		void requestSucceeded(MetricsEngine.IMetricTimer requestTimer) {
+			m_requestTime.record(requestTimer);
+		}
+
+		void requestFailed() {
+			m_failedRequests.increment();
+		}
+
+		synchronized void recordResponseTime(long responseMS) {
+			m_responseTimes[m_responseTimeIndex] = responseMS;
+			m_responseTimeIndex = (m_responseTimeIndex + 1) % RESPONSE_TIME_SAMPLES;
+			if (m_responseTimeCount < RESPONSE_TIME_SAMPLES) {
+				m_responseTimeCount++;
+			}
+			if (m_responseTimeIndex % RESPONSE_TIME_RECALC == 0) {
+				final long[] sorted = Arrays.copyOf(m_responseTimes, m_responseTimeCount);
+				Arrays.sort(sorted);
+				m_responseTimeP95MS = sorted[(int)Math.ceil(sorted.length * 0.95) - 1];
+			}
+		}
+
+		/**
+		 * The 95th percentile of the latest response times, -1 until enough responses have been seen
+		 */
+		long responseTimeP95MS() {
+			return m_responseTimeP95MS;
+		}
+	}
+
+	/*
+		A request waiting for a connection, it times the wait.  Whoever let the connection go may be holding a
+		lock of its own, like another request's handler, so the waiter is called back from the connection's event
+		loop, or the task pool when there isn't a connection, instead of inline.
+	 */
+	private static final class QueuedListener implements IConnectionListener {
+		private final HostPool m_pool;
+		private final IConnectionListener m_listener;
+		private final MetricsEngine.IMetricTimer m_waitTimer = MetricsEngine.startTimer();
+
+		private QueuedListener(HostPool pool, IConnectionListener listener) {
+			m_pool = pool;
+			m_listener = listener;
+		}
+
+		@Override
+		public void connected(Connection conn) {
+			m_pool.m_metrics.m_poolWaitTime.record(m_waitTimer);
+			m_waitTimer.close();
+			conn.m_channel.eventLoop().execute(() -> m_listener.connected(conn));
+		}
+
+		@Override
+		public void connectFailed(Throwable cause) {
+			m_waitTimer.close();
+			Application.getTaskPool().execute(() -> m_listener.connectFailed(cause));
+		}
+	}
+
+	/*
+		Either a connection or, with HTTP/2, a stream on one
+	 */
+	static final class Connection {
+		private final HostPool m_pool;
+		private final Channel m_channel;
+		// Set for a stream, it is the connection the stream is on
+		private final Connection m_parent;
+		private final long m_createdAtNS = System.nanoTime();
+		private long m_idleSinceNS;
+		private volatile long m_lastReadNS;
+		private volatile IExchange m_exchange;
+		private boolean m_reused;
+		// The rest is for HTTP/2 connections, guarded by the pool
+		private boolean m_http2;
+		private int m_maxStreams;
+		private int m_activeStreams;
+		private int m_streamsOpened;
+		private boolean m_goingAway;
+
+		private Connection(HostPool pool, Channel channel, Connection parent) {
+			m_pool = pool;
+			m_channel = channel;
+			m_parent = parent;
+		}
+
+		Channel channel() {
+			return m_channel;
+		}
+
+		/**
+		 * True when the connection was used by an earlier request, the server may have closed it while it was idle
+		 */
+		boolean reused() {
+			return m_reused;
+		}
+
+		long lastReadNS() {
+			return m_lastReadNS;
+		}
+
+		/**
+		 * The exchange gets the response and is told if the connection fails.  Also restarts the read timeout.
+		 */
+		void setExchange(IExchange exchange) {
+			m_lastReadNS = System.nanoTime();
+			m_exchange = exchange;
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package com.denaliai.fw.http;
+
+/**
+ * Sends a second copy of a request when no response has come back after a delay, the first response to come
+ * back is used and the other copy is cancelled.  Only idempotent methods are hedged, and each hedge draws from the
+ * client's retry budget the same as a retry.
+ *
+ * The delay is either fixed or follows the 95th percentile response time seen for the host, kept between a
+ * minimum and a maximum.  The maximum is used until enough responses have been seen.
+ */
+public final class HttpClientHedgePolicy {
+	private final long m_minDelayMS;
+	private final long m_maxDelayMS;
+	private final boolean m_adaptive;
+
+	private HttpClientHedgePolicy(long minDelayMS, long maxDelayMS, boolean adaptive) {
+		m_minDelayMS = minDelayMS;
+		m_maxDelayMS = maxDelayMS;
+		m_adaptive = adaptive;
+	}
+
+	public static HttpClientHedgePolicy fixedDelay(long delayMS) {
+		return new HttpClientHedgePolicy(delayMS, delayMS, false);
+	}
+
+	public static HttpClientHedgePolicy adaptiveDelay(long minDelayMS, long maxDelayMS) {
+		return new HttpClientHedgePolicy(minDelayMS, maxDelayMS, true);
+	}
+
+	/**
+	 * p95MS is the host's 95th percentile response time, -1 when it isn't known yet
+	 */
+	long delayMS(long p95MS) {
+		if (!m_adaptive || p95MS < 0) {
+			return m_maxDelayMS;
+		}
+		return Math.max(m_minDelayMS, Math.min(m_maxDelayMS, p95MS));
+	}
+}
@@ -0,0 +1,7 @@
+package com.denaliai.fw.http;
+
+public class HttpClientQueueFullException extends Exception {
+	public HttpClientQueueFullException(String message) {
+		super(message);
+	}
+}
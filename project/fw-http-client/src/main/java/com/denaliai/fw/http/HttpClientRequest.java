@@ -35,6 +35,8 @@ public class HttpClientRequest {
 	private Boolean m_followRedirect;
 	private Integer m_requestTimeout;
 	private Integer m_readTimeout;
+	private HttpClientRetryPolicy m_retryPolicy;
+	private HttpClientHedgePolicy m_hedgePolicy;
 
 	private IRequestSuccessHandler m_successHandler;
 	private IRequestFailedHandler m_failedHandler;
@@ -80,6 +82,8 @@ public class HttpClientRequest {
 		m_followRedirect = null;
 		m_requestTimeout = null;
 		m_readTimeout = null;
+		m_retryPolicy = null;
+		m_hedgePolicy = null;
 
 		m_successHandler = null;
 		m_failedHandler = null;
@@ -145,6 +149,9 @@ public class HttpClientRequest {
 	public Boolean followRedirect() {
 		return m_followRedirect;
 	}
+	public void followRedirect(boolean followRedirect) {
+		m_followRedirect = followRedirect;
+	}
 	public Integer requestTimeout() {
 		return m_requestTimeout;
 	}
@@ -157,6 +164,25 @@ public class HttpClientRequest {
 	public void readTimeout(int timeout) {
 		m_readTimeout = timeout;
 	}
+	public HttpClientRetryPolicy retryPolicy() {
+		return m_retryPolicy;
+	}
+	/**
+	 * Without a policy the request isn't retried, other than once on a new connection when a kept-alive one was
+	 * closed by the server
+	 */
+	public void retryPolicy(HttpClientRetryPolicy retryPolicy) {
+		m_retryPolicy = retryPolicy;
+	}
+	public HttpClientHedgePolicy hedgePolicy() {
+		return m_hedgePolicy;
+	}
+	/**
+	 * Ignored for methods that aren't idempotent
+	 */
+	public void hedgePolicy(HttpClientHedgePolicy hedgePolicy) {
+		m_hedgePolicy = hedgePolicy;
+	}
 
 	public void addQueryParam(String name, String value) {
 		if (m_queryParams == null) {
@@ -0,0 +1,67 @@
+package com.denaliai.fw.http;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+	Caps the retries across the whole client to a percentage of the requests made in the last few seconds, so
+	retries can't pile onto a server that is already failing.  A minimum number of retries per second is always
+	allowed so a client with little traffic can still retry.
+ */
+final class HttpClientRetryBudget {
+	private static final int WINDOW_SECONDS = 10;
+
+	private final int m_percent;
+	private final int m_minRetriesPerSecond;
+	// One slot per second of the window
+	private final long[] m_requests = new long[WINDOW_SECONDS];
+	private final long[] m_retries = new long[WINDOW_SECONDS];
+	private long m_currentSecond = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+
+	HttpClientRetryBudget(int percent, int minRetriesPerSecond) {
+		m_percent = percent;
+		m_minRetriesPerSecond = minRetriesPerSecond;
+	}
+
+	synchronized void requestStarted() {
+		advance();
+		m_requests[slot(m_currentSecond)]++;
+	}
+
+	/**
+	 * Takes a retry out of the budget, false when there isn't any left
+	 */
+	synchronized boolean tryRetry() {
+		advance();
+		long requests = 0;
+		long retries = 0;
+		for(int i=0; i<WINDOW_SECONDS; i++) {
+			requests += m_requests[i];
+			retries += m_retries[i];
+		}
+		final long allowed = Math.max((long)m_minRetriesPerSecond * WINDOW_SECONDS, requests * m_percent / 100);
+		if (retries >= allowed) {
+			return false;
+		}
+		m_retries[slot(m_currentSecond)]++;
+		return true;
+	}
+
+	private void advance() {
+		final long nowSecond = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+		final long elapsed = nowSecond - m_currentSecond;
+		if (elapsed <= 0) {
+			return;
+		}
+		// The slots for the seconds passed since the last call are reused
+		for(long s=1; s<=Math.min(elapsed, WINDOW_SECONDS); s++) {
+			final int slot = slot(m_currentSecond + s);
+			m_requests[slot] = 0;
+			m_retries[slot] = 0;
+		}
+		m_currentSecond = nowSecond;
+	}
+
+	private static int slot(long second) {
+		return (int)Math.floorMod(second, (long)WINDOW_SECONDS);
+	}
+}
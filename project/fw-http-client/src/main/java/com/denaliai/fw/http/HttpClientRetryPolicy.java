@@ -0,0 +1,107 @@
+package com.denaliai.fw.http;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How a request is retried after an I/O or protocol failure, a read timeout or one of the retryable status
+ * codes.  Retries wait an exponential backoff with full jitter, and are only made for idempotent methods unless
+ * retryNonIdempotent(true) is set or the request never made it to the server.  All retries also draw from the
+ * client's retry budget.  The request timeout covers every attempt and the waits between them.
+ *
+ * The policy is immutable and can be shared between requests.
+ */
+public final class HttpClientRetryPolicy {
+	private final int m_maxRetries;
+	private final long m_initialBackoffMS;
+	private final long m_maxBackoffMS;
+	private final double m_backoffMultiplier;
+	private final boolean m_retryNonIdempotent;
+	private final int[] m_retryStatusCodes;
+
+	private HttpClientRetryPolicy(HttpClientRetryPolicyBuilder builder) {
+		m_maxRetries = builder.m_maxRetries;
+		m_initialBackoffMS = builder.m_initialBackoffMS;
+		m_maxBackoffMS = builder.m_maxBackoffMS;
+		m_backoffMultiplier = builder.m_backoffMultiplier;
+		m_retryNonIdempotent = builder.m_retryNonIdempotent;
+		m_retryStatusCodes = builder.m_retryStatusCodes;
+	}
+
+	public static HttpClientRetryPolicyBuilder builder() {
+		return new HttpClientRetryPolicyBuilder();
+	}
+
+	public int maxRetries() {
+		return m_maxRetries;
+	}
+
+	public boolean retryNonIdempotent() {
+		return m_retryNonIdempotent;
+	}
+
+	public boolean isRetryableStatus(int statusCode) {
+		for(int code : m_retryStatusCodes) {
+			if (code == statusCode) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The wait before the given retry (starting at 1), a random time up to the exponential backoff for it
+	 */
+	public long backoffMS(int retry) {
+		final double backoff = Math.min(m_maxBackoffMS, m_initialBackoffMS * Math.pow(m_backoffMultiplier, retry - 1));
+		return (long)(ThreadLocalRandom.current().nextDouble() * backoff);
+	}
+
+	public static final class HttpClientRetryPolicyBuilder {
+		private int m_maxRetries = 2;
+		private long m_initialBackoffMS = 100;
+		private long m_maxBackoffMS = 5000;
+		private double m_backoffMultiplier = 2.0;
+		private boolean m_retryNonIdempotent;
+		private int[] m_retryStatusCodes = new int[0];
+
+		private HttpClientRetryPolicyBuilder() {
+		}
+
+		/**
+		 * Retries after the first attempt, the default is 2
+		 */
+		public HttpClientRetryPolicyBuilder maxRetries(int maxRetries) {
+			m_maxRetries = maxRetries;
+			return this;
+		}
+		/**
+		 * The first retry waits up to initialMS, each one after that up to multiplier times longer than the last
+		 * but never more than maxMS.  The defaults are 100ms, 5000ms and 2.
+		 */
+		public HttpClientRetryPolicyBuilder backoff(long initialMS, long maxMS, double multiplier) {
+			m_initialBackoffMS = initialMS;
+			m_maxBackoffMS = maxMS;
+			m_backoffMultiplier = multiplier;
+			return this;
+		}
+		/**
+		 * Also retry POST and PATCH after the request may have reached the server
+		 */
+		public HttpClientRetryPolicyBuilder retryNonIdempotent(boolean retryNonIdempotent) {
+			m_retryNonIdempotent = retryNonIdempotent;
+			return this;
+		}
+		/**
+		 * Responses with these status codes are retried, for example 502, 503 and 504.  A Retry-After in the response
+		 * makes the wait at least that long.  The last attempt's response is what the request completes with.
+		 */
+		public HttpClientRetryPolicyBuilder retryOnStatus(int... statusCodes) {
+			m_retryStatusCodes = statusCodes.clone();
+			return this;
+		}
+
+		public HttpClientRetryPolicy build() {
+			return new HttpClientRetryPolicy(this);
+		}
+	}
+}
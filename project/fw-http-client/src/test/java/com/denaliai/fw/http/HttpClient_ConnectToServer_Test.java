@@ -5,7 +5,6 @@ import com.denaliai.fw.utility.test.AbstractTestBase;
 import com.denaliai.fw.utility.test.TestUtils;
 import io.netty.buffer.ByteBufUtil;
 import io.netty.util.concurrent.Promise;
-import org.asynchttpclient.netty.util.ByteBufUtils;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
@@ -58,7 +57,7 @@ public class HttpClient_ConnectToServer_Test extends AbstractTestBase {
 				@Override
 				public void requestComplete(HttpClientResponse response) {
 					if (response.getHttpStatusCode() == 200) {
-						responsePromise.setSuccess(ByteBufUtils.byteBuf2String(StandardCharsets.UTF_8, response.getResponseData()));
+						responsePromise.setSuccess(response.getResponseData().toString(StandardCharsets.UTF_8));
 					} else {
 						responsePromise.setFailure(new RuntimeException("Status is " + response.getHttpStatusCode()));
 					}
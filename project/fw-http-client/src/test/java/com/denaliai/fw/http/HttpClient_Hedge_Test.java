@@ -0,0 +1,88 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.concurrent.Promise;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HttpClient_Hedge_Test extends TestBase {
+
+	@Test
+	public void test() throws Exception {
+		final AtomicInteger attempts = new AtomicInteger();
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				// The first copy of a /slow request is stuck on a slow backend
+				if (request.requestURI().startsWith("/slow") && attempts.incrementAndGet() == 1) {
+					Application.getTaskPool().schedule(() -> {
+						response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), "SLOW"));
+					}, 1500, TimeUnit.MILLISECONDS);
+				} else {
+					response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), "FAST"));
+				}
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(5000));
+
+		HttpClient client = new HttpClient();
+		Assertions.assertTrue(client.start().awaitUninterruptibly(5000));
+
+		HttpClientRequest req = HttpClientRequest.create("http://localhost:10000/slow");
+		req.hedgePolicy(HttpClientHedgePolicy.fixedDelay(100));
+		long startMS = System.currentTimeMillis();
+		Assertions.assertEquals("200 FAST", send(client, req));
+		Assertions.assertTrue(System.currentTimeMillis() - startMS < 1000);
+		Assertions.assertEquals(2, attempts.get());
+
+		// POST isn't hedged
+		attempts.set(0);
+		req = HttpClientRequest.create("POST", "http://localhost:10000/slow");
+		req.addBodyData("text/plain", "data");
+		req.hedgePolicy(HttpClientHedgePolicy.fixedDelay(100));
+		Assertions.assertEquals("200 SLOW", send(client, req));
+		Assertions.assertEquals(1, attempts.get());
+
+		// Enough fast responses for the host's p95 to be known, it is well under the maximum delay
+		for(int i=0; i<64; i++) {
+			Assertions.assertEquals("200 FAST", send(client, HttpClientRequest.create("http://localhost:10000/fast")));
+		}
+		attempts.set(0);
+		req = HttpClientRequest.create("http://localhost:10000/slow");
+		req.hedgePolicy(HttpClientHedgePolicy.adaptiveDelay(50, 5000));
+		startMS = System.currentTimeMillis();
+		Assertions.assertEquals("200 FAST", send(client, req));
+		Assertions.assertTrue(System.currentTimeMillis() - startMS < 1000);
+		Assertions.assertEquals(2, attempts.get());
+
+		Assertions.assertTrue(client.stop().awaitUninterruptibly(5000));
+		// Let the slow responses be thrown away
+		Thread.sleep(1500);
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(5000));
+	}
+
+	private static String send(HttpClient client, HttpClientRequest req) {
+		final Promise<String> responsePromise = Application.newPromise();
+		req.onCompletionHandler(new HttpClientRequest.IRequestCompletionHandler() {
+			@Override
+			public void requestComplete(HttpClientResponse response) {
+				final ByteBuf data = response.getResponseData();
+				responsePromise.setSuccess(response.getHttpStatusCode() + " " + ((data != null) ? data.toString(StandardCharsets.UTF_8) : ""));
+			}
+
+			@Override
+			public void requestFailed(Throwable cause) {
+				responsePromise.setSuccess("failed");
+			}
+		});
+		client.submit(req);
+		Assertions.assertTrue(responsePromise.awaitUninterruptibly(5000));
+		return responsePromise.getNow();
+	}
+}
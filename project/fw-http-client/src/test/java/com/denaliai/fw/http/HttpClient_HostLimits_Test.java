@@ -0,0 +1,106 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import com.denaliai.fw.metrics.MetricsEngine;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.concurrent.Promise;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class HttpClient_HostLimits_Test extends TestBase {
+
+	@Test
+	public void test() throws Exception {
+		final CountDownLatch firstStarted = new CountDownLatch(1);
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				firstStarted.countDown();
+				Application.getTaskPool().schedule(() -> {
+					response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), "GOOD"));
+				}, 500, TimeUnit.MILLISECONDS);
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(5000));
+
+		HttpClient client = new HttpClient();
+		client.setMaxConnectionsPerHost(1);
+		client.setMaxQueuedRequestsPerHost(2);
+		Assertions.assertTrue(client.start().awaitUninterruptibly(5000));
+
+		final List<Promise<String>> responses = new ArrayList<>();
+		responses.add(send(client));
+		Assertions.assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+		for(int i=0; i<4; i++) {
+			responses.add(send(client));
+		}
+		// The last two didn't fit in the queue and failed without waiting
+		Assertions.assertTrue(responses.get(3).awaitUninterruptibly(200));
+		Assertions.assertEquals("rejected", responses.get(3).getNow());
+		Assertions.assertTrue(responses.get(4).awaitUninterruptibly(200));
+		Assertions.assertEquals("rejected", responses.get(4).getNow());
+
+		Map<String, Long> metrics = snapshot();
+		Assertions.assertEquals(1, metrics.get("HttpClient.host.localhost:10000.active-connections.count"));
+		Assertions.assertEquals(0, metrics.get("HttpClient.host.localhost:10000.idle-connections.count"));
+		Assertions.assertEquals(2, metrics.get("HttpClient.host.localhost:10000.queued-requests.count"));
+
+		// The queued requests take turns on the one connection
+		for(int i=0; i<3; i++) {
+			Assertions.assertTrue(responses.get(i).awaitUninterruptibly(5000));
+			Assertions.assertEquals("200 GOOD", responses.get(i).getNow());
+		}
+
+		metrics = snapshot();
+		Assertions.assertEquals(0, metrics.get("HttpClient.host.localhost:10000.active-connections.count"));
+		Assertions.assertEquals(1, metrics.get("HttpClient.host.localhost:10000.idle-connections.count"));
+		Assertions.assertEquals(0, metrics.get("HttpClient.host.localhost:10000.queued-requests.count"));
+
+		Assertions.assertTrue(client.stop().awaitUninterruptibly(5000));
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(5000));
+	}
+
+	private static Promise<String> send(HttpClient client) {
+		final Promise<String> responsePromise = Application.newPromise();
+		final HttpClientRequest req = HttpClientRequest.create("http://localhost:10000/test");
+		req.onCompletionHandler(new HttpClientRequest.IRequestCompletionHandler() {
+			@Override
+			public void requestComplete(HttpClientResponse response) {
+				responsePromise.setSuccess(response.getHttpStatusCode() + " " + response.getResponseData().toString(StandardCharsets.UTF_8));
+			}
+
+			@Override
+			public void requestFailed(Throwable cause) {
+				responsePromise.setSuccess((cause instanceof HttpClientQueueFullException) ? "rejected" : "failed " + cause);
+			}
+		});
+		client.submit(req);
+		return responsePromise;
+	}
+
+	private static Map<String, Long> snapshot() throws InterruptedException {
+		final CountDownLatch doneLatch = new CountDownLatch(1);
+		final Map<String, Long> metricSnapshot = new HashMap<>();
+		MetricsEngine.snapshot(new MetricsEngine.ISnapshotConsumer() {
+			@Override
+			public void apply(String metricKey, long value) {
+				metricSnapshot.put(metricKey, value);
+			}
+
+			@Override
+			public void done() {
+				doneLatch.countDown();
+			}
+		});
+		Assertions.assertTrue(doneLatch.await(5, TimeUnit.SECONDS));
+		return metricSnapshot;
+	}
+}
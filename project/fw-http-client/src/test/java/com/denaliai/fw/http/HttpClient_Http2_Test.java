@@ -0,0 +1,153 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.concurrent.Promise;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+public class HttpClient_Http2_Test extends TestBase {
+
+	@Test
+	public void testPriorKnowledge() throws Exception {
+		final Set<Long> connectionIds = ConcurrentHashMap.newKeySet();
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.http2(true)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				connectionIds.add(request.connectionId());
+				final String body = (request.headerValue("x-http2-stream-id") != null) ? "H2" : "H1";
+				// Slow enough for the requests to be in flight together
+				Application.getTaskPool().schedule(() -> {
+					response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), body));
+				}, 200, TimeUnit.MILLISECONDS);
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(5000));
+
+		HttpClient client = new HttpClient();
+		client.setHttp2(true);
+		client.setHttp2PriorKnowledge(true);
+		Assertions.assertTrue(client.start().awaitUninterruptibly(5000));
+
+		final List<Promise<String>> responses = new ArrayList<>();
+		for(int i=0; i<16; i++) {
+			responses.add(send(client, HttpClientRequest.create("http://localhost:10000/test?n=" + i)));
+		}
+		for(Promise<String> response : responses) {
+			Assertions.assertTrue(response.awaitUninterruptibly(5000));
+			Assertions.assertEquals("200 H2", response.getNow());
+		}
+		// Every request was a stream on the same connection
+		Assertions.assertEquals(1, connectionIds.size());
+
+		Assertions.assertTrue(client.stop().awaitUninterruptibly(5000));
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(5000));
+	}
+
+	@Test
+	public void testAlpn() throws Exception {
+		final File keyStore = createKeyStore();
+		final Set<Long> connectionIds = ConcurrentHashMap.newKeySet();
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.useSSL(true)
+			.http2(true)
+			.sslKeyStoreFileName(keyStore.getAbsolutePath())
+			.sslKeyStoreFileFormat("PKCS12")
+			.sslKeyStorePassword("changeit")
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				connectionIds.add(request.connectionId());
+				response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), (request.headerValue("x-http2-stream-id") != null) ? "H2" : "H1"));
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(5000));
+
+		HttpClient client = new HttpClient();
+		client.useInsecureTrustManager(true);
+		client.setHttp2(true);
+		Assertions.assertTrue(client.start().awaitUninterruptibly(5000));
+
+		for(int i=0; i<3; i++) {
+			final Promise<String> response = send(client, HttpClientRequest.create("https://localhost:10000/test"));
+			Assertions.assertTrue(response.awaitUninterruptibly(5000));
+			Assertions.assertEquals("200 H2", response.getNow());
+		}
+		Assertions.assertEquals(1, connectionIds.size());
+
+		Assertions.assertTrue(client.stop().awaitUninterruptibly(5000));
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(5000));
+		keyStore.delete();
+	}
+
+	@Test
+	public void testAlpnFallback() throws Exception {
+		final File keyStore = createKeyStore();
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.useSSL(true)
+			.sslKeyStoreFileName(keyStore.getAbsolutePath())
+			.sslKeyStoreFileFormat("PKCS12")
+			.sslKeyStorePassword("changeit")
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), (request.headerValue("x-http2-stream-id") != null) ? "H2" : "H1"));
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(5000));
+
+		HttpClient client = new HttpClient();
+		client.useInsecureTrustManager(true);
+		client.setHttp2(true);
+		Assertions.assertTrue(client.start().awaitUninterruptibly(5000));
+
+		// The server doesn't do HTTP/2, the request goes over HTTP/1.1
+		final Promise<String> response = send(client, HttpClientRequest.create("https://localhost:10000/test"));
+		Assertions.assertTrue(response.awaitUninterruptibly(5000));
+		Assertions.assertEquals("200 H1", response.getNow());
+
+		Assertions.assertTrue(client.stop().awaitUninterruptibly(5000));
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(5000));
+		keyStore.delete();
+	}
+
+	private static Promise<String> send(HttpClient client, HttpClientRequest req) {
+		final Promise<String> responsePromise = Application.newPromise();
+		req.onCompletionHandler(new HttpClientRequest.IRequestCompletionHandler() {
+			@Override
+			public void requestComplete(HttpClientResponse response) {
+				final ByteBuf data = response.getResponseData();
+				responsePromise.setSuccess(response.getHttpStatusCode() + " " + ((data != null) ? data.toString(StandardCharsets.UTF_8) : ""));
+			}
+
+			@Override
+			public void requestFailed(Throwable cause) {
+				responsePromise.setSuccess("failed " + cause);
+			}
+		});
+		client.submit(req);
+		return responsePromise;
+	}
+
+	private static File createKeyStore() throws Exception {
+		final File keyStore = File.createTempFile("HttpClient_Http2_Test", ".p12");
+		keyStore.delete();
+		keyStore.deleteOnExit();
+		final Process keytool = new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool",
+			"-genkeypair", "-alias", "test", "-keyalg", "RSA", "-keysize", "2048", "-validity", "1", "-dname", "CN=localhost",
+			"-storetype", "PKCS12", "-keystore", keyStore.getAbsolutePath(), "-storepass", "changeit", "-keypass", "changeit")
+			.redirectErrorStream(true)
+			.start();
+		Assertions.assertTrue(keytool.waitFor(30, TimeUnit.SECONDS));
+		Assertions.assertEquals(0, keytool.exitValue());
+		return keyStore;
+	}
+}
@@ -0,0 +1,99 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.concurrent.Promise;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+public class HttpClient_RequestOptions_Test extends TestBase {
+
+	@Test
+	public void test() throws Exception {
+		final Set<Long> connectionIds = ConcurrentHashMap.newKeySet();
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				connectionIds.add(request.connectionId());
+				final String uri = request.requestURI();
+				if (uri.startsWith("/redirect")) {
+					response.addHeader("Location", "/echo?redirected=yes");
+					response.respond(HttpResponseStatus.SEE_OTHER, Application.allocateEmptyBuffer());
+				} else if (uri.startsWith("/slow")) {
+					Application.getTaskPool().schedule(() -> {
+						response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), "SLOW"));
+					}, 1000, TimeUnit.MILLISECONDS);
+				} else {
+					final String contentType = request.headerValue("Content-Type");
+					response.respondOk(ByteBufUtil.writeUtf8(Application.ioBufferAllocator(), request.requestMethod() + " " + uri + " " + contentType + " " + request.data().toString(StandardCharsets.UTF_8)));
+				}
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(5000));
+
+		HttpClient client = new HttpClient();
+		Assertions.assertTrue(client.start().awaitUninterruptibly(5000));
+
+		HttpClientRequest req = HttpClientRequest.create("http://localhost:10000/echo?a=1");
+		req.addQueryParam("b", "x y");
+		Assertions.assertEquals("200 GET /echo?a=1&b=x+y null ", send(client, req));
+
+		req = HttpClientRequest.create("POST", "http://localhost:10000/echo");
+		req.addFormParam("name", "a&b");
+		Assertions.assertEquals("200 POST /echo application/x-www-form-urlencoded name=a%26b", send(client, req));
+
+		req = HttpClientRequest.create("PUT", "http://localhost:10000/echo");
+		req.addBodyData("text/plain", ByteBufUtil.writeUtf8(Application.allocator(), "some data"));
+		Assertions.assertEquals("200 PUT /echo text/plain some data", send(client, req));
+
+		// Every request so far used the same kept-alive connection
+		Assertions.assertEquals(1, connectionIds.size());
+
+		req = HttpClientRequest.create("POST", "http://localhost:10000/redirect");
+		req.addBodyData("text/plain", "dropped");
+		Assertions.assertEquals("303 ", send(client, req));
+
+		// A 303 is followed with a GET
+		req = HttpClientRequest.create("POST", "http://localhost:10000/redirect");
+		req.addBodyData("text/plain", "dropped");
+		req.followRedirect(true);
+		Assertions.assertEquals("200 GET /echo?redirected=yes text/plain ", send(client, req));
+
+		req = HttpClientRequest.create("http://localhost:10000/slow");
+		req.readTimeout(200);
+		Assertions.assertEquals("failed", send(client, req));
+
+		req = HttpClientRequest.create("http://localhost:10000/slow");
+		req.requestTimeout(2000);
+		Assertions.assertEquals("200 SLOW", send(client, req));
+
+		Assertions.assertTrue(client.stop().awaitUninterruptibly(5000));
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(5000));
+	}
+
+	private static String send(HttpClient client, HttpClientRequest req) {
+		final Promise<String> responsePromise = Application.newPromise();
+		req.onCompletionHandler(new HttpClientRequest.IRequestCompletionHandler() {
+			@Override
+			public void requestComplete(HttpClientResponse response) {
+				final ByteBuf data = response.getResponseData();
+				responsePromise.setSuccess(response.getHttpStatusCode() + " " + ((data != null) ? data.toString(StandardCharsets.UTF_8) : ""));
+			}
+
+			@Override
+			public void requestFailed(Throwable cause) {
+				responsePromise.setSuccess("failed");
+			}
+		});
+		client.submit(req);
+		Assertions.assertTrue(responsePromise.awaitUninterruptibly(5000));
+		return responsePromise.getNow();
+	}
+}
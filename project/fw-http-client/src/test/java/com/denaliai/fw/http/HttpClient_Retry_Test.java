@@ -0,0 +1,92 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.concurrent.Promise;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HttpClient_Retry_Test extends TestBase {
+	private static final HttpClientRetryPolicy POLICY = HttpClientRetryPolicy.builder()
+		.maxRetries(3)
+		.backoff(10, 50, 2)
+		.retryOnStatus(503)
+		.build();
+
+	@Test
+	public void test() throws Exception {
+		final AtomicInteger attempts = new AtomicInteger();
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				// Every third attempt succeeds
+				if (attempts.incrementAndGet() % 3 != 0) {
+					response.respond(HttpResponseStatus.SERVICE_UNAVAILABLE, Application.allocateEmptyBuffer());
+				} else {
+					response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), "GOOD"));
+				}
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(5000));
+
+		HttpClient client = new HttpClient();
+		Assertions.assertTrue(client.start().awaitUninterruptibly(5000));
+
+		HttpClientRequest req = HttpClientRequest.create("http://localhost:10000/test");
+		req.retryPolicy(POLICY);
+		Assertions.assertEquals("200 GOOD", send(client, req));
+		Assertions.assertEquals(3, attempts.get());
+
+		// POST isn't idempotent, the first response is the answer
+		attempts.set(0);
+		req = HttpClientRequest.create("POST", "http://localhost:10000/test");
+		req.addBodyData("text/plain", "data");
+		req.retryPolicy(POLICY);
+		Assertions.assertEquals("503 ", send(client, req));
+		Assertions.assertEquals(1, attempts.get());
+
+		// Connecting fails every time
+		req = HttpClientRequest.create("http://localhost:10001/test");
+		req.retryPolicy(POLICY);
+		Assertions.assertEquals("failed", send(client, req));
+
+		Assertions.assertTrue(client.stop().awaitUninterruptibly(5000));
+
+		// No budget, so no retries
+		client = new HttpClient();
+		client.setRetryBudget(0, 0);
+		Assertions.assertTrue(client.start().awaitUninterruptibly(5000));
+		attempts.set(0);
+		req = HttpClientRequest.create("http://localhost:10000/test");
+		req.retryPolicy(POLICY);
+		Assertions.assertEquals("503 ", send(client, req));
+		Assertions.assertEquals(1, attempts.get());
+
+		Assertions.assertTrue(client.stop().awaitUninterruptibly(5000));
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(5000));
+	}
+
+	private static String send(HttpClient client, HttpClientRequest req) {
+		final Promise<String> responsePromise = Application.newPromise();
+		req.onCompletionHandler(new HttpClientRequest.IRequestCompletionHandler() {
+			@Override
+			public void requestComplete(HttpClientResponse response) {
+				final ByteBuf data = response.getResponseData();
+				responsePromise.setSuccess(response.getHttpStatusCode() + " " + ((data != null) ? data.toString(StandardCharsets.UTF_8) : ""));
+			}
+
+			@Override
+			public void requestFailed(Throwable cause) {
+				responsePromise.setSuccess("failed");
+			}
+		});
+		client.submit(req);
+		Assertions.assertTrue(responsePromise.awaitUninterruptibly(5000));
+		return responsePromise.getNow();
+	}
+}
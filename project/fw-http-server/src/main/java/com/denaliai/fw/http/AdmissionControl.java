@@ -0,0 +1,92 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.metrics.CounterMetric;
+import com.denaliai.fw.metrics.MetricsEngine;
+import com.denaliai.fw.metrics.TotalCounterMetric;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+	Decides whether a request gets to run before its handler is called.  A request is shed when too many are already
+	running or when it waited too long in the task pool to be picked up.
+
+	The wait limit follows CoDel: while requests are getting through the queue the limit is the whole interval, once
+	a full interval goes by without a single request waiting less than the target the queue is standing and the limit
+	drops to the target until an interval sees a short wait again.
+ */
+final class AdmissionControl {
+	private final int m_maxConcurrent;
+	private final long m_targetNS;
+	private final long m_intervalNS;
+	private final AtomicInteger m_running = new AtomicInteger();
+	private final AtomicLong m_intervalEndNS;
+	private final AtomicLong m_minDelayNS = new AtomicLong(Long.MAX_VALUE);
+	private volatile boolean m_overloaded;
+
+	private final CounterMetric m_shedMaxConcurrent;
+	private final CounterMetric m_shedQueueDelay;
+	private final TotalCounterMetric m_runningRequests;
+
+	/**
+	 * maxConcurrent <= 0 means no limit, queueDelayTargetMS <= 0 turns off the queue delay check
+	 */
+	AdmissionControl(String loggerNameSuffix, int maxConcurrent, int queueDelayTargetMS, int queueDelayIntervalMS) {
+		m_maxConcurrent = maxConcurrent;
+		m_targetNS = TimeUnit.MILLISECONDS.toNanos(queueDelayTargetMS);
+		m_intervalNS = TimeUnit.MILLISECONDS.toNanos(Math.max(queueDelayIntervalMS, queueDelayTargetMS));
+		m_intervalEndNS = new AtomicLong(System.nanoTime() + m_intervalNS);
+		m_shedMaxConcurrent = MetricsEngine.newCounterMetric(loggerNameSuffix + ".shed-max-concurrent");
+		m_shedQueueDelay = MetricsEngine.newCounterMetric(loggerNameSuffix + ".shed-queue-delay");
+		m_runningRequests = MetricsEngine.newTotalCounterMetric(loggerNameSuffix + ".running-requests");
+	}
+
+	/**
+	 * Every request that is admitted has to be released
+	 */
+	boolean tryAdmit(long queueDelayNS) {
+		if (m_targetNS > 0 && queueDelayTooLong(queueDelayNS)) {
+			m_shedQueueDelay.increment();
+			return false;
+		}
+		if (m_maxConcurrent > 0) {
+			while(true) {
+				final int running = m_running.get();
+				if (running >= m_maxConcurrent) {
+					m_shedMaxConcurrent.increment();
+					return false;
+				}
+				if (m_running.compareAndSet(running, running + 1)) {
+					break;
+				}
+			}
+		} else {
+			m_running.incrementAndGet();
+		}
+		m_runningRequests.increment();
+		return true;
+	}
+
+	void release() {
+		m_running.decrementAndGet();
+		m_runningRequests.decrement();
+	}
+
+	private boolean queueDelayTooLong(long queueDelayNS) {
+		final long now = System.nanoTime();
+		final long intervalEnd = m_intervalEndNS.get();
+		if (now - intervalEnd >= 0 && m_intervalEndNS.compareAndSet(intervalEnd, now + m_intervalNS)) {
+			// An interval without any requests says nothing about the queue
+			final long minDelay = m_minDelayNS.getAndSet(Long.MAX_VALUE);
+			m_overloaded = (minDelay != Long.MAX_VALUE && minDelay > m_targetNS);
+		}
+		while(true) {
+			final long minDelay = m_minDelayNS.get();
+			if (queueDelayNS >= minDelay || m_minDelayNS.compareAndSet(minDelay, queueDelayNS)) {
+				break;
+			}
+		}
+		return queueDelayNS > (m_overloaded ? m_targetNS : m_intervalNS);
+	}
+}
@@ -0,0 +1,277 @@
+package com.denaliai.fw.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.handler.stream.ChunkedNioFile;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+	The satisfiable ranges of a Range header, sorted with the overlapping and adjacent ones merged.  More than one
+	range is sent as multipart/byteranges.
+ */
+final class ByteRanges {
+	static final ByteRanges UNSATISFIABLE = new ByteRanges(new long[0], 0, 0);
+
+	// Pairs of first and last byte offsets
+	private final long[] m_ranges;
+	private final int m_count;
+	private final long m_totalLength;
+
+	private ByteRanges(long[] ranges, int count, long totalLength) {
+		m_ranges = ranges;
+		m_count = count;
+		m_totalLength = totalLength;
+	}
+
+	/**
+	 * Returns null when the header should be ignored (it isn't valid or asks for more than maxRanges ranges) and
+	 * UNSATISFIABLE when none of the ranges are in the content
+	 */
+	static ByteRanges parse(String header, long totalLength, int maxRanges) {
+		if (!header.regionMatches(true, 0, "bytes=", 0, 6)) {
+			return null;
+		}
+		final String[] specs = header.substring(6).split(",");
+		if (specs.length > maxRanges) {
+			return null;
+		}
+		final long[] ranges = new long[specs.length * 2];
+		int count = 0;
+		try {
+			for(String s : specs) {
+				final String spec = s.trim();
+				final int dash = spec.indexOf('-');
+				if (dash == -1) {
+					return null;
+				}
+				final long first;
+				final long last;
+				if (dash == 0) {
+					final long suffixLength = parseOffset(spec.substring(1));
+					if (suffixLength == 0) {
+						continue;
+					}
+					first = Math.max(0, totalLength - suffixLength);
+					last = totalLength - 1;
+				} else {
+					first = parseOffset(spec.substring(0, dash));
+					if (dash == spec.length() - 1) {
+						last = totalLength - 1;
+					} else {
+						final long requestedLast = parseOffset(spec.substring(dash + 1));
+						if (requestedLast < first) {
+							return null;
+						}
+						last = Math.min(requestedLast, totalLength - 1);
+					}
+				}
+				if (first >= totalLength) {
+					continue;
+				}
+				ranges[count * 2] = first;
+				ranges[count * 2 + 1] = last;
+				count++;
+			}
+		} catch(NumberFormatException ex) {
+			return null;
+		}
+		if (count == 0) {
+			return UNSATISFIABLE;
+		}
+		return new ByteRanges(ranges, merge(ranges, count), totalLength);
+	}
+
+	private static long parseOffset(String value) {
+		final long offset = Long.parseLong(value.trim());
+		if (offset < 0) {
+			throw new NumberFormatException(value);
+		}
+		return offset;
+	}
+
+	/*
+		Returns the number of ranges left
+	 */
+	private static int merge(long[] ranges, int count) {
+		if (count == 1) {
+			return 1;
+		}
+		// Sort the pairs by their first offset, there are only a handful of them
+		for(int i=1; i<count; i++) {
+			for(int j=i; j>0 && ranges[j * 2] < ranges[(j - 1) * 2]; j--) {
+				swap(ranges, j * 2, (j - 1) * 2);
+				swap(ranges, j * 2 + 1, (j - 1) * 2 + 1);
+			}
+		}
+		int merged = 0;
+		for(int i=1; i<count; i++) {
+			if (ranges[i * 2] <= ranges[merged * 2 + 1] + 1) {
+				ranges[merged * 2 + 1] = Math.max(ranges[merged * 2 + 1], ranges[i * 2 + 1]);
+			} else {
+				merged++;
+				ranges[merged * 2] = ranges[i * 2];
+				ranges[merged * 2 + 1] = ranges[i * 2 + 1];
+			}
+		}
+		return merged + 1;
+	}
+
+	private static void swap(long[] a, int i, int j) {
+		final long t = a[i];
+		a[i] = a[j];
+		a[j] = t;
+	}
+
+	int count() {
+		return m_count;
+	}
+
+	long start(int index) {
+		return m_ranges[index * 2];
+	}
+
+	long length(int index) {
+		return m_ranges[index * 2 + 1] - m_ranges[index * 2] + 1;
+	}
+
+	String contentRange(int index) {
+		return "bytes " + m_ranges[index * 2] + "-" + m_ranges[index * 2 + 1] + "/" + m_totalLength;
+	}
+
+	static String unsatisfiedContentRange(long totalLength) {
+		return "bytes */" + totalLength;
+	}
+
+	static String newBoundary() {
+		return "dfw" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+	}
+
+	private String partHeader(int index, String boundary, String contentType) {
+		return "\r\n--" + boundary + "\r\nContent-Type: " + contentType + "\r\nContent-Range: " + contentRange(index) + "\r\n\r\n";
+	}
+
+	private static String end(String boundary) {
+		return "\r\n--" + boundary + "--\r\n";
+	}
+
+	long multipartLength(String boundary, String contentType) {
+		long length = end(boundary).length();
+		for(int i=0; i<m_count; i++) {
+			length += partHeader(i, boundary, contentType).length() + length(i);
+		}
+		return length;
+	}
+
+	/**
+	 * The parts are slices of the content, the reference the caller has to the content is taken over
+	 */
+	ByteBuf multipartBody(ByteBufAllocator alloc, ByteBuf content, String boundary, String contentType) {
+		final CompositeByteBuf body = alloc.compositeBuffer(m_count * 2 + 1);
+		try {
+			final int base = content.readerIndex();
+			for(int i=0; i<m_count; i++) {
+				body.addComponent(true, ByteBufUtil.writeAscii(alloc, partHeader(i, boundary, contentType)));
+				body.addComponent(true, content.retainedSlice(base + (int)start(i), (int)length(i)));
+			}
+			body.addComponent(true, ByteBufUtil.writeAscii(alloc, end(boundary)));
+		} finally {
+			content.release();
+		}
+		return body;
+	}
+
+	/**
+	 * Reads the parts straight out of the file, the file is closed when the input is
+	 */
+	ChunkedInput<ByteBuf> multipartFile(FileChannel file, String boundary, String contentType, int chunkSize) {
+		return new MultipartFileInput(file, boundary, contentType, chunkSize);
+	}
+
+	private final class MultipartFileInput implements ChunkedInput<ByteBuf> {
+		private final FileChannel m_file;
+		private final String m_boundary;
+		private final String m_contentType;
+		private final int m_chunkSize;
+		private final long m_length;
+		private ChunkedNioFile m_part;
+		private int m_nextPart;
+		private long m_progress;
+		private boolean m_done;
+
+		private MultipartFileInput(FileChannel file, String boundary, String contentType, int chunkSize) {
+			m_file = file;
+			m_boundary = boundary;
+			m_contentType = contentType;
+			m_chunkSize = chunkSize;
+			m_length = multipartLength(boundary, contentType);
+		}
+
+		@Override
+		public boolean isEndOfInput() {
+			return m_done;
+		}
+
+		@Override
+		public void close() throws Exception {
+			m_file.close();
+		}
+
+		@Deprecated
+		@Override
+		public ByteBuf readChunk(ChannelHandlerContext ctx) throws Exception {
+			return readChunk(ctx.alloc());
+		}
+
+		@Override
+		public ByteBuf readChunk(ByteBufAllocator allocator) throws Exception {
+			if (m_done) {
+				return null;
+			}
+			final ByteBuf chunk;
+			if (m_part != null) {
+				// Not closed when it is done, that would close the file
+				chunk = m_part.readChunk(allocator);
+				if (m_part.isEndOfInput()) {
+					m_part = null;
+				}
+			} else if (m_nextPart < m_count) {
+				chunk = ByteBufUtil.writeAscii(allocator, partHeader(m_nextPart, m_boundary, m_contentType));
+				m_part = newPart(m_nextPart++);
+			} else {
+				chunk = ByteBufUtil.writeAscii(allocator, end(m_boundary));
+				m_done = true;
+			}
+			if (chunk != null) {
+				m_progress += chunk.readableBytes();
+			}
+			return chunk;
+		}
+
+		private ChunkedNioFile newPart(int index) throws IOException {
+			return new ChunkedNioFile(m_file, start(index), ByteRanges.this.length(index), m_chunkSize);
+		}
+
+		@Override
+		public long length() {
+			return m_length;
+		}
+
+		@Override
+		public long progress() {
+			return m_progress;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(Arrays.copyOf(m_ranges, m_count * 2));
+	}
+}
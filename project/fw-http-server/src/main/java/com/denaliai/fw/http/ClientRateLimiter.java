@@ -0,0 +1,138 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import com.denaliai.fw.metrics.CounterAndRateMetric;
+import com.denaliai.fw.metrics.MetricsEngine;
+import com.denaliai.fw.metrics.TotalCounterMetric;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+	A token bucket per client.  Each bucket is a single theoretical arrival time (GCRA) updated with a CAS, so taking a
+	token never locks.  A bucket whose arrival time has passed is full, which is the same as not having one, so the
+	sweep can drop it without changing what the client is allowed.
+
+	The number of buckets is capped, once it is reached the clients without one share a single bucket so a flood of
+	new keys can't get around the limit or use up the memory.
+ */
+final class ClientRateLimiter {
+	private final ConcurrentHashMap<Object, AtomicLong> m_buckets = new ConcurrentHashMap<>();
+	private final AtomicLong m_overflowBucket = new AtomicLong(System.nanoTime());
+	private final int m_maxClients;
+	private final long m_intervalNS;
+	private final long m_burstNS;
+	private final long m_sweepIntervalMS;
+	private ScheduledFuture<?> m_sweeper;
+
+	private final CounterAndRateMetric m_throttled;
+	private final TotalCounterMetric m_clients;
+	private final CounterAndRateMetric m_overflowed;
+
+	ClientRateLimiter(String loggerNameSuffix, double requestsPerSecond, int burst, int maxClients, long sweepIntervalMS) {
+		m_maxClients = maxClients;
+		m_intervalNS = (long)(TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+		m_burstNS = m_intervalNS * Math.max(1, burst);
+		m_sweepIntervalMS = sweepIntervalMS;
+		m_throttled = MetricsEngine.newCounterAndRateMetric(loggerNameSuffix + ".throttled-requests");
+		m_clients = MetricsEngine.newTotalCounterMetric(loggerNameSuffix + ".rate-limited-clients");
+		m_overflowed = MetricsEngine.newCounterAndRateMetric(loggerNameSuffix + ".rate-limit-overflow-requests");
+	}
+
+	/**
+	 * The key for a client told apart by a request header.  Anyone can send any value, so the client's address is
+	 * part of the key.
+	 */
+	static Object headerKey(String headerValue, Object addressKey) {
+		return new HeaderKey(headerValue, addressKey);
+	}
+
+	synchronized void start() {
+		if (m_sweeper == null) {
+			m_sweeper = Application.getTaskPool().scheduleWithFixedDelay(this::sweep, m_sweepIntervalMS, m_sweepIntervalMS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	synchronized void stop() {
+		if (m_sweeper != null) {
+			m_sweeper.cancel(false);
+			m_sweeper = null;
+		}
+		m_clients.add(-m_buckets.size());
+		m_buckets.clear();
+	}
+
+	/**
+	 * Returns 0 if the client has a token, otherwise how long until it will have one
+	 */
+	long tryAcquire(Object clientKey) {
+		final long now = System.nanoTime();
+		AtomicLong bucket = m_buckets.get(clientKey);
+		if (bucket == null && m_buckets.size() >= m_maxClients) {
+			m_overflowed.increment();
+			bucket = m_overflowBucket;
+		}
+		if (bucket == null) {
+			final AtomicLong newBucket = new AtomicLong(now);
+			bucket = m_buckets.putIfAbsent(clientKey, newBucket);
+			if (bucket == null) {
+				bucket = newBucket;
+				m_clients.increment();
+			}
+		}
+		while(true) {
+			final long arrival = bucket.get();
+			final long newArrival = Math.max(arrival, now) + m_intervalNS;
+			final long waitNS = newArrival - now - m_burstNS;
+			if (waitNS > 0) {
+				m_throttled.increment();
+				return waitNS;
+			}
+			if (bucket.compareAndSet(arrival, newArrival)) {
+				return 0;
+			}
+		}
+	}
+
+	/*
+		A client that takes a token while its bucket is being dropped gets that token for free, which is fine
+	 */
+	private void sweep() {
+		final long now = System.nanoTime();
+		final Iterator<Map.Entry<Object, AtomicLong>> it = m_buckets.entrySet().iterator();
+		while(it.hasNext()) {
+			final Map.Entry<Object, AtomicLong> e = it.next();
+			if (e.getValue().get() - now <= 0 && m_buckets.remove(e.getKey(), e.getValue())) {
+				m_clients.decrement();
+			}
+		}
+	}
+
+	private static final class HeaderKey {
+		private final String m_headerValue;
+		private final Object m_addressKey;
+
+		private HeaderKey(String headerValue, Object addressKey) {
+			m_headerValue = headerValue;
+			m_addressKey = addressKey;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof HeaderKey)) {
+				return false;
+			}
+			final HeaderKey other = (HeaderKey)o;
+			return m_headerValue.equals(other.m_headerValue) && m_addressKey.equals(other.m_addressKey);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * m_headerValue.hashCode() + m_addressKey.hashCode();
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.metrics.CounterMetric;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.timeout.ReadTimeoutException;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+	One timer per connection for both the keep-alive idle timeout and the request read timeout.  While requests are
+	being handled the timer is paused by a count instead of the handler being swapped out of the pipeline, so the
+	worker never has to touch the pipeline.
+
+	The idle timeout runs from the end of the last response (or the connect) until the first byte of the next request,
+	the read timeout runs from the last byte read while a request is arriving.  With HTTP/2 each open stream counts as
+	a running request, so only the idle timeout is left on the connection.
+
+	Like IdleStateHandler the reads and writes only note the time, a check that runs for the life of the connection
+	compares it to the timeout that applies.  A response that takes a while to go out is seen by the check in the
+	channel's outbound buffer.
+ */
+final class ConnectionTimeoutHandler extends ChannelDuplexHandler {
+	private static final long MIN_CHECK_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final long m_idleTimeoutNS;
+	private final long m_readTimeoutNS;
+	private final long m_checkIntervalNS;
+	private final CounterMetric m_idleTimeouts;
+	private final AtomicInteger m_runningRequests = new AtomicInteger();
+	private volatile long m_lastActivityNS = System.nanoTime();
+	private volatile boolean m_readingRequest;
+	private boolean m_http2;
+	private ChannelHandlerContext m_ctx;
+	private ScheduledFuture<?> m_timer;
+	// What the outbound buffer looked like at the last check, only touched by the event loop
+	private int m_lastOutputHash;
+	private long m_lastPendingBytes;
+	private long m_lastProgress;
+
+	ConnectionTimeoutHandler(int idleTimeoutMS, int readTimeoutMS, CounterMetric idleTimeouts) {
+		m_idleTimeoutNS = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMS);
+		m_readTimeoutNS = TimeUnit.MILLISECONDS.toNanos(readTimeoutMS);
+		// A timeout fires up to a quarter late
+		m_checkIntervalNS = Math.max(MIN_CHECK_INTERVAL_NS, Math.min(m_idleTimeoutNS, m_readTimeoutNS) / 4);
+		m_idleTimeouts = idleTimeouts;
+	}
+
+	/**
+	 * Can be called from any thread, the timer stays paused until every started request has ended
+	 */
+	void requestStarted() {
+		m_runningRequests.incrementAndGet();
+	}
+
+	/**
+	 * Called on the event loop once the connection speaks HTTP/2, what is read between streams only keeps it from
+	 * going idle
+	 */
+	void http2() {
+		m_http2 = true;
+	}
+
+	void requestEnded() {
+		if (m_runningRequests.decrementAndGet() == 0) {
+			m_readingRequest = false;
+			m_lastActivityNS = System.nanoTime();
+		}
+	}
+
+	@Override
+	public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+		m_ctx = ctx;
+		if (ctx.channel().isActive()) {
+			start();
+		}
+	}
+
+	@Override
+	public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+		stop();
+	}
+
+	@Override
+	public void channelActive(ChannelHandlerContext ctx) throws Exception {
+		start();
+		super.channelActive(ctx);
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		stop();
+		super.channelInactive(ctx);
+	}
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		m_lastActivityNS = System.nanoTime();
+		if (!m_readingRequest && !m_http2) {
+			m_readingRequest = true;
+		}
+		super.channelRead(ctx, msg);
+	}
+
+	@Override
+	public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+		m_lastActivityNS = System.nanoTime();
+		super.write(ctx, msg, promise);
+	}
+
+	private void start() {
+		if (m_timer == null) {
+			m_lastActivityNS = System.nanoTime();
+			m_timer = m_ctx.executor().scheduleWithFixedDelay(this::check, m_checkIntervalNS, m_checkIntervalNS, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private void stop() {
+		if (m_timer != null) {
+			m_timer.cancel(false);
+			m_timer = null;
+		}
+	}
+
+	private void check() {
+		if (!m_ctx.channel().isOpen()) {
+			stop();
+			return;
+		}
+		final long nowNS = System.nanoTime();
+		if (outputChanged()) {
+			m_lastActivityNS = nowNS;
+		}
+		if (m_runningRequests.get() > 0) {
+			return;
+		}
+		final boolean readingRequest = m_readingRequest;
+		if (nowNS - m_lastActivityNS < (readingRequest ? m_readTimeoutNS : m_idleTimeoutNS)) {
+			return;
+		}
+		stop();
+		if (readingRequest) {
+			m_ctx.fireExceptionCaught(ReadTimeoutException.INSTANCE);
+		} else {
+			m_idleTimeouts.increment();
+		}
+		m_ctx.close();
+	}
+
+	/*
+		True when some of what was written went out (or more was queued) since the last check
+	 */
+	private boolean outputChanged() {
+		final ChannelOutboundBuffer buf = m_ctx.channel().unsafe().outboundBuffer();
+		if (buf == null) {
+			return false;
+		}
+		final int outputHash = System.identityHashCode(buf.current());
+		final long pendingBytes = buf.totalPendingWriteBytes();
+		final long progress = buf.currentProgress();
+		if (outputHash == m_lastOutputHash && pendingBytes == m_lastPendingBytes && progress == m_lastProgress) {
+			return false;
+		}
+		m_lastOutputHash = outputHash;
+		m_lastPendingBytes = pendingBytes;
+		m_lastProgress = progress;
+		return true;
+	}
+}
@@ -0,0 +1,61 @@
+package com.denaliai.fw.http;
+
+import io.netty.handler.codec.DateFormatter;
+import io.netty.util.AsciiString;
+
+import java.util.Date;
+
+/*
+	RFC 1123 dates for HTTP headers.  The current time and the most recent expiry time are rendered at most
+	once per second and shared by every response sent during that second.
+ */
+final class HttpDates {
+	private static volatile RenderedDate m_now = new RenderedDate(-1, 0, AsciiString.EMPTY_STRING);
+	private static volatile RenderedDate m_expires = new RenderedDate(-1, 0, AsciiString.EMPTY_STRING);
+
+	private HttpDates() {
+	}
+
+	static AsciiString now() {
+		final long nowSeconds = System.currentTimeMillis() / 1000;
+		RenderedDate now = m_now;
+		if (now.m_seconds != nowSeconds) {
+			// Racing threads render the same value, last one in wins
+			m_now = now = new RenderedDate(nowSeconds, 0, format(nowSeconds * 1000));
+		}
+		return now.m_value;
+	}
+
+	static AsciiString expires(int secondsFromNow) {
+		final long nowSeconds = System.currentTimeMillis() / 1000;
+		RenderedDate expires = m_expires;
+		if (expires.m_seconds != nowSeconds || expires.m_offset != secondsFromNow) {
+			m_expires = expires = new RenderedDate(nowSeconds, secondsFromNow, format((nowSeconds + secondsFromNow) * 1000));
+		}
+		return expires.m_value;
+	}
+
+	static AsciiString format(long timeMS) {
+		return new AsciiString(DateFormatter.format(new Date(timeMS)));
+	}
+
+	/**
+	 * Returns -1 if the value isn't a valid HTTP date
+	 */
+	static long parse(CharSequence value) {
+		final Date date = DateFormatter.parseHttpDate(value);
+		return (date == null) ? -1 : date.getTime();
+	}
+
+	private static final class RenderedDate {
+		final long m_seconds;
+		final int m_offset;
+		final AsciiString m_value;
+
+		RenderedDate(long seconds, int offset, AsciiString value) {
+			m_seconds = seconds;
+			m_offset = offset;
+			m_value = value;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.denaliai.fw.http;
+
+import io.netty.util.AsciiString;
+
+/*
+	Entity tags for file responses.  A file's tag is made from its length and last modified time (in ms), the same
+	file sent compressed gets the weak version of the tag since its bytes are different.
+ */
+final class HttpETags {
+	private HttpETags() {
+	}
+
+	static AsciiString strong(long length, long lastModified) {
+		return new AsciiString("\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"");
+	}
+
+	static AsciiString weak(AsciiString strongTag) {
+		return new AsciiString("W/" + strongTag);
+	}
+
+	/**
+	 * Returns true if any tag in an If-None-Match or If-Range header matches.  The weak comparison ignores the W/
+	 * prefix, the strong comparison never matches a weak tag.
+	 */
+	static boolean matches(String header, CharSequence etag, boolean weakComparison) {
+		final boolean etagIsWeak = isWeak(etag);
+		if (!weakComparison && etagIsWeak) {
+			return false;
+		}
+		final int etagStart = etagIsWeak ? 2 : 0;
+		final int etagLength = etag.length() - etagStart;
+		int pos = 0;
+		final int length = header.length();
+		while(pos < length) {
+			final char c = header.charAt(pos);
+			if (c == ' ' || c == '\t' || c == ',') {
+				pos++;
+				continue;
+			}
+			if (c == '*') {
+				return true;
+			}
+			final boolean weak = header.startsWith("W/", pos);
+			final int tagStart = weak ? pos + 2 : pos;
+			if (tagStart >= length || header.charAt(tagStart) != '"') {
+				// Not a list of entity tags
+				return false;
+			}
+			final int tagEnd = header.indexOf('"', tagStart + 1);
+			if (tagEnd == -1) {
+				return false;
+			}
+			if ((weakComparison || !weak)
+				&& tagEnd + 1 - tagStart == etagLength
+				&& header.regionMatches(tagStart, etag.toString(), etagStart, etagLength)) {
+				return true;
+			}
+			pos = tagEnd + 1;
+		}
+		return false;
+	}
+
+	private static boolean isWeak(CharSequence etag) {
+		return etag.length() > 2 && etag.charAt(0) == 'W' && etag.charAt(1) == '/';
+	}
+}
@@ -0,0 +1,467 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.metrics.CounterMetric;
+import com.denaliai.fw.metrics.DurationRateMetric;
+import com.denaliai.fw.metrics.MetricsEngine;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.CharsetUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+	Dispatches requests to handlers by method and path.  The routes are compiled into a radix tree when the router
+	is built, a request walks the tree once and the path parameters are kept as offsets into the request URI until
+	the handler asks for them.
+
+	Patterns are made of static text and whole-segment parameters:
+		/users/{id}/orders		{id} matches one path segment
+		/files/{*path}			{*path} matches the rest of the path, it has to be last
+	Static text wins over a parameter which wins over a catch-all.
+ */
+public final class HttpRouter implements HttpServer.IRequestHandler {
+	private static final Route[] NO_ROUTES = new Route[0];
+	private static final Node[] NO_NODES = new Node[0];
+
+	private final Logger LOG;
+	private final Node m_root;
+	private final int m_maxPathParams;
+	private final HttpServer.IRequestHandler m_notFoundHandler;
+	private final CounterMetric m_notFound;
+	private final CounterMetric m_methodNotAllowed;
+
+	private HttpRouter(HttpRouterBuilder builder) {
+		LOG = LoggerFactory.getLogger(HttpRouter.class.getCanonicalName() + "." + builder.m_loggerNameSuffix);
+		m_root = builder.m_root;
+		m_maxPathParams = builder.m_maxPathParams;
+		m_notFoundHandler = builder.m_notFoundHandler;
+		m_notFound = MetricsEngine.newCounterMetric(builder.m_loggerNameSuffix + ".route-not-found");
+		m_methodNotAllowed = MetricsEngine.newCounterMetric(builder.m_loggerNameSuffix + ".route-method-not-allowed");
+	}
+
+	@Override
+	public void onRequest(HttpServer.IHttpRequest request, HttpServer.IHttpResponse response) {
+		final String uri = request.requestURI();
+		final int pathEnd = pathEnd(uri);
+		final int[] params = (m_maxPathParams == 0) ? null : new int[m_maxPathParams * 2];
+		final Node node = (pathEnd > 0 && uri.charAt(0) == '/') ? find(m_root, uri, 0, pathEnd, params, 0) : null;
+		if (node == null) {
+			m_notFound.increment();
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("[{}-{}] No route for {} {}", request.connectionId(), request.requestId(), request.requestMethod(), uri);
+			}
+			m_notFoundHandler.onRequest(request, response);
+			return;
+		}
+		final Route route = node.route(request.requestMethod());
+		if (route == null) {
+			m_methodNotAllowed.increment();
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("[{}-{}] No {} route for {}", request.connectionId(), request.requestId(), request.requestMethod(), uri);
+			}
+			response.addHeader("Allow", node.allowedMethods());
+			response.respond(HttpResponseStatus.METHOD_NOT_ALLOWED, Unpooled.EMPTY_BUFFER);
+			return;
+		}
+		final RoutedResponse routedResponse = new RoutedResponse(route, uri, params, response);
+		try {
+			route.m_handler.onRequest(request, routedResponse, routedResponse);
+		} catch(Throwable t) {
+			LOG.warn("Uncaught exception from " + route.m_handler.getClass().getName(), t);
+		}
+	}
+
+	private static int pathEnd(String uri) {
+		for(int i=0; i<uri.length(); i++) {
+			final char c = uri.charAt(i);
+			if (c == '?' || c == '#') {
+				return i;
+			}
+		}
+		return uri.length();
+	}
+
+	/*
+		The node's own text has been matched up to pos, returns the node the path ends on or null
+	 */
+	private static Node find(Node node, String path, int pos, int end, int[] params, int paramIndex) {
+		if (pos == end && node.m_routes.length != 0) {
+			return node;
+		}
+		if (pos < end) {
+			final Node child = node.staticChild(path.charAt(pos));
+			if (child != null) {
+				final int childEnd = pos + child.m_text.length();
+				if (childEnd <= end && path.regionMatches(pos, child.m_text, 0, child.m_text.length())) {
+					final Node found = find(child, path, childEnd, end, params, paramIndex);
+					if (found != null) {
+						return found;
+					}
+				}
+			}
+			if (node.m_paramChild != null) {
+				int segmentEnd = pos;
+				while(segmentEnd < end && path.charAt(segmentEnd) != '/') {
+					segmentEnd++;
+				}
+				if (segmentEnd > pos) {
+					final Node found = find(node.m_paramChild, path, segmentEnd, end, params, paramIndex + 1);
+					if (found != null) {
+						params[paramIndex * 2] = pos;
+						params[paramIndex * 2 + 1] = segmentEnd;
+						return found;
+					}
+				}
+			}
+		}
+		if (node.m_catchAllChild != null) {
+			params[paramIndex * 2] = pos;
+			params[paramIndex * 2 + 1] = end;
+			return node.m_catchAllChild;
+		}
+		return null;
+	}
+
+	public static HttpRouterBuilder builder() {
+		return new HttpRouterBuilder();
+	}
+
+	public static final class HttpRouterBuilder {
+		private final Node m_root = new Node("");
+		private final List<Route> m_routes = new ArrayList<>();
+		private int m_maxPathParams;
+		private String m_loggerNameSuffix = "HttpRouter";
+		private HttpServer.IRequestHandler m_notFoundHandler = (request, response) -> response.respond(HttpResponseStatus.NOT_FOUND, Unpooled.EMPTY_BUFFER);
+
+		/**
+		 * Prefix of the logger and metric names, use the server's so they show up together
+		 */
+		public HttpRouterBuilder loggerNameSuffix(String name) {
+			m_loggerNameSuffix = name;
+			return this;
+		}
+		public HttpRouterBuilder get(String pattern, IRouteHandler handler) {
+			return route("GET", pattern, handler);
+		}
+		public HttpRouterBuilder post(String pattern, IRouteHandler handler) {
+			return route("POST", pattern, handler);
+		}
+		public HttpRouterBuilder put(String pattern, IRouteHandler handler) {
+			return route("PUT", pattern, handler);
+		}
+		public HttpRouterBuilder delete(String pattern, IRouteHandler handler) {
+			return route("DELETE", pattern, handler);
+		}
+		/**
+		 * HEAD requests go to the GET route unless a HEAD route is added for the same pattern
+		 */
+		public HttpRouterBuilder route(String method, String pattern, IRouteHandler handler) {
+			if (pattern.isEmpty() || pattern.charAt(0) != '/') {
+				throw new IllegalArgumentException("Route pattern must start with '/': " + pattern);
+			}
+			final List<String> paramNames = new ArrayList<>();
+			Node node = m_root;
+			int pos = 0;
+			while(pos < pattern.length()) {
+				final int paramStart = pattern.indexOf('{', pos);
+				if (paramStart == -1) {
+					node = node.addStatic(pattern.substring(pos));
+					break;
+				}
+				if (paramStart > pos) {
+					node = node.addStatic(pattern.substring(pos, paramStart));
+				}
+				final int paramEnd = pattern.indexOf('}', paramStart);
+				if (paramEnd == -1 || pattern.charAt(paramStart - 1) != '/' || (paramEnd + 1 < pattern.length() && pattern.charAt(paramEnd + 1) != '/')) {
+					throw new IllegalArgumentException("Route parameters must be a whole path segment: " + pattern);
+				}
+				final boolean catchAll = (pattern.charAt(paramStart + 1) == '*');
+				final String name = pattern.substring(catchAll ? paramStart + 2 : paramStart + 1, paramEnd);
+				if (name.isEmpty() || paramNames.contains(name)) {
+					throw new IllegalArgumentException("Route parameter names must be unique and not empty: " + pattern);
+				}
+				paramNames.add(name);
+				if (catchAll) {
+					if (paramEnd + 1 != pattern.length()) {
+						throw new IllegalArgumentException("A catch-all parameter must end the route: " + pattern);
+					}
+					if (node.m_catchAllChild == null) {
+						node.m_catchAllChild = new Node("");
+					}
+					node = node.m_catchAllChild;
+				} else {
+					if (node.m_paramChild == null) {
+						node.m_paramChild = new Node("");
+					}
+					node = node.m_paramChild;
+				}
+				pos = paramEnd + 1;
+			}
+			if (node.route(method) != null && node.route(method).m_method.equals(method)) {
+				throw new IllegalArgumentException("Route already added: " + method + " " + pattern);
+			}
+			final Route route = new Route(method, pattern, paramNames.toArray(new String[0]), handler);
+			node.addRoute(route);
+			m_routes.add(route);
+			m_maxPathParams = Math.max(m_maxPathParams, paramNames.size());
+			return this;
+		}
+		/**
+		 * Called for requests that don't match a route, the default responds 404
+		 */
+		public HttpRouterBuilder notFound(HttpServer.IRequestHandler handler) {
+			m_notFoundHandler = handler;
+			return this;
+		}
+		public HttpRouter build() {
+			for(Route route : m_routes) {
+				route.m_requestRate = MetricsEngine.newRateMetric(m_loggerNameSuffix + ".route." + route.m_method + ":" + route.m_pattern);
+			}
+			return new HttpRouter(this);
+		}
+	}
+
+	private static final class Node {
+		private String m_text;
+		private Node[] m_children = NO_NODES;
+		private Node m_paramChild;
+		private Node m_catchAllChild;
+		private Route[] m_routes = NO_ROUTES;
+
+		private Node(String text) {
+			m_text = text;
+		}
+
+		private Node staticChild(char c) {
+			for(Node child : m_children) {
+				if (child.m_text.charAt(0) == c) {
+					return child;
+				}
+			}
+			return null;
+		}
+
+		/*
+			Returns the node the text ends on, splitting a child when the text only shares part of its prefix
+		 */
+		private Node addStatic(String text) {
+			Node node = this;
+			while(!text.isEmpty()) {
+				Node child = node.staticChild(text.charAt(0));
+				if (child == null) {
+					child = new Node(text);
+					node.m_children = append(node.m_children, child);
+					return child;
+				}
+				int common = 0;
+				final int max = Math.min(child.m_text.length(), text.length());
+				while(common < max && child.m_text.charAt(common) == text.charAt(common)) {
+					common++;
+				}
+				if (common < child.m_text.length()) {
+					final Node split = new Node(child.m_text.substring(0, common));
+					child.m_text = child.m_text.substring(common);
+					split.m_children = new Node[] {child};
+					for(int i=0; i<node.m_children.length; i++) {
+						if (node.m_children[i] == child) {
+							node.m_children[i] = split;
+						}
+					}
+					child = split;
+				}
+				text = text.substring(common);
+				node = child;
+			}
+			return node;
+		}
+
+		private void addRoute(Route route) {
+			final Route[] routes = new Route[m_routes.length + 1];
+			System.arraycopy(m_routes, 0, routes, 0, m_routes.length);
+			routes[m_routes.length] = route;
+			m_routes = routes;
+		}
+
+		private Route route(String method) {
+			Route get = null;
+			for(Route route : m_routes) {
+				if (route.m_method.equals(method)) {
+					return route;
+				}
+				if (route.m_method.equals("GET")) {
+					get = route;
+				}
+			}
+			return method.equals("HEAD") ? get : null;
+		}
+
+		private String allowedMethods() {
+			final StringBuilder sb = new StringBuilder();
+			for(Route route : m_routes) {
+				if (sb.length() != 0) {
+					sb.append(", ");
+				}
+				sb.append(route.m_method);
+			}
+			return sb.toString();
+		}
+
+		private static Node[] append(Node[] nodes, Node node) {
+			final Node[] newNodes = new Node[nodes.length + 1];
+			System.arraycopy(nodes, 0, newNodes, 0, nodes.length);
+			newNodes[nodes.length] = node;
+			return newNodes;
+		}
+	}
+
+	private static final class Route {
+		private final String m_method;
+		private final String m_pattern;
+		private final String[] m_paramNames;
+		private final IRouteHandler m_handler;
+		private DurationRateMetric m_requestRate;
+
+		private Route(String method, String pattern, String[] paramNames, IRouteHandler handler) {
+			m_method = method;
+			m_pattern = pattern;
+			m_paramNames = paramNames;
+			m_handler = handler;
+		}
+	}
+
+	/*
+		Records the route's metric when the handler responds
+	 */
+	private static final class RoutedResponse implements HttpServer.IHttpResponse, IPathParams {
+		private final Route m_route;
+		private final String m_uri;
+		private final int[] m_params;
+		private final HttpServer.IHttpResponse m_response;
+		private MetricsEngine.IMetricTimer m_timer;
+
+		private RoutedResponse(Route route, String uri, int[] params, HttpServer.IHttpResponse response) {
+			m_route = route;
+			m_uri = uri;
+			m_params = params;
+			m_response = response;
+			m_timer = MetricsEngine.startTimer();
+		}
+
+		private void responded() {
+			final MetricsEngine.IMetricTimer timer = m_timer;
+			if (timer != null) {
+				m_timer = null;
+				m_route.m_requestRate.record(timer);
+				timer.close();
+			}
+		}
+
+		@Override
+		public int size() {
+			return m_route.m_paramNames.length;
+		}
+
+		@Override
+		public String name(int index) {
+			return m_route.m_paramNames[index];
+		}
+
+		@Override
+		public String value(int index) {
+			if (index < 0 || index >= m_route.m_paramNames.length) {
+				throw new IndexOutOfBoundsException("Route has " + m_route.m_paramNames.length + " path parameters");
+			}
+			final String raw = m_uri.substring(m_params[index * 2], m_params[index * 2 + 1]);
+			return (raw.indexOf('%') == -1) ? raw : QueryStringDecoder.decodeComponent(raw, CharsetUtil.UTF_8);
+		}
+
+		@Override
+		public String value(String name) {
+			final String[] names = m_route.m_paramNames;
+			for(int i=0; i<names.length; i++) {
+				if (names[i].equals(name)) {
+					return value(i);
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public void addHeader(String key, String value) {
+			m_response.addHeader(key, value);
+		}
+
+		@Override
+		public void setDynamicContentHeaders(String contentType) {
+			m_response.setDynamicContentHeaders(contentType);
+		}
+
+		@Override
+		public void respondOk(ByteBuf data) {
+			responded();
+			m_response.respondOk(data);
+		}
+
+		@Override
+		public void respondOkWithFile(File file, boolean downloadFile, int httpCacheSeconds) {
+			responded();
+			m_response.respondOkWithFile(file, downloadFile, httpCacheSeconds);
+		}
+
+		@Override
+		public void respondOkWithFileData(ByteBuf data, String fileName, long lastModifiedTime, boolean downloadFile, int httpCacheSeconds) {
+			responded();
+			m_response.respondOkWithFileData(data, fileName, lastModifiedTime, downloadFile, httpCacheSeconds);
+		}
+
+		@Override
+		public void respond(HttpResponseStatus httpResponseStatus, ByteBuf data) {
+			responded();
+			m_response.respond(httpResponseStatus, data);
+		}
+
+		@Override
+		public void respondNotModified() {
+			responded();
+			m_response.respondNotModified();
+		}
+
+		/*
+			The route's time for a streaming response is the time until its headers are ready
+		 */
+		@Override
+		public HttpServer.IStreamingResponse respondStreaming(HttpResponseStatus httpResponseStatus, String contentType, HttpServer.IStreamingResponseListener listener) {
+			responded();
+			return m_response.respondStreaming(httpResponseStatus, contentType, listener);
+		}
+
+		@Override
+		public HttpServer.IStreamingResponse respondEventStream(HttpServer.IStreamingResponseListener listener) {
+			responded();
+			return m_response.respondEventStream(listener);
+		}
+	}
+
+	public interface IPathParams {
+		int size();
+		String name(int index);
+		/**
+		 * Percent-decoded value of the parameter
+		 */
+		String value(int index);
+		/**
+		 * Returns null if the route doesn't have the parameter
+		 */
+		String value(String name);
+	}
+
+	public interface IRouteHandler {
+		void onRequest(HttpServer.IHttpRequest request, HttpServer.IHttpResponse response, IPathParams pathParams);
+	}
+}
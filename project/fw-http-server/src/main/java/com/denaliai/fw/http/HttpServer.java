@@ -3,40 +3,51 @@ package com.denaliai.fw.http;
 import com.denaliai.fw.Application;
 import com.denaliai.fw.config.Config;
 import com.denaliai.fw.metrics.*;
+import com.denaliai.fw.utility.Pipe;
 import com.denaliai.fw.utility.concurrent.PerpetualWork;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.DecoderResult;
+import io.netty.handler.codec.TooLongFrameException;
 import io.netty.handler.codec.http.*;
-import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshakerFactory;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+import io.netty.handler.codec.http.websocketx.extensions.compression.WebSocketServerCompressionHandler;
+import io.netty.handler.codec.http2.*;
+import io.netty.handler.ssl.*;
 import io.netty.handler.stream.ChunkedNioFile;
-import io.netty.handler.stream.ChunkedStream;
 import io.netty.handler.stream.ChunkedWriteHandler;
 import io.netty.handler.timeout.ReadTimeoutException;
-import io.netty.handler.timeout.ReadTimeoutHandler;
 import io.netty.util.AsciiString;
 import io.netty.util.AttributeKey;
+import io.netty.util.CharsetUtil;
 import io.netty.util.ReferenceCountUtil;
 import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GlobalEventExecutor;
 import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
 import io.netty.util.internal.PlatformDependent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.activation.MimetypesFileTypeMap;
 import javax.net.ssl.KeyManagerFactory;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLEngine;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -48,13 +59,29 @@ import static io.netty.handler.codec.http.HttpVersion.HTTP_1_0;
 public final class HttpServer {
 	private static final String DEFAULT_SSL_PROTOCOL = "TLSv1.2";
 	private static final int SERVER_BACKLOG = Config.getFWInt("http.HttpServer.defaultServerSocketBacklog", 128);
-	private static final int MAX_CONTENT_SIZE = Config.getFWInt("http.HttpServer.maxContentSize", 512*1024);
+	private static final int STREAMING_BODY_HIGH_WATER_MARK = Config.getFWInt("http.HttpServer.streamingBodyHighWaterMark", 256*1024);
+	private static final int FILE_CHUNK_SIZE = Config.getFWInt("http.HttpServer.fileChunkSize", 64*1024);
+	private static final int MAX_RANGES = Config.getFWInt("http.HttpServer.maxRanges", 16);
+	private static final int MAX_DISCARDED_BODY_SIZE = Config.getFWInt("http.HttpServer.maxDiscardedBodySize", 64*1024);
+	private static final int STATIC_FILE_CACHE_CHECK_INTERVAL_MS = Config.getFWInt("http.HttpServer.staticFileCacheCheckIntervalMS", 1000);
+	private static final int STREAMING_BODY_LOW_WATER_MARK = STREAMING_BODY_HIGH_WATER_MARK / 2;
+	private static final int STREAMING_RESPONSE_HIGH_WATER_MARK = Config.getFWInt("http.HttpServer.streamingResponseHighWaterMark", 256*1024);
+	private static final int RESPONSE_CACHE_MAX_ENTRIES = Config.getFWInt("http.HttpServer.responseCacheMaxEntries", 10000);
+	private static final int RESPONSE_CACHE_SWEEP_INTERVAL_MS = Config.getFWInt("http.HttpServer.responseCacheSweepIntervalMS", 1000);
+	private static final int RATE_LIMIT_MAX_CLIENTS = Config.getFWInt("http.HttpServer.rateLimitMaxClients", 100000);
+	private static final int RATE_LIMIT_SWEEP_INTERVAL_MS = Config.getFWInt("http.HttpServer.rateLimitSweepIntervalMS", 10000);
+	private static final int HTTP2_MAX_CONCURRENT_STREAMS = Config.getFWInt("http.HttpServer.http2MaxConcurrentStreams", 100);
+	private static final ByteBuf HTTP2_PREFACE = Unpooled.unreleasableBuffer(Unpooled.copiedBuffer("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n", CharsetUtil.US_ASCII));
 	private static final String ACCESS_CONTROL_ALLOW_ORIGIN = Config.getFWString("http.HttpServer.accessControlAllowOrigin", null);
 	private static final String ACCESS_CONTROL_ALLOW_METHODS = Config.getFWString("http.HttpServer.accessControlAllowMethods", null);
 	private static final String ACCESS_CONTROL_ALLOW_HEADERS = Config.getFWString("http.HttpServer.accessControlAllowHeaders", null);
 	private static final boolean LOG_DECODER_FAILURES = Config.getFWBoolean("http.HttpServer.log-decoder-failures", Boolean.FALSE);
 	private static final AttributeKey<Connection> CONNECTION = AttributeKey.newInstance("ConnectionClass");
+	private static final AttributeKey<Boolean> DRAINING = AttributeKey.newInstance("Draining");
 	private static final MimetypesFileTypeMap m_mimeTypesMap = new MimetypesFileTypeMap();
+	private static final AsciiString NO_CACHE_CONTROL = AsciiString.cached("no-cache, no-store, must-revalidate");
+	private static final AsciiString ALREADY_EXPIRED = AsciiString.cached("-1");
+	private static final AsciiString EVENT_STREAM = AsciiString.cached("text/event-stream");
 	public static final AsciiString X_REQUEST_ID = AsciiString.cached(Config.getFWString("http.HttpServer.xRequestIdHeaderName", "x-dfw-request-id"));
 
 	private final CounterAndRateMetric m_newConnections;
@@ -62,8 +89,27 @@ public final class HttpServer {
 	private final CounterAndRateMetric m_newRequests;
 	private final CounterMetric m_numExceptions;
 	private final CounterMetric m_numReadTimeouts;
+	private final CounterMetric m_numIdleTimeouts;
 	private final CounterMetric m_numDecoderFailures;
 	private final CounterMetric m_earlyDisconnects;
+	private final CounterMetric m_requestBodyPauses;
+	private final CounterMetric m_pipelinedRequests;
+	private final CounterAndRateMetric m_streamedRequests;
+	private final CounterAndRateMetric m_http2Connections;
+	private final CounterAndRateMetric m_http2Streams;
+	private final CounterAndRateMetric m_streamingResponses;
+	private final CounterMetric m_streamingResponseBlocks;
+	private final CounterMetric m_rangeResponses;
+	private final CounterMetric m_notModifiedResponses;
+	private final CounterMetric m_drainIdleCloses;
+	private final CounterMetric m_drainForcedCloses;
+	private final TotalCounterMetric m_drainingConnections;
+	private final ValueMetric m_drainTimeMS;
+	private final DurationRateMetric m_tlsHandshakeRate;
+	private final CounterMetric m_tlsHandshakeFailures;
+	private final CounterAndRateMetric m_tlsResumedSessions;
+	private final CounterMetric m_contentTooLarge;
+	private final CounterMetric m_headersTooLarge;
 	private final TotalCounterMetric m_listenerActive;
 	private final TotalCounterMetric m_activeConnections;
 	private final DurationRateMetric m_requestRate;
@@ -77,25 +123,59 @@ public final class HttpServer {
 	private final Logger REQUEST_LOG;
 	private final ServerBootstrap m_serverBootstrap = new ServerBootstrap();
 	private final ConnectionInboundMsgHandler m_connectionMsgHandler = new ConnectionInboundMsgHandler();
-	private final ByteCounterMsgHandler m_childSocketByteCounter = new ByteCounterMsgHandler();
+	private final ChildSocketMsgHandler m_childSocketHandler = new ChildSocketMsgHandler();
+	private final Http2ParentMsgHandler m_http2ParentMsgHandler = new Http2ParentMsgHandler();
 
 	private final IConnectHandler m_connectHandler;
 	private final IDisconnectHandler m_disconnectHandler;
 	private final IFailureHandler m_failureHandler;
 	private final IRequestHandler m_requestHandler;
+	private final IStreamingRequestSelector m_streamingSelector;
+	private final IStreamingRequestHandler m_streamingHandler;
 	private final Promise<Void> m_registerDone = Application.getTaskPool().next().newPromise();
 	private final int m_httpPort;
 	private final int m_readTimeoutInMS;
+	private final int m_keepAliveIdleTimeoutInMS;
+	private final int m_numListeners;
 
 	private final AtomicInteger m_httpServerRefCount = new AtomicInteger();
-	private final SSLContext m_sslContext;
+	// Does ALPN when HTTP/2 is on
+	private final SslContext m_sslContext;
+	private final boolean m_http2;
 	private Promise<Void> m_startDonePromise;
 	private volatile Promise<Void> m_stopDonePromise;
 	private boolean m_isStarted = false;
-	private Channel m_serverConnection;
+	private final ChannelGroup m_serverConnections = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+	private final ChannelGroup m_clientConnections = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+	private final int m_drainTimeoutMS;
+	private ScheduledFuture<?> m_drainDeadline;
+	private final AtomicInteger m_pendingListeners = new AtomicInteger();
+	private final AtomicInteger m_openListeners = new AtomicInteger();
 	private enum ServerState {Offline, Registering, Binding, BoundListening}
 	private volatile ServerState m_serverState;
 	private final boolean m_addRequestIdHeader;
+	private final boolean m_zeroCopyFileTransfer;
+	private final boolean m_runHandlersOnEventLoop;
+	private final int m_maxPipelinedRequests;
+	private final StaticFileCache m_staticFileCache;
+	private final ResponseCache m_responseCache;
+	private final AdmissionControl m_admissionControl;
+	private final ClientRateLimiter m_rateLimiter;
+	private final String m_rateLimitKeyHeader;
+	private final int m_retryAfterSeconds;
+	// Null when there are no WebSocket routes
+	private final Map<String, WebSocketConnection.Route> m_webSocketRoutes;
+	private final boolean m_webSocketCompression;
+	private final int m_webSocketMaxMessageSize;
+	private final ChannelGroup m_webSocketChannels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+	private final int m_maxInitialLineLength;
+	private final int m_maxHeaderSize;
+	private final int m_maxChunkSize;
+	private final int m_maxContentSize;
+	// Null when no path has its own limit
+	private final Map<String, Integer> m_pathMaxContentSizes;
+	// The largest of the limits, the aggregator never sees a body bigger than the request's own limit
+	private final int m_aggregatorMaxContentSize;
 
 	private HttpServer(HttpServerBuilder builder) {
 		final String logRoot = HttpServer.class.getCanonicalName() + "." + builder.m_loggerNameSuffix;
@@ -112,8 +192,13 @@ public final class HttpServer {
 		m_disconnectHandler = (builder.m_disconnectHandler != null) ? builder.m_disconnectHandler : new NullHandler(LOG);
 		m_failureHandler = (builder.m_failureHandler != null) ? builder.m_failureHandler : new NullHandler(LOG);
 		m_requestHandler = (builder.m_requestHandler != null) ? builder.m_requestHandler : new NullHandler(LOG);
+		m_streamingSelector = builder.m_streamingSelector;
+		m_streamingHandler = builder.m_streamingHandler;
 		m_readTimeoutInMS = builder.m_readTimeoutInMS;
+		m_keepAliveIdleTimeoutInMS = builder.m_keepAliveIdleTimeoutInMS;
+		m_drainTimeoutMS = builder.m_drainTimeoutMS;
 		m_httpPort = builder.m_httpPort;
+		m_numListeners = numListeners(builder.m_numListeners);
 
 		if (LOG.isTraceEnabled()) {
 			LOG.trace("Creating metrics");
@@ -124,35 +209,131 @@ public final class HttpServer {
 		m_newRequests = MetricsEngine.newCounterAndRateMetric(builder.m_loggerNameSuffix + ".new-requests");
 		m_numExceptions = MetricsEngine.newCounterMetric(builder.m_loggerNameSuffix + ".exception-count");
 		m_numReadTimeouts = MetricsEngine.newCounterMetric(builder.m_loggerNameSuffix + ".read-timeout-count");
+		m_numIdleTimeouts = MetricsEngine.newCounterMetric(builder.m_loggerNameSuffix + ".idle-timeout-count");
 		m_numDecoderFailures = MetricsEngine.newCounterMetric(builder.m_loggerNameSuffix + ".decoder-failure-count");
 		m_activeConnections = MetricsEngine.newTotalCounterMetric(builder.m_loggerNameSuffix + ".active-connections");
 		m_requestRate = MetricsEngine.newRateMetric(builder.m_loggerNameSuffix + ".success-request-rate");
 		m_requestDataSize = MetricsEngine.newValueMetric(builder.m_loggerNameSuffix + ".request-bytes");
 		m_responseDataSize = MetricsEngine.newValueMetric(builder.m_loggerNameSuffix + ".response-bytes");
 		m_earlyDisconnects = MetricsEngine.newCounterMetric(builder.m_loggerNameSuffix + ".early-disconnect");
-
+		m_requestBodyPauses = MetricsEngine.newCounterMetric(builder.m_loggerNameSuffix + ".request-body-pause-count");
+		m_pipelinedRequests = MetricsEngine.newCounterMetric(builder.m_loggerNameSuffix + ".pipelined-requests");
+		m_streamedRequests = MetricsEngine.newCounterAndRateMetric(builder.m_loggerNameSuffix + ".streamed-requests");
+		m_http2Connections = MetricsEngine.newCounterAndRateMetric(builder.m_loggerNameSuffix + ".http2-connections");
+		m_http2Streams = MetricsEngine.newCounterAndRateMetric(builder.m_loggerNameSuffix + ".http2-streams");
+		m_streamingResponses = MetricsEngine.newCounterAndRateMetric(builder.m_loggerNameSuffix + ".streaming-responses");
+		m_streamingResponseBlocks = MetricsEngine.newCounterMetric(builder.m_loggerNameSuffix + ".streaming-response-blocked-count");
+		m_rangeResponses = MetricsEngine.newCounterMetric(builder.m_loggerNameSuffix + ".range-responses");
+		m_notModifiedResponses = MetricsEngine.newCounterMetric(builder.m_loggerNameSuffix + ".not-modified-responses");
+		m_drainIdleCloses = MetricsEngine.newCounterMetric(builder.m_loggerNameSuffix + ".drain-idle-closes");
+		m_drainForcedCloses = MetricsEngine.newCounterMetric(builder.m_loggerNameSuffix + ".drain-forced-closes");
+		m_drainingConnections = MetricsEngine.newTotalCounterMetric(builder.m_loggerNameSuffix + ".draining-connections");
+		m_drainTimeMS = MetricsEngine.newValueMetric(builder.m_loggerNameSuffix + ".drain-time-ms");
+		m_tlsHandshakeRate = MetricsEngine.newRateMetric(builder.m_loggerNameSuffix + ".tls-handshake-rate");
+		m_tlsHandshakeFailures = MetricsEngine.newCounterMetric(builder.m_loggerNameSuffix + ".tls-handshake-failures");
+		m_tlsResumedSessions = MetricsEngine.newCounterAndRateMetric(builder.m_loggerNameSuffix + ".tls-resumed-sessions");
+		m_contentTooLarge = MetricsEngine.newCounterMetric(builder.m_loggerNameSuffix + ".content-too-large-count");
+		m_headersTooLarge = MetricsEngine.newCounterMetric(builder.m_loggerNameSuffix + ".headers-too-large-count");
+
+		m_http2 = builder.m_http2;
 		if (builder.m_useSSL) {
-			m_sslContext = HttpServerUtils.createServerSSLContext(builder.m_sslProtocol, builder.m_serverKeyStoreFileName, builder.m_serverKeyStorePassword, builder.m_serverKeyStoreFileFormat, builder.m_serverKeyStoreKeyAlgorithm);
+			final ApplicationProtocolConfig alpnConfig;
+			if (m_http2) {
+				alpnConfig = new ApplicationProtocolConfig(ApplicationProtocolConfig.Protocol.ALPN,
+					ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+					ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT,
+					ApplicationProtocolNames.HTTP_2, ApplicationProtocolNames.HTTP_1_1);
+			} else {
+				alpnConfig = null;
+			}
+			m_sslContext = HttpServerUtils.createServerSslContext(LOG, builder.m_openSsl, builder.m_sslProtocol, builder.m_serverKeyStoreFileName, builder.m_serverKeyStorePassword, builder.m_serverKeyStoreFileFormat, builder.m_serverKeyStoreKeyAlgorithm,
+				builder.m_sslSessionCacheSize, builder.m_sslSessionTimeoutSeconds, builder.m_sslSessionTicketKeysFileName, alpnConfig);
+			LOG.info("Using {} for SSL", (m_sslContext instanceof JdkSslContext) ? "the JDK" : "OpenSSL");
 		} else {
 			m_sslContext = null;
 		}
 		m_addRequestIdHeader = builder.m_addRequestIdHeader;
+		// sendfile() can't be used when the data has to pass through the SSL engine
+		m_zeroCopyFileTransfer = builder.m_zeroCopyFileTransfer && m_sslContext == null;
+		m_runHandlersOnEventLoop = builder.m_runHandlersOnEventLoop;
+		m_maxPipelinedRequests = Math.max(1, builder.m_maxPipelinedRequests);
+		if (builder.m_staticFileCacheSize > 0) {
+			m_staticFileCache = new StaticFileCache(LOG, builder.m_loggerNameSuffix, m_mimeTypesMap, builder.m_staticFileCacheSize, builder.m_staticFileCacheMaxFileSize, STATIC_FILE_CACHE_CHECK_INTERVAL_MS);
+		} else {
+			m_staticFileCache = null;
+		}
+		if (builder.m_responseCacheTTLMS > 0) {
+			m_responseCache = new ResponseCache(LOG, builder.m_loggerNameSuffix, builder.m_responseCacheTTLMS, RESPONSE_CACHE_MAX_ENTRIES, builder.m_responseCacheKeyHeaders, RESPONSE_CACHE_SWEEP_INTERVAL_MS);
+		} else {
+			m_responseCache = null;
+		}
+
+		if (builder.m_maxConcurrentRequests > 0 || builder.m_queueDelayTargetMS > 0) {
+			m_admissionControl = new AdmissionControl(builder.m_loggerNameSuffix, builder.m_maxConcurrentRequests, builder.m_queueDelayTargetMS, builder.m_queueDelayIntervalMS);
+		} else {
+			m_admissionControl = null;
+		}
+		m_retryAfterSeconds = builder.m_retryAfterSeconds;
+		if (builder.m_rateLimitPerSecond > 0) {
+			m_rateLimiter = new ClientRateLimiter(builder.m_loggerNameSuffix, builder.m_rateLimitPerSecond, builder.m_rateLimitBurst, RATE_LIMIT_MAX_CLIENTS, RATE_LIMIT_SWEEP_INTERVAL_MS);
+		} else {
+			m_rateLimiter = null;
+		}
+		m_rateLimitKeyHeader = builder.m_rateLimitKeyHeader;
+		if (builder.m_webSocketHandlers.isEmpty()) {
+			m_webSocketRoutes = null;
+		} else {
+			m_webSocketRoutes = new HashMap<>();
+			for (Map.Entry<String, IWebSocketHandler> e : builder.m_webSocketHandlers.entrySet()) {
+				m_webSocketRoutes.put(e.getKey(), new WebSocketConnection.Route(builder.m_loggerNameSuffix, e.getKey(), builder.m_textWebSockets.contains(e.getKey()), e.getValue()));
+			}
+		}
+		m_webSocketCompression = builder.m_webSocketCompression;
+		m_webSocketMaxMessageSize = builder.m_webSocketMaxMessageSize;
+		m_maxInitialLineLength = builder.m_maxInitialLineLength;
+		m_maxHeaderSize = builder.m_maxHeaderSize;
+		m_maxChunkSize = builder.m_maxChunkSize;
+		m_maxContentSize = builder.m_maxContentSize;
+		int aggregatorMaxContentSize = m_maxContentSize;
+		if (builder.m_pathMaxContentSizes.isEmpty()) {
+			m_pathMaxContentSizes = null;
+		} else {
+			m_pathMaxContentSizes = new HashMap<>(builder.m_pathMaxContentSizes);
+			for (int maxContentSize : m_pathMaxContentSizes.values()) {
+				aggregatorMaxContentSize = Math.max(aggregatorMaxContentSize, maxContentSize);
+			}
+		}
+		m_aggregatorMaxContentSize = aggregatorMaxContentSize;
 
 		init();
 	}
 
+	private int numListeners(int requested) {
+		final int numListeners = (requested <= 0) ? Application.getIOPoolSize() : requested;
+		if (numListeners > 1 && !Application.isNativeTransport()) {
+			// SO_REUSEPORT is only available to us through the native transport
+			LOG.warn("{} SO_REUSEPORT listeners requested but the native transport is not in use, binding a single listener", numListeners);
+			return 1;
+		}
+		return numListeners;
+	}
+
 	private void init() {
 		if (LOG.isTraceEnabled()) {
 			LOG.trace("init() - start");
 		}
 		m_serverBootstrap.group(Application.getIOPool(), Application.getIOPool())
-			.channel(NioServerSocketChannel.class)
+			.channel(Application.serverSocketChannelClass())
 			.handler(new ServerSocketHandler())
 			.option(ChannelOption.ALLOCATOR, Application.allocator())
 			.option(ChannelOption.SO_BACKLOG, SERVER_BACKLOG)
 			.childHandler(new MyChannelInitializer())
 			.childOption(ChannelOption.ALLOCATOR, Application.allocator())
 			.childOption(ChannelOption.SO_KEEPALIVE, true);
+		if (m_numListeners > 1) {
+			// Each listener is its own socket bound to the same port, the kernel spreads the accepts across them
+			m_serverBootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+		}
 
 		if (LOG.isTraceEnabled()) {
 			LOG.trace("Registering server");
@@ -185,6 +366,12 @@ public final class HttpServer {
 		// start/stop maintain a ref count to the server
 		serverRetain();
 
+		if (m_rateLimiter != null) {
+			m_rateLimiter.start();
+		}
+		if (m_responseCache != null) {
+			m_responseCache.start();
+		}
 		m_stopDonePromise = null;
 		m_startDonePromise = Application.getTaskPool().next().newPromise();
 		m_registerDone.addListener((regDone) -> {
@@ -196,17 +383,20 @@ public final class HttpServer {
 				return;
 			}
 			m_serverState = ServerState.Binding;
-			final ChannelFuture f;
-			try {
-				f = m_serverBootstrap.bind(m_httpPort);
-			} catch(Throwable t) {
-				LOG.warn("Call to bind({}) failed, HttpServer cannot start", m_httpPort, t);
-				m_serverState = ServerState.Offline;
-				m_startDonePromise.setFailure(t);
-				serverRelease();
-				return;
+			m_pendingListeners.set(m_numListeners);
+			final BindListener bindListener = new BindListener();
+			for(int i=0; i<m_numListeners; i++) {
+				// Each bind() registers a new listening channel on the next IO event loop
+				final ChannelFuture f;
+				try {
+					f = m_serverBootstrap.bind(m_httpPort);
+				} catch(Throwable t) {
+					LOG.warn("Call to bind({}) failed, HttpServer cannot start", m_httpPort, t);
+					startFailed(t);
+					return;
+				}
+				f.addListener(bindListener);
 			}
-			f.addListener(new BindListener());
 		});
 		return m_startDonePromise;
 	}
@@ -219,7 +409,16 @@ public final class HttpServer {
 			return m_stopDonePromise;
 		}
 		m_stopDonePromise = Application.getTaskPool().next().newPromise();
+		final MetricsEngine.IMetricTimer drainTimer = MetricsEngine.startTimer();
 		m_stopDonePromise.addListener(f -> {
+			synchronized(this) {
+				if (m_drainDeadline != null) {
+					m_drainDeadline.cancel(false);
+					m_drainDeadline = null;
+				}
+			}
+			m_drainTimeMS.set((int)drainTimer.elapsedTimeMS());
+			drainTimer.close();
 			// Set this so start() can be called again
 			m_isStarted = false;
 		});
@@ -231,11 +430,21 @@ public final class HttpServer {
 				return;
 			}
 			try {
-				Channel serverConnection = m_serverConnection;
-				if (serverConnection != null) {
-					// Shut down listening
-					serverConnection.close();
-					m_serverConnection = null;
+				// Shut down listening
+				m_serverConnections.close();
+				// A WebSocket never ends on its own, tell the clients we are going away
+				for (Channel webSocket : m_webSocketChannels) {
+					webSocket.writeAndFlush(new CloseWebSocketFrame(1001, null)).addListener(ChannelFutureListener.CLOSE);
+				}
+				startDrain();
+				if (m_staticFileCache != null) {
+					m_staticFileCache.clear();
+				}
+				if (m_responseCache != null) {
+					m_responseCache.stop();
+				}
+				if (m_rateLimiter != null) {
+					m_rateLimiter.stop();
 				}
 			} finally {
 				// start/stop maintain a ref count to the server
@@ -246,6 +455,60 @@ public final class HttpServer {
 		return m_stopDonePromise;
 	}
 
+	/*
+		Called once the listeners are closed.  Idle connections are closed now and the rest after their last response
+		(which tells the client the connection is closing), anything still open at the deadline is closed under them.
+	 */
+	private void startDrain() {
+		final int draining = m_clientConnections.size();
+		if (draining == 0) {
+			return;
+		}
+		LOG.info("Draining {} connections, waiting up to {} ms for their requests to finish", draining, m_drainTimeoutMS);
+		for (Channel channel : m_clientConnections) {
+			channel.attr(DRAINING).set(Boolean.TRUE);
+			m_drainingConnections.increment();
+			if (!channel.isActive() && channel.attr(DRAINING).getAndSet(null) != null) {
+				// Closed before it was marked
+				m_drainingConnections.decrement();
+				continue;
+			}
+			if (m_webSocketChannels.contains(channel)) {
+				// Already sent a close frame
+				continue;
+			}
+			// On the event loop so a protocol that is still being picked has been by the time we look
+			channel.eventLoop().execute(() -> {
+				if (channel.pipeline().get("http2Codec") != null) {
+					// The codec sends a GOAWAY and closes the connection once its open streams are done
+					channel.close();
+					return;
+				}
+				final Connection conn = channel.attr(CONNECTION).get();
+				if (conn != null) {
+					conn.callOnDrain();
+				}
+			});
+		}
+		synchronized(this) {
+			m_drainDeadline = Application.getTaskPool().schedule(this::drainDeadlinePassed, m_drainTimeoutMS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void drainDeadlinePassed() {
+		int forced = 0;
+		for (Channel channel : m_clientConnections) {
+			if (channel.attr(DRAINING).get() != null) {
+				forced++;
+				channel.close();
+			}
+		}
+		if (forced != 0) {
+			m_drainForcedCloses.add(forced);
+			LOG.warn("Drain deadline passed, closed {} connections that still had requests running", forced);
+		}
+	}
+
 	private void serverRetain() {
 		m_httpServerRefCount.incrementAndGet();
 	}
@@ -257,6 +520,19 @@ public final class HttpServer {
 		}
 	}
 
+	/*
+		Called once for the first listener that fails to bind, any listeners that did bind are closed
+	 */
+	private void startFailed(Throwable cause) {
+		if (!m_startDonePromise.tryFailure(cause)) {
+			// Another listener already failed the start
+			return;
+		}
+		m_serverState = ServerState.Offline;
+		m_serverConnections.close();
+		serverRelease();
+	}
+
 	private class BindListener implements ChannelFutureListener {
 
 
@@ -268,26 +544,37 @@ public final class HttpServer {
 				}
 			} else {
 				// it might just be a lazy cleanup of the socket from a previous run
-				m_serverState = ServerState.Offline;
-				m_serverConnection = null;
-
 				if (LOG.isDebugEnabled()) {
 					LOG.info("Exception during bind", future.cause());
 				} else {
 					LOG.info("Exception during bind: {}", future.cause().getMessage());
 				}
-				m_startDonePromise.tryFailure(future.cause());
-				serverRelease();
+				startFailed(future.cause());
 			}
 		}
 
 	}
 
-	private SslHandler sslHandler() {
-		SSLEngine sslEngine = m_sslContext.createSSLEngine();
-		sslEngine.setUseClientMode(false);
-		sslEngine.setNeedClientAuth(false);
-		return new SslHandler(sslEngine);
+	private SslHandler sslHandler(Channel channel) {
+		final SslHandler handler = m_sslContext.newHandler(channel.alloc());
+		final MetricsEngine.IMetricTimer handshakeTimer = MetricsEngine.startTimer();
+		final long handshakeStartMS = System.currentTimeMillis();
+		handler.handshakeFuture().addListener((f) -> {
+			if (f.isSuccess()) {
+				m_tlsHandshakeRate.record(handshakeTimer);
+				// A resumed session was created by an earlier handshake
+				if (handler.engine().getSession().getCreationTime() < handshakeStartMS) {
+					m_tlsResumedSessions.increment();
+				}
+			} else {
+				m_tlsHandshakeFailures.increment();
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("SSL handshake with {} failed", channel.remoteAddress(), f.cause());
+				}
+			}
+			handshakeTimer.close();
+		});
+		return handler;
 	}
 
 	private class MyChannelInitializer extends ChannelInitializer<SocketChannel> {
@@ -319,26 +606,26 @@ public final class HttpServer {
 				childChannel.close();
 				return;
 			}
+			m_clientConnections.add(childChannel);
 			final ChannelPipeline pipeline = childChannel.pipeline();
-			pipeline.addLast(m_childSocketByteCounter);
+			pipeline.addLast(m_childSocketHandler);
 			if (m_sslContext != null) {
-				pipeline.addLast("sslEngine", sslHandler());
+				pipeline.addLast("sslEngine", sslHandler(childChannel));
 			}
 			if (DATA_LOG.isTraceEnabled()) {
 				pipeline.addLast("data-logger", new DataLogHandler(DATA_LOG));
 			}
-			pipeline.addLast("read-timeout", new ReadTimeoutHandler(m_readTimeoutInMS, TimeUnit.MILLISECONDS));
-			pipeline.addLast("codec", new HttpServerCodec(/*4096, 8192, 8192*/)); // TODO: make these configurable
-			if (!DATA_LOG.isTraceEnabled()) {
-				// Need to prevent compressing so we can log the uncompressed buffers
-				pipeline.addLast("compressor", new HttpContentCompressor());
+			final ConnectionTimeoutHandler timeoutHandler = new ConnectionTimeoutHandler(m_keepAliveIdleTimeoutInMS, m_readTimeoutInMS, m_numIdleTimeouts);
+			pipeline.addLast("timeout", timeoutHandler);
+			if (!m_http2) {
+				configureHttp1(pipeline, false);
+			} else if (m_sslContext != null) {
+				pipeline.addLast("alpn", new AlpnProtocolSelector());
+			} else {
+				pipeline.addLast("protocolSelector", new CleartextProtocolSelector());
 			}
-			pipeline.addLast("keepAlive", new HttpServerKeepAliveHandler());
-			pipeline.addLast("aggregator", new HttpObjectAggregator(MAX_CONTENT_SIZE, true));
-			pipeline.addLast("chunkWrite", new ChunkedWriteHandler());
-			pipeline.addLast(m_connectionMsgHandler);
 
-			final Connection c = new Connection(remoteHostAddress, childChannel);
+			final Connection c = new Connection(remoteHostAddress, childChannel, m_runHandlersOnEventLoop ? childChannel.eventLoop() : null, null, timeoutHandler);
 			final Connection prevConnection = childChannel.attr(CONNECTION).getAndSet(c);
 			if (prevConnection != null) {
 				LOG.error("There was a previous connection!! This should never happen");
@@ -359,9 +646,437 @@ public final class HttpServer {
 		}
 	}
 
+	/*
+		The protocol is picked after the channel is active when HTTP/2 is enabled, so the connection is
+		handed its context here instead of in channelActive()
+	 */
+	private void configureHttp1(ChannelPipeline pipeline, boolean channelIsActive) {
+		pipeline.addLast("codec", new HttpServerCodec(m_maxInitialLineLength, m_maxHeaderSize, m_maxChunkSize));
+		if (m_webSocketRoutes != null && m_webSocketCompression) {
+			// Negotiates permessage-deflate on the upgrade and then swaps itself for the deflate encoder and decoder
+			pipeline.addLast("wsCompression", new WebSocketServerCompressionHandler());
+		}
+		if (!DATA_LOG.isTraceEnabled()) {
+			// Need to prevent compressing so we can log the uncompressed buffers
+			pipeline.addLast("compressor", new ResponseCompressor());
+		}
+		pipeline.addLast("keepAlive", new HttpServerKeepAliveHandler());
+		if (m_rateLimiter != null) {
+			pipeline.addLast("rateLimiter", new RateLimitHandler(pipeline.channel()));
+		}
+		if (m_streamingHandler != null) {
+			pipeline.addLast("streamSelector", new StreamingRequestSelector());
+		}
+		pipeline.addLast("sizeLimit", new RequestSizeLimitHandler());
+		pipeline.addLast("aggregator", new HttpObjectAggregator(m_aggregatorMaxContentSize, true));
+		pipeline.addLast("chunkWrite", new ChunkedWriteHandler());
+		pipeline.addLast(m_connectionMsgHandler);
+		if (channelIsActive) {
+			final Connection conn = pipeline.channel().attr(CONNECTION).get();
+			if (conn != null) {
+				conn.setContext(pipeline.context(m_connectionMsgHandler));
+			}
+		}
+	}
+
+	/*
+		Called on the event loop once the upgrade was the oldest request on the connection.  The handshaker swaps
+		the HTTP codec for the WebSocket one and the rest of the HTTP handlers are taken out after the 101 is sent.
+		The client can't send a frame until it has the 101, so nothing is read in between.
+	 */
+	private void upgradeToWebSocket(Connection conn, Channel channel, WebSocketServerHandshaker handshaker, FullHttpRequest request, WebSocketConnection.Route route) {
+		final ChannelFuture upgradeFuture;
+		try {
+			upgradeFuture = handshaker.handshake(channel, request);
+		} finally {
+			request.release();
+		}
+		final String requestURI = request.uri();
+		final HttpHeaders requestHeaders = request.headers();
+		upgradeFuture.addListener((ChannelFutureListener)(f) -> {
+			if (!f.isSuccess()) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("[{}] WebSocket handshake failed", conn.remoteHostAddress(), f.cause());
+				}
+				channel.close();
+				return;
+			}
+			final ChannelPipeline pipeline = channel.pipeline();
+			// A WebSocket is expected to sit idle
+			for (String name : new String[] {"timeout", "keepAlive", "rateLimiter", "streamSelector", "chunkWrite"}) {
+				if (pipeline.get(name) != null) {
+					pipeline.remove(name);
+				}
+			}
+			final WebSocketConnection webSocket = new WebSocketConnection(LOG, route, conn.connectionId(), conn.remoteHostAddress(), requestURI, requestHeaders, m_runHandlersOnEventLoop ? channel.eventLoop() : null);
+			pipeline.replace(m_connectionMsgHandler, "webSocket", webSocket.handler());
+			pipeline.addBefore("webSocket", "wsAggregator", new WebSocketFrameAggregator(m_webSocketMaxMessageSize));
+			m_webSocketChannels.add(channel);
+		});
+	}
+
+	/*
+		Each stream gets its own child channel with an HTTP/1 style pipeline on it, so the requests look the
+		same to the handlers no matter which protocol they came in on
+	 */
+	private void configureHttp2(ChannelPipeline pipeline) {
+		m_http2Connections.increment();
+		// The timer is paused while any stream is open, see Http2StreamInitializer
+		((ConnectionTimeoutHandler)pipeline.get("timeout")).http2();
+		pipeline.addLast("http2Codec", Http2FrameCodecBuilder.forServer()
+			.initialSettings(Http2Settings.defaultSettings().maxConcurrentStreams(HTTP2_MAX_CONCURRENT_STREAMS).maxHeaderListSize(m_maxHeaderSize))
+			.gracefulShutdownTimeoutMillis(m_drainTimeoutMS)
+			.build());
+		pipeline.addLast("http2Multiplexer", new Http2MultiplexHandler(new Http2StreamInitializer()));
+		pipeline.addLast(m_http2ParentMsgHandler);
+	}
+
+	private class Http2StreamInitializer extends ChannelInitializer<Http2StreamChannel> {
+		@Override
+		protected void initChannel(Http2StreamChannel streamChannel) {
+			final Connection parent = streamChannel.parent().attr(CONNECTION).get();
+			if (parent == null) {
+				// The connection is already closing
+				streamChannel.close();
+				return;
+			}
+			m_http2Streams.increment();
+			final ConnectionTimeoutHandler timeoutHandler = parent.m_timeoutHandler;
+			timeoutHandler.requestStarted();
+			streamChannel.closeFuture().addListener((f) -> timeoutHandler.requestEnded());
+
+			final ChannelPipeline pipeline = streamChannel.pipeline();
+			pipeline.addLast("codec", new Http2StreamFrameToHttpObjectCodec(true));
+			if (!DATA_LOG.isTraceEnabled()) {
+				pipeline.addLast("compressor", new ResponseCompressor());
+			}
+			if (m_rateLimiter != null) {
+				pipeline.addLast("rateLimiter", new RateLimitHandler(streamChannel));
+			}
+			if (m_streamingHandler != null) {
+				pipeline.addLast("streamSelector", new StreamingRequestSelector());
+			}
+			pipeline.addLast("sizeLimit", new RequestSizeLimitHandler());
+			pipeline.addLast("aggregator", new HttpObjectAggregator(m_aggregatorMaxContentSize, true));
+			pipeline.addLast("chunkWrite", new ChunkedWriteHandler());
+			pipeline.addLast(m_connectionMsgHandler);
+
+			streamChannel.attr(CONNECTION).set(new Connection(parent.remoteHostAddress(), streamChannel, m_runHandlersOnEventLoop ? streamChannel.eventLoop() : null, parent, null));
+		}
+	}
+
+	/*
+		Picks HTTP/2 or HTTP/1.1 from what the client asked for in the SSL handshake
+	 */
+	private class AlpnProtocolSelector extends ApplicationProtocolNegotiationHandler {
+		AlpnProtocolSelector() {
+			super(ApplicationProtocolNames.HTTP_1_1);
+		}
+
+		@Override
+		protected void configurePipeline(ChannelHandlerContext ctx, String protocol) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("[{}] negotiated {}", ctx.channel().remoteAddress(), protocol);
+			}
+			if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+				configureHttp2(ctx.pipeline());
+			} else {
+				configureHttp1(ctx.pipeline(), true);
+			}
+		}
+	}
+
+	/*
+		Clear-text HTTP/2 is only spoken with prior knowledge, the client starts the connection with the
+		HTTP/2 preface instead of asking for an upgrade
+	 */
+	private class CleartextProtocolSelector extends ByteToMessageDecoder {
+		@Override
+		protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+			final int prefaceBytes = Math.min(in.readableBytes(), HTTP2_PREFACE.readableBytes());
+			if (ByteBufUtil.equals(in, in.readerIndex(), HTTP2_PREFACE, 0, prefaceBytes)) {
+				if (prefaceBytes < HTTP2_PREFACE.readableBytes()) {
+					// Can't tell yet
+					return;
+				}
+				configureHttp2(ctx.pipeline());
+			} else {
+				configureHttp1(ctx.pipeline(), true);
+			}
+			// What has been read so far is passed on to the handlers just added
+			ctx.pipeline().remove(this);
+		}
+	}
+
+	/*
+		Sends the requests the user wants streamed around the aggregator so the body is passed along as it arrives
+	 */
+	private class StreamingRequestSelector extends ChannelInboundHandlerAdapter {
+		private ChannelHandlerContext m_aggregatorContext;
+		private boolean m_streaming;
+
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+			if (msg instanceof HttpRequest) {
+				final HttpRequest req = (HttpRequest)msg;
+				m_streaming = req.decoderResult().isSuccess() && m_streamingSelector.streamRequest(req.method().name(), req.uri());
+				if (m_streaming && HttpUtil.is100ContinueExpected(req)) {
+					// The aggregator normally answers this, the client is waiting on it before sending the body
+					ctx.writeAndFlush(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, CONTINUE, Unpooled.EMPTY_BUFFER));
+					req.headers().remove(HttpHeaderNames.EXPECT);
+				}
+			}
+			if (!m_streaming) {
+				super.channelRead(ctx, msg);
+				return;
+			}
+			if (msg instanceof LastHttpContent) {
+				m_streaming = false;
+			}
+			if (m_aggregatorContext == null) {
+				m_aggregatorContext = ctx.pipeline().context("aggregator");
+			}
+			// Fires the message at the handler after the aggregator
+			m_aggregatorContext.fireChannelRead(msg);
+		}
+	}
+
+	/*
+		Leaves the responses built as UncompressedResponse or UncompressedFullResponse alone, these are the file
+		regions it can't touch, the ranges which are of the identity encoding, the event streams it would hold back
+		and the cached files which are already in the encoding they go out in.
+	 */
+	private static final class ResponseCompressor extends HttpContentCompressor {
+		private static final ResponseCompressor ENCODING_CHOOSER = new ResponseCompressor();
+
+		/**
+		 * True when a response it is allowed to touch goes out compressed to a client sending this Accept-Encoding
+		 */
+		static boolean compresses(String acceptEncoding) {
+			return acceptEncoding != null && ENCODING_CHOOSER.determineWrapper(acceptEncoding) != null;
+		}
+
+		@Override
+		protected Result beginEncode(HttpResponse response, String acceptEncoding) throws Exception {
+			if (response instanceof UncompressedResponse || response instanceof UncompressedFullResponse) {
+				return null;
+			}
+			return super.beginEncode(response, acceptEncoding);
+		}
+	}
+
+	private static final class UncompressedResponse extends DefaultHttpResponse {
+		UncompressedResponse(HttpVersion version, HttpResponseStatus status) {
+			super(version, status);
+		}
+	}
+
+	private static final class UncompressedFullResponse extends DefaultFullHttpResponse {
+		UncompressedFullResponse(HttpVersion version, HttpResponseStatus status, ByteBuf content) {
+			super(version, status, content);
+		}
+	}
+
+	/*
+		Turns away clients that are over their rate before the body is aggregated.  The rejected request still goes to
+		the connection, without its body, so the 429 is written in order with any pipelined responses.
+	 */
+	private class RateLimitHandler extends ChannelInboundHandlerAdapter {
+		private final Object m_addressKey;
+		private ChannelHandlerContext m_aggregatorContext;
+		private boolean m_discardingBody;
+
+		RateLimitHandler(Channel channel) {
+			// A stream's remote address is the one of its connection
+			final SocketAddress address = channel.remoteAddress();
+			m_addressKey = (address instanceof InetSocketAddress) ? ((InetSocketAddress)address).getAddress() : String.valueOf(address);
+		}
+
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+			if (msg instanceof HttpRequest) {
+				m_discardingBody = false;
+				final HttpRequest req = (HttpRequest)msg;
+				if (req.decoderResult().isSuccess()) {
+					final String headerKey = (m_rateLimitKeyHeader != null) ? req.headers().get(m_rateLimitKeyHeader) : null;
+					final long waitNS = m_rateLimiter.tryAcquire((headerKey != null) ? ClientRateLimiter.headerKey(headerKey, m_addressKey) : m_addressKey);
+					if (waitNS > 0) {
+						throttle(ctx, req, waitNS);
+						return;
+					}
+				}
+			} else if (m_discardingBody && msg instanceof HttpContent) {
+				if (msg instanceof LastHttpContent) {
+					m_discardingBody = false;
+				}
+				ReferenceCountUtil.release(msg);
+				return;
+			}
+			super.channelRead(ctx, msg);
+		}
+
+		private void throttle(ChannelHandlerContext ctx, HttpRequest req, long waitNS) {
+			final FullHttpRequest bodyless = new DefaultFullHttpRequest(req.protocolVersion(), req.method(), req.uri(), Unpooled.EMPTY_BUFFER, req.headers(), EmptyHttpHeaders.INSTANCE);
+			if (HttpUtil.is100ContinueExpected(req)) {
+				// The client may or may not send the body after the 429, so the connection can't be used again
+				HttpUtil.setKeepAlive(bodyless, false);
+			}
+			if (req instanceof LastHttpContent) {
+				ReferenceCountUtil.release(req);
+			} else {
+				m_discardingBody = true;
+			}
+			if (m_aggregatorContext == null) {
+				m_aggregatorContext = ctx.pipeline().context("aggregator");
+			}
+			// Fires the message at the handler after the aggregator
+			m_aggregatorContext.fireChannelRead(new ThrottledRequest(bodyless, waitNS));
+		}
+	}
+
+	/*
+		Turns away requests whose body is over the limit for their path.  When the Content-Length says so the request
+		goes to the connection without its body, like a throttled one, and the body is thrown away as it arrives so
+		the connection can be used again.  A body larger than http.HttpServer.maxDiscardedBodySize isn't worth reading
+		just to throw away, the connection is closed after the 413 instead.  A chunked body is only known to be too
+		big part way through, the aggregator is handed a failed last chunk so it gives up on the request and the
+		connection is closed after the 413.
+	 */
+	private class RequestSizeLimitHandler extends ChannelInboundHandlerAdapter {
+		private ChannelHandlerContext m_aggregatorContext;
+		private long m_maxContentSize;
+		private long m_contentSize;
+		private boolean m_discardingBody;
 
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+			if (msg instanceof HttpRequest) {
+				m_discardingBody = false;
+				m_contentSize = 0;
+				final HttpRequest req = (HttpRequest)msg;
+				if (req.decoderResult().isSuccess()) {
+					m_maxContentSize = maxContentSize(req.uri());
+					if (HttpUtil.getContentLength(req, -1L) > m_maxContentSize) {
+						reject(ctx, req);
+						return;
+					}
+				} else if (req.decoderResult().cause() instanceof TooLongFrameException) {
+					rejectTooLong(ctx, req);
+					return;
+				}
+			} else if (m_discardingBody && msg instanceof HttpContent) {
+				if (msg instanceof LastHttpContent) {
+					m_discardingBody = false;
+				}
+				ReferenceCountUtil.release(msg);
+				return;
+			}
+			if (msg instanceof HttpContent) {
+				final HttpContent content = (HttpContent)msg;
+				m_contentSize += content.content().readableBytes();
+				if (m_contentSize > m_maxContentSize) {
+					content.release();
+					m_discardingBody = !(content instanceof LastHttpContent);
+					final LastHttpContent failed = new DefaultLastHttpContent(Unpooled.EMPTY_BUFFER);
+					failed.setDecoderResult(DecoderResult.failure(new ContentTooLargeException(m_maxContentSize)));
+					super.channelRead(ctx, failed);
+					return;
+				}
+			}
+			super.channelRead(ctx, msg);
+		}
+
+		private void reject(ChannelHandlerContext ctx, HttpRequest req) {
+			final FullHttpRequest bodyless = new DefaultFullHttpRequest(req.protocolVersion(), req.method(), req.uri(), Unpooled.EMPTY_BUFFER, req.headers(), EmptyHttpHeaders.INSTANCE);
+			if (HttpUtil.is100ContinueExpected(req) || HttpUtil.getContentLength(req, -1L) > MAX_DISCARDED_BODY_SIZE) {
+				// The client may or may not send the body after the 413 (or it is too big to read through), so the
+				// connection can't be used again
+				HttpUtil.setKeepAlive(bodyless, false);
+			}
+			if (req instanceof LastHttpContent) {
+				ReferenceCountUtil.release(req);
+			} else {
+				m_discardingBody = true;
+			}
+			if (m_aggregatorContext == null) {
+				m_aggregatorContext = ctx.pipeline().context("aggregator");
+			}
+			// Fires the message at the handler after the aggregator
+			m_aggregatorContext.fireChannelRead(new OversizedRequest(bodyless, REQUEST_ENTITY_TOO_LARGE));
+		}
+
+		/*
+			The decoder only has a request of its own once it has read the request line.  When the line itself is
+			too long it makes up a complete request to carry the failure, anything else was the headers.  The decoder
+			throws away the rest of what the client sends, so the connection is closed after the response.
+		 */
+		private void rejectTooLong(ChannelHandlerContext ctx, HttpRequest req) {
+			final HttpResponseStatus status = (req instanceof FullHttpRequest) ? REQUEST_URI_TOO_LONG : REQUEST_HEADER_FIELDS_TOO_LARGE;
+			final FullHttpRequest bodyless = new DefaultFullHttpRequest(req.protocolVersion(), req.method(), req.uri(), Unpooled.EMPTY_BUFFER, req.headers(), EmptyHttpHeaders.INSTANCE);
+			HttpUtil.setKeepAlive(bodyless, false);
+			ReferenceCountUtil.release(req);
+			if (m_aggregatorContext == null) {
+				m_aggregatorContext = ctx.pipeline().context("aggregator");
+			}
+			m_aggregatorContext.fireChannelRead(new OversizedRequest(bodyless, status));
+		}
+	}
+
+	private int maxContentSize(String uri) {
+		if (m_pathMaxContentSizes == null) {
+			return m_maxContentSize;
+		}
+		final int queryStart = uri.indexOf('?');
+		final Integer maxContentSize = m_pathMaxContentSizes.get((queryStart == -1) ? uri : uri.substring(0, queryStart));
+		return (maxContentSize != null) ? maxContentSize : m_maxContentSize;
+	}
+
+	/*
+		Returns null when the decoder failed for some other reason.  A request line or headers over their limit are
+		normally caught by RequestSizeLimitHandler, 431 is the answer if one gets past it.
+	 */
+	private static HttpResponseStatus oversizedStatus(Throwable cause) {
+		if (cause instanceof ContentTooLargeException) {
+			return REQUEST_ENTITY_TOO_LARGE;
+		}
+		if (cause instanceof TooLongFrameException) {
+			return REQUEST_HEADER_FIELDS_TOO_LARGE;
+		}
+		return null;
+	}
+
+	private static final class ContentTooLargeException extends TooLongFrameException {
+		private ContentTooLargeException(long maxContentSize) {
+			super("Request body is larger than " + maxContentSize + " bytes");
+		}
+	}
+
+	private static final class OversizedRequest {
+		private final FullHttpRequest m_request;
+		private final HttpResponseStatus m_status;
+
+		private OversizedRequest(FullHttpRequest request, HttpResponseStatus status) {
+			m_request = request;
+			m_status = status;
+		}
+	}
+
+	private static final class ThrottledRequest {
+		private final FullHttpRequest m_request;
+		private final long m_retryAfterNS;
+
+		private ThrottledRequest(FullHttpRequest request, long retryAfterNS) {
+			m_request = request;
+			m_retryAfterNS = retryAfterNS;
+		}
+	}
+
+	/*
+		First in every socket's pipeline, it counts the bytes and sees the socket close no matter which
+		protocol ended up running on it
+	 */
 	@ChannelHandler.Sharable
-	private class ByteCounterMsgHandler extends ChannelDuplexHandler {
+	private class ChildSocketMsgHandler extends ChannelDuplexHandler {
 		@Override
 		public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
 			if (msg instanceof ByteBuf) {
@@ -374,9 +1089,55 @@ public final class HttpServer {
 		public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
 			if (msg instanceof ByteBuf) {
 				m_responseDataSize.add(((ByteBuf)msg).readableBytes());
+			} else if (msg instanceof FileRegion) {
+				m_responseDataSize.add(((FileRegion)msg).count());
 			}
 			super.write(ctx, msg, promise);
 		}
+
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+			if (LOG.isTraceEnabled()) {
+				LOG.trace("[{}] ChildSocketMsgHandler.channelInactive()", ctx.channel().remoteAddress().toString());
+			}
+			final Connection conn = ctx.channel().attr(CONNECTION).getAndSet(null);
+			if (conn == null) {
+				if (LOG.isDebugEnabled()) {
+					LOG.error("[{}] ChildSocketMsgHandler.channelInactive() - CONNECTION attribute was missing", ctx.channel().remoteAddress().toString());
+				}
+			} else {
+				conn.callOnDisconnect();
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("[{}] disconnected", conn.remoteHostAddress());
+				}
+			}
+			m_disconnections.increment();
+			m_activeConnections.decrement();
+			if (ctx.channel().attr(DRAINING).getAndSet(null) != null) {
+				m_drainingConnections.decrement();
+			}
+
+			// This releases the child socket's "use" of the server
+			serverRelease();
+
+			super.channelInactive(ctx);
+		}
+	}
+
+	/*
+		Last in an HTTP/2 connection's pipeline, protocol errors are handled by the codec so anything that
+		gets here is unexpected
+	 */
+	@ChannelHandler.Sharable
+	private class Http2ParentMsgHandler extends ChannelInboundHandlerAdapter {
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+			m_numExceptions.increment();
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("[{}] Http2ParentMsgHandler.exceptionCaught(), closing connection", ctx.channel().remoteAddress().toString(), cause);
+			}
+			ctx.close();
+		}
 	}
 
 	@ChannelHandler.Sharable
@@ -388,11 +1149,37 @@ public final class HttpServer {
 				LOG.trace("[{}] channelRead()", conn.remoteHostAddress());
 			}
 
-			if (msg instanceof FullHttpRequest) {
+			if (msg instanceof ThrottledRequest) {
+				final ThrottledRequest throttled = (ThrottledRequest)msg;
+				m_newRequests.increment();
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("[{}] {} {} {} (throttled)", ctx.channel().remoteAddress().toString(), throttled.m_request.method(), throttled.m_request.protocolVersion(), throttled.m_request.uri());
+				}
+				conn.callOnThrottledRequest(throttled.m_request, throttled.m_retryAfterNS);
+			} else if (msg instanceof OversizedRequest) {
+				final OversizedRequest oversized = (OversizedRequest)msg;
+				m_newRequests.increment();
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("[{}] {} {} {} ({})", ctx.channel().remoteAddress().toString(), oversized.m_request.method(), oversized.m_request.protocolVersion(), oversized.m_request.uri(), oversized.m_status);
+				}
+				conn.callOnOversizedRequest(oversized.m_request, oversized.m_status);
+			} else if (msg instanceof FullHttpRequest) {
 				// This can be called multiple times if multiple requests are sent on the same connection!!
 				final FullHttpRequest req = (FullHttpRequest)msg;
 				m_newRequests.increment();
 
+				final HttpResponseStatus oversizedStatus = req.decoderResult().isSuccess() ? null : oversizedStatus(req.decoderResult().cause());
+				if (oversizedStatus != null) {
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("[{}] {} {} {} ({})", ctx.channel().remoteAddress().toString(), req.method(), req.protocolVersion(), req.uri(), req.decoderResult().cause().getMessage());
+					}
+					// The rest of what the client sent can't be read as requests, the connection is closed after the response
+					final FullHttpRequest bodyless = new DefaultFullHttpRequest(req.protocolVersion(), req.method(), req.uri(), Unpooled.EMPTY_BUFFER, req.headers(), EmptyHttpHeaders.INSTANCE);
+					HttpUtil.setKeepAlive(bodyless, false);
+					req.release();
+					conn.callOnOversizedRequest(bodyless, oversizedStatus);
+					return;
+				}
 				if (!req.decoderResult().isSuccess()) {
 					m_numDecoderFailures.increment();
 					if (LOG.isDebugEnabled() || LOG_DECODER_FAILURES) {
@@ -407,6 +1194,37 @@ public final class HttpServer {
 					LOG.debug("[{}] {} {} {}", ctx.channel().remoteAddress().toString(), req.method(), req.protocolVersion(), req.uri());
 				}
 				conn.callOnRequest(req);
+			} else if (msg instanceof HttpRequest) {
+				// Only streamed requests get here without being aggregated
+				final HttpRequest req = (HttpRequest)msg;
+				m_newRequests.increment();
+				m_streamedRequests.increment();
+
+				if (!req.decoderResult().isSuccess()) {
+					m_numDecoderFailures.increment();
+					if (LOG.isDebugEnabled() || LOG_DECODER_FAILURES) {
+						LOG.error("[{}] HTTP decoder failed", ctx.channel().remoteAddress().toString(), req.decoderResult().cause());
+					}
+					ctx.close();
+					return;
+				}
+
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("[{}] {} {} {} (streamed)", ctx.channel().remoteAddress().toString(), req.method(), req.protocolVersion(), req.uri());
+				}
+				conn.callOnRequest(req);
+			} else if (msg instanceof HttpContent) {
+				final HttpContent content = (HttpContent)msg;
+				if (!content.decoderResult().isSuccess()) {
+					m_numDecoderFailures.increment();
+					if (LOG.isDebugEnabled() || LOG_DECODER_FAILURES) {
+						LOG.error("[{}] HTTP decoder failed", ctx.channel().remoteAddress().toString(), content.decoderResult().cause());
+					}
+					content.release();
+					ctx.close();
+					return;
+				}
+				conn.callOnRequestContent(ctx.channel(), content);
 			} else {
 				ReferenceCountUtil.safeRelease(msg);
 				if (conn == null) {
@@ -469,28 +1287,29 @@ public final class HttpServer {
 			super.channelActive(ctx);
 		}
 
+		@Override
+		public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+			if (ctx.channel().isWritable()) {
+				final Connection conn = ctx.channel().attr(CONNECTION).get();
+				if (conn != null) {
+					conn.callOnWritable();
+				}
+			}
+			super.channelWritabilityChanged(ctx);
+		}
+
 		@Override
 		public void channelInactive(ChannelHandlerContext ctx) throws Exception {
 			if (LOG.isTraceEnabled()) {
 				LOG.trace("[{}] ConnectionInboundMsgHandler.channelInactive()", ctx.channel().remoteAddress().toString());
 			}
-			final Connection conn = ctx.channel().attr(CONNECTION).getAndSet(null);
-			if (conn == null) {
-				if (LOG.isDebugEnabled()) {
-					LOG.error("[{}] MyChannelInitializer.channelInactive() - CONNECTION attribute was missing", ctx.channel().remoteAddress().toString());
-				}
-			} else {
-				conn.callOnDisconnect();
-				if (LOG.isDebugEnabled()) {
-					LOG.debug("[{}] disconnected", conn.remoteHostAddress());
+			if (ctx.channel() instanceof Http2StreamChannel) {
+				// Sockets are taken care of by ChildSocketMsgHandler, a stream only needs its request state cleaned up
+				final Connection conn = ctx.channel().attr(CONNECTION).getAndSet(null);
+				if (conn != null) {
+					conn.callOnDisconnect();
 				}
 			}
-			m_disconnections.increment();
-			m_activeConnections.decrement();
-
-			// This releases the child socket's "use" of the server
-			serverRelease();
-
 			super.channelInactive(ctx);
 		}
 
@@ -504,7 +1323,7 @@ public final class HttpServer {
 			if (LOG.isDebugEnabled()) {
 				LOG.debug("[{}] ServerSocketHandler.channelRead(): {} {}", ctx.channel(), msg.getClass().getName(), msg.toString());
 			}
-			if (msg instanceof NioSocketChannel) {
+			if (msg instanceof SocketChannel) {
 				// This increments our child socket's "use" of the server
 				serverRetain();
 
@@ -532,13 +1351,23 @@ public final class HttpServer {
 			// The server socket (listening socket) maintains a ref to the HttpServer
 			serverRetain();
 			m_listenerActive.increment();
+			m_openListeners.incrementAndGet();
+			m_serverConnections.add(ctx.channel());
 
-			m_serverState = ServerState.BoundListening;
-			m_serverConnection = ctx.channel();
+			if (m_startDonePromise.isDone() && !m_startDonePromise.isSuccess()) {
+				// Another listener failed to bind, this one can't stay open
+				ctx.close();
+			} else if (m_pendingListeners.decrementAndGet() == 0) {
+				m_serverState = ServerState.BoundListening;
 
-			LOG.info("Listening for HTTP requests on port {} with a read timeout of {}ms", m_httpPort, m_readTimeoutInMS);
+				if (m_numListeners == 1) {
+					LOG.info("Listening for HTTP requests on port {} with a read timeout of {}ms and an idle timeout of {}ms", m_httpPort, m_readTimeoutInMS, m_keepAliveIdleTimeoutInMS);
+				} else {
+					LOG.info("Listening for HTTP requests on port {} with {} SO_REUSEPORT listeners, a read timeout of {}ms and an idle timeout of {}ms", m_httpPort, m_numListeners, m_readTimeoutInMS, m_keepAliveIdleTimeoutInMS);
+				}
 
-			m_startDonePromise.setSuccess(null);
+				m_startDonePromise.trySuccess(null);
+			}
 
 			super.channelActive(ctx);
 		}
@@ -552,8 +1381,10 @@ public final class HttpServer {
 				LOG.debug("[{}] ServerSocketHandler.channelInactive(), serverState {}", ctx.channel(), m_serverState);
 			}
 
-			// Channel has closed
-			m_serverState = ServerState.Offline;
+			// Channel has closed, the server is offline once the last listener closes
+			if (m_openListeners.decrementAndGet() == 0) {
+				m_serverState = ServerState.Offline;
+			}
 
 			serverRelease();
 			m_listenerActive.decrement();
@@ -576,6 +1407,8 @@ public final class HttpServer {
 
 	private static final Object m_onConnect = new Object();
 	private static final Object m_onDisconnect = new Object();
+	private static final Object m_onWritable = new Object();
+	private static final Object m_onDrain = new Object();
 	private static final AtomicInteger m_connectionIdSrc = new AtomicInteger();
 	private static final AtomicInteger m_requestIdSrc = new AtomicInteger();
 
@@ -585,64 +1418,118 @@ public final class HttpServer {
 		private final String m_connectionToString;
 		private final long m_connectedAtMS;
 		private volatile Channel m_channel;
-
-		private volatile UserRequestState m_currentRequest;
+		// Set when the handlers run on the channel's event loop instead of the task pool
+		private final EventLoop m_eventLoop;
+		// An HTTP/2 stream shares the id of its connection and doesn't call the connect/disconnect handlers
+		private final boolean m_isStream;
+
+		// Requests in the order they arrived, responses are written in this order.  Only touched by the worker.
+		private final ArrayDeque<UserRequestState> m_inFlightRequests = new ArrayDeque<>();
+		// Set by the worker, read by whoever might resume reading
+		private volatile boolean m_pipelinePaused;
 		private volatile ChannelHandlerContext m_context;
-
-		private boolean m_updatedReadTimeout;
-
-		Connection(String connectionToString, Channel channel) {
-			m_connectionId = m_connectionIdSrc.incrementAndGet();
+		// The streamed request whose body is still arriving, this can outlive its response when the user responds early
+		private UserRequestState m_streamingRequest;
+		private final AtomicInteger m_bufferedBodyBytes = new AtomicInteger();
+		// The streamed request whose body the read timeout is still running for, only touched by the event loop
+		private UserRequestState m_readingBody;
+		// Null for HTTP/2 streams
+		private final ConnectionTimeoutHandler m_timeoutHandler;
+
+		Connection(String connectionToString, Channel channel, EventLoop eventLoop, Connection http2Parent, ConnectionTimeoutHandler timeoutHandler) {
+			super((eventLoop != null) ? eventLoop : Application.getTaskPool());
+			m_eventLoop = eventLoop;
+			m_timeoutHandler = timeoutHandler;
+			m_isStream = (http2Parent != null);
+			m_connectionId = m_isStream ? http2Parent.m_connectionId : m_connectionIdSrc.incrementAndGet();
 			m_connectionToString = connectionToString;
 			m_channel = channel;
 			m_connectedAtMS = System.currentTimeMillis();
 		}
 
+		/*
+			When the handlers run on the event loop and we are already on it, the work is done inline instead
+			of being handed off
+		 */
+		private void scheduleWork() {
+			if (m_eventLoop != null && m_eventLoop.inEventLoop()) {
+				runMoreWork();
+			} else {
+				requestMoreWork();
+			}
+		}
+
 		void callOnConnect() {
 			m_msgQueue.add(m_onConnect);
-			requestMoreWork();
+			scheduleWork();
 		}
 		void setContext(ChannelHandlerContext context) {
 			m_msgQueue.add(context);
-			requestMoreWork();
+			scheduleWork();
+		}
+		void callOnRequest(HttpRequest httpRequest) {
+			// Created here so the time spent waiting on the worker is known
+			m_msgQueue.add(new UserRequestState(httpRequest, !(httpRequest instanceof FullHttpRequest)));
+			scheduleWork();
+		}
+		void callOnThrottledRequest(FullHttpRequest httpRequest, long retryAfterNS) {
+			final UserRequestState request = new UserRequestState(httpRequest, false);
+			request.m_throttledForNS = retryAfterNS;
+			m_msgQueue.add(request);
+			scheduleWork();
 		}
-		void callOnRequest(FullHttpRequest httpRequest) {
-			m_msgQueue.add(httpRequest);
-			requestMoreWork();
+		void callOnOversizedRequest(FullHttpRequest httpRequest, HttpResponseStatus status) {
+			final UserRequestState request = new UserRequestState(httpRequest, false);
+			request.m_oversizedStatus = status;
+			m_msgQueue.add(request);
+			scheduleWork();
+		}
+		void callOnRequestContent(Channel channel, HttpContent content) {
+			if (content instanceof LastHttpContent && m_readingBody != null) {
+				m_readingBody.pauseTimeout();
+				m_readingBody = null;
+			}
+			if (m_bufferedBodyBytes.addAndGet(content.content().readableBytes()) > STREAMING_BODY_HIGH_WATER_MARK && channel.config().isAutoRead()) {
+				// Stop reading from the socket until the handler catches up on the body
+				channel.config().setAutoRead(false);
+				m_requestBodyPauses.increment();
+				// The handler might have caught up while we were pausing
+				resumeReading();
+			}
+			m_msgQueue.add(content);
+			scheduleWork();
+		}
+		void callOnDrain() {
+			m_msgQueue.add(m_onDrain);
+			scheduleWork();
 		}
 		void callOnDisconnect() {
 			m_msgQueue.add(m_onDisconnect);
-			requestMoreWork();
+			scheduleWork();
 		}
 		void callOnFailure(Throwable cause) {
 			m_msgQueue.add(cause);
-			requestMoreWork();
+			scheduleWork();
+		}
+		void callOnWritable() {
+			m_msgQueue.add(m_onWritable);
+			scheduleWork();
 		}
 
-		private void clearReadTimeout() {
-			if (m_updatedReadTimeout || !m_channel.isOpen()) {
-				// already cleared it and never restored it or connection is closed
-				return;
-			}
-			try {
-				// Need to leave the handler in its place, so replace it with something that does nothing
-				m_channel.pipeline().replace("read-timeout", "read-timeout", new DoNothingHandler());
-				m_updatedReadTimeout = true;
-			} catch(NoSuchElementException ex) {
-				// This is fine, it is an edge failure case when the connection is closed by the time we get here
-			}
+		private void bodyBytesConsumed(int numBytes) {
+			m_bufferedBodyBytes.addAndGet(-numBytes);
+			resumeReading();
 		}
 
-		private void restoreReadTimeout() {
-			if (m_updatedReadTimeout && m_channel != null && m_channel.isOpen() && m_context != null) {
-				// Replace read timeout with default
-				m_updatedReadTimeout = false;
-				try {
-					m_channel.pipeline().replace("read-timeout", "read-timeout", new ReadTimeoutHandler(m_readTimeoutInMS, TimeUnit.MILLISECONDS));
-				} catch (NoSuchElementException ex) {
-					// This is fine, it is an edge failure case most likely due to a closing channel/connection
-					m_context.close(); // Let's just make sure we are closing
-				}
+		/*
+			Reading is paused both for a full pipeline and for a streamed body the handler is behind on, it is only
+			resumed once neither applies.  Each pause sets its reason before turning auto read off, so a resume
+			racing with it sees the reason.
+		 */
+		private void resumeReading() {
+			final Channel channel = m_channel;
+			if (channel != null && !m_pipelinePaused && m_bufferedBodyBytes.get() <= STREAMING_BODY_LOW_WATER_MARK && !channel.config().isAutoRead()) {
+				channel.config().setAutoRead(true);
 			}
 		}
 
@@ -696,10 +1583,16 @@ public final class HttpServer {
 					}
 
 				} else if (msg == m_onDisconnect) {
+					closeStreamingResponses();
+					if (m_isStream) {
+						clearConnection();
+						continue;
+					}
 					try {
 						if (CONNECTION_LOG.isInfoEnabled()) {
-							if (m_currentRequest != null) {
-								CONNECTION_LOG.warn("[{}] disconnected from {} after {} ms (there is still a request {} running for {} ms)", connectionId(), remoteHostAddress(), System.currentTimeMillis() - m_connectedAtMS, m_currentRequest.requestId(), m_currentRequest.elapsedTimeMS());
+							final UserRequestState oldestRequest = m_inFlightRequests.peekFirst();
+							if (oldestRequest != null) {
+								CONNECTION_LOG.warn("[{}] disconnected from {} after {} ms (there are still {} requests running, the oldest {} for {} ms)", connectionId(), remoteHostAddress(), System.currentTimeMillis() - m_connectedAtMS, m_inFlightRequests.size(), oldestRequest.requestId(), oldestRequest.elapsedTimeMS());
 							} else {
 								CONNECTION_LOG.info("[{}] disconnected from {} after {} ms", connectionId(), remoteHostAddress(), System.currentTimeMillis() - m_connectedAtMS);
 							}
@@ -713,16 +1606,48 @@ public final class HttpServer {
 				} else if (msg instanceof ChannelHandlerContext) {
 					m_context = (ChannelHandlerContext) msg;
 
-				} else if (msg instanceof FullHttpRequest) {
-					if (m_currentRequest != null) {
-						REQUEST_LOG.error("[{}-{}] previous request never responded: {} {}", connectionId(), m_currentRequest.requestId(), m_currentRequest.requestMethod(), m_currentRequest.requestURI());
-						// Previous request never finished
-						m_currentRequest.endRequest();
+				} else if (msg == m_onDrain) {
+					// The busy ones close after their last response
+					final Channel channel = m_channel;
+					if (channel != null && m_inFlightRequests.isEmpty() && m_streamingRequest == null) {
+						m_drainIdleCloses.increment();
+						channel.close();
+					}
+
+				} else if (msg == m_onWritable) {
+					if (m_context != null) {
+						writeReadyResponses();
+					}
+
+				} else if (msg instanceof StreamingResponse) {
+					final StreamingResponse stream = (StreamingResponse)msg;
+					if (stream.m_closed || m_context == null) {
+						// Whatever was written after the stream closed
+						stream.releaseQueued();
+					} else {
+						writeReadyResponses();
+					}
+
+				} else if (msg instanceof UserRequestState && !((UserRequestState)msg).m_dispatched) {
+					final UserRequestState request = (UserRequestState)msg;
+					request.m_dispatched = true;
+					final HttpRequest httpRequest = request.m_httpRequest;
+					final boolean isStreamed = (request.m_body != null);
+					m_inFlightRequests.addLast(request);
+					if (m_inFlightRequests.size() > 1) {
+						m_pipelinedRequests.increment();
+					}
+					if (m_inFlightRequests.size() >= m_maxPipelinedRequests && !m_pipelinePaused && m_channel != null) {
+						// Stop reading more requests until the ones we have are answered
+						m_pipelinePaused = true;
+						m_channel.config().setAutoRead(false);
+					}
+					if (isStreamed) {
+						m_streamingRequest = request;
 					}
-					m_currentRequest = new UserRequestState((FullHttpRequest)msg);
 					if (REQUEST_LOG.isDebugEnabled()) {
 						final StringBuilder sb = new StringBuilder();
-						final HttpHeaders headers = ((FullHttpRequest)msg).headers();
+						final HttpHeaders headers = httpRequest.headers();
 						if (!headers.isEmpty()) {
 							sb.append("\r\n");
 							for (Map.Entry<String, String> h: headers) {
@@ -731,64 +1656,102 @@ public final class HttpServer {
 								sb.append('\t').append(key).append(" = '").append(value).append("'\r\n");
 							}
 						}
-						REQUEST_LOG.debug("[{}-{}] {} {} {}{}", connectionId(), m_currentRequest.requestId(), m_currentRequest.requestMethod(), m_currentRequest.m_httpRequestProtocolVersion, m_currentRequest.requestURI(), sb);
+						REQUEST_LOG.debug("[{}-{}] {} {} {}{}", connectionId(), request.requestId(), request.requestMethod(), request.m_httpRequestProtocolVersion, request.requestURI(), sb);
 					} else if (REQUEST_LOG.isInfoEnabled()) {
-						REQUEST_LOG.info("[{}-{}] {} {}", connectionId(), m_currentRequest.requestId(), m_currentRequest.requestMethod(), m_currentRequest.requestURI());
+						REQUEST_LOG.info("[{}-{}] {} {}", connectionId(), request.requestId(), request.requestMethod(), request.requestURI());
 					}
 
-					if (!((FullHttpRequest)msg).decoderResult().isSuccess()) {
+					if (!httpRequest.decoderResult().isSuccess()) {
 						if (REQUEST_LOG.isInfoEnabled()) {
-							REQUEST_LOG.info("[{}-{}] BAD_REQUEST due to decoder failure", connectionId(), m_currentRequest.requestId());
+							REQUEST_LOG.info("[{}-{}] BAD_REQUEST due to decoder failure", connectionId(), request.requestId());
+						}
+						request.respond(BAD_REQUEST, Unpooled.EMPTY_BUFFER);
+
+					} else if (request.m_oversizedStatus != null) {
+						if (request.m_oversizedStatus == REQUEST_ENTITY_TOO_LARGE) {
+							m_contentTooLarge.increment();
+						} else {
+							m_headersTooLarge.increment();
+						}
+						if (REQUEST_LOG.isInfoEnabled()) {
+							REQUEST_LOG.info("[{}-{}] {}, request is over the size limits", connectionId(), request.requestId(), request.m_oversizedStatus);
+						}
+						request.respond(request.m_oversizedStatus, Unpooled.EMPTY_BUFFER);
+
+					} else if (request.m_throttledForNS > 0) {
+						if (REQUEST_LOG.isInfoEnabled()) {
+							REQUEST_LOG.info("[{}-{}] TOO_MANY_REQUESTS, client is over its rate limit", connectionId(), request.requestId());
+						}
+						request.setResponseHeader(HttpHeaderNames.RETRY_AFTER, Math.max(1, TimeUnit.NANOSECONDS.toSeconds(request.m_throttledForNS + TimeUnit.SECONDS.toNanos(1) - 1)));
+						request.respond(TOO_MANY_REQUESTS, Unpooled.EMPTY_BUFFER);
+
+					} else if (m_admissionControl != null && !m_admissionControl.tryAdmit(System.nanoTime() - request.m_arrivedAtNS)) {
+						if (REQUEST_LOG.isInfoEnabled()) {
+							REQUEST_LOG.info("[{}-{}] SERVICE_UNAVAILABLE, request shed after waiting {} ms", connectionId(), request.requestId(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - request.m_arrivedAtNS));
+						}
+						request.setResponseHeader(HttpHeaderNames.RETRY_AFTER, m_retryAfterSeconds);
+						request.respond(SERVICE_UNAVAILABLE, Unpooled.EMPTY_BUFFER);
+
+					} else if ((request.m_webSocketRoute = webSocketRoute(httpRequest)) != null) {
+						final String host = httpRequest.headers().get(HttpHeaderNames.HOST, "localhost");
+						final WebSocketServerHandshakerFactory factory = new WebSocketServerHandshakerFactory(((m_sslContext != null) ? "wss://" : "ws://") + host + request.requestURI(), null, m_webSocketCompression, m_webSocketMaxMessageSize);
+						request.m_webSocketHandshaker = factory.newHandshaker(httpRequest);
+						if (request.m_webSocketHandshaker == null) {
+							request.m_webSocketRoute = null;
+							request.setResponseHeader(HttpHeaderNames.SEC_WEBSOCKET_VERSION, WebSocketVersion.V13.toHttpHeaderValue());
+							request.respond(UPGRADE_REQUIRED, Unpooled.EMPTY_BUFFER);
+						} else {
+							// The upgrade waits its turn like any other response
+							request.m_responded.set(true);
+							m_msgQueue.add(request);
 						}
-						m_currentRequest.respond(BAD_REQUEST, Unpooled.EMPTY_BUFFER);
 
 					} else {
-						clearReadTimeout();
-						// The user may hold onto the objects passed in and choose to reply later.  If the user DOES NOT
-						// call one of the respond() methods in IHttpResponse we will leak the request
-						try {
-							m_requestHandler.onRequest(m_currentRequest, m_currentRequest);
-						} catch (Throwable t) {
-							LOG.warn("Uncaught exception from " + m_requestHandler.getClass().getName(), t);
+						request.m_admitted = (m_admissionControl != null);
+						if (isStreamed || m_responseCache == null || request.m_httpRequestMethod != HttpMethod.GET) {
+							callRequestHandler(request);
+						} else if ((request.m_cacheEntry = m_responseCache.acquire(m_responseCache.key(request.requestURI(), httpRequest.headers()), request)) != null) {
+							// Nothing cached or in progress for it, the requests that show up meanwhile wait for this response
+							callRequestHandler(request);
 						}
 					}
 
+				} else if (msg instanceof HttpContent) {
+					onRequestContent((HttpContent)msg);
+
 				} else if (msg instanceof UserRequestState) {
+					final UserRequestState state = (UserRequestState)msg;
 					if (m_context == null) {
 						// The client disconnected, simply throw away the response
 						m_earlyDisconnects.increment();
 						if (EARLY_DISCONNECT_LOG.isTraceEnabled()) {
-							if (((UserRequestState) msg).m_httpFullResponse != null) {
-								traceLogFullResponse((UserRequestState) msg);
+							if (state.m_httpFullResponse != null) {
+								traceLogFullResponse(state);
 							} else {
-								traceLogHeaderAndBody((UserRequestState) msg);
+								traceLogHeaderAndBody(state);
 							}
 						} else if (EARLY_DISCONNECT_LOG.isInfoEnabled()) {
-							EARLY_DISCONNECT_LOG.info("[{}-{}] early disconnect after {} ms", connectionId(), m_currentRequest.requestId(), m_currentRequest.elapsedTimeMS());
+							EARLY_DISCONNECT_LOG.info("[{}-{}] early disconnect after {} ms", connectionId(), state.requestId(), state.elapsedTimeMS());
 						}
 						if (REQUEST_LOG.isInfoEnabled()) {
-							REQUEST_LOG.info("[{}-{}] early disconnected response after {} ms", connectionId(), ((UserRequestState)msg).requestId(), ((UserRequestState)msg).elapsedTimeMS());
+							REQUEST_LOG.info("[{}-{}] early disconnected response after {} ms", connectionId(), state.requestId(), state.elapsedTimeMS());
 						}
-						m_currentRequest = null;
-						((UserRequestState)msg).endRequest();
+						m_inFlightRequests.remove(state);
+						state.endRequest();
 
-					} else if (m_currentRequest != msg) {
-						REQUEST_LOG.error("[{}-{}] responded request isn't current: {} {}", connectionId(), ((UserRequestState)msg).requestId(), ((UserRequestState)msg).requestMethod(), ((UserRequestState)msg).requestURI());
-						// Responded request isn't the current
-						((UserRequestState)msg).endRequest();
+					} else if (!m_inFlightRequests.contains(state)) {
+						REQUEST_LOG.error("[{}-{}] responded request isn't in flight: {} {}", connectionId(), state.requestId(), state.requestMethod(), state.requestURI());
+						state.endRequest();
 
 					} else {
-						// Remove current request, it isn't current anymore
-						m_currentRequest = null;
-						if (((UserRequestState) msg).m_httpFullResponse != null) {
-							writeFullResponse((UserRequestState) msg);
-						} else {
-							writeHeaderAndBody((UserRequestState) msg);
-						}
-						restoreReadTimeout();
-						((UserRequestState) msg).endRequest();
+						// A pipelined response waits here until every request ahead of it has been answered
+						state.m_readyToWrite = true;
+						writeReadyResponses();
 					}
 
+				} else if (msg instanceof Runnable) {
+					((Runnable)msg).run();
+
 				} else if (msg instanceof Throwable) {
 					// The user may hold onto the objects passed in and choose to reply later
 					// TODO need to handle breaking the association when we close this associated connection <---------------------------------------------------------------
@@ -806,11 +1769,120 @@ public final class HttpServer {
 					if (m_context != null) {
 						m_context.close();
 					}
+					closeStreamingResponses();
 					clearConnection();
 				}
 			}
 		}
 
+		private void callRequestHandler(UserRequestState request) {
+			final boolean isStreamed = (request.m_body != null);
+			// The user may hold onto the objects passed in and choose to reply later.  If the user DOES NOT
+			// call one of the respond() methods in IHttpResponse we will leak the request
+			try {
+				if (isStreamed) {
+					m_streamingHandler.onRequest(request, request);
+				} else {
+					m_requestHandler.onRequest(request, request);
+				}
+			} catch (Throwable t) {
+				LOG.warn("Uncaught exception from " + (isStreamed ? m_streamingHandler : m_requestHandler).getClass().getName(), t);
+			}
+		}
+
+		/*
+			The client can't get the rest of these responses, their producers are told to stop
+		 */
+		private void closeStreamingResponses() {
+			final Iterator<UserRequestState> it = m_inFlightRequests.iterator();
+			while(it.hasNext()) {
+				final UserRequestState state = it.next();
+				if (state.m_stream != null && state.m_readyToWrite) {
+					// The ones that aren't ready yet are ended when their response message gets here
+					it.remove();
+					m_earlyDisconnects.increment();
+					if (REQUEST_LOG.isInfoEnabled()) {
+						REQUEST_LOG.info("[{}-{}] early disconnected streaming response after {} ms", connectionId(), state.requestId(), state.elapsedTimeMS());
+					}
+					state.endRequest();
+				}
+			}
+		}
+
+		/*
+			Only a whole (aggregated) HTTP/1.1 request can ask to be upgraded
+		 */
+		private WebSocketConnection.Route webSocketRoute(HttpRequest httpRequest) {
+			if (m_webSocketRoutes == null || m_isStream || !(httpRequest instanceof FullHttpRequest)) {
+				return null;
+			}
+			final HttpHeaders headers = httpRequest.headers();
+			if (!headers.containsValue(HttpHeaderNames.CONNECTION, HttpHeaderValues.UPGRADE, true) || !headers.contains(HttpHeaderNames.UPGRADE, HttpHeaderValues.WEBSOCKET, true)) {
+				return null;
+			}
+			final String uri = httpRequest.uri();
+			final int queryStart = uri.indexOf('?');
+			return m_webSocketRoutes.get((queryStart == -1) ? uri : uri.substring(0, queryStart));
+		}
+
+		private void onRequestContent(HttpContent content) {
+			final UserRequestState state = m_streamingRequest;
+			final boolean isLast = (content instanceof LastHttpContent);
+			if (isLast) {
+				m_streamingRequest = null;
+			}
+			if (state == null || !state.m_body.isOpen()) {
+				// The request has already ended, nobody wants the rest of the body
+				bodyBytesConsumed(content.content().readableBytes());
+				content.release();
+				return;
+			}
+			// The pipe takes over the reference to the content buffer
+			state.m_body.submit(content.content());
+			try {
+				m_streamingHandler.onData(state, state, state.m_body, isLast);
+			} catch (Throwable t) {
+				LOG.warn("Uncaught exception from " + m_streamingHandler.getClass().getName(), t);
+			}
+		}
+
+		private void writeReadyResponses() {
+			while(true) {
+				final UserRequestState state = m_inFlightRequests.peekFirst();
+				if (state == null || !state.m_readyToWrite) {
+					break;
+				}
+				if (state.m_stream != null) {
+					if (!state.m_stream.writeQueued()) {
+						// Still streaming, the responses behind it wait
+						break;
+					}
+					m_inFlightRequests.pollFirst();
+				} else if (state.m_webSocketRoute != null) {
+					m_inFlightRequests.pollFirst();
+					if (REQUEST_LOG.isInfoEnabled()) {
+						REQUEST_LOG.info("[{}-{}] upgraded to a WebSocket after {} ms", connectionId(), state.requestId(), state.elapsedTimeMS());
+					}
+					final FullHttpRequest request = (FullHttpRequest)state.m_httpRequest;
+					final Channel channel = m_channel;
+					// endRequest() releases the state's reference
+					request.retain();
+					channel.eventLoop().execute(() -> upgradeToWebSocket(this, channel, state.m_webSocketHandshaker, request, state.m_webSocketRoute));
+				} else if (state.m_httpFullResponse != null) {
+					m_inFlightRequests.pollFirst();
+					writeFullResponse(state);
+				} else {
+					m_inFlightRequests.pollFirst();
+					writeHeaderAndBody(state);
+				}
+				state.endRequest();
+			}
+			if (m_pipelinePaused && m_inFlightRequests.size() < m_maxPipelinedRequests) {
+				m_pipelinePaused = false;
+				resumeReading();
+			}
+		}
+
 		private void traceLogFullResponse(UserRequestState state) {
 			EARLY_DISCONNECT_LOG.trace("[{}-{}] early disconnect after {} ms. Response:\n{}", connectionId(), state.requestId(), state.m_requestTimer.elapsedTimeMS(), state.m_httpFullResponse);
 		}
@@ -825,13 +1897,14 @@ public final class HttpServer {
 			final MetricsEngine.IMetricTimer requestTimer = state.m_requestTimer;
 			state.m_requestTimer = null;
 
-			final boolean shuttingDown = (m_stopDonePromise != null);
-			// If we are shutting down, need to make sure we close the connection (after this request is sent)
+			// If we are shutting down, need to make sure we close the connection (after the last request is sent)
+			final boolean shuttingDown = (m_stopDonePromise != null) && m_inFlightRequests.isEmpty();
 			if (shuttingDown) {
 				state.m_httpFullResponse.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
 			}
+			final ChannelHandlerContext context = m_context;
 			try {
-				m_context.writeAndFlush(state.m_httpFullResponse).addListener((f) -> {
+				context.writeAndFlush(state.m_httpFullResponse).addListener((f) -> {
 					if (CONNECTION_LOG.isDebugEnabled()) {
 						CONNECTION_LOG.debug("[{}-{}] writeAndFlush() done", connectionId(), state.requestId());
 					}
@@ -846,7 +1919,7 @@ public final class HttpServer {
 					}
 					// We are not going to trust the client to close the connection, so we will after we flush
 					if (shuttingDown) {
-						m_context.close();
+						closeForShutdown(context);
 					}
 				});
 			} catch(Exception ex) {
@@ -855,6 +1928,17 @@ public final class HttpServer {
 			state.m_httpFullResponse = null;
 		}
 
+		/*
+			Closing a stream only ends that one request, the HTTP/2 connection is closed so the client gets a GOAWAY
+		 */
+		private void closeForShutdown(ChannelHandlerContext context) {
+			if (m_isStream) {
+				context.channel().parent().close();
+			} else {
+				context.close();
+			}
+		}
+
 		private void traceLogHeaderAndBody(UserRequestState state) {
 			EARLY_DISCONNECT_LOG.trace("[{}-{}] early disconnect afger {} ms. Header:\n{}\nBody:\n{}", connectionId(), state.requestId(), state.m_requestTimer.elapsedTimeMS(), state.m_httpResponseHeader, state.m_httpResponseBody);
 		}
@@ -872,15 +1956,24 @@ public final class HttpServer {
 			if (CONNECTION_LOG.isDebugEnabled()) {
 				CONNECTION_LOG.debug("[{}-{}] write({})", connectionId(), state.requestId(), httpResponseCode);
 			}
-			final boolean shuttingDown = (m_stopDonePromise != null);
-			// If we are shutting down, need to make sure we close the connection (after this request is sent)
+			// If we are shutting down, need to make sure we close the connection (after the last request is sent)
+			final boolean shuttingDown = (m_stopDonePromise != null) && m_inFlightRequests.isEmpty();
 			if (shuttingDown) {
 				state.m_httpResponseHeader.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
 			}
 
+			final ChannelHandlerContext context = m_context;
 			try {
-				m_context.write(state.m_httpResponseHeader);
-				m_context.writeAndFlush(state.m_httpResponseBody).addListener((f) -> {
+				context.write(state.m_httpResponseHeader);
+				final ChannelFuture bodyWriteFuture;
+				if (state.m_httpResponseBody instanceof FileRegion) {
+					// The file region goes straight to the socket, the encoder needs the last content to end the response
+					context.write(state.m_httpResponseBody);
+					bodyWriteFuture = context.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+				} else {
+					bodyWriteFuture = context.writeAndFlush(state.m_httpResponseBody);
+				}
+				bodyWriteFuture.addListener((f) -> {
 					if (CONNECTION_LOG.isDebugEnabled()) {
 						CONNECTION_LOG.debug("[{}-{}] write() done", connectionId(), state.requestId());
 					}
@@ -900,7 +1993,7 @@ public final class HttpServer {
 
 					// We are not going to trust the client to close the connection, so we will after we flush
 					if (shuttingDown) {
-						m_context.close();
+						closeForShutdown(context);
 					}
 				});
 			} catch(Exception ex) {
@@ -910,24 +2003,281 @@ public final class HttpServer {
 			state.m_httpResponseBody = null;
 		}
 
-		private class UserRequestState implements IHttpRequest, IHttpResponse {
+		/*
+			Wraps the request body pipe so we know when the user has taken buffers out of it and can resume reading
+		 */
+		private final class RequestBody implements Pipe.IConsumer {
+			private Pipe.IProducer m_producer;
+			private Pipe.IConsumer m_consumer;
+
+			private RequestBody() {
+				final Pipe pipe = Pipe.create();
+				m_producer = pipe.producer();
+				m_consumer = pipe.consumer();
+			}
+
+			boolean isOpen() {
+				return m_consumer != null;
+			}
+
+			void submit(ByteBuf buf) {
+				m_producer.submit(buf);
+			}
+
+			@Override
+			public ByteBuf poll() {
+				if (m_consumer == null) {
+					throw new IllegalStateException("Request body is closed");
+				}
+				final ByteBuf buf = m_consumer.poll();
+				if (buf != null) {
+					bodyBytesConsumed(buf.readableBytes());
+				}
+				return buf;
+			}
+
+			@Override
+			public void close() {
+				if (m_consumer == null) {
+					return;
+				}
+				// Throw away what the user didn't read
+				while(true) {
+					final ByteBuf buf = m_consumer.poll();
+					if (buf == null) {
+						break;
+					}
+					bodyBytesConsumed(buf.readableBytes());
+					buf.release();
+				}
+				m_consumer.close();
+				m_consumer = null;
+				m_producer.close();
+				m_producer = null;
+			}
+		}
+
+		/*
+			The body of a streaming response.  Writes can come from any thread, they are queued and the worker sends
+			them once every response ahead of this one has been written.
+		 */
+		private final class StreamingResponse implements IStreamingResponse {
+			private final UserRequestState m_state;
+			private final IStreamingResponseListener m_listener;
+			private final Queue<ByteBuf> m_chunks = PlatformDependent.newMpscQueue();
+			// Written but not yet handed to the channel
+			private final AtomicInteger m_queuedBytes = new AtomicInteger();
+			private volatile boolean m_ended;
+			// Everything was sent or the client went away
+			private volatile boolean m_closed;
+			private volatile boolean m_blocked;
+			// Only touched by the worker
+			private boolean m_headerWritten;
+
+			private StreamingResponse(UserRequestState state, IStreamingResponseListener listener) {
+				m_state = state;
+				m_listener = listener;
+			}
+
+			@Override
+			public boolean write(ByteBuf data) {
+				if (m_ended || m_closed) {
+					data.release();
+					return false;
+				}
+				m_queuedBytes.addAndGet(data.readableBytes());
+				m_chunks.add(data);
+				final boolean writable = isWritable();
+				if (!writable && !m_blocked) {
+					m_blocked = true;
+					m_streamingResponseBlocks.increment();
+				}
+				// Queued after the flag is set so the worker can't miss that someone is waiting on a drain
+				m_msgQueue.add(this);
+				scheduleWork();
+				return writable;
+			}
+
+			@Override
+			public boolean writeEvent(String eventName, String data) {
+				final StringBuilder sb = new StringBuilder(data.length() + 32);
+				if (eventName != null) {
+					sb.append("event: ").append(eventName).append('\n');
+				}
+				int start = 0;
+				while(true) {
+					final int end = data.indexOf('\n', start);
+					sb.append("data: ").append(data, start, (end == -1) ? data.length() : end).append('\n');
+					if (end == -1) {
+						break;
+					}
+					start = end + 1;
+				}
+				sb.append('\n');
+				return write(ByteBufUtil.writeUtf8(Application.ioBufferAllocator(), sb));
+			}
+
+			@Override
+			public boolean isWritable() {
+				final Channel channel = m_channel;
+				return !m_closed && channel != null && channel.isWritable() && m_queuedBytes.get() < STREAMING_RESPONSE_HIGH_WATER_MARK;
+			}
+
+			@Override
+			public void end() {
+				if (m_ended) {
+					return;
+				}
+				m_ended = true;
+				m_msgQueue.add(this);
+				scheduleWork();
+			}
+
+			/*
+				Called by the worker once this response is the oldest one, returns true once it has been completely written
+			 */
+			private boolean writeQueued() {
+				final ChannelHandlerContext context = m_context;
+				if (!m_headerWritten) {
+					m_headerWritten = true;
+					if (CONNECTION_LOG.isDebugEnabled()) {
+						CONNECTION_LOG.debug("[{}-{}] write({}) streaming", connectionId(), m_state.requestId(), m_state.m_httpResponseHeader.status().code());
+					}
+					context.write(m_state.m_httpResponseHeader);
+					m_state.m_httpResponseHeader = null;
+				}
+				ByteBuf data;
+				while((data = m_chunks.poll()) != null) {
+					m_queuedBytes.addAndGet(-data.readableBytes());
+					context.write(new DefaultHttpContent(data));
+				}
+				if (m_ended) {
+					m_closed = true;
+					writeLast(context);
+					return true;
+				}
+				context.flush();
+				if (m_blocked && isWritable()) {
+					m_blocked = false;
+					if (m_listener != null) {
+						try {
+							m_listener.onWritable(this);
+						} catch (Throwable t) {
+							LOG.warn("Uncaught exception from " + m_listener.getClass().getName(), t);
+						}
+					}
+				}
+				return false;
+			}
+
+			private void writeLast(ChannelHandlerContext context) {
+				final MetricsEngine.IMetricTimer requestTimer = m_state.m_requestTimer;
+				m_state.m_requestTimer = null;
+				// This response is still the oldest in flight
+				final boolean shuttingDown = (m_stopDonePromise != null) && m_inFlightRequests.size() <= 1;
+				context.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT).addListener((f) -> {
+					if (requestTimer != null) {
+						if (REQUEST_LOG.isInfoEnabled()) {
+							REQUEST_LOG.info("[{}-{}] streaming response ended after {} ms", connectionId(), m_state.requestId(), requestTimer.elapsedTimeMS());
+						}
+						if (f.isSuccess()) {
+							m_requestRate.record(requestTimer);
+						}
+						requestTimer.close();
+					}
+					// The header went out before we knew, so the connection is closed after the response
+					if (shuttingDown) {
+						closeForShutdown(context);
+					}
+				});
+			}
+
+			/*
+				Called when the request ends, the listener only hears about it when the response didn't finish
+			 */
+			private void closed() {
+				if (!m_closed) {
+					m_closed = true;
+					if (m_listener != null) {
+						try {
+							m_listener.onClosed(this);
+						} catch (Throwable t) {
+							LOG.warn("Uncaught exception from " + m_listener.getClass().getName(), t);
+						}
+					}
+				}
+				releaseQueued();
+			}
+
+			private void releaseQueued() {
+				ByteBuf data;
+				while((data = m_chunks.poll()) != null) {
+					m_queuedBytes.addAndGet(-data.readableBytes());
+					data.release();
+				}
+			}
+		}
+
+		private class UserRequestState implements IHttpRequest, IHttpResponse, ResponseCache.IWaiter {
 			private final HttpVersion m_httpRequestProtocolVersion;
 			private final HttpMethod m_httpRequestMethod;
 			private final long m_requestId;
 			private final AtomicBoolean m_responded = new AtomicBoolean();
-			private final FullHttpRequest m_httpRequest;
+			private final HttpRequest m_httpRequest;
+			private final RequestBody m_body;
 			private MetricsEngine.IMetricTimer m_requestTimer;
-			private Map<String,String> m_responseHeaders;
+			private final long m_arrivedAtNS;
+			// The connection's timeout is paused until this request ends, guarded by the request
+			private boolean m_pausesTimeout;
+			private boolean m_ended;
+			// Set when the client was over its rate limit, how long until it can send again
+			private long m_throttledForNS;
+			// Set when the request line, headers or body were too big
+			private HttpResponseStatus m_oversizedStatus;
+			// Only touched by the worker
+			private boolean m_dispatched;
+			private boolean m_admitted;
+			private boolean m_readyToWrite;
+			private HttpHeaders m_responseHeaders;
 			private DefaultFullHttpResponse m_httpFullResponse;
 			private DefaultHttpResponse m_httpResponseHeader;
-			private HttpChunkedInput m_httpResponseBody;
-
-			private UserRequestState(FullHttpRequest request) {
+			// Either a HttpChunkedInput or a FileRegion
+			private Object m_httpResponseBody;
+			// Set instead of a body when the response is streamed
+			private StreamingResponse m_stream;
+			// Set instead of a response when the request is upgraded to a WebSocket
+			private WebSocketConnection.Route m_webSocketRoute;
+			private WebSocketServerHandshaker m_webSocketHandshaker;
+			// Set while the response is one other requests are waiting on
+			private ResponseCache.Entry m_cacheEntry;
+
+			private UserRequestState(HttpRequest request, boolean isStreamed) {
 				m_requestId = m_requestIdSrc.incrementAndGet();
 				m_httpRequest = request;
+				m_body = isStreamed ? new RequestBody() : null;
 				m_httpRequestProtocolVersion = m_httpRequest.protocolVersion();
 				m_httpRequestMethod = m_httpRequest.method();
 				m_requestTimer = MetricsEngine.startTimer();
+				m_arrivedAtNS = System.nanoTime();
+				if (m_timeoutHandler == null) {
+					return;
+				}
+				if (isStreamed) {
+					// The read timeout keeps running until the whole body has arrived
+					m_readingBody = this;
+				} else {
+					pauseTimeout();
+				}
+			}
+
+			private synchronized void pauseTimeout() {
+				m_timeoutHandler.requestStarted();
+				if (m_ended) {
+					// Answered before the body was in, the connection is back to waiting on the next request
+					m_timeoutHandler.requestEnded();
+				} else {
+					m_pausesTimeout = true;
+				}
 			}
 
 			@Override
@@ -948,63 +2298,243 @@ public final class HttpServer {
 			}
 
 			public void endRequest() {
-				ReferenceCountUtil.safeRelease(m_httpRequest);
+				synchronized(this) {
+					m_ended = true;
+					if (m_pausesTimeout) {
+						m_pausesTimeout = false;
+						m_timeoutHandler.requestEnded();
+					}
+				}
+				if (m_admitted) {
+					m_admitted = false;
+					m_admissionControl.release();
+				}
+				if (m_body != null) {
+					m_body.close();
+				} else {
+					ReferenceCountUtil.safeRelease(m_httpRequest);
+				}
 				ReferenceCountUtil.safeRelease(m_httpFullResponse);
 				m_httpFullResponse = null;
 				ReferenceCountUtil.safeRelease(m_httpResponseHeader);
 				m_httpResponseHeader = null;
-				if (m_httpResponseBody != null) {
+				if (m_httpResponseBody instanceof HttpChunkedInput) {
 					try {
-						m_httpResponseBody.close();
+						((HttpChunkedInput)m_httpResponseBody).close();
 					} catch (Exception ignored) {
 					}
-					m_httpResponseBody = null;
+				} else {
+					ReferenceCountUtil.safeRelease(m_httpResponseBody);
 				}
+				m_httpResponseBody = null;
+				if (m_stream != null) {
+					m_stream.closed();
+				}
+				abandonCacheEntry();
 				if (m_requestTimer != null) {
 					m_requestTimer.close();
 					m_requestTimer = null;
 				}
 			}
 
-			@Override
-			public String remoteHostAddress() {
-				return m_connectionToString;
+			@Override
+			public String remoteHostAddress() {
+				return m_connectionToString;
+			}
+
+			@Override
+			public String requestMethod() {
+				return m_httpRequestMethod.name();
+			}
+
+			@Override
+			public String requestURI() {
+				return m_httpRequest.uri();
+			}
+
+			@Override
+			public String headerValue(String name) {
+				return m_httpRequest.headers().get(name);
+			}
+
+			@Override
+			public ByteBuf data() {
+				if (m_body != null) {
+					// Streamed requests get their body through IStreamingRequestHandler.onData()
+					return Unpooled.EMPTY_BUFFER;
+				}
+				return ((FullHttpRequest)m_httpRequest).content();
+			}
+
+			@Override
+			public void addHeader(String key, String value) {
+				setResponseHeader(key, value);
+			}
+
+			private void setResponseHeader(CharSequence name, Object value) {
+				if (m_responseHeaders == null) {
+					// The handler's headers are checked so a bad name or a CR/LF in a value can't reach the wire
+					m_responseHeaders = new DefaultHttpHeaders();
+				}
+				m_responseHeaders.set(name, value);
+			}
+
+			private void addResponseHeaders(HttpHeaders headers) {
+				if (m_responseHeaders != null) {
+					headers.add(m_responseHeaders);
+					m_responseHeaders = null;
+				}
+			}
+
+			/*
+				Returns true if the request was answered because of its If-None-Match or If-Modified-Since header.  When
+				both are sent If-None-Match is the only one looked at.
+			 */
+			private boolean respondedToConditional(AsciiString etag, long lastModified) {
+				final String ifNoneMatch = m_httpRequest.headers().get(HttpHeaderNames.IF_NONE_MATCH);
+				if (ifNoneMatch != null && !ifNoneMatch.isEmpty()) {
+					if (HttpETags.matches(ifNoneMatch, etag, true)) {
+						respondNotModified(etag);
+						return true;
+					}
+					return false;
+				}
+				final String ifModifiedSince = m_httpRequest.headers().get(HttpHeaderNames.IF_MODIFIED_SINCE);
+				if (ifModifiedSince == null || ifModifiedSince.isEmpty()) {
+					return false;
+				}
+				final long ifModifiedSinceTime = HttpDates.parse(ifModifiedSince);
+				if (ifModifiedSinceTime == -1) {
+					_respond(BAD_REQUEST, Unpooled.EMPTY_BUFFER);
+					return true;
+				}
+				// Only compare up to the second because the datetime format we send to the client
+				// does not have milliseconds
+				if (lastModified / 1000 <= ifModifiedSinceTime / 1000) {
+					respondNotModified(etag);
+					return true;
+				}
+				return false;
+			}
+
+			private void respondNotModified(AsciiString etag) {
+				m_notModifiedResponses.increment();
+				setResponseHeader(HttpHeaderNames.ETAG, etag);
+				_respond(NOT_MODIFIED, Unpooled.EMPTY_BUFFER);
+			}
+
+			/*
+				Returns null when the whole file should be sent.  An If-Range that doesn't match the file (it is a
+				strong comparison) also means the whole file.
+			 */
+			private ByteRanges requestedRanges(AsciiString etag, long lastModified, long length) {
+				if (m_httpRequestMethod != HttpMethod.GET) {
+					return null;
+				}
+				final String range = m_httpRequest.headers().get(HttpHeaderNames.RANGE);
+				if (range == null || range.isEmpty()) {
+					return null;
+				}
+				final String ifRange = m_httpRequest.headers().get(HttpHeaderNames.IF_RANGE);
+				if (ifRange != null && !ifRange.isEmpty()) {
+					if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+						if (!HttpETags.matches(ifRange, etag, false)) {
+							return null;
+						}
+					} else {
+						final long ifRangeTime = HttpDates.parse(ifRange);
+						if (ifRangeTime == -1 || ifRangeTime / 1000 != lastModified / 1000) {
+							return null;
+						}
+					}
+				}
+				return ByteRanges.parse(range, length, MAX_RANGES);
+			}
+
+			private void respondRangeNotSatisfiable(long length) {
+				setResponseHeader(HttpHeaderNames.CONTENT_RANGE, ByteRanges.unsatisfiedContentRange(length));
+				_respond(REQUESTED_RANGE_NOT_SATISFIABLE, Unpooled.EMPTY_BUFFER);
+			}
+
+			/*
+				The boundary is null when there is only one range
+			 */
+			private void setRangeHeaders(HttpHeaders headers, ByteRanges ranges, String boundary, CharSequence contentType) {
+				m_rangeResponses.increment();
+				if (boundary == null) {
+					headers.set(HttpHeaderNames.CONTENT_RANGE, ranges.contentRange(0));
+					headers.set(HttpHeaderNames.CONTENT_TYPE, contentType);
+				} else {
+					headers.set(HttpHeaderNames.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+				}
+			}
+
+			/*
+				Takes over the reference to the content
+			 */
+			private ByteBuf rangeContent(ByteBuf content, ByteRanges ranges, String boundary, CharSequence contentType) {
+				if (boundary != null) {
+					return ranges.multipartBody(Application.ioBufferAllocator(), content, boundary, contentType.toString());
+				}
+				final ByteBuf slice = content.retainedSlice(content.readerIndex() + (int)ranges.start(0), (int)ranges.length(0));
+				content.release();
+				return slice;
 			}
 
-			@Override
-			public String requestMethod() {
-				return m_httpRequestMethod.name();
+			private void setFileCacheHeaders(int httpCacheSeconds, CharSequence lastModified, AsciiString etag) {
+				setResponseHeader(HttpHeaderNames.DATE, HttpDates.now());
+				setResponseHeader(HttpHeaderNames.EXPIRES, HttpDates.expires(httpCacheSeconds));
+				setResponseHeader(HttpHeaderNames.CACHE_CONTROL, "private, max-age=" + httpCacheSeconds);
+				setResponseHeader(HttpHeaderNames.LAST_MODIFIED, lastModified);
+				setResponseHeader(HttpHeaderNames.ETAG, etag);
+				setResponseHeader(HttpHeaderNames.ACCEPT_RANGES, HttpHeaderValues.BYTES);
 			}
 
 			@Override
-			public String requestURI() {
-				return m_httpRequest.uri();
+			public void respondOk(ByteBuf data) {
+				if (!m_responded.compareAndSet(false, true)) {
+					throw new IllegalStateException("Already responded");
+				}
+				shareResponse(HttpResponseStatus.OK, data);
+				_respond(HttpResponseStatus.OK, data);
 			}
 
-			@Override
-			public String headerValue(String name) {
-				return m_httpRequest.headers().get(name);
+			private void shareResponse(HttpResponseStatus httpResponseStatus, ByteBuf data) {
+				final ResponseCache.Entry cacheEntry = m_cacheEntry;
+				if (cacheEntry != null) {
+					m_cacheEntry = null;
+					m_responseCache.complete(cacheEntry, httpResponseStatus, m_responseHeaders, data);
+				}
 			}
 
-			@Override
-			public ByteBuf data() {
-				return m_httpRequest.content();
+			/*
+				The response is a file or streamed, the requests waiting on it have to call the handler themselves
+			 */
+			private void abandonCacheEntry() {
+				final ResponseCache.Entry cacheEntry = m_cacheEntry;
+				if (cacheEntry != null) {
+					m_cacheEntry = null;
+					m_responseCache.abandon(cacheEntry);
+				}
 			}
 
 			@Override
-			public void addHeader(String key, String value) {
-				if (m_responseHeaders == null) {
-					m_responseHeaders = new HashMap<>();
+			public void onCachedResponse(ResponseCache.Response response, ByteBuf content) {
+				m_responded.set(true);
+				if (response.m_headers != null) {
+					if (m_responseHeaders == null) {
+						m_responseHeaders = new DefaultHttpHeaders();
+					}
+					m_responseHeaders.add(response.m_headers);
 				}
-				m_responseHeaders.put(key, value);
+				_respond(response.m_status, content);
 			}
 
 			@Override
-			public void respondOk(ByteBuf data) {
-				if (!m_responded.compareAndSet(false, true)) {
-					throw new IllegalStateException("Already responded");
-				}
-				_respond(HttpResponseStatus.OK, data);
+			public void onUncached() {
+				// The handler runs on this request's worker like it would have the first time
+				m_msgQueue.add((Runnable)() -> callRequestHandler(this));
+				scheduleWork();
 			}
 
 			@Override
@@ -1012,66 +2542,91 @@ public final class HttpServer {
 				if (!m_responded.compareAndSet(false, true)) {
 					throw new IllegalStateException("Already responded");
 				}
-				final SimpleDateFormat dateFormatter = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
-				dateFormatter.setTimeZone(TimeZone.getTimeZone("GMT"));
-
-				// Cache Validation
-				String ifModifiedSince = m_httpRequest.headers().get(HttpHeaderNames.IF_MODIFIED_SINCE);
-				if (ifModifiedSince != null && !ifModifiedSince.isEmpty()) {
-					final Date ifModifiedSinceDate;
-					try {
-						ifModifiedSinceDate = dateFormatter.parse(ifModifiedSince);
-					} catch(ParseException ex) {
-						_respond(BAD_REQUEST, Unpooled.EMPTY_BUFFER);
-						return;
+				final StaticFileCache.CachedFile cachedFile = (m_staticFileCache != null) ? m_staticFileCache.get(file) : null;
+				try {
+					respondWithFile(file, cachedFile, downloadFile, httpCacheSeconds);
+				} finally {
+					if (cachedFile != null) {
+						// The response has its own reference to the content
+						cachedFile.release();
 					}
+				}
+			}
 
-					// Only compare up to the second because the datetime format we send to the client
-					// does not have milliseconds
-					long ifModifiedSinceDateSeconds = ifModifiedSinceDate.getTime() / 1000;
-					long fileLastModifiedSeconds = file.lastModified() / 1000;
-					if (ifModifiedSinceDateSeconds == fileLastModifiedSeconds) {
-						_respond(NOT_MODIFIED, Unpooled.EMPTY_BUFFER);
-						return;
-					}
+			private void respondWithFile(File file, StaticFileCache.CachedFile cachedFile, boolean downloadFile, int httpCacheSeconds) {
+				final long fileLastModified = (cachedFile != null) ? cachedFile.m_lastModified : file.lastModified();
+				final long fileLength = (cachedFile != null) ? cachedFile.m_length : file.length();
+				final AsciiString etag = (cachedFile != null) ? cachedFile.m_etag : HttpETags.strong(fileLength, fileLastModified);
+				// The compressor can't touch a file region
+				final boolean compressible = !(m_zeroCopyFileTransfer && !m_isStream);
+				final String acceptEncoding = m_httpRequest.headers().get(HttpHeaderNames.ACCEPT_ENCODING);
+
+				// Cache Validation, a compressed file gets the weak tag since its bytes aren't the file's
+				final AsciiString validator;
+				if (cachedFile != null) {
+					validator = cachedFile.etag(cachedFile.contentEncoding(acceptEncoding));
+				} else {
+					validator = (compressible && ResponseCompressor.compresses(acceptEncoding)) ? HttpETags.weak(etag) : etag;
+				}
+				if (respondedToConditional(validator, fileLastModified)) {
+					return;
+				}
+				final ByteRanges ranges = requestedRanges(etag, fileLastModified, fileLength);
+				if (ranges == ByteRanges.UNSATISFIABLE) {
+					respondRangeNotSatisfiable(fileLength);
+					return;
+				}
+
+				if (cachedFile != null) {
+					respondWithCachedFile(cachedFile, ranges, file.getName(), downloadFile, httpCacheSeconds);
+					return;
 				}
 
 				RandomAccessFile raf = null;
 				final DefaultHttpResponse response;
-				final HttpChunkedInput responseBody;
+				final Object responseBody;
 				try {
 					raf = new RandomAccessFile(file, "r");
-					final long fileLength = raf.length();
-					response = new DefaultHttpResponse(m_httpRequestProtocolVersion, HttpResponseStatus.OK);
-					responseBody = new HttpChunkedInput(new ChunkedNioFile(raf.getChannel(), 0, fileLength, 8192));
+					final String contentType = m_mimeTypesMap.getContentType(file);
+					// Ranges are of the identity encoding
+					response = (ranges != null || !compressible)
+						? new UncompressedResponse(m_httpRequestProtocolVersion, (ranges != null) ? PARTIAL_CONTENT : HttpResponseStatus.OK)
+						: new DefaultHttpResponse(m_httpRequestProtocolVersion, HttpResponseStatus.OK);
 					final HttpHeaders headers = response.headers();
+					final long contentLength;
+					if (ranges == null) {
+						contentLength = fileLength;
+						if (m_zeroCopyFileTransfer && !m_isStream) {
+							responseBody = new DefaultFileRegion(raf.getChannel(), 0, fileLength);
+						} else {
+							responseBody = new HttpChunkedInput(new ChunkedNioFile(raf.getChannel(), 0, fileLength, FILE_CHUNK_SIZE));
+						}
+						headers.add(HttpHeaderNames.CONTENT_TYPE, contentType);
+						if (compressible) {
+							headers.set(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+						}
+					} else if (ranges.count() == 1) {
+						contentLength = ranges.length(0);
+						if (m_zeroCopyFileTransfer && !m_isStream) {
+							responseBody = new DefaultFileRegion(raf.getChannel(), ranges.start(0), contentLength);
+						} else {
+							responseBody = new HttpChunkedInput(new ChunkedNioFile(raf.getChannel(), ranges.start(0), contentLength, FILE_CHUNK_SIZE));
+						}
+						setRangeHeaders(headers, ranges, null, contentType);
+					} else {
+						final String boundary = ByteRanges.newBoundary();
+						contentLength = ranges.multipartLength(boundary, contentType);
+						responseBody = new HttpChunkedInput(ranges.multipartFile(raf.getChannel(), boundary, contentType, FILE_CHUNK_SIZE));
+						setRangeHeaders(headers, ranges, boundary, contentType);
+					}
 
-					final String contentType = m_mimeTypesMap.getContentType(file);
-					headers.set(HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderValues.CHUNKED);
 					if (downloadFile) {
 						headers.set(HttpHeaderNames.CONTENT_DISPOSITION, "attachment; filename=\"" + file.getName() + "\"");
 					}
-					headers.add(HttpHeaderNames.CONTENT_LENGTH, fileLength);
-					headers.add(HttpHeaderNames.CONTENT_TYPE, contentType);
+					headers.add(HttpHeaderNames.CONTENT_LENGTH, contentLength);
 					setSystemHeaders(headers);
-
-					final Calendar time = new GregorianCalendar();
-
-					// Date header
-					addHeader(HttpHeaderNames.DATE.toString(), dateFormatter.format(time.getTimeInMillis()));
-
-					// Add cache headers
-					time.add(Calendar.SECOND, httpCacheSeconds);
-					addHeader(HttpHeaderNames.EXPIRES.toString(), dateFormatter.format(time.getTimeInMillis()));
-					addHeader(HttpHeaderNames.CACHE_CONTROL.toString(), "private, max-age=" + httpCacheSeconds);
-					addHeader(HttpHeaderNames.LAST_MODIFIED.toString(), dateFormatter.format(file.lastModified()));
-
-					if (m_responseHeaders != null) {
-						for (Map.Entry<String, String> e : m_responseHeaders.entrySet()) {
-							headers.add(e.getKey(), e.getValue());
-						}
-						m_responseHeaders = null;
-					}
+					setFileCacheHeaders(httpCacheSeconds, HttpDates.format(fileLastModified), (ranges == null) ? validator : etag);
+					addResponseHeaders(headers);
 				} catch(IOException ex) {
 					LOG.error("Exception reading file {}", file.getAbsolutePath(), ex);
 					_respond(INTERNAL_SERVER_ERROR, Unpooled.EMPTY_BUFFER);
@@ -1086,7 +2641,38 @@ public final class HttpServer {
 				m_httpResponseHeader = response;
 				m_httpResponseBody = responseBody;
 				m_msgQueue.add(this);
-				requestMoreWork();
+				scheduleWork();
+			}
+
+			private void respondWithCachedFile(StaticFileCache.CachedFile cachedFile, ByteRanges ranges, String fileName, boolean downloadFile, int httpCacheSeconds) {
+				// Ranges are always of the identity encoding
+				final AsciiString contentEncoding = (ranges != null) ? HttpHeaderValues.IDENTITY : cachedFile.contentEncoding(m_httpRequest.headers().get(HttpHeaderNames.ACCEPT_ENCODING));
+				final ByteBuf data = cachedFile.retainedContent(contentEncoding);
+				final String boundary = (ranges != null && ranges.count() > 1) ? ByteRanges.newBoundary() : null;
+				final ByteBuf body = (ranges != null) ? rangeContent(data, ranges, boundary, cachedFile.m_contentType) : data;
+				// Already compressed (or not worth compressing)
+				final DefaultFullHttpResponse response = new UncompressedFullResponse(m_httpRequestProtocolVersion, (ranges != null) ? PARTIAL_CONTENT : HttpResponseStatus.OK, body);
+				final HttpHeaders headers = response.headers();
+				if (ranges != null) {
+					setRangeHeaders(headers, ranges, boundary, cachedFile.m_contentType);
+				} else {
+					if (contentEncoding != HttpHeaderValues.IDENTITY) {
+						headers.set(HttpHeaderNames.CONTENT_ENCODING, contentEncoding);
+					}
+					headers.add(HttpHeaderNames.CONTENT_TYPE, cachedFile.m_contentType);
+				}
+				headers.set(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+				if (downloadFile) {
+					headers.set(HttpHeaderNames.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"");
+				}
+				headers.add(HttpHeaderNames.CONTENT_LENGTH, body.readableBytes());
+				setSystemHeaders(headers);
+				setFileCacheHeaders(httpCacheSeconds, cachedFile.m_lastModifiedHeader, cachedFile.etag(contentEncoding));
+				addResponseHeaders(headers);
+
+				m_httpFullResponse = response;
+				m_msgQueue.add(this);
+				scheduleWork();
 			}
 
 			@Override
@@ -1094,67 +2680,49 @@ public final class HttpServer {
 				if (!m_responded.compareAndSet(false, true)) {
 					throw new IllegalStateException("Already responded");
 				}
-				final SimpleDateFormat dateFormatter = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
-				dateFormatter.setTimeZone(TimeZone.getTimeZone("GMT"));
+				final long fileLength = data.readableBytes();
+				final AsciiString etag = HttpETags.strong(fileLength, lastModifiedTime);
+				// The compressor gets the whole file
+				final AsciiString validator = ResponseCompressor.compresses(m_httpRequest.headers().get(HttpHeaderNames.ACCEPT_ENCODING)) ? HttpETags.weak(etag) : etag;
 
 				// Cache Validation
-				String ifModifiedSince = m_httpRequest.headers().get(HttpHeaderNames.IF_MODIFIED_SINCE);
-				if (ifModifiedSince != null && !ifModifiedSince.isEmpty()) {
-					final Date ifModifiedSinceDate;
-					try {
-						ifModifiedSinceDate = dateFormatter.parse(ifModifiedSince);
-					} catch(ParseException ex) {
-						_respond(BAD_REQUEST, Unpooled.EMPTY_BUFFER);
-						return;
-					}
-
-					// Only compare up to the second because the datetime format we send to the client
-					// does not have milliseconds
-					long ifModifiedSinceDateSeconds = ifModifiedSinceDate.getTime() / 1000;
-					long fileLastModifiedSeconds = lastModifiedTime / 1000;
-					if (ifModifiedSinceDateSeconds == fileLastModifiedSeconds) {
-						_respond(NOT_MODIFIED, Unpooled.EMPTY_BUFFER);
-						return;
-					}
+				if (respondedToConditional(validator, lastModifiedTime)) {
+					data.release();
+					return;
+				}
+				final ByteRanges ranges = requestedRanges(etag, lastModifiedTime, fileLength);
+				if (ranges == ByteRanges.UNSATISFIABLE) {
+					data.release();
+					respondRangeNotSatisfiable(fileLength);
+					return;
 				}
 
-				final DefaultHttpResponse response;
-				final HttpChunkedInput responseBody;
-				final long fileLength = data.readableBytes();
-				response = new DefaultHttpResponse(m_httpRequestProtocolVersion, HttpResponseStatus.OK);
-				responseBody = new HttpChunkedInput(new ChunkedStream(new ByteBufInputStream(data,true), 8192));
+				// The data is already in memory so it goes out as-is (or sliced) in a full response
+				final String contentType = m_mimeTypesMap.getContentType(fileName);
+				final String boundary = (ranges != null && ranges.count() > 1) ? ByteRanges.newBoundary() : null;
+				final ByteBuf body = (ranges != null) ? rangeContent(data, ranges, boundary, contentType) : data;
+				final DefaultFullHttpResponse response = (ranges != null)
+					? new UncompressedFullResponse(m_httpRequestProtocolVersion, PARTIAL_CONTENT, body)
+					: new DefaultFullHttpResponse(m_httpRequestProtocolVersion, HttpResponseStatus.OK, body);
 				final HttpHeaders headers = response.headers();
 
-				final String contentType = m_mimeTypesMap.getContentType(fileName);
-				headers.set(HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderValues.CHUNKED);
+				if (ranges != null) {
+					setRangeHeaders(headers, ranges, boundary, contentType);
+				} else {
+					headers.add(HttpHeaderNames.CONTENT_TYPE, contentType);
+					headers.set(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+				}
 				if (downloadFile) {
 					headers.set(HttpHeaderNames.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"");
 				}
-				headers.add(HttpHeaderNames.CONTENT_LENGTH, fileLength);
-				headers.add(HttpHeaderNames.CONTENT_TYPE, contentType);
+				headers.add(HttpHeaderNames.CONTENT_LENGTH, body.readableBytes());
 				setSystemHeaders(headers);
+				setFileCacheHeaders(httpCacheSeconds, HttpDates.format(lastModifiedTime), (ranges == null) ? validator : etag);
+				addResponseHeaders(headers);
 
-				final Calendar time = new GregorianCalendar();
-
-				// Date header
-				addHeader(HttpHeaderNames.DATE.toString(), dateFormatter.format(time.getTimeInMillis()));
-
-				// Add cache headers
-				time.add(Calendar.SECOND, httpCacheSeconds);
-				addHeader(HttpHeaderNames.EXPIRES.toString(), dateFormatter.format(time.getTimeInMillis()));
-				addHeader(HttpHeaderNames.CACHE_CONTROL.toString(), "private, max-age=" + httpCacheSeconds);
-				addHeader(HttpHeaderNames.LAST_MODIFIED.toString(), dateFormatter.format(lastModifiedTime));
-
-				if (m_responseHeaders != null) {
-					for (Map.Entry<String, String> e : m_responseHeaders.entrySet()) {
-						headers.add(e.getKey(), e.getValue());
-					}
-					m_responseHeaders = null;
-				}
-				m_httpResponseHeader = response;
-				m_httpResponseBody = responseBody;
+				m_httpFullResponse = response;
 				m_msgQueue.add(this);
-				requestMoreWork();
+				scheduleWork();
 			}
 
 			@Override
@@ -1162,6 +2730,7 @@ public final class HttpServer {
 				if (!m_responded.compareAndSet(false, true)) {
 					throw new IllegalStateException("Already responded");
 				}
+				shareResponse(httpResponseStatus, data);
 				_respond(httpResponseStatus, data);
 			}
 
@@ -1171,16 +2740,51 @@ public final class HttpServer {
 				headers.add(HttpHeaderNames.CONTENT_LENGTH, data.readableBytes());
 
 				setSystemHeaders(headers);
+				addResponseHeaders(headers);
 
-				if (m_responseHeaders != null) {
-					for(Map.Entry<String,String> e : m_responseHeaders.entrySet()) {
-						headers.add(e.getKey(), e.getValue());
-					}
-					m_responseHeaders = null;
-				}
 				m_httpFullResponse = response;
 				m_msgQueue.add(this);
-				requestMoreWork();
+				scheduleWork();
+			}
+
+			@Override
+			public IStreamingResponse respondStreaming(HttpResponseStatus httpResponseStatus, String contentType, IStreamingResponseListener listener) {
+				if (!m_responded.compareAndSet(false, true)) {
+					throw new IllegalStateException("Already responded");
+				}
+				return _respondStreaming(new DefaultHttpResponse(m_httpRequestProtocolVersion, httpResponseStatus), contentType, listener);
+			}
+
+			@Override
+			public IStreamingResponse respondEventStream(IStreamingResponseListener listener) {
+				if (!m_responded.compareAndSet(false, true)) {
+					throw new IllegalStateException("Already responded");
+				}
+				setResponseHeader(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
+				// The compressor would hold events back until it has enough to compress
+				return _respondStreaming(new UncompressedResponse(m_httpRequestProtocolVersion, HttpResponseStatus.OK), EVENT_STREAM, listener);
+			}
+
+			private IStreamingResponse _respondStreaming(DefaultHttpResponse response, CharSequence contentType, IStreamingResponseListener listener) {
+				abandonCacheEntry();
+				final HttpHeaders headers = response.headers();
+				headers.set(HttpHeaderNames.CONTENT_TYPE, contentType);
+				setSystemHeaders(headers);
+				if (m_httpRequestProtocolVersion.equals(HTTP_1_0)) {
+					// No chunked encoding, closing the connection is the only way to end the body
+					headers.set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+				} else {
+					HttpUtil.setTransferEncodingChunked(response, true);
+				}
+				addResponseHeaders(headers);
+				m_streamingResponses.increment();
+
+				final StreamingResponse stream = new StreamingResponse(this, listener);
+				m_httpResponseHeader = response;
+				m_stream = stream;
+				m_msgQueue.add(this);
+				scheduleWork();
+				return stream;
 			}
 
 			private void setSystemHeaders(HttpHeaders headers) {
@@ -1214,28 +2818,20 @@ public final class HttpServer {
 				if (!m_responded.compareAndSet(false, true)) {
 					throw new IllegalStateException("Already responded");
 				}
-				final SimpleDateFormat dateFormatter = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
-				dateFormatter.setTimeZone(TimeZone.getTimeZone("GMT"));
-
-				// Date header
-				addHeader(HttpHeaderNames.DATE.toString(), dateFormatter.format(System.currentTimeMillis()));
+				setResponseHeader(HttpHeaderNames.DATE, HttpDates.now());
 
 				_respond(HttpResponseStatus.OK, Unpooled.EMPTY_BUFFER);
 			}
 
 			@Override
 			public void setDynamicContentHeaders(String contentType) {
-				final SimpleDateFormat dateFormatter = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
-				dateFormatter.setTimeZone(TimeZone.getTimeZone("GMT"));
-
-				// Date header
-				addHeader(HttpHeaderNames.DATE.toString(), dateFormatter.format(System.currentTimeMillis()));
+				setResponseHeader(HttpHeaderNames.DATE, HttpDates.now());
 
-				addHeader(HttpHeaderNames.CACHE_CONTROL.toString(), "no-cache, no-store, must-revalidate");
-				addHeader(HttpHeaderNames.PRAGMA.toString(), "no-cache");
-				addHeader(HttpHeaderNames.EXPIRES.toString(), "-1");
+				setResponseHeader(HttpHeaderNames.CACHE_CONTROL, NO_CACHE_CONTROL);
+				setResponseHeader(HttpHeaderNames.PRAGMA, HttpHeaderValues.NO_CACHE);
+				setResponseHeader(HttpHeaderNames.EXPIRES, ALREADY_EXPIRED);
 
-				addHeader(HttpHeaderNames.CONTENT_TYPE.toString(), contentType);
+				setResponseHeader(HttpHeaderNames.CONTENT_TYPE, contentType);
 			}
 		}
 	}
@@ -1249,8 +2845,12 @@ public final class HttpServer {
 		private IDisconnectHandler m_disconnectHandler;
 		private IFailureHandler m_failureHandler;
 		private IRequestHandler m_requestHandler;
+		private IStreamingRequestSelector m_streamingSelector;
+		private IStreamingRequestHandler m_streamingHandler;
 		private int m_httpPort = Config.getFWInt("http.HttpServer.defaultHttpPort", 80);
 		private int m_readTimeoutInMS = Config.getFWInt("http.HttpServer.readTimeoutMS", 5000);
+		private int m_keepAliveIdleTimeoutInMS = Config.getFWInt("http.HttpServer.keepAliveIdleTimeoutMS", m_readTimeoutInMS);
+		private int m_numListeners = Config.getFWInt("http.HttpServer.listenerCount", 1);
 		private String m_loggerNameSuffix;
 		private boolean m_useSSL = false;
 		private String m_sslProtocol = DEFAULT_SSL_PROTOCOL;
@@ -1258,7 +2858,36 @@ public final class HttpServer {
 		private String m_serverKeyStorePassword =  Config.getFWString("http.HttpServer.keyStorePassword", "changeit");
 		private String m_serverKeyStoreFileFormat =  Config.getFWString("http.HttpServer.keyStoreFileFormat", "jks");
 		private String m_serverKeyStoreKeyAlgorithm = KeyManagerFactory.getDefaultAlgorithm();
+		private boolean m_openSsl = Config.getFWBoolean("http.HttpServer.openSsl", Boolean.FALSE);
+		private int m_sslSessionCacheSize = Config.getFWInt("http.HttpServer.sslSessionCacheSize", 0);
+		private int m_sslSessionTimeoutSeconds = Config.getFWInt("http.HttpServer.sslSessionTimeoutSeconds", 0);
+		private String m_sslSessionTicketKeysFileName = Config.getFWString("http.HttpServer.sslSessionTicketKeysFileName", null);
 		private boolean m_addRequestIdHeader = true;
+		private long m_staticFileCacheSize = Config.getFWInt("http.HttpServer.staticFileCacheSizeMB", 0) * 1024L * 1024L;
+		private long m_staticFileCacheMaxFileSize = Config.getFWInt("http.HttpServer.staticFileCacheMaxFileSizeKB", 1024) * 1024L;
+		private int m_maxPipelinedRequests = Config.getFWInt("http.HttpServer.maxPipelinedRequests", 16);
+		private boolean m_runHandlersOnEventLoop = Config.getFWBoolean("http.HttpServer.runHandlersOnEventLoop", Boolean.FALSE);
+		private boolean m_zeroCopyFileTransfer = Config.getFWBoolean("http.HttpServer.zeroCopyFileTransfer", Boolean.TRUE);
+		private boolean m_http2 = Config.getFWBoolean("http.HttpServer.http2", Boolean.FALSE);
+		private int m_maxConcurrentRequests = Config.getFWInt("http.HttpServer.maxConcurrentRequests", 0);
+		private int m_queueDelayTargetMS = Config.getFWInt("http.HttpServer.queueDelayTargetMS", 0);
+		private int m_queueDelayIntervalMS = Config.getFWInt("http.HttpServer.queueDelayIntervalMS", 100);
+		private int m_retryAfterSeconds = Config.getFWInt("http.HttpServer.retryAfterSeconds", 1);
+		private double m_rateLimitPerSecond = Config.getFWInt("http.HttpServer.rateLimitPerSecond", 0);
+		private int m_rateLimitBurst = Config.getFWInt("http.HttpServer.rateLimitBurst", 1);
+		private String m_rateLimitKeyHeader = Config.getFWString("http.HttpServer.rateLimitKeyHeader", null);
+		private final Map<String, IWebSocketHandler> m_webSocketHandlers = new HashMap<>();
+		private final Set<String> m_textWebSockets = new HashSet<>();
+		private boolean m_webSocketCompression = Config.getFWBoolean("http.HttpServer.webSocketCompression", Boolean.FALSE);
+		private int m_webSocketMaxMessageSize = Config.getFWInt("http.HttpServer.webSocketMaxMessageSize", 64*1024);
+		private int m_drainTimeoutMS = Config.getFWInt("http.HttpServer.drainTimeoutMS", 10000);
+		private int m_responseCacheTTLMS = Config.getFWInt("http.HttpServer.responseCacheTTLMS", 0);
+		private String[] m_responseCacheKeyHeaders = splitHeaderNames(Config.getFWString("http.HttpServer.responseCacheKeyHeaders", null));
+		private int m_maxInitialLineLength = Config.getFWInt("http.HttpServer.maxInitialLineLength", 4096);
+		private int m_maxHeaderSize = Config.getFWInt("http.HttpServer.maxHeaderSize", 8192);
+		private int m_maxChunkSize = Config.getFWInt("http.HttpServer.maxChunkSize", 8192);
+		private int m_maxContentSize = Config.getFWInt("http.HttpServer.maxContentSize", 512*1024);
+		private final Map<String, Integer> m_pathMaxContentSizes = new HashMap<>();
 
 		public HttpServerBuilder loggerNameSuffix(String name) {
 			m_loggerNameSuffix = name;
@@ -1281,18 +2910,246 @@ public final class HttpServer {
 			m_requestHandler = requestHandler;
 			return this;
 		}
+		/**
+		 * Every request is streamed to this handler instead of being aggregated and sent to onRequest()
+		 */
+		public HttpServerBuilder onStreamingRequest(IStreamingRequestHandler streamingHandler) {
+			return onStreamingRequest((requestMethod, requestURI) -> true, streamingHandler);
+		}
+		/**
+		 * Requests the selector picks are streamed to this handler, all others are aggregated and sent to onRequest()
+		 */
+		public HttpServerBuilder onStreamingRequest(IStreamingRequestSelector selector, IStreamingRequestHandler streamingHandler) {
+			m_streamingSelector = selector;
+			m_streamingHandler = streamingHandler;
+			return this;
+		}
 		public HttpServerBuilder listenPort(int port) {
 			m_httpPort = port;
 			return this;
 		}
+		/**
+		 * Binds this many listening sockets to the port with SO_REUSEPORT so the kernel spreads accepts
+		 * across them.  Use 0 for one listener per IO event loop.  Requires the native transport, a single
+		 * listener is used otherwise.
+		 */
+		public HttpServerBuilder listenerCount(int numListeners) {
+			m_numListeners = numListeners;
+			return this;
+		}
+		/**
+		 * How long the client has between bytes while sending a request.  The timeout is paused while the
+		 * request is being handled.
+		 */
+		public HttpServerBuilder readTimeout(int readTimeoutInMS) {
+			m_readTimeoutInMS = readTimeoutInMS;
+			return this;
+		}
+		/**
+		 * How long a connection can sit without a request before it is closed
+		 */
+		public HttpServerBuilder keepAliveIdleTimeout(int idleTimeoutInMS) {
+			m_keepAliveIdleTimeoutInMS = idleTimeoutInMS;
+			return this;
+		}
+		/**
+		 * How long stop() lets running requests finish before closing their connections, idle connections are
+		 * closed right away
+		 */
+		public HttpServerBuilder drainTimeout(int drainTimeoutMS) {
+			m_drainTimeoutMS = drainTimeoutMS;
+			return this;
+		}
 		public HttpServerBuilder useSSL(boolean useSSL) {
 			m_useSSL = useSSL;
 			return this;
 		}
+		/**
+		 * Accepts HTTP/2 alongside HTTP/1.1.  With SSL the protocol is negotiated with ALPN, without it the
+		 * client has to start with the HTTP/2 preface (prior knowledge).  Each stream is handed to the
+		 * handlers as its own request.
+		 */
+		public HttpServerBuilder http2(boolean http2) {
+			m_http2 = http2;
+			return this;
+		}
+		/**
+		 * Requests beyond this many running at once are answered with 503 without calling the handler.  A request
+		 * runs until its response is written.  0 (the default) is no limit.
+		 */
+		public HttpServerBuilder maxConcurrentRequests(int maxConcurrentRequests) {
+			m_maxConcurrentRequests = maxConcurrentRequests;
+			return this;
+		}
+		/**
+		 * Sheds requests that waited too long for a worker to pick them up.  Once no request in a whole interval
+		 * waited less than the target, requests that wait longer than the target are answered with 503 until the
+		 * wait drops again.  Outside of that only requests waiting longer than the interval are shed.  0 (the
+		 * default) turns this off.
+		 */
+		public HttpServerBuilder queueDelayTarget(int targetMS, int intervalMS) {
+			m_queueDelayTargetMS = targetMS;
+			m_queueDelayIntervalMS = intervalMS;
+			return this;
+		}
+		/**
+		 * The Retry-After sent with a shed request's 503
+		 */
+		public HttpServerBuilder retryAfterSeconds(int retryAfterSeconds) {
+			m_retryAfterSeconds = retryAfterSeconds;
+			return this;
+		}
+		/**
+		 * Limits each client to requestsPerSecond with bursts of up to burst requests.  Requests over the limit
+		 * are answered with 429 and Retry-After before their body is read.  0 (the default) is no limit.
+		 */
+		public HttpServerBuilder rateLimit(double requestsPerSecond, int burst) {
+			m_rateLimitPerSecond = requestsPerSecond;
+			m_rateLimitBurst = burst;
+			return this;
+		}
+		/**
+		 * Tells the clients behind an address apart by this request header (an API key for example).  The header
+		 * isn't authenticated, so the bucket is for its value together with the client's address, and requests
+		 * without the header use the address alone.  Once http.HttpServer.rateLimitMaxClients buckets are in use
+		 * the clients without one share a single bucket.
+		 */
+		public HttpServerBuilder rateLimitKeyHeader(String headerName) {
+			m_rateLimitKeyHeader = headerName;
+			return this;
+		}
+		/**
+		 * Requests for this path that ask for a WebSocket are upgraded and handed to the handler.  The messages the
+		 * handler writes are sent as text frames when textFrames is set and binary frames otherwise, both kinds
+		 * are read.
+		 */
+		public HttpServerBuilder webSocket(String path, boolean textFrames, IWebSocketHandler handler) {
+			m_webSocketHandlers.put(path, handler);
+			if (textFrames) {
+				m_textWebSockets.add(path);
+			} else {
+				m_textWebSockets.remove(path);
+			}
+			return this;
+		}
+		/**
+		 * Negotiates permessage-deflate with the WebSocket clients that ask for it
+		 */
+		public HttpServerBuilder webSocketCompression(boolean compression) {
+			m_webSocketCompression = compression;
+			return this;
+		}
+		/**
+		 * A WebSocket is closed when it is sent a larger message than this
+		 */
+		public HttpServerBuilder webSocketMaxMessageSize(int maxBytes) {
+			m_webSocketMaxMessageSize = maxBytes;
+			return this;
+		}
 		public HttpServerBuilder addRequestIdHeader(boolean addRequestIdHeader) {
 			m_addRequestIdHeader = addRequestIdHeader;
 			return this;
 		}
+		/**
+		 * Pipelined requests are handed to the handler as they arrive and their responses are written in request
+		 * order.  Reading from the connection pauses while this many requests are waiting on a response.
+		 */
+		public HttpServerBuilder maxPipelinedRequests(int maxPipelinedRequests) {
+			m_maxPipelinedRequests = maxPipelinedRequests;
+			return this;
+		}
+		/**
+		 * Runs the handlers on the connection's IO event loop and writes the response without handing it
+		 * off to the task pool.  Only use this when none of the handlers block, a blocked handler stalls
+		 * every connection on that event loop.  The default runs the handlers on the task pool.
+		 */
+		public HttpServerBuilder runHandlersOnEventLoop(boolean runHandlersOnEventLoop) {
+			m_runHandlersOnEventLoop = runHandlersOnEventLoop;
+			return this;
+		}
+		/**
+		 * respondOkWithFile() sends the file with sendfile() instead of reading it in chunks.  This is ignored
+		 * when SSL is used.
+		 */
+		public HttpServerBuilder zeroCopyFileTransfer(boolean zeroCopyFileTransfer) {
+			m_zeroCopyFileTransfer = zeroCopyFileTransfer;
+			return this;
+		}
+		/**
+		 * Keeps up to this many bytes of the files sent with respondOkWithFile() in memory, along with gzip and
+		 * deflate versions of them.  0 (the default) disables the cache.
+		 */
+		public HttpServerBuilder staticFileCacheSize(long maxBytes) {
+			m_staticFileCacheSize = maxBytes;
+			return this;
+		}
+		/**
+		 * Files larger than this are never cached
+		 */
+		public HttpServerBuilder staticFileCacheMaxFileSize(long maxBytes) {
+			m_staticFileCacheMaxFileSize = maxBytes;
+			return this;
+		}
+		/**
+		 * Keeps the OK responses sent with respondOk() or respond() to GET requests for this long, keyed on the request
+		 * URI (path and query) and the values of keyHeaders.  Nothing else about the client is in the key, add
+		 * Authorization or Cookie here when the response depends on who asks.  Requests that arrive while the first
+		 * one for their key is in the handler get its response instead of calling the handler.  A response with
+		 * Set-Cookie or Cache-Control private, no-store or no-cache is never shared or kept.  0 (the default) disables
+		 * the cache.
+		 */
+		public HttpServerBuilder responseCache(int ttlMS, String... keyHeaders) {
+			m_responseCacheTTLMS = ttlMS;
+			m_responseCacheKeyHeaders = keyHeaders;
+			return this;
+		}
+		private static String[] splitHeaderNames(String names) {
+			if (names == null || names.trim().isEmpty()) {
+				return new String[0];
+			}
+			final String[] split = names.split(",");
+			for(int i=0; i<split.length; i++) {
+				split[i] = split[i].trim();
+			}
+			return split;
+		}
+		/**
+		 * The longest request line that is read, longer ones are answered with a 414 and the connection is closed
+		 */
+		public HttpServerBuilder maxInitialLineLength(int maxInitialLineLength) {
+			m_maxInitialLineLength = maxInitialLineLength;
+			return this;
+		}
+		/**
+		 * The most header bytes a request can have, more are answered with a 431 and the connection is closed.  It
+		 * is also the HTTP/2 header list size.
+		 */
+		public HttpServerBuilder maxHeaderSize(int maxHeaderSize) {
+			m_maxHeaderSize = maxHeaderSize;
+			return this;
+		}
+		/**
+		 * Bodies are decoded in pieces of up to this size, it bounds what a streamed request's body is handed over in
+		 */
+		public HttpServerBuilder maxChunkSize(int maxChunkSize) {
+			m_maxChunkSize = maxChunkSize;
+			return this;
+		}
+		/**
+		 * The largest request body that is read into memory, bigger ones are answered with a 413.  Streamed
+		 * requests aren't limited.
+		 */
+		public HttpServerBuilder maxContentSize(int maxContentSize) {
+			m_maxContentSize = maxContentSize;
+			return this;
+		}
+		/**
+		 * The largest request body for this path, it overrides maxContentSize()
+		 */
+		public HttpServerBuilder maxContentSize(String path, int maxContentSize) {
+			m_pathMaxContentSizes.put(path, maxContentSize);
+			return this;
+		}
 		public HttpServerBuilder sslProtocol(String protocol) {
 			m_sslProtocol = protocol;
 			return this;
@@ -1313,6 +3170,37 @@ public final class HttpServer {
 			m_serverKeyStoreKeyAlgorithm = algorithm;
 			return this;
 		}
+		/**
+		 * Uses OpenSSL (BoringSSL) for SSL instead of the JDK.  netty-tcnative has to be on the classpath, the
+		 * JDK is used when it isn't.
+		 */
+		public HttpServerBuilder openSsl(boolean openSsl) {
+			m_openSsl = openSsl;
+			return this;
+		}
+		/**
+		 * The number of SSL sessions kept for resumption, 0 leaves the SSL engine's default
+		 */
+		public HttpServerBuilder sslSessionCacheSize(int size) {
+			m_sslSessionCacheSize = size;
+			return this;
+		}
+		/**
+		 * How long a cached SSL session can be resumed, 0 leaves the SSL engine's default
+		 */
+		public HttpServerBuilder sslSessionTimeout(int timeoutSeconds) {
+			m_sslSessionTimeoutSeconds = timeoutSeconds;
+			return this;
+		}
+		/**
+		 * A file of 48 byte session ticket keys (name, HMAC key and AES key, 16 bytes each) that are shared by
+		 * all the servers behind a load balancer so any of them can resume a session.  Only OpenSSL uses it, the
+		 * JDK's tickets are controlled by the jdk.tls.server.enableSessionTicketExtension system property.
+		 */
+		public HttpServerBuilder sslSessionTicketKeysFile(String fileName) {
+			m_sslSessionTicketKeysFileName = fileName;
+			return this;
+		}
 		public HttpServer build() {
 			if (m_loggerNameSuffix == null) {
 				m_loggerNameSuffix = "Http" + m_httpPort;
@@ -1349,10 +3237,69 @@ public final class HttpServer {
 		void respondOkWithFileData(ByteBuf data, String fileName, long lastModifiedTime, boolean downloadFile, int httpCacheSeconds);
 		void respond(HttpResponseStatus httpResponseStatus, ByteBuf data);
 		void respondNotModified();
+
+		/**
+		 * Sends the headers now and the body as it is written to the returned IStreamingResponse.  The request
+		 * keeps running (and counts against the pipelining and concurrency limits) until end() is called or the
+		 * client goes away.  The listener can be null.
+		 */
+		IStreamingResponse respondStreaming(HttpResponseStatus httpResponseStatus, String contentType, IStreamingResponseListener listener);
+		/**
+		 * Same as respondStreaming() with the headers for Server-Sent Events, use IStreamingResponse.writeEvent()
+		 */
+		IStreamingResponse respondEventStream(IStreamingResponseListener listener);
+	}
+	public interface IStreamingResponse {
+		/**
+		 * Can be called from any thread, the buffer is owned by the server once this is called.  Returns false
+		 * when too much is waiting to be sent, IStreamingResponseListener.onWritable() is called once it drains.
+		 * The buffer is released and ignored after end() or once the client is gone.
+		 */
+		boolean write(ByteBuf data);
+		/**
+		 * Writes a Server-Sent Event, eventName can be null
+		 */
+		boolean writeEvent(String eventName, String data);
+		boolean isWritable();
+		/**
+		 * Ends the response after everything already written is sent
+		 */
+		void end();
+	}
+	public interface IStreamingResponseListener {
+		/**
+		 * Called on the connection's worker after a write returned false and the backlog drained
+		 */
+		void onWritable(IStreamingResponse response);
+		/**
+		 * Called when the client goes away before end() was called
+		 */
+		void onClosed(IStreamingResponse response);
 	}
 	public interface IConnectHandler {
 		void onConnect(ISocketConnection connection);
 	}
+	public interface IWebSocketConnection {
+		long connectionId();
+		String remoteHostAddress();
+		/**
+		 * The URI and headers of the request that was upgraded
+		 */
+		String requestURI();
+		String headerValue(String name);
+		void close();
+	}
+	/**
+	 * Works like SocketServer's handlers except each buffer in the pipes is one whole message
+	 */
+	public interface IWebSocketHandler {
+		void onConnect(IWebSocketConnection connection, Pipe.IProducer outProducer);
+		void onData(IWebSocketConnection connection, Pipe.IConsumer inConsumer, Pipe.IProducer outProducer);
+		/**
+		 * It is normal here that the user will call inConsumer.close() and outProducer.close()
+		 */
+		void onDisconnect(IWebSocketConnection connection, Pipe.IConsumer inConsumer, Pipe.IProducer outProducer);
+	}
 	public interface IDisconnectHandler {
 		void onDisconnect(ISocketConnection connection);
 	}
@@ -1363,6 +3310,27 @@ public final class HttpServer {
 		void onRequest(IHttpRequest request, IHttpResponse response);
 	}
 
+	public interface IStreamingRequestSelector {
+		/**
+		 * Called on the IO thread as soon as the request headers are decoded, keep it cheap
+		 */
+		boolean streamRequest(String requestMethod, String requestURI);
+	}
+	public interface IStreamingRequestHandler {
+		/**
+		 * Called once the request headers arrive, IHttpRequest.data() is empty.  The response can be sent
+		 * at any time, the rest of the body is thrown away if it is sent before the body is read.
+		 */
+		void onRequest(IHttpRequest request, IHttpResponse response);
+
+		/**
+		 * Called each time more of the body is in the pipe.  Poll it from this thread and release what is polled,
+		 * reading from the socket is paused while too much of the body sits in the pipe.  The pipe is owned by the
+		 * server and closed when the request ends.
+		 */
+		void onData(IHttpRequest request, IHttpResponse response, Pipe.IConsumer body, boolean isLast);
+	}
+
 	private static final class NullHandler implements IRequestHandler, IFailureHandler, IConnectHandler, IDisconnectHandler {
 		private final Logger LOG;
 
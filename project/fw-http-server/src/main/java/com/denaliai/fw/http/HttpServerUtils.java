@@ -1,11 +1,19 @@
 package com.denaliai.fw.http;
 
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.ssl.*;
+import org.slf4j.Logger;
+
 import javax.net.ssl.*;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.security.KeyStore;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
@@ -49,6 +57,70 @@ public class HttpServerUtils {
 		return sb.toString();
 	}
 
+	/*
+		OpenSSL needs netty-tcnative on the classpath, the JDK is used when it isn't there.  The ticket keys file is
+		one or more 48 byte keys (name, HMAC and AES key, 16 bytes each), only OpenSSL can be given them.  The
+		alpnConfig is null unless HTTP/2 is negotiated.
+	 */
+	static SslContext createServerSslContext(Logger log, boolean openSsl, String sslProtocol, String serverKeyStoreFileName, String serverKeyStorePassword, String storeFileProtocol, String keyAlgorithm, int sessionCacheSize, int sessionTimeoutSeconds, String ticketKeysFileName, ApplicationProtocolConfig alpnConfig) {
+		if (openSsl && !OpenSsl.isAvailable()) {
+			log.warn("OpenSSL isn't available ({}), falling back to the JDK's SSL engine", String.valueOf(OpenSsl.unavailabilityCause()));
+			openSsl = false;
+		}
+		if (!openSsl) {
+			final SSLContext sslContext = createServerSSLContext(sslProtocol, serverKeyStoreFileName, serverKeyStorePassword, storeFileProtocol, keyAlgorithm);
+			final SSLSessionContext sessions = sslContext.getServerSessionContext();
+			if (sessionCacheSize > 0) {
+				sessions.setSessionCacheSize(sessionCacheSize);
+			}
+			if (sessionTimeoutSeconds > 0) {
+				sessions.setSessionTimeout(sessionTimeoutSeconds);
+			}
+			if (ticketKeysFileName != null) {
+				log.warn("The JDK's SSL engine can't be given session ticket keys, ignoring {}", ticketKeysFileName);
+			}
+			if (alpnConfig == null) {
+				return new JdkSslContext(sslContext, false, null, IdentityCipherSuiteFilter.INSTANCE, null, ClientAuth.NONE, null, false);
+			}
+			return new JdkSslContext(sslContext, false, Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE, alpnConfig, ClientAuth.NONE, null, false);
+		}
+		try {
+			final char[] password = serverKeyStorePassword.toCharArray();
+			final SslContextBuilder builder = SslContextBuilder.forServer(getKeyManagerFactory(getStore(serverKeyStoreFileName, password, storeFileProtocol), keyAlgorithm, password))
+				.sslProvider(SslProvider.OPENSSL)
+				.protocols(sslProtocol)
+				.sessionCacheSize(sessionCacheSize)
+				.sessionTimeout(sessionTimeoutSeconds);
+			if (alpnConfig != null) {
+				builder.ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE).applicationProtocolConfig(alpnConfig);
+			}
+			final SslContext sslContext = builder.build();
+			if (ticketKeysFileName != null) {
+				((OpenSslSessionContext)sslContext.sessionContext()).setTicketKeys(readTicketKeys(ticketKeysFileName));
+			}
+			return sslContext;
+		} catch(Exception ex) {
+			throw new IllegalArgumentException("Could not configure SSL context", ex);
+		}
+	}
+
+	private static OpenSslSessionTicketKey[] readTicketKeys(String ticketKeysFileName) throws IOException {
+		final byte[] keys = Files.readAllBytes(Paths.get(ticketKeysFileName));
+		if (keys.length == 0 || keys.length % OpenSslSessionTicketKey.TICKET_KEY_SIZE != 0) {
+			throw new IllegalArgumentException(ticketKeysFileName + " has to hold one or more " + OpenSslSessionTicketKey.TICKET_KEY_SIZE + " byte keys");
+		}
+		final OpenSslSessionTicketKey[] ticketKeys = new OpenSslSessionTicketKey[keys.length / OpenSslSessionTicketKey.TICKET_KEY_SIZE];
+		for(int i=0; i<ticketKeys.length; i++) {
+			final int name = i * OpenSslSessionTicketKey.TICKET_KEY_SIZE;
+			final int hmacKey = name + OpenSslSessionTicketKey.NAME_SIZE;
+			final int aesKey = hmacKey + OpenSslSessionTicketKey.HMAC_KEY_SIZE;
+			ticketKeys[i] = new OpenSslSessionTicketKey(Arrays.copyOfRange(keys, name, hmacKey),
+				Arrays.copyOfRange(keys, hmacKey, aesKey),
+				Arrays.copyOfRange(keys, aesKey, aesKey + OpenSslSessionTicketKey.AES_KEY_SIZE));
+		}
+		return ticketKeys;
+	}
+
 	static SSLContext createServerSSLContext(String sslProtocol, String serverKeyStoreFileName, String serverKeyStorePassword, final String storeFileProtocol, final String keyAlgorithm) {
 		return createServerSSLContext(sslProtocol, serverKeyStoreFileName, serverKeyStorePassword.toCharArray(), storeFileProtocol, keyAlgorithm, new TrustManager[0]);
 	}
@@ -98,8 +170,12 @@ public class HttpServerUtils {
 	 *
 	 */
 	private static KeyManager[] getKeyManagers(KeyStore store, String keyAlgorithm, final char[] password) throws Exception {
+		return getKeyManagerFactory(store, keyAlgorithm, password).getKeyManagers();
+	}
+
+	private static KeyManagerFactory getKeyManagerFactory(KeyStore store, String keyAlgorithm, final char[] password) throws Exception {
 		final KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(keyAlgorithm);
 		keyManagerFactory.init(store, password);
-		return keyManagerFactory.getKeyManagers();
+		return keyManagerFactory;
 	}
 }
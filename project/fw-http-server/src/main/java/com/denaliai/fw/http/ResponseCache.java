@@ -0,0 +1,278 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import com.denaliai.fw.metrics.CounterAndRateMetric;
+import com.denaliai.fw.metrics.MetricsEngine;
+import com.denaliai.fw.metrics.TotalCounterMetric;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+	Short lived copies of the responses to GET requests.  The key is the request URI as sent (path and query) followed
+	by the values of the configured key headers, nothing else about who is asking is part of it.  While the first
+	request for a key is in the handler the others for it wait on its entry instead of calling the handler, they all
+	get a duplicate of its response.  Only OK responses are kept after that.
+
+	A response that sets a cookie or is marked private, no-store or no-cache belongs to the request that asked for it,
+	it is neither shared with the waiting requests nor kept.
+ */
+final class ResponseCache {
+	private final Logger LOG;
+	private final ConcurrentHashMap<String, Entry> m_entries = new ConcurrentHashMap<>();
+	private final long m_ttlNS;
+	private final int m_maxEntries;
+	private final String[] m_keyHeaders;
+	private final long m_sweepIntervalMS;
+	private ScheduledFuture<?> m_sweeper;
+	private volatile boolean m_running;
+
+	private final CounterAndRateMetric m_hits;
+	private final CounterAndRateMetric m_misses;
+	private final CounterAndRateMetric m_coalesced;
+	private final TotalCounterMetric m_cachedEntries;
+
+	/*
+		A request that found its response in progress
+	 */
+	interface IWaiter {
+		/**
+		 * The content is a duplicate owned by the waiter
+		 */
+		void onCachedResponse(Response response, ByteBuf content);
+		/**
+		 * The response couldn't be shared (it was a file or streamed), the request has to be handled on its own
+		 */
+		void onUncached();
+	}
+
+	ResponseCache(Logger parentLogger, String loggerNameSuffix, long ttlMS, int maxEntries, String[] keyHeaders, long sweepIntervalMS) {
+		LOG = parentLogger;
+		m_ttlNS = TimeUnit.MILLISECONDS.toNanos(ttlMS);
+		m_maxEntries = maxEntries;
+		m_keyHeaders = keyHeaders;
+		m_sweepIntervalMS = sweepIntervalMS;
+		m_hits = MetricsEngine.newCounterAndRateMetric(loggerNameSuffix + ".response-cache-hits");
+		m_misses = MetricsEngine.newCounterAndRateMetric(loggerNameSuffix + ".response-cache-misses");
+		m_coalesced = MetricsEngine.newCounterAndRateMetric(loggerNameSuffix + ".response-cache-coalesced");
+		m_cachedEntries = MetricsEngine.newTotalCounterMetric(loggerNameSuffix + ".response-cache-entries");
+	}
+
+	synchronized void start() {
+		m_running = true;
+		if (m_sweeper == null) {
+			m_sweeper = Application.getTaskPool().scheduleWithFixedDelay(this::sweep, m_sweepIntervalMS, m_sweepIntervalMS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Requests that are waiting still get their response, it just isn't kept
+	 */
+	synchronized void stop() {
+		m_running = false;
+		if (m_sweeper != null) {
+			m_sweeper.cancel(false);
+			m_sweeper = null;
+		}
+		removeCompleted(Long.MAX_VALUE);
+	}
+
+	String key(String uri, HttpHeaders headers) {
+		if (m_keyHeaders.length == 0) {
+			return uri;
+		}
+		final StringBuilder sb = new StringBuilder(uri);
+		for(String name : m_keyHeaders) {
+			sb.append('\n');
+			final String value = headers.get(name);
+			if (value != null) {
+				sb.append(value);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns null when the waiter was (or will be) given the response.  Otherwise the caller has to handle the
+	 * request and then either complete() or abandon() the returned entry.
+	 */
+	Entry acquire(String key, IWaiter waiter) {
+		while(true) {
+			Entry entry = m_entries.get(key);
+			if (entry == null) {
+				final Entry newEntry = new Entry(key);
+				entry = m_entries.putIfAbsent(key, newEntry);
+				if (entry == null) {
+					m_misses.increment();
+					return newEntry;
+				}
+			}
+			final Response response;
+			final ByteBuf content;
+			synchronized(entry) {
+				if (entry.m_waiters != null) {
+					entry.m_waiters.add(waiter);
+					m_coalesced.increment();
+					return null;
+				}
+				response = entry.m_response;
+				// The content is only released with the entry locked, so it can't go away while this is taken
+				content = (response != null && entry.m_expiresAtNS - System.nanoTime() > 0) ? response.m_content.retainedDuplicate() : null;
+			}
+			if (content != null) {
+				m_hits.increment();
+				waiter.onCachedResponse(response, content);
+				return null;
+			}
+			// Expired (or dropped while we were looking at it), the next time around replaces it
+			if (m_entries.remove(key, entry)) {
+				m_cachedEntries.decrement();
+				release(entry);
+			}
+		}
+	}
+
+	/**
+	 * The content still belongs to the caller
+	 */
+	void complete(Entry entry, HttpResponseStatus status, HttpHeaders headers, ByteBuf content) {
+		if (!shareable(headers)) {
+			abandon(entry);
+			return;
+		}
+		final Response response = new Response(status, headers, content.retainedDuplicate());
+		final boolean keep = m_running && status.code() == HttpResponseStatus.OK.code() && m_entries.size() <= m_maxEntries;
+		if (keep) {
+			m_cachedEntries.increment();
+		} else {
+			// Out of the map before anyone can see the response, only the kept ones are ever swept
+			m_entries.remove(entry.m_key, entry);
+		}
+		final List<IWaiter> waiters;
+		final List<ByteBuf> contents;
+		synchronized(entry) {
+			waiters = entry.m_waiters;
+			entry.m_waiters = null;
+			entry.m_response = response;
+			entry.m_expiresAtNS = System.nanoTime() + m_ttlNS;
+			contents = new ArrayList<>(waiters.size());
+			for(int i=0; i<waiters.size(); i++) {
+				contents.add(response.m_content.retainedDuplicate());
+			}
+		}
+		for(int i=0; i<waiters.size(); i++) {
+			try {
+				waiters.get(i).onCachedResponse(response, contents.get(i));
+			} catch(Throwable t) {
+				LOG.warn("Exception giving a cached response to a waiting request", t);
+			}
+		}
+		if (!keep) {
+			release(entry);
+		} else if (!m_running && m_entries.remove(entry.m_key, entry)) {
+			// Lost a race with stop()
+			m_cachedEntries.decrement();
+			release(entry);
+		}
+	}
+
+	void abandon(Entry entry) {
+		m_entries.remove(entry.m_key, entry);
+		final List<IWaiter> waiters;
+		synchronized(entry) {
+			waiters = entry.m_waiters;
+			entry.m_waiters = null;
+		}
+		for(IWaiter waiter : waiters) {
+			waiter.onUncached();
+		}
+	}
+
+	private static boolean shareable(HttpHeaders headers) {
+		if (headers == null) {
+			return true;
+		}
+		if (headers.contains(HttpHeaderNames.SET_COOKIE)) {
+			return false;
+		}
+		for(String value : headers.getAll(HttpHeaderNames.CACHE_CONTROL)) {
+			for(String directive : value.split(",")) {
+				final int eq = directive.indexOf('=');
+				final String name = ((eq == -1) ? directive : directive.substring(0, eq)).trim();
+				if (name.equalsIgnoreCase("private") || name.equalsIgnoreCase("no-store") || name.equalsIgnoreCase("no-cache")) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private void sweep() {
+		removeCompleted(System.nanoTime());
+	}
+
+	private void removeCompleted(long nowNS) {
+		final Iterator<Map.Entry<String, Entry>> it = m_entries.entrySet().iterator();
+		while(it.hasNext()) {
+			final Entry entry = it.next().getValue();
+			synchronized(entry) {
+				if (entry.m_waiters != null || (nowNS != Long.MAX_VALUE && entry.m_expiresAtNS - nowNS > 0)) {
+					continue;
+				}
+			}
+			if (m_entries.remove(entry.m_key, entry)) {
+				m_cachedEntries.decrement();
+				release(entry);
+			}
+		}
+	}
+
+	/*
+		Done with the entry locked so acquire() can't be taking a duplicate of the content at the same time
+	 */
+	private static void release(Entry entry) {
+		synchronized(entry) {
+			if (entry.m_response != null) {
+				entry.m_response.m_content.release();
+				entry.m_response = null;
+			}
+		}
+	}
+
+	static final class Entry {
+		private final String m_key;
+		// Null once the response is known, guarded by the entry
+		private List<IWaiter> m_waiters = new ArrayList<>();
+		// Null until the response is known and again once its content has been released
+		private Response m_response;
+		private long m_expiresAtNS;
+
+		private Entry(String key) {
+			m_key = key;
+		}
+	}
+
+	static final class Response {
+		final HttpResponseStatus m_status;
+		// Null when the handler didn't add any
+		final HttpHeaders m_headers;
+		private final ByteBuf m_content;
+
+		private Response(HttpResponseStatus status, HttpHeaders headers, ByteBuf content) {
+			m_status = status;
+			m_headers = (headers != null) ? new DefaultHttpHeaders(false).add(headers) : null;
+			m_content = content;
+		}
+	}
+}
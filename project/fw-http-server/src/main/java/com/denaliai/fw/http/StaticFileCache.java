@@ -0,0 +1,299 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import com.denaliai.fw.metrics.CounterMetric;
+import com.denaliai.fw.metrics.MetricsEngine;
+import com.denaliai.fw.metrics.TotalCounterMetric;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.AsciiString;
+import org.slf4j.Logger;
+
+import javax.activation.MimetypesFileTypeMap;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+	Holds the contents of hot files in direct buffers along with gzip and deflate versions of them.  A cached
+	file is checked against the file system at most once every checkIntervalMS and dropped if it changed.
+ */
+final class StaticFileCache {
+	// A compressed version is only kept if it saves at least this much
+	private static final double MIN_COMPRESSION_RATIO = 0.9;
+
+	private final Logger LOG;
+	private final MimetypesFileTypeMap m_mimeTypesMap;
+	private final ConcurrentHashMap<String, CachedFile> m_files = new ConcurrentHashMap<>();
+	private final AtomicLong m_cachedBytes = new AtomicLong();
+	private final long m_maxCacheBytes;
+	private final long m_maxFileBytes;
+	private final long m_checkIntervalMS;
+
+	private final CounterMetric m_hits;
+	private final CounterMetric m_misses;
+	private final CounterMetric m_evictions;
+	private final CounterMetric m_invalidations;
+	private final TotalCounterMetric m_cacheBytes;
+
+	StaticFileCache(Logger parentLogger, String loggerNameSuffix, MimetypesFileTypeMap mimeTypesMap, long maxCacheBytes, long maxFileBytes, long checkIntervalMS) {
+		LOG = parentLogger;
+		m_mimeTypesMap = mimeTypesMap;
+		m_maxCacheBytes = maxCacheBytes;
+		m_maxFileBytes = maxFileBytes;
+		m_checkIntervalMS = checkIntervalMS;
+		m_hits = MetricsEngine.newCounterMetric(loggerNameSuffix + ".static-cache-hits");
+		m_misses = MetricsEngine.newCounterMetric(loggerNameSuffix + ".static-cache-misses");
+		m_evictions = MetricsEngine.newCounterMetric(loggerNameSuffix + ".static-cache-evictions");
+		m_invalidations = MetricsEngine.newCounterMetric(loggerNameSuffix + ".static-cache-invalidations");
+		m_cacheBytes = MetricsEngine.newTotalCounterMetric(loggerNameSuffix + ".static-cache-bytes");
+	}
+
+	/**
+	 * Returns null if the file can't be cached, otherwise the caller has to release the file when done with it
+	 */
+	CachedFile get(File file) {
+		final String key = file.getPath();
+		final long now = System.currentTimeMillis();
+		CachedFile cached = retained(key);
+		if (cached != null) {
+			if (now - cached.m_checkedAtMS >= m_checkIntervalMS) {
+				cached.m_checkedAtMS = now;
+				if (file.lastModified() != cached.m_lastModified || file.length() != cached.m_length) {
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("Static file cache dropping modified file {}", key);
+					}
+					m_invalidations.increment();
+					remove(key, cached);
+					cached.release();
+					cached = null;
+				}
+			}
+			if (cached != null) {
+				cached.m_lastAccessMS = now;
+				m_hits.increment();
+				return cached;
+			}
+		}
+		m_misses.increment();
+
+		final long lastModified = file.lastModified();
+		final long length = file.length();
+		if (length > m_maxFileBytes || length > m_maxCacheBytes || !file.isFile()) {
+			return null;
+		}
+		try {
+			cached = load(file, lastModified, now);
+		} catch(IOException ex) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Static file cache could not load {}", key, ex);
+			}
+			return null;
+		}
+		// One reference for the cache and one for the caller
+		cached.retain();
+		if (m_files.putIfAbsent(key, cached) != null) {
+			// Someone else loaded it at the same time
+			cached.release(2);
+			return retained(key);
+		}
+		m_cacheBytes.add(cached.m_cachedBytes);
+		if (m_cachedBytes.addAndGet(cached.m_cachedBytes) > m_maxCacheBytes) {
+			evict();
+		}
+		return cached;
+	}
+
+	/*
+		The reference is taken with the map's bin locked so a concurrent remove can't free the file in between
+	 */
+	private CachedFile retained(String key) {
+		return m_files.computeIfPresent(key, (k, cached) -> cached.retain());
+	}
+
+	void clear() {
+		for(Map.Entry<String, CachedFile> e : m_files.entrySet()) {
+			remove(e.getKey(), e.getValue());
+		}
+	}
+
+	private CachedFile load(File file, long lastModified, long now) throws IOException {
+		final String contentType = m_mimeTypesMap.getContentType(file);
+		final byte[] data = Files.readAllBytes(file.toPath());
+		final CachedFile cached = new CachedFile(contentType, lastModified, data.length, now);
+		cached.m_identity = toBuffer(data);
+		if (isCompressible(contentType)) {
+			final ByteArrayOutputStream gzipBytes = new ByteArrayOutputStream(data.length);
+			try (GZIPOutputStream out = new GZIPOutputStream(gzipBytes)) {
+				out.write(data);
+			}
+			if (gzipBytes.size() < data.length * MIN_COMPRESSION_RATIO) {
+				cached.m_gzip = toBuffer(gzipBytes.toByteArray());
+			}
+			final ByteArrayOutputStream deflateBytes = new ByteArrayOutputStream(data.length);
+			try (DeflaterOutputStream out = new DeflaterOutputStream(deflateBytes)) {
+				out.write(data);
+			}
+			if (deflateBytes.size() < data.length * MIN_COMPRESSION_RATIO) {
+				cached.m_deflate = toBuffer(deflateBytes.toByteArray());
+			}
+		}
+		cached.m_cachedBytes = cached.m_identity.capacity()
+			+ ((cached.m_gzip != null) ? cached.m_gzip.capacity() : 0)
+			+ ((cached.m_deflate != null) ? cached.m_deflate.capacity() : 0);
+		return cached;
+	}
+
+	private static ByteBuf toBuffer(byte[] data) {
+		final ByteBuf buf = Application.allocator().directBuffer(data.length, data.length);
+		buf.writeBytes(data);
+		return buf;
+	}
+
+	private static boolean isCompressible(String contentType) {
+		return contentType.startsWith("text/")
+			|| contentType.contains("javascript")
+			|| contentType.contains("json")
+			|| contentType.contains("xml");
+	}
+
+	private void remove(String key, CachedFile cached) {
+		if (m_files.remove(key, cached)) {
+			m_cachedBytes.addAndGet(-cached.m_cachedBytes);
+			m_cacheBytes.add(-cached.m_cachedBytes);
+			// Responses in flight hold their own reference
+			cached.release();
+		}
+	}
+
+	/*
+		Drops the least recently used files until the cache is back under its limit
+	 */
+	private synchronized void evict() {
+		while (m_cachedBytes.get() > m_maxCacheBytes) {
+			Map.Entry<String, CachedFile> oldest = null;
+			for(Map.Entry<String, CachedFile> e : m_files.entrySet()) {
+				if (oldest == null || e.getValue().m_lastAccessMS < oldest.getValue().m_lastAccessMS) {
+					oldest = e;
+				}
+			}
+			if (oldest == null) {
+				return;
+			}
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Static file cache evicting {}", oldest.getKey());
+			}
+			m_evictions.increment();
+			remove(oldest.getKey(), oldest.getValue());
+		}
+	}
+
+	static final class CachedFile extends AbstractReferenceCounted {
+		final String m_contentType;
+		final long m_lastModified;
+		final AsciiString m_lastModifiedHeader;
+		final long m_length;
+		final AsciiString m_etag;
+		private final AsciiString m_weakETag;
+		private ByteBuf m_identity;
+		private ByteBuf m_gzip;
+		private ByteBuf m_deflate;
+		private int m_cachedBytes;
+		private volatile long m_checkedAtMS;
+		private volatile long m_lastAccessMS;
+
+		private CachedFile(String contentType, long lastModified, long length, long now) {
+			m_contentType = contentType;
+			m_lastModified = lastModified;
+			m_lastModifiedHeader = HttpDates.format(lastModified);
+			m_length = length;
+			m_etag = HttpETags.strong(length, lastModified);
+			m_weakETag = HttpETags.weak(m_etag);
+			m_checkedAtMS = now;
+			m_lastAccessMS = now;
+		}
+
+		/**
+		 * Picks the smallest variant the client accepts
+		 */
+		AsciiString contentEncoding(String acceptEncoding) {
+			if (acceptEncoding == null) {
+				return HttpHeaderValues.IDENTITY;
+			}
+			if (m_gzip != null && accepts(acceptEncoding, "gzip")) {
+				return HttpHeaderValues.GZIP;
+			}
+			if (m_deflate != null && accepts(acceptEncoding, "deflate")) {
+				return HttpHeaderValues.DEFLATE;
+			}
+			return HttpHeaderValues.IDENTITY;
+		}
+
+		/**
+		 * The compressed variants get the weak tag, their bytes aren't the file's
+		 */
+		AsciiString etag(AsciiString contentEncoding) {
+			return (contentEncoding == HttpHeaderValues.IDENTITY) ? m_etag : m_weakETag;
+		}
+
+		ByteBuf retainedContent(AsciiString contentEncoding) {
+			final ByteBuf buf;
+			if (contentEncoding == HttpHeaderValues.GZIP) {
+				buf = m_gzip;
+			} else if (contentEncoding == HttpHeaderValues.DEFLATE) {
+				buf = m_deflate;
+			} else {
+				buf = m_identity;
+			}
+			return buf.retainedDuplicate();
+		}
+
+		@Override
+		public CachedFile retain() {
+			super.retain();
+			return this;
+		}
+
+		@Override
+		public CachedFile touch(Object hint) {
+			return this;
+		}
+
+		@Override
+		protected void deallocate() {
+			m_identity.release();
+			if (m_gzip != null) {
+				m_gzip.release();
+			}
+			if (m_deflate != null) {
+				m_deflate.release();
+			}
+		}
+
+		private static boolean accepts(String acceptEncoding, String encoding) {
+			for(String part : acceptEncoding.split(",")) {
+				final String token = part.trim();
+				if (!token.regionMatches(true, 0, encoding, 0, encoding.length())) {
+					continue;
+				}
+				final int qPos = token.indexOf("q=");
+				if (qPos == -1) {
+					return true;
+				}
+				try {
+					return Double.parseDouble(token.substring(qPos + 2).trim()) > 0;
+				} catch(NumberFormatException ex) {
+					return false;
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.metrics.CounterAndRateMetric;
+import com.denaliai.fw.metrics.MetricsEngine;
+import com.denaliai.fw.metrics.TotalCounterMetric;
+import com.denaliai.fw.utility.Pipe;
+import com.denaliai.fw.utility.concurrent.PerpetualWork;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.*;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.websocketx.*;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.internal.PlatformDependent;
+import org.slf4j.Logger;
+
+import java.util.Queue;
+
+/*
+	A connection after it has been upgraded to a WebSocket.  It works the same as SocketServer's connections, the
+	user reads from one pipe and writes to the other, except each buffer in a pipe is one whole message.  The frame
+	buffers are handed over as they are, nothing is copied.
+ */
+final class WebSocketConnection extends PerpetualWork implements HttpServer.IWebSocketConnection {
+	private static final Object m_onConnect = new Object();
+	private static final Object m_onData = new Object();
+	private static final Object m_onDisconnect = new Object();
+	private static final Object m_userClose = new Object();
+
+	private final Logger LOG;
+	private final Route m_route;
+	private final long m_connectionId;
+	private final String m_connectionToString;
+	private final String m_requestURI;
+	private final HttpHeaders m_requestHeaders;
+	private final Queue<Object> m_msgQueue = PlatformDependent.newMpscQueue();
+	private final FrameHandler m_frameHandler = new FrameHandler();
+
+	private Pipe.IConsumer m_writePipeConsumer;
+	private Pipe.IProducer m_writePipeProducer;
+	private Pipe.IConsumer m_readPipeConsumer;
+	private Pipe.IProducer m_readPipeProducer;
+
+	// Set on the event loop, the worker writes through it
+	private volatile ChannelHandlerContext m_context;
+	private boolean m_closeRequested;
+
+	WebSocketConnection(Logger log, Route route, long connectionId, String connectionToString, String requestURI, HttpHeaders requestHeaders, EventLoop eventLoop) {
+		super(eventLoop);
+		LOG = log;
+		m_route = route;
+		m_connectionId = connectionId;
+		m_connectionToString = connectionToString;
+		m_requestURI = requestURI;
+		m_requestHeaders = requestHeaders;
+
+		final Pipe writePipe = Pipe.create(this::requestMoreWork);
+		m_writePipeConsumer = writePipe.consumer();
+		m_writePipeProducer = writePipe.producer();
+		final Pipe readPipe = Pipe.create();
+		m_readPipeConsumer = readPipe.consumer();
+		m_readPipeProducer = readPipe.producer();
+	}
+
+	/**
+	 * Goes last in the connection's pipeline, after the frames are aggregated into messages
+	 */
+	ChannelHandler handler() {
+		return m_frameHandler;
+	}
+
+	@Override
+	public long connectionId() {
+		return m_connectionId;
+	}
+
+	@Override
+	public String remoteHostAddress() {
+		return m_connectionToString;
+	}
+
+	@Override
+	public String requestURI() {
+		return m_requestURI;
+	}
+
+	@Override
+	public String headerValue(String name) {
+		return m_requestHeaders.get(name);
+	}
+
+	@Override
+	public void close() {
+		m_msgQueue.add(m_userClose);
+		requestMoreWork();
+	}
+
+	@Override
+	public String toString() {
+		return m_connectionToString;
+	}
+
+	@Override
+	protected void _doWork() {
+		while(true) {
+			final Object msg = m_msgQueue.poll();
+			if (msg == null) {
+				break;
+			}
+			try {
+				if (msg == m_onData) {
+					if (m_readPipeConsumer != null) {
+						m_route.m_handler.onData(this, m_readPipeConsumer, m_writePipeProducer);
+					}
+
+				} else if (msg == m_onConnect) {
+					m_route.m_handler.onConnect(this, m_writePipeProducer);
+
+				} else if (msg == m_onDisconnect) {
+					// There could be buffers left in the pipes, they are released when the user closes their side
+					m_context = null;
+					m_writePipeConsumer.close();
+					m_writePipeConsumer = null;
+					m_readPipeProducer.close();
+					m_readPipeProducer = null;
+					final Pipe.IConsumer readPipeConsumer = m_readPipeConsumer;
+					final Pipe.IProducer writePipeProducer = m_writePipeProducer;
+					m_readPipeConsumer = null;
+					m_writePipeProducer = null;
+					m_route.m_connections.decrement();
+					// It is expected that the user will close their pipe interfaces (if they haven't already done so)
+					m_route.m_handler.onDisconnect(this, readPipeConsumer, writePipeProducer);
+
+				} else if (msg == m_userClose) {
+					m_closeRequested = true;
+				}
+			} catch(Throwable t) {
+				LOG.warn("Uncaught exception from " + m_route.m_handler.getClass().getName(), t);
+			}
+		}
+		final ChannelHandlerContext context = m_context;
+		if (context == null || m_writePipeConsumer == null) {
+			return;
+		}
+		boolean wroteData = false;
+		while(true) {
+			final ByteBuf buf = m_writePipeConsumer.poll();
+			if (buf == null) {
+				break;
+			}
+			m_route.m_messagesOut.increment();
+			context.write(m_route.m_textFrames ? new TextWebSocketFrame(buf) : new BinaryWebSocketFrame(buf));
+			wroteData = true;
+		}
+		if (m_closeRequested) {
+			m_context = null;
+			context.writeAndFlush(new CloseWebSocketFrame(1000, null)).addListener(ChannelFutureListener.CLOSE);
+		} else if (wroteData) {
+			context.flush();
+		}
+	}
+
+	private final class FrameHandler extends ChannelInboundHandlerAdapter {
+		@Override
+		public void handlerAdded(ChannelHandlerContext ctx) {
+			// The channel is already active, this is the start of the WebSocket
+			m_context = ctx;
+			m_route.m_connections.increment();
+			m_msgQueue.add(m_onConnect);
+			requestMoreWork();
+		}
+
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) {
+			if (msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame) {
+				m_route.m_messagesIn.increment();
+				// The pipe takes over the reference to the frame's buffer
+				m_readPipeProducer.submit(((WebSocketFrame)msg).content());
+				m_msgQueue.add(m_onData);
+				requestMoreWork();
+			} else if (msg instanceof PingWebSocketFrame) {
+				ctx.writeAndFlush(new PongWebSocketFrame(((PingWebSocketFrame)msg).content()));
+			} else if (msg instanceof CloseWebSocketFrame) {
+				// Echo the close back and we're done
+				ctx.writeAndFlush(msg).addListener(ChannelFutureListener.CLOSE);
+			} else {
+				ReferenceCountUtil.release(msg);
+			}
+		}
+
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+			m_msgQueue.add(m_onDisconnect);
+			requestMoreWork();
+			super.channelInactive(ctx);
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+			// A message over the size limit or a protocol error
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("[{}] WebSocket exception, closing connection", m_connectionToString, cause);
+			}
+			ctx.close();
+		}
+	}
+
+	static final class Route {
+		private final HttpServer.IWebSocketHandler m_handler;
+		private final boolean m_textFrames;
+		private final TotalCounterMetric m_connections;
+		private final CounterAndRateMetric m_messagesIn;
+		private final CounterAndRateMetric m_messagesOut;
+
+		Route(String loggerNameSuffix, String path, boolean textFrames, HttpServer.IWebSocketHandler handler) {
+			m_handler = handler;
+			m_textFrames = textFrames;
+			m_connections = MetricsEngine.newTotalCounterMetric(loggerNameSuffix + ".websocket:" + path + ".connections");
+			m_messagesIn = MetricsEngine.newCounterAndRateMetric(loggerNameSuffix + ".websocket:" + path + ".messages-in");
+			m_messagesOut = MetricsEngine.newCounterAndRateMetric(loggerNameSuffix + ".websocket:" + path + ".messages-out");
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import com.denaliai.fw.utility.http.MinimalHTTPRequest;
+import com.denaliai.fw.utility.http.MinimalHTTPResponse;
+import io.netty.buffer.ByteBufUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class HttpRouter_Routing_Test extends TestBase {
+
+	@Test
+	public void test() {
+		HttpRouter router = HttpRouter.builder()
+			.loggerNameSuffix("Http10000")
+			.get("/users/{id}", (request, response, params) -> respond(response, "user " + params.value("id")))
+			.get("/users/me", (request, response, params) -> respond(response, "me"))
+			.get("/users/{id}/orders/{orderId}", (request, response, params) -> respond(response, params.value(0) + " order " + params.value("orderId")))
+			.post("/users", (request, response, params) -> respond(response, "created"))
+			.get("/files/{*path}", (request, response, params) -> respond(response, "file " + params.value("path")))
+			.get("/", (request, response, params) -> respond(response, "root"))
+			.build();
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.onRequest(router)
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		assertBody("/", "root");
+		assertBody("/users/42", "user 42");
+		assertBody("/users/42?verbose=true", "user 42");
+		assertBody("/users/me", "me");
+		assertBody("/users/mel", "user mel");
+		assertBody("/users/a%20b", "user a b");
+		assertBody("/users/42/orders/7", "42 order 7");
+		assertBody("/files/css/site.css", "file css/site.css");
+
+		MinimalHTTPResponse response = MinimalHTTPRequest.get("localhost", 10000, "/users");
+		Assertions.assertEquals(405, response.code);
+		Assertions.assertEquals("POST", response.getHeader("allow"));
+
+		response = MinimalHTTPRequest.get("localhost", 10000, "/users/42/orders");
+		Assertions.assertEquals(404, response.code);
+		response = MinimalHTTPRequest.get("localhost", 10000, "/nothing");
+		Assertions.assertEquals(404, response.code);
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+	}
+
+	@Test
+	public void testBadPatterns() {
+		Assertions.assertThrows(IllegalArgumentException.class, () -> HttpRouter.builder().get("users", (request, response, params) -> {}));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> HttpRouter.builder().get("/users/x{id}", (request, response, params) -> {}));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> HttpRouter.builder().get("/files/{*path}/more", (request, response, params) -> {}));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> HttpRouter.builder().get("/a/{id}/{id}", (request, response, params) -> {}));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> HttpRouter.builder()
+			.get("/a/{id}", (request, response, params) -> {})
+			.get("/a/{id}", (request, response, params) -> {}));
+	}
+
+	private static void respond(HttpServer.IHttpResponse response, String body) {
+		response.respondOk(ByteBufUtil.writeUtf8(Application.ioBufferAllocator(), body));
+	}
+
+	private static void assertBody(String uri, String expected) {
+		MinimalHTTPResponse response = MinimalHTTPRequest.get("localhost", 10000, uri);
+		Assertions.assertEquals(200, response.code, uri);
+		Assertions.assertEquals(expected, response.body, uri);
+	}
+}
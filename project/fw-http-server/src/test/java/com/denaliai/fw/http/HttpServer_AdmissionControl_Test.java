@@ -0,0 +1,72 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import com.denaliai.fw.utility.http.MinimalHTTPRequest;
+import com.denaliai.fw.utility.http.MinimalHTTPResponse;
+import io.netty.buffer.ByteBufUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class HttpServer_AdmissionControl_Test extends TestBase {
+
+	@Test
+	public void testMaxConcurrent() throws Exception {
+		final CountDownLatch slowStarted = new CountDownLatch(1);
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.maxConcurrentRequests(1)
+			.retryAfterSeconds(3)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				final String uri = request.requestURI();
+				if (uri.equals("/slow")) {
+					slowStarted.countDown();
+					Application.getTaskPool().schedule(() -> {
+						response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), uri));
+					}, 500, TimeUnit.MILLISECONDS);
+				} else {
+					response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), uri));
+				}
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		final CompletableFuture<MinimalHTTPResponse> slow = CompletableFuture.supplyAsync(() -> MinimalHTTPRequest.get("localhost", 10000, "/slow"));
+		Assertions.assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+
+		MinimalHTTPResponse response = MinimalHTTPRequest.get("localhost", 10000, "/fast");
+		Assertions.assertEquals(503, response.code);
+		Assertions.assertEquals("3", response.getHeader("retry-after"));
+
+		Assertions.assertEquals("/slow", slow.get(5, TimeUnit.SECONDS).body);
+
+		// The slot is given back once the slow response is written
+		response = MinimalHTTPRequest.get("localhost", 10000, "/fast");
+		Assertions.assertEquals(200, response.code);
+		Assertions.assertEquals("/fast", response.body);
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+	}
+
+	@Test
+	public void testQueueDelay() throws Exception {
+		final AdmissionControl admission = new AdmissionControl("AdmissionControlTest", 0, 10, 50);
+		final long ms = TimeUnit.MILLISECONDS.toNanos(1);
+
+		// Not overloaded, only a wait longer than the interval is shed
+		Assertions.assertTrue(admission.tryAdmit(20 * ms));
+		Assertions.assertFalse(admission.tryAdmit(60 * ms));
+
+		// A whole interval where nothing waited less than the target
+		Thread.sleep(60);
+		Assertions.assertFalse(admission.tryAdmit(20 * ms));
+		Assertions.assertTrue(admission.tryAdmit(5 * ms));
+
+		// The short wait in the last interval ends the overload
+		Thread.sleep(60);
+		Assertions.assertTrue(admission.tryAdmit(20 * ms));
+	}
+}
@@ -0,0 +1,73 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import com.denaliai.fw.utility.http.MinimalHTTPRequest;
+import com.denaliai.fw.utility.http.MinimalHTTPResponse;
+import io.netty.buffer.ByteBufUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+public class HttpServer_DateHeaders_Test extends TestBase {
+
+	@Test
+	public void test() throws Exception {
+		final File file = File.createTempFile("HttpServer_DateHeaders_Test", ".txt");
+		file.deleteOnExit();
+		Files.write(file.toPath(), "file data".getBytes(StandardCharsets.US_ASCII));
+		file.setLastModified(1500000000000L);
+
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				if (request.requestURI().equals("/file")) {
+					response.addHeader("Cache-Control", "public, max-age=30");
+					response.respondOkWithFile(file, false, 60);
+				} else {
+					response.setDynamicContentHeaders("text/plain");
+					response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), "GOOD"));
+				}
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		final SimpleDateFormat dateFormatter = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		dateFormatter.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+		final long beforeMS = System.currentTimeMillis() / 1000 * 1000;
+		MinimalHTTPResponse response = MinimalHTTPRequest.get("localhost", 10000, "/file");
+		final long afterMS = System.currentTimeMillis();
+		Assertions.assertEquals(200, response.code);
+		Assertions.assertEquals("file data", response.body);
+		Assertions.assertEquals(dateFormatter.format(new Date(1500000000000L)), response.getHeader("last-modified"));
+		final long date = dateFormatter.parse(response.getHeader("date")).getTime();
+		Assertions.assertTrue(date >= beforeMS && date <= afterMS);
+		Assertions.assertEquals(date + 60000, dateFormatter.parse(response.getHeader("expires")).getTime());
+		// respondOkWithFile() sets the cache headers from httpCacheSeconds over anything the user added
+		Assertions.assertEquals("private, max-age=60", response.getHeader("cache-control"));
+
+		final Map<String, String> headers = new HashMap<>();
+		headers.put("If-Modified-Since", dateFormatter.format(new Date(1500000000000L)));
+		response = MinimalHTTPRequest.get("localhost", 10000, "/file", headers);
+		Assertions.assertEquals(304, response.code);
+
+		headers.put("If-Modified-Since", "not a date");
+		response = MinimalHTTPRequest.get("localhost", 10000, "/file", headers);
+		Assertions.assertEquals(400, response.code);
+
+		response = MinimalHTTPRequest.get("localhost", 10000, "/dynamic");
+		Assertions.assertEquals(200, response.code);
+		Assertions.assertEquals("no-cache, no-store, must-revalidate", response.getHeader("cache-control"));
+		Assertions.assertEquals("-1", response.getHeader("expires"));
+		Assertions.assertNotNull(dateFormatter.parse(response.getHeader("date")));
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+		file.delete();
+	}
+}
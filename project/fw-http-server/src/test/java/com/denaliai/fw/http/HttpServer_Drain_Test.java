@@ -0,0 +1,108 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import com.denaliai.fw.utility.http.MinimalHTTPRequest;
+import com.denaliai.fw.utility.http.MinimalHTTPResponse;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.concurrent.Future;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class HttpServer_Drain_Test extends TestBase {
+
+	@Test
+	public void test() throws Exception {
+		final CountDownLatch slowStarted = new CountDownLatch(1);
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.keepAliveIdleTimeout(30000)
+			.drainTimeout(5000)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				if (request.requestURI().equals("/slow")) {
+					slowStarted.countDown();
+					Application.getTaskPool().schedule(() -> {
+						response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), "SLOW"));
+					}, 500, TimeUnit.MILLISECONDS);
+				} else {
+					response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), "GOOD"));
+				}
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		try (Socket idle = new Socket("localhost", 10000)) {
+			idle.setSoTimeout(5000);
+			final InputStream in = idle.getInputStream();
+			idle.getOutputStream().write("GET /fast HTTP/1.1\r\nHost: localhost:10000\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			idle.getOutputStream().flush();
+			Assertions.assertTrue(readUntil(in, "GOOD"));
+
+			final CompletableFuture<MinimalHTTPResponse> slowResponse = CompletableFuture.supplyAsync(() -> MinimalHTTPRequest.get("localhost", 10000, "/slow"));
+			Assertions.assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+
+			final long stopStartMS = System.currentTimeMillis();
+			final Future<Void> stopFuture = httpServer.stop();
+			// The idle connection is closed right away, its idle timeout is a lot longer
+			Assertions.assertEquals(-1, in.read());
+			Assertions.assertTrue(System.currentTimeMillis() - stopStartMS < 2000);
+			Assertions.assertFalse(stopFuture.isDone());
+
+			// The running request finishes and its connection is closed after it
+			final MinimalHTTPResponse response = slowResponse.get(5, TimeUnit.SECONDS);
+			Assertions.assertEquals(200, response.code);
+			Assertions.assertEquals("SLOW", response.body);
+			Assertions.assertEquals("close", response.getHeader("connection"));
+			Assertions.assertTrue(stopFuture.awaitUninterruptibly(2000));
+		}
+	}
+
+	@Test
+	public void testDeadline() throws Exception {
+		final CountDownLatch neverStarted = new CountDownLatch(1);
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.drainTimeout(300)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				neverStarted.countDown();
+				// Long after the deadline, the response is thrown away
+				Application.getTaskPool().schedule(() -> {
+					response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), "LATE"));
+				}, 1500, TimeUnit.MILLISECONDS);
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		try (Socket socket = new Socket("localhost", 10000)) {
+			socket.setSoTimeout(5000);
+			socket.getOutputStream().write("GET /never HTTP/1.1\r\nHost: localhost:10000\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			socket.getOutputStream().flush();
+			Assertions.assertTrue(neverStarted.await(5, TimeUnit.SECONDS));
+
+			final long stopStartMS = System.currentTimeMillis();
+			Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(2000));
+			Assertions.assertTrue(System.currentTimeMillis() - stopStartMS >= 250);
+			Assertions.assertEquals(-1, socket.getInputStream().read());
+		}
+		// Let the late response get thrown away
+		Thread.sleep(1500);
+	}
+
+	private static boolean readUntil(InputStream in, String expected) throws Exception {
+		final StringBuilder sb = new StringBuilder();
+		while(!sb.toString().contains(expected)) {
+			final int c = in.read();
+			if (c == -1) {
+				return false;
+			}
+			sb.append((char)c);
+		}
+		return true;
+	}
+}
@@ -0,0 +1,58 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import com.denaliai.fw.utility.http.MinimalHTTPRequest;
+import com.denaliai.fw.utility.http.MinimalHTTPResponse;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.concurrent.EventExecutor;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class HttpServer_EventLoopHandlers_Test extends TestBase {
+
+	@Test
+	public void test() {
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.runHandlersOnEventLoop(true)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), onIOThread() ? "IO" : "TASK"));
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		for(int i=0; i<5; i++) {
+			MinimalHTTPResponse response = MinimalHTTPRequest.get("localhost", 10000, "/where");
+			Assertions.assertEquals(200, response.code);
+			Assertions.assertEquals("IO", response.body);
+		}
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+	}
+
+	@Test
+	public void testDefault() {
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), onIOThread() ? "IO" : "TASK"));
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		MinimalHTTPResponse response = MinimalHTTPRequest.get("localhost", 10000, "/where");
+		Assertions.assertEquals(200, response.code);
+		Assertions.assertEquals("TASK", response.body);
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+	}
+
+	private static boolean onIOThread() {
+		for(EventExecutor e : Application.getIOPool()) {
+			if (e.inEventLoop()) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
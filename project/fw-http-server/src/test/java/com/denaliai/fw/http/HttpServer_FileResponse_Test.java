@@ -0,0 +1,76 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.utility.http.MinimalHTTPRequest;
+import com.denaliai.fw.utility.http.MinimalHTTPResponse;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+public class HttpServer_FileResponse_Test extends TestBase {
+
+	@Test
+	public void testZeroCopy() throws IOException {
+		runTest(true);
+	}
+
+	@Test
+	public void testChunked() throws IOException {
+		runTest(false);
+	}
+
+	private void runTest(boolean zeroCopy) throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		for(int i=0; i<200*1024; i++) {
+			sb.append((char)('a' + (i % 26)));
+		}
+		final String fileContents = sb.toString();
+		final File file = File.createTempFile("HttpServer_FileResponse_Test", ".txt");
+		file.deleteOnExit();
+		Files.write(file.toPath(), fileContents.getBytes(StandardCharsets.US_ASCII));
+
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.zeroCopyFileTransfer(zeroCopy)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				response.respondOkWithFile(file, false, 60);
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		MinimalHTTPResponse response = MinimalHTTPRequest.get("localhost", 10000, "/file.txt");
+		Assertions.assertEquals(200, response.code);
+		Assertions.assertEquals(Integer.toString(fileContents.length()), response.getHeader("content-length"));
+		Assertions.assertNull(response.getHeader("transfer-encoding"));
+		Assertions.assertEquals(fileContents, response.body);
+		final String etag = response.getHeader("etag");
+		Assertions.assertTrue(etag.startsWith("\""));
+
+		final Map<String, String> headers = new HashMap<>();
+		headers.put("Accept-Encoding", "gzip");
+		response = MinimalHTTPRequest.get("localhost", 10000, "/file.txt", headers);
+		Assertions.assertEquals(200, response.code);
+		if (zeroCopy) {
+			// The file region can't be compressed
+			Assertions.assertEquals(fileContents, response.body);
+			Assertions.assertEquals(etag, response.getHeader("etag"));
+		} else {
+			// Compressed, so the tag is the weak one
+			Assertions.assertEquals("gzip", response.getHeader("content-encoding"));
+			Assertions.assertEquals("W/" + etag, response.getHeader("etag"));
+
+			headers.put("If-None-Match", etag);
+			response = MinimalHTTPRequest.get("localhost", 10000, "/file.txt", headers);
+			Assertions.assertEquals(304, response.code);
+			Assertions.assertEquals("W/" + etag, response.getHeader("etag"));
+		}
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+		file.delete();
+	}
+}
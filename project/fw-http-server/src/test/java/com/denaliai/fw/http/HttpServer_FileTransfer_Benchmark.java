@@ -0,0 +1,128 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import com.denaliai.fw.ApplicationBootstrap;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Compares respondOkWithFile() throughput and process CPU time with and without zero copy file transfer.
+ * This is not run as part of the tests, run main() by hand:
+ *
+ *    HttpServer_FileTransfer_Benchmark [fileSizeMB] [numDownloads]
+ *
+ * The CPU time includes the client reading the data, which is the same for both runs.
+ */
+public class HttpServer_FileTransfer_Benchmark {
+	private static final int PORT = 10000;
+
+	public static void main(String[] args) throws Exception {
+		final int fileSizeMB = (args.length > 0) ? Integer.parseInt(args[0]) : 64;
+		final int numDownloads = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+
+		System.setProperty("com.denaliai.fw.logger-level-root", "WARN");
+		ApplicationBootstrap.bootstrap(new String[]{});
+		Application.run();
+		try {
+			final File file = createFile(fileSizeMB);
+			try {
+				// Warm up both paths before measuring
+				run(file, true, numDownloads / 5 + 1);
+				run(file, false, numDownloads / 5 + 1);
+
+				report("chunked  ", run(file, false, numDownloads), fileSizeMB, numDownloads);
+				report("zero-copy", run(file, true, numDownloads), fileSizeMB, numDownloads);
+			} finally {
+				file.delete();
+			}
+		} finally {
+			Application.terminateAndWait();
+		}
+	}
+
+	private static File createFile(int fileSizeMB) throws IOException {
+		final File file = File.createTempFile("HttpServer_FileTransfer_Benchmark", ".bin");
+		file.deleteOnExit();
+		final byte[] block = new byte[1024*1024];
+		new Random(0).nextBytes(block);
+		try (OutputStream out = new FileOutputStream(file)) {
+			for(int i=0; i<fileSizeMB; i++) {
+				out.write(block);
+			}
+		}
+		return file;
+	}
+
+	private static long[] run(File file, boolean zeroCopy, int numDownloads) throws IOException {
+		final HttpServer httpServer = HttpServer.builder()
+			.listenPort(PORT)
+			.zeroCopyFileTransfer(zeroCopy)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				response.respondOkWithFile(file, false, 0);
+			})
+			.build();
+		httpServer.start().syncUninterruptibly();
+		try {
+			final com.sun.management.OperatingSystemMXBean os = (com.sun.management.OperatingSystemMXBean)ManagementFactory.getOperatingSystemMXBean();
+			final long startCpuNS = os.getProcessCpuTime();
+			final long startNS = System.nanoTime();
+			try (Socket socket = new Socket("localhost", PORT)) {
+				final OutputStream out = socket.getOutputStream();
+				final InputStream in = new BufferedInputStream(socket.getInputStream(), 64*1024);
+				final byte[] request = ("GET /file.bin HTTP/1.1\r\nHost: localhost:" + PORT + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+				final byte[] buffer = new byte[64*1024];
+				for(int i=0; i<numDownloads; i++) {
+					out.write(request);
+					out.flush();
+					long remaining = readContentLength(in);
+					while(remaining > 0) {
+						final int numRead = in.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+						if (numRead == -1) {
+							throw new EOFException("Connection closed with " + remaining + " bytes left");
+						}
+						remaining -= numRead;
+					}
+				}
+			}
+			return new long[] {System.nanoTime() - startNS, os.getProcessCpuTime() - startCpuNS};
+		} finally {
+			httpServer.stop().syncUninterruptibly();
+		}
+	}
+
+	private static long readContentLength(InputStream in) throws IOException {
+		long contentLength = -1;
+		final StringBuilder line = new StringBuilder();
+		while(true) {
+			final int b = in.read();
+			if (b == -1) {
+				throw new EOFException("Connection closed in headers");
+			}
+			if (b == '\r') {
+				continue;
+			}
+			if (b != '\n') {
+				line.append((char)b);
+				continue;
+			}
+			if (line.length() == 0) {
+				return contentLength;
+			}
+			final String header = line.toString().toLowerCase();
+			if (header.startsWith("content-length:")) {
+				contentLength = Long.parseLong(header.substring("content-length:".length()).trim());
+			}
+			line.setLength(0);
+		}
+	}
+
+	private static void report(String name, long[] result, int fileSizeMB, int numDownloads) {
+		final double seconds = result[0] / 1_000_000_000.0;
+		final double totalMB = (double)fileSizeMB * numDownloads;
+		System.out.printf("%s: %8.1f MB/s, %6.2f CPU ms per MB%n", name, totalMB / seconds, (result[1] / 1_000_000.0) / totalMB);
+	}
+}
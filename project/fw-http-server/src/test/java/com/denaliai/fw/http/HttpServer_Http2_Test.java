@@ -0,0 +1,137 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import com.denaliai.fw.utility.http.MinimalHTTPRequest;
+import com.denaliai.fw.utility.http.MinimalHTTPResponse;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.*;
+import io.netty.handler.codec.http.*;
+import io.netty.handler.codec.http2.*;
+import io.netty.util.CharsetUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class HttpServer_Http2_Test extends TestBase {
+
+	@Test
+	public void test() throws Exception {
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.http2(true)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				final String uri = request.requestURI();
+				if (uri.equals("/slow")) {
+					// The other stream on the connection is answered first
+					Application.getTaskPool().schedule(() -> {
+						response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), uri));
+					}, 250, TimeUnit.MILLISECONDS);
+				} else {
+					response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), uri));
+				}
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		final Channel channel = connect();
+		try {
+			final CompletableFuture<FullHttpResponse> slow = get(channel, "/slow");
+			final CompletableFuture<FullHttpResponse> fast = get(channel, "/fast");
+
+			final FullHttpResponse fastResponse = fast.get(5, TimeUnit.SECONDS);
+			Assertions.assertFalse(slow.isDone());
+			Assertions.assertEquals(200, fastResponse.status().code());
+			Assertions.assertEquals("/fast", fastResponse.content().toString(CharsetUtil.US_ASCII));
+			fastResponse.release();
+
+			final FullHttpResponse slowResponse = slow.get(5, TimeUnit.SECONDS);
+			Assertions.assertEquals(200, slowResponse.status().code());
+			Assertions.assertEquals("/slow", slowResponse.content().toString(CharsetUtil.US_ASCII));
+			slowResponse.release();
+		} finally {
+			channel.close().sync();
+		}
+
+		// HTTP/1.1 clients still work on the same port
+		MinimalHTTPResponse response = MinimalHTTPRequest.get("localhost", 10000, "/http1");
+		Assertions.assertEquals(200, response.code);
+		Assertions.assertEquals("/http1", response.body);
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+	}
+
+	@Test
+	public void testIdleTimeout() throws Exception {
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.http2(true)
+			.readTimeout(300)
+			.keepAliveIdleTimeout(600)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				// Takes longer than both timeouts
+				Application.getTaskPool().schedule(() -> {
+					response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), request.requestURI()));
+				}, 1000, TimeUnit.MILLISECONDS);
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		final Channel channel = connect();
+		try {
+			// The open stream keeps the connection from timing out
+			final FullHttpResponse response = get(channel, "/slow").get(5, TimeUnit.SECONDS);
+			Assertions.assertEquals(200, response.status().code());
+			response.release();
+
+			// With no streams open the idle timeout closes it
+			final long start = System.currentTimeMillis();
+			Assertions.assertTrue(channel.closeFuture().await(5000));
+			Assertions.assertTrue(System.currentTimeMillis() - start < 2000);
+		} finally {
+			channel.close().sync();
+		}
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+	}
+
+	private static Channel connect() throws InterruptedException {
+		return new Bootstrap()
+			.group(Application.getIOPool())
+			.channel(Application.socketChannelClass())
+			.handler(new ChannelInitializer<Channel>() {
+				@Override
+				protected void initChannel(Channel ch) {
+					ch.pipeline().addLast(Http2FrameCodecBuilder.forClient().build());
+					ch.pipeline().addLast(new Http2MultiplexHandler(new ChannelInboundHandlerAdapter()));
+				}
+			})
+			.connect("localhost", 10000).sync().channel();
+	}
+
+	private static CompletableFuture<FullHttpResponse> get(Channel channel, String uri) throws InterruptedException {
+		final CompletableFuture<FullHttpResponse> result = new CompletableFuture<>();
+		final Http2StreamChannel stream = new Http2StreamChannelBootstrap(channel)
+			.handler(new ChannelInitializer<Http2StreamChannel>() {
+				@Override
+				protected void initChannel(Http2StreamChannel ch) {
+					ch.pipeline().addLast(new Http2StreamFrameToHttpObjectCodec(false));
+					ch.pipeline().addLast(new HttpObjectAggregator(64 * 1024));
+					ch.pipeline().addLast(new SimpleChannelInboundHandler<FullHttpResponse>(false) {
+						@Override
+						protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse msg) {
+							result.complete(msg);
+						}
+					});
+				}
+			})
+			.open().sync().getNow();
+		final FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+		request.headers().set(HttpHeaderNames.HOST, "localhost:10000");
+		request.headers().set(HttpConversionUtil.ExtensionHeaderNames.SCHEME.text(), "http");
+		stream.writeAndFlush(request);
+		return result;
+	}
+}
@@ -58,6 +58,30 @@ public class HttpServer_IO_Test extends TestBase {
 		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
 	}
 
+	@Test
+	public void testHeaderInjection() {
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				String result = "ACCEPTED";
+				try {
+					response.addHeader("X-Echo", "a\r\nSet-Cookie: session=stolen");
+				} catch(IllegalArgumentException ex) {
+					result = "REJECTED";
+				}
+				response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), result));
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		MinimalHTTPResponse response = MinimalHTTPRequest.get("localhost", 10000, "/");
+		Assertions.assertEquals(HttpResponseStatus.OK.code(), response.code);
+		Assertions.assertEquals("REJECTED", response.body);
+		Assertions.assertNull(response.getHeader("set-cookie"));
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+	}
+
 	@Test
 	public void testStatusCode() {
 		HttpServer httpServer = HttpServer.builder()
@@ -0,0 +1,45 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import com.denaliai.fw.utility.http.MinimalHTTPRequest;
+import com.denaliai.fw.utility.http.MinimalHTTPResponse;
+import com.denaliai.fw.utility.test.AbstractTestBase;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.epoll.Epoll;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class HttpServer_NativeTransport_Test extends AbstractTestBase {
+	@BeforeAll
+	public static void init() {
+		System.setProperty("com.denaliai.fw.core.Application.ioTransport", "epoll");
+		AbstractTestBase.bootstrap();
+	}
+
+	@AfterAll
+	public static void deinit() {
+		AbstractTestBase.deinit();
+	}
+
+	@Test
+	public void test() {
+		// Falls back to NIO when the native library is not available on this platform
+		Assertions.assertEquals(Epoll.isAvailable(), Application.isNativeTransport());
+
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), "GOOD"));
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		MinimalHTTPResponse response = MinimalHTTPRequest.get("localhost", 10000, "/nothing_to_get.html");
+		Assertions.assertEquals(200, response.code);
+		Assertions.assertEquals("GOOD", response.body);
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+	}
+}
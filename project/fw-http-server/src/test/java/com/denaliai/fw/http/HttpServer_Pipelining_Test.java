@@ -0,0 +1,79 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import io.netty.buffer.ByteBufUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+public class HttpServer_Pipelining_Test extends TestBase {
+
+	@Test
+	public void test() throws IOException {
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				final String uri = request.requestURI();
+				if (uri.equals("/slow")) {
+					// Answered after the requests behind it
+					Application.getTaskPool().schedule(() -> {
+						response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), uri));
+					}, 250, TimeUnit.MILLISECONDS);
+				} else {
+					response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), uri));
+				}
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		try (Socket socket = new Socket("localhost", 10000)) {
+			socket.setSoTimeout(5000);
+			final StringBuilder requests = new StringBuilder();
+			for(String uri : new String[] {"/slow", "/a", "/b", "/c"}) {
+				requests.append("GET ").append(uri).append(" HTTP/1.1\r\nHost: localhost:10000\r\n\r\n");
+			}
+			final OutputStream out = socket.getOutputStream();
+			out.write(requests.toString().getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+
+			final InputStream in = new BufferedInputStream(socket.getInputStream());
+			Assertions.assertEquals("/slow", readBody(in));
+			Assertions.assertEquals("/a", readBody(in));
+			Assertions.assertEquals("/b", readBody(in));
+			Assertions.assertEquals("/c", readBody(in));
+		}
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+	}
+
+	private static String readBody(InputStream in) throws IOException {
+		int contentLength = 0;
+		final StringBuilder line = new StringBuilder();
+		while(true) {
+			final int b = in.read();
+			Assertions.assertNotEquals(-1, b);
+			if (b == '\r') {
+				continue;
+			}
+			if (b != '\n') {
+				line.append((char)b);
+				continue;
+			}
+			if (line.length() == 0) {
+				break;
+			}
+			final String header = line.toString().toLowerCase();
+			if (header.startsWith("content-length:")) {
+				contentLength = Integer.parseInt(header.substring("content-length:".length()).trim());
+			}
+			line.setLength(0);
+		}
+		final byte[] body = new byte[contentLength];
+		new DataInputStream(in).readFully(body);
+		return new String(body, StandardCharsets.US_ASCII);
+	}
+}
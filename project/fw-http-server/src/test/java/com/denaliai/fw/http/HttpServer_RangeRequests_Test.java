@@ -0,0 +1,133 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.utility.http.MinimalHTTPRequest;
+import com.denaliai.fw.utility.http.MinimalHTTPResponse;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+public class HttpServer_RangeRequests_Test extends TestBase {
+	private static final long LAST_MODIFIED = 1500000000000L;
+
+	@Test
+	public void testFile() throws IOException {
+		run(false);
+	}
+
+	@Test
+	public void testCachedFile() throws IOException {
+		run(true);
+	}
+
+	private void run(boolean cached) throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		for(int i=0; i<1000; i++) {
+			sb.append((char)('0' + (i % 10)));
+		}
+		final String fileContents = sb.toString();
+		final File file = File.createTempFile("HttpServer_RangeRequests_Test", ".txt");
+		file.deleteOnExit();
+		Files.write(file.toPath(), fileContents.getBytes(StandardCharsets.US_ASCII));
+		file.setLastModified(LAST_MODIFIED);
+
+		HttpServer.HttpServerBuilder builder = HttpServer.builder()
+			.listenPort(10000)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				if (request.requestURI().equals("/data")) {
+					response.respondOkWithFileData(Unpooled.copiedBuffer(fileContents, StandardCharsets.US_ASCII), "data.txt", LAST_MODIFIED, false, 60);
+				} else {
+					response.respondOkWithFile(file, false, 60);
+				}
+			});
+		if (cached) {
+			builder.staticFileCacheSize(1024*1024);
+		}
+		HttpServer httpServer = builder.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		for(String path : new String[] {"/file", "/data"}) {
+			MinimalHTTPResponse response = MinimalHTTPRequest.get("localhost", 10000, path);
+			Assertions.assertEquals(200, response.code);
+			Assertions.assertEquals("bytes", response.getHeader("accept-ranges"));
+			final String etag = response.getHeader("etag");
+			final String lastModified = response.getHeader("last-modified");
+			final String fileContentType = response.getHeader("content-type");
+			Assertions.assertNotNull(etag);
+			Assertions.assertEquals(fileContents, response.body);
+
+			final Map<String, String> headers = new HashMap<>();
+			headers.put("Range", "bytes=10-19");
+			response = MinimalHTTPRequest.get("localhost", 10000, path, headers);
+			Assertions.assertEquals(206, response.code);
+			Assertions.assertEquals("bytes 10-19/1000", response.getHeader("content-range"));
+			Assertions.assertEquals(fileContents.substring(10, 20), response.body);
+
+			headers.put("Range", "bytes=-5");
+			response = MinimalHTTPRequest.get("localhost", 10000, path, headers);
+			Assertions.assertEquals(206, response.code);
+			Assertions.assertEquals("bytes 995-999/1000", response.getHeader("content-range"));
+			Assertions.assertEquals(fileContents.substring(995), response.body);
+
+			// Overlapping ranges are merged
+			headers.put("Range", "bytes=500-509, 0-4,2-6");
+			response = MinimalHTTPRequest.get("localhost", 10000, path, headers);
+			Assertions.assertEquals(206, response.code);
+			final String contentType = response.getHeader("content-type");
+			Assertions.assertTrue(contentType.startsWith("multipart/byteranges; boundary="));
+			final String boundary = contentType.substring(contentType.indexOf('=') + 1);
+			Assertions.assertEquals(Integer.toString(response.body.length()), response.getHeader("content-length"));
+			Assertions.assertEquals("\r\n--" + boundary + "\r\nContent-Type: " + fileContentType + "\r\nContent-Range: bytes 0-6/1000\r\n\r\n" + fileContents.substring(0, 7)
+				+ "\r\n--" + boundary + "\r\nContent-Type: " + fileContentType + "\r\nContent-Range: bytes 500-509/1000\r\n\r\n" + fileContents.substring(500, 510)
+				+ "\r\n--" + boundary + "--\r\n", response.body);
+
+			headers.put("Range", "bytes=5000-");
+			response = MinimalHTTPRequest.get("localhost", 10000, path, headers);
+			Assertions.assertEquals(416, response.code);
+			Assertions.assertEquals("bytes */1000", response.getHeader("content-range"));
+
+			// Not a range we understand, the whole file is sent
+			headers.put("Range", "lines=1-2");
+			response = MinimalHTTPRequest.get("localhost", 10000, path, headers);
+			Assertions.assertEquals(200, response.code);
+			Assertions.assertEquals(fileContents, response.body);
+
+			headers.put("Range", "bytes=10-19");
+			headers.put("If-Range", "\"stale\"");
+			response = MinimalHTTPRequest.get("localhost", 10000, path, headers);
+			Assertions.assertEquals(200, response.code);
+			Assertions.assertEquals(fileContents, response.body);
+
+			headers.put("If-Range", etag);
+			response = MinimalHTTPRequest.get("localhost", 10000, path, headers);
+			Assertions.assertEquals(206, response.code);
+			Assertions.assertEquals(fileContents.substring(10, 20), response.body);
+
+			headers.clear();
+			headers.put("If-None-Match", "\"other\", " + etag);
+			response = MinimalHTTPRequest.get("localhost", 10000, path, headers);
+			Assertions.assertEquals(304, response.code);
+			Assertions.assertEquals(etag, response.getHeader("etag"));
+
+			// Weak comparison
+			headers.put("If-None-Match", "W/" + etag);
+			response = MinimalHTTPRequest.get("localhost", 10000, path, headers);
+			Assertions.assertEquals(304, response.code);
+
+			// If-None-Match wins over If-Modified-Since
+			headers.put("If-None-Match", "\"other\"");
+			headers.put("If-Modified-Since", lastModified);
+			response = MinimalHTTPRequest.get("localhost", 10000, path, headers);
+			Assertions.assertEquals(200, response.code);
+		}
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+		file.delete();
+	}
+}
@@ -0,0 +1,101 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import com.denaliai.fw.utility.http.MinimalHTTPRequest;
+import com.denaliai.fw.utility.http.MinimalHTTPResponse;
+import io.netty.buffer.ByteBufUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+public class HttpServer_RateLimit_Test extends TestBase {
+
+	@Test
+	public void test() {
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.rateLimit(0.1, 2)
+			.rateLimitKeyHeader("x-api-key")
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), request.requestURI()));
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		Assertions.assertEquals(200, MinimalHTTPRequest.get("localhost", 10000, "/a").code);
+		Assertions.assertEquals(200, MinimalHTTPRequest.get("localhost", 10000, "/b").code);
+		MinimalHTTPResponse response = MinimalHTTPRequest.get("localhost", 10000, "/c");
+		Assertions.assertEquals(429, response.code);
+		Assertions.assertTrue(Integer.parseInt(response.getHeader("retry-after")) > 0);
+
+		// A client with its own key has its own bucket
+		response = MinimalHTTPRequest.get("localhost", 10000, "/d", Collections.singletonMap("x-api-key", "abc"));
+		Assertions.assertEquals(200, response.code);
+		Assertions.assertEquals("/d", response.body);
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+	}
+
+	@Test
+	public void testBodyDiscarded() throws IOException {
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.rateLimit(0.1, 1)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), request.requestURI()));
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		try (Socket socket = new Socket("localhost", 10000)) {
+			socket.setSoTimeout(5000);
+			final String requests = "GET /a HTTP/1.1\r\nHost: localhost:10000\r\n\r\n"
+				+ "POST /b HTTP/1.1\r\nHost: localhost:10000\r\nContent-Length: 10\r\n\r\n0123456789"
+				+ "GET /c HTTP/1.1\r\nHost: localhost:10000\r\n\r\n";
+			final OutputStream out = socket.getOutputStream();
+			out.write(requests.getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+
+			// The throttled POST's body doesn't get mistaken for the next request
+			final InputStream in = new BufferedInputStream(socket.getInputStream());
+			Assertions.assertEquals(200, readStatus(in));
+			Assertions.assertEquals(429, readStatus(in));
+			Assertions.assertEquals(429, readStatus(in));
+		}
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+	}
+
+	private static int readStatus(InputStream in) throws IOException {
+		int status = -1;
+		int contentLength = 0;
+		final StringBuilder line = new StringBuilder();
+		while(true) {
+			final int b = in.read();
+			Assertions.assertNotEquals(-1, b);
+			if (b == '\r') {
+				continue;
+			}
+			if (b != '\n') {
+				line.append((char)b);
+				continue;
+			}
+			if (line.length() == 0) {
+				break;
+			}
+			final String header = line.toString().toLowerCase();
+			if (status == -1) {
+				status = Integer.parseInt(header.split(" ")[1]);
+			} else if (header.startsWith("content-length:")) {
+				contentLength = Integer.parseInt(header.substring("content-length:".length()).trim());
+			}
+			line.setLength(0);
+		}
+		new DataInputStream(in).readFully(new byte[contentLength]);
+		return status;
+	}
+}
@@ -0,0 +1,130 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import io.netty.buffer.ByteBufUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+public class HttpServer_RequestLimits_Test extends TestBase {
+
+	@Test
+	public void test() throws Exception {
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.maxInitialLineLength(256)
+			.maxHeaderSize(1024)
+			.maxContentSize(100)
+			.maxContentSize("/upload", 1000)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), "GOT " + request.data().readableBytes()));
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		// The body is thrown away and the connection can still be used
+		try (Socket socket = connect()) {
+			send(socket, post("/data", 200));
+			Assertions.assertTrue(readResponse(socket.getInputStream()).startsWith("HTTP/1.1 413"));
+			send(socket, post("/data", 50));
+			final String response = readResponse(socket.getInputStream());
+			Assertions.assertTrue(response.startsWith("HTTP/1.1 200"), response);
+			Assertions.assertTrue(response.endsWith("GOT 50"), response);
+		}
+
+		// Too big to be worth reading through, the connection is closed after the 413
+		try (Socket socket = connect()) {
+			send(socket, "POST /data HTTP/1.1\r\nHost: localhost:10000\r\nContent-Length: 100000000\r\n\r\n" + repeat('b', 1000));
+			final String response = readResponse(socket.getInputStream());
+			Assertions.assertTrue(response.startsWith("HTTP/1.1 413"), response);
+			Assertions.assertTrue(response.toLowerCase().contains("connection: close"), response);
+			Assertions.assertEquals(-1, socket.getInputStream().read());
+		}
+
+		// The path has its own limit
+		try (Socket socket = connect()) {
+			send(socket, post("/upload?name=x", 800));
+			final String response = readResponse(socket.getInputStream());
+			Assertions.assertTrue(response.endsWith("GOT 800"), response);
+		}
+
+		// A chunked body is only known to be too big part way through
+		try (Socket socket = connect()) {
+			send(socket, "POST /data HTTP/1.1\r\nHost: localhost:10000\r\nTransfer-Encoding: chunked\r\n\r\n" + chunk(60) + chunk(60) + "0\r\n\r\n");
+			final String response = readResponse(socket.getInputStream());
+			Assertions.assertTrue(response.startsWith("HTTP/1.1 413"), response);
+			Assertions.assertTrue(response.toLowerCase().contains("connection: close"), response);
+			Assertions.assertEquals(-1, socket.getInputStream().read());
+		}
+
+		try (Socket socket = connect()) {
+			send(socket, "GET /" + repeat('u', 300) + " HTTP/1.1\r\nHost: localhost:10000\r\n\r\n");
+			final String response = readResponse(socket.getInputStream());
+			Assertions.assertTrue(response.startsWith(" 414", 8), response);
+			Assertions.assertEquals(-1, socket.getInputStream().read());
+		}
+
+		try (Socket socket = connect()) {
+			send(socket, "GET / HTTP/1.1\r\nHost: localhost:10000\r\nX-Big: " + repeat('h', 2000) + "\r\n\r\n");
+			final String response = readResponse(socket.getInputStream());
+			Assertions.assertTrue(response.startsWith(" 431", 8), response);
+			Assertions.assertEquals(-1, socket.getInputStream().read());
+		}
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+	}
+
+	private static Socket connect() throws Exception {
+		final Socket socket = new Socket("localhost", 10000);
+		socket.setSoTimeout(5000);
+		return socket;
+	}
+
+	private static void send(Socket socket, String data) throws Exception {
+		final OutputStream out = socket.getOutputStream();
+		out.write(data.getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+	}
+
+	private static String post(String path, int bodySize) {
+		return "POST " + path + " HTTP/1.1\r\nHost: localhost:10000\r\nContent-Length: " + bodySize + "\r\n\r\n" + repeat('b', bodySize);
+	}
+
+	private static String chunk(int size) {
+		return Integer.toHexString(size) + "\r\n" + repeat('c', size) + "\r\n";
+	}
+
+	private static String repeat(char c, int count) {
+		final StringBuilder sb = new StringBuilder();
+		for(int i=0; i<count; i++) {
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	/*
+		Reads the headers and the Content-Length bytes of body after them
+	 */
+	private static String readResponse(InputStream in) throws Exception {
+		final StringBuilder sb = new StringBuilder();
+		while(!sb.toString().endsWith("\r\n\r\n")) {
+			final int c = in.read();
+			Assertions.assertNotEquals(-1, c, sb.toString());
+			sb.append((char)c);
+		}
+		int contentLength = 0;
+		for(String line : sb.toString().split("\r\n")) {
+			if (line.toLowerCase().startsWith("content-length:")) {
+				contentLength = Integer.parseInt(line.substring(15).trim());
+			}
+		}
+		for(int i=0; i<contentLength; i++) {
+			sb.append((char)in.read());
+		}
+		return sb.toString();
+	}
+}
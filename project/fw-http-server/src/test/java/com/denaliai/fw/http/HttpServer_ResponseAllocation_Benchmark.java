@@ -0,0 +1,121 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import com.denaliai.fw.ApplicationBootstrap;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Measures the bytes allocated by the whole process per request for the responses that build date and cache
+ * headers (respondOkWithFile() and setDynamicContentHeaders()).  This is not run as part of the tests, run
+ * main() by hand:
+ *
+ *    HttpServer_ResponseAllocation_Benchmark [numRequests]
+ *
+ * The numbers include the client, which is the same from run to run.
+ */
+public class HttpServer_ResponseAllocation_Benchmark {
+	private static final int PORT = 10000;
+
+	public static void main(String[] args) throws Exception {
+		final int numRequests = (args.length > 0) ? Integer.parseInt(args[0]) : 50000;
+
+		System.setProperty("com.denaliai.fw.logger-level-root", "WARN");
+		ApplicationBootstrap.bootstrap(new String[]{});
+		Application.run();
+		final File file = File.createTempFile("HttpServer_ResponseAllocation_Benchmark", ".txt");
+		file.deleteOnExit();
+		Files.write(file.toPath(), "Some small file".getBytes(StandardCharsets.US_ASCII));
+		final HttpServer httpServer = HttpServer.builder()
+			.listenPort(PORT)
+			.staticFileCacheSize(1024*1024)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				if (request.requestURI().startsWith("/file")) {
+					response.respondOkWithFile(file, false, 60);
+				} else {
+					response.setDynamicContentHeaders("text/plain");
+					response.respondOk(Application.allocateIOBuffer().writeByte('x'));
+				}
+			})
+			.build();
+		httpServer.start().syncUninterruptibly();
+		try {
+			// Warm up before measuring
+			run("/file", numRequests);
+			run("/dynamic", numRequests);
+
+			report("respondOkWithFile      ", run("/file", numRequests), numRequests);
+			report("setDynamicContentHeaders", run("/dynamic", numRequests), numRequests);
+		} finally {
+			httpServer.stop().syncUninterruptibly();
+			file.delete();
+			Application.terminateAndWait();
+		}
+	}
+
+	private static long allocatedBytes() {
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long total = 0;
+		for(long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+			if (allocated > 0) {
+				total += allocated;
+			}
+		}
+		return total;
+	}
+
+	private static long[] run(String uri, int numRequests) throws IOException {
+		final long startBytes = allocatedBytes();
+		final long startNS = System.nanoTime();
+		try (Socket socket = new Socket("localhost", PORT)) {
+			final OutputStream out = socket.getOutputStream();
+			final InputStream in = new BufferedInputStream(socket.getInputStream(), 64*1024);
+			final byte[] request = ("GET " + uri + " HTTP/1.1\r\nHost: localhost:" + PORT + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+			for(int i=0; i<numRequests; i++) {
+				out.write(request);
+				out.flush();
+				long remaining = readContentLength(in);
+				while(remaining-- > 0) {
+					if (in.read() == -1) {
+						throw new EOFException("Connection closed in body");
+					}
+				}
+			}
+		}
+		return new long[] {System.nanoTime() - startNS, allocatedBytes() - startBytes};
+	}
+
+	private static long readContentLength(InputStream in) throws IOException {
+		long contentLength = 0;
+		final StringBuilder line = new StringBuilder();
+		while(true) {
+			final int b = in.read();
+			if (b == -1) {
+				throw new EOFException("Connection closed in headers");
+			}
+			if (b == '\r') {
+				continue;
+			}
+			if (b != '\n') {
+				line.append((char)b);
+				continue;
+			}
+			if (line.length() == 0) {
+				return contentLength;
+			}
+			final String header = line.toString().toLowerCase();
+			if (header.startsWith("content-length:")) {
+				contentLength = Long.parseLong(header.substring("content-length:".length()).trim());
+			}
+			line.setLength(0);
+		}
+	}
+
+	private static void report(String name, long[] result, int numRequests) {
+		System.out.printf("%s: %8.0f requests/s, %8d bytes allocated per request%n", name, numRequests / (result[0] / 1_000_000_000.0), result[1] / numRequests);
+	}
+}
@@ -0,0 +1,130 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import com.denaliai.fw.utility.http.MinimalHTTPRequest;
+import com.denaliai.fw.utility.http.MinimalHTTPResponse;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HttpServer_ResponseCache_Test extends TestBase {
+
+	@Test
+	public void test() throws Exception {
+		final File file = File.createTempFile("HttpServer_ResponseCache_Test", ".txt");
+		file.deleteOnExit();
+		Files.write(file.toPath(), "file data".getBytes(StandardCharsets.US_ASCII));
+
+		final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.responseCache(1000, "X-Tenant")
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				final String uri = request.requestURI();
+				final int count = calls.computeIfAbsent(uri, k -> new AtomicInteger()).incrementAndGet();
+				final String tenant = request.headerValue("X-Tenant");
+				Application.getTaskPool().schedule(() -> {
+					if (uri.equals("/file")) {
+						response.respondOkWithFile(file, false, 60);
+					} else if (uri.equals("/cookie")) {
+						response.addHeader("Set-Cookie", "session=" + count);
+						response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), "cookie " + count));
+					} else if (uri.equals("/private")) {
+						response.addHeader("Cache-Control", "max-age=60, private");
+						response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), "private " + count));
+					} else if (uri.equals("/missing")) {
+						response.respond(HttpResponseStatus.NOT_FOUND, ByteBufUtil.writeAscii(Application.ioBufferAllocator(), "missing " + count));
+					} else {
+						response.addHeader("X-Handled", Integer.toString(count));
+						response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), "data " + tenant + " " + count));
+					}
+				}, 300, TimeUnit.MILLISECONDS);
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		// Only the first request calls the handler, the others wait for it
+		for(MinimalHTTPResponse response : concurrentGets("/data", "a", 8)) {
+			Assertions.assertEquals(200, response.code);
+			Assertions.assertEquals("data a 1", response.body);
+			Assertions.assertEquals("1", response.getHeader("x-handled"));
+		}
+		Assertions.assertEquals(1, calls.get("/data").get());
+
+		// Cached
+		Assertions.assertEquals("data a 1", get("/data", "a").body);
+		Assertions.assertEquals(1, calls.get("/data").get());
+
+		// The key header is part of the key
+		Assertions.assertEquals("data b 2", get("/data", "b").body);
+		Assertions.assertEquals(2, calls.get("/data").get());
+
+		// Expired
+		Thread.sleep(1100);
+		Assertions.assertEquals("data a 3", get("/data", "a").body);
+
+		// Waiting requests share the response but it isn't kept
+		for(MinimalHTTPResponse response : concurrentGets("/missing", "a", 4)) {
+			Assertions.assertEquals(404, response.code);
+			Assertions.assertEquals("missing 1", response.body);
+		}
+		Assertions.assertEquals("missing 2", get("/missing", "a").body);
+
+		// A file can't be shared, each waiting request calls the handler
+		for(MinimalHTTPResponse response : concurrentGets("/file", "a", 4)) {
+			Assertions.assertEquals(200, response.code);
+			Assertions.assertEquals("file data", response.body);
+		}
+		Assertions.assertEquals(4, calls.get("/file").get());
+
+		// A response for one client is neither shared nor kept
+		for(MinimalHTTPResponse response : concurrentGets("/cookie", "a", 4)) {
+			Assertions.assertEquals(200, response.code);
+			Assertions.assertEquals(response.body.substring("cookie ".length()), response.getHeader("set-cookie").substring("session=".length()));
+		}
+		Assertions.assertEquals(4, calls.get("/cookie").get());
+		Assertions.assertEquals("cookie 5", get("/cookie", "a").body);
+		for(MinimalHTTPResponse response : concurrentGets("/private", "a", 4)) {
+			Assertions.assertEquals(200, response.code);
+		}
+		Assertions.assertEquals(4, calls.get("/private").get());
+		Assertions.assertEquals("private 5", get("/private", "a").body);
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+		file.delete();
+	}
+
+	private static MinimalHTTPResponse get(String path, String tenant) {
+		final Map<String, String> headers = new HashMap<>();
+		headers.put("X-Tenant", tenant);
+		return MinimalHTTPRequest.get("localhost", 10000, path, headers);
+	}
+
+	private static List<MinimalHTTPResponse> concurrentGets(String path, String tenant, int count) throws InterruptedException {
+		final List<MinimalHTTPResponse> responses = Collections.synchronizedList(new ArrayList<>());
+		final List<Thread> threads = new ArrayList<>();
+		for(int i=0; i<count; i++) {
+			final Thread t = new Thread(() -> responses.add(get(path, tenant)));
+			t.start();
+			threads.add(t);
+		}
+		for(Thread t : threads) {
+			t.join();
+		}
+		Assertions.assertEquals(count, responses.size());
+		return responses;
+	}
+}
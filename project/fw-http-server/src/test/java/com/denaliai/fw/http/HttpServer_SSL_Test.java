@@ -0,0 +1,98 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import io.netty.buffer.ByteBufUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+public class HttpServer_SSL_Test extends TestBase {
+
+	@Test
+	public void test() throws Exception {
+		final File keyStore = createKeyStore();
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.useSSL(true)
+			// netty-tcnative isn't a dependency, so this also checks the fallback to the JDK
+			.openSsl(true)
+			.sslKeyStoreFileName(keyStore.getAbsolutePath())
+			.sslKeyStoreFileFormat("PKCS12")
+			.sslKeyStorePassword("changeit")
+			.sslSessionCacheSize(100)
+			.sslSessionTimeout(60)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), "GOOD"));
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		final SSLContext clientContext = SSLContext.getInstance("TLSv1.2");
+		clientContext.init(null, new TrustManager[] { new TrustAll() }, null);
+		final byte[] firstSessionId = get(clientContext.getSocketFactory());
+		// The second connection resumes the first one's session
+		final byte[] secondSessionId = get(clientContext.getSocketFactory());
+		Assertions.assertArrayEquals(firstSessionId, secondSessionId);
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+		keyStore.delete();
+	}
+
+	private static byte[] get(SSLSocketFactory factory) throws Exception {
+		try (SSLSocket socket = (SSLSocket)factory.createSocket("localhost", 10000)) {
+			socket.setSoTimeout(5000);
+			socket.getOutputStream().write("GET / HTTP/1.1\r\nHost: localhost:10000\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			socket.getOutputStream().flush();
+			final InputStream in = socket.getInputStream();
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			int c;
+			while((c = in.read()) != -1) {
+				out.write(c);
+			}
+			final String response = new String(out.toByteArray(), StandardCharsets.US_ASCII);
+			Assertions.assertTrue(response.startsWith("HTTP/1.1 200"), response);
+			Assertions.assertTrue(response.endsWith("GOOD"), response);
+			return socket.getSession().getId();
+		}
+	}
+
+	private static File createKeyStore() throws Exception {
+		final File keyStore = File.createTempFile("HttpServer_SSL_Test", ".p12");
+		keyStore.delete();
+		keyStore.deleteOnExit();
+		final Process keytool = new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool",
+			"-genkeypair", "-alias", "test", "-keyalg", "RSA", "-keysize", "2048", "-validity", "1", "-dname", "CN=localhost",
+			"-storetype", "PKCS12", "-keystore", keyStore.getAbsolutePath(), "-storepass", "changeit", "-keypass", "changeit")
+			.redirectErrorStream(true)
+			.start();
+		Assertions.assertTrue(keytool.waitFor(30, TimeUnit.SECONDS));
+		Assertions.assertEquals(0, keytool.exitValue());
+		return keyStore;
+	}
+
+	private static final class TrustAll implements X509TrustManager {
+		@Override
+		public void checkClientTrusted(X509Certificate[] chain, String authType) {
+		}
+
+		@Override
+		public void checkServerTrusted(X509Certificate[] chain, String authType) {
+		}
+
+		@Override
+		public X509Certificate[] getAcceptedIssuers() {
+			return new X509Certificate[0];
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.utility.http.MinimalHTTPRequest;
+import com.denaliai.fw.utility.http.MinimalHTTPResponse;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+public class HttpServer_StaticFileCache_Test extends TestBase {
+
+	@Test
+	public void test() throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		for(int i=0; i<64*1024; i++) {
+			sb.append((char)('a' + (i % 26)));
+		}
+		final String fileContents = sb.toString();
+		final File file = File.createTempFile("HttpServer_StaticFileCache_Test", ".txt");
+		file.deleteOnExit();
+		Files.write(file.toPath(), fileContents.getBytes(StandardCharsets.US_ASCII));
+
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.staticFileCacheSize(1024*1024)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				response.respondOkWithFile(file, false, 60);
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		// Loads the cache, then comes from it
+		for(int i=0; i<2; i++) {
+			MinimalHTTPResponse response = MinimalHTTPRequest.get("localhost", 10000, "/file.txt");
+			Assertions.assertEquals(200, response.code);
+			Assertions.assertNull(response.getHeader("content-encoding"));
+			Assertions.assertEquals(Integer.toString(fileContents.length()), response.getHeader("content-length"));
+			Assertions.assertEquals(fileContents, response.body);
+		}
+
+		// Served the precompressed version
+		final Map<String, String> headers = new HashMap<>();
+		headers.put("Accept-Encoding", "gzip;q=0, deflate");
+		MinimalHTTPResponse response = MinimalHTTPRequest.get("localhost", 10000, "/file.txt", headers);
+		Assertions.assertEquals(200, response.code);
+		Assertions.assertEquals("deflate", response.getHeader("content-encoding"));
+		Assertions.assertTrue(Integer.parseInt(response.getHeader("content-length")) < fileContents.length());
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+		file.delete();
+	}
+}
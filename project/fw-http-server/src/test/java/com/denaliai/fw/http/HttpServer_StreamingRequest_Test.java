@@ -0,0 +1,67 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import com.denaliai.fw.utility.Pipe;
+import com.denaliai.fw.utility.http.MinimalHTTPRequest;
+import com.denaliai.fw.utility.http.MinimalHTTPResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.CharsetUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class HttpServer_StreamingRequest_Test extends TestBase {
+
+	@Test
+	public void test() {
+		final StringBuilder sb = new StringBuilder();
+		for(int i=0; i<2*1024*1024; i++) {
+			sb.append((char)('a' + (i % 26)));
+		}
+		final String bigBody = sb.toString();
+
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), "AGGREGATED " + request.data().readableBytes()));
+			})
+			.onStreamingRequest((requestMethod, requestURI) -> requestURI.startsWith("/upload"), new UploadHandler())
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		// Much larger than the max aggregated content size
+		MinimalHTTPResponse response = MinimalHTTPRequest.post("localhost", 10000, "/upload", "text/plain", bigBody);
+		Assertions.assertEquals(200, response.code);
+		Assertions.assertEquals("STREAMED " + bigBody.length() + " " + bigBody.hashCode(), response.body);
+
+		response = MinimalHTTPRequest.post("localhost", 10000, "/small", "text/plain", "hello");
+		Assertions.assertEquals(200, response.code);
+		Assertions.assertEquals("AGGREGATED 5", response.body);
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+	}
+
+	private static class UploadHandler implements HttpServer.IStreamingRequestHandler {
+		private final StringBuilder m_received = new StringBuilder();
+
+		@Override
+		public void onRequest(HttpServer.IHttpRequest request, HttpServer.IHttpResponse response) {
+			m_received.setLength(0);
+		}
+
+		@Override
+		public void onData(HttpServer.IHttpRequest request, HttpServer.IHttpResponse response, Pipe.IConsumer body, boolean isLast) {
+			while(true) {
+				ByteBuf buf = body.poll();
+				if (buf == null) {
+					break;
+				}
+				m_received.append(buf.toString(CharsetUtil.US_ASCII));
+				buf.release();
+			}
+			if (isLast) {
+				response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), "STREAMED " + m_received.length() + " " + m_received.toString().hashCode()));
+			}
+		}
+	}
+}
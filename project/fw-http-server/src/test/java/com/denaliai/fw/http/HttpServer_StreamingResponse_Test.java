@@ -0,0 +1,111 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import com.denaliai.fw.utility.http.MinimalHTTPRequest;
+import com.denaliai.fw.utility.http.MinimalHTTPResponse;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HttpServer_StreamingResponse_Test extends TestBase {
+
+	@Test
+	public void testEventStream() {
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				if (request.requestURI().equals("/events")) {
+					final HttpServer.IStreamingResponse events = response.respondEventStream(null);
+					events.writeEvent(null, "first");
+					Application.getTaskPool().schedule(() -> {
+						events.writeEvent("update", "line1\nline2");
+						events.end();
+					}, 100, TimeUnit.MILLISECONDS);
+				} else {
+					final HttpServer.IStreamingResponse body = response.respondStreaming(HttpResponseStatus.OK, "text/plain", null);
+					for(int i=0; i<10; i++) {
+						body.write(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), Integer.toString(i)));
+					}
+					body.end();
+				}
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		MinimalHTTPResponse response = MinimalHTTPRequest.get("localhost", 10000, "/events");
+		Assertions.assertEquals(200, response.code);
+		Assertions.assertEquals("text/event-stream", response.getHeader("content-type"));
+		Assertions.assertEquals("data: first\n\nevent: update\ndata: line1\ndata: line2\n\n", response.body);
+
+		response = MinimalHTTPRequest.get("localhost", 10000, "/numbers");
+		Assertions.assertEquals(200, response.code);
+		Assertions.assertEquals("0123456789", response.body);
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+	}
+
+	@Test
+	public void testBackpressure() throws Exception {
+		final byte[] chunk = new byte[16 * 1024];
+		final AtomicInteger writableCalls = new AtomicInteger();
+		final CountDownLatch closed = new CountDownLatch(1);
+		final HttpServer.IStreamingResponseListener producer = new HttpServer.IStreamingResponseListener() {
+			@Override
+			public void onWritable(HttpServer.IStreamingResponse response) {
+				writableCalls.incrementAndGet();
+				produce(response);
+			}
+
+			@Override
+			public void onClosed(HttpServer.IStreamingResponse response) {
+				closed.countDown();
+			}
+
+			private void produce(HttpServer.IStreamingResponse response) {
+				// Never ends on its own, the client going away stops it
+				while(response.write(Unpooled.wrappedBuffer(chunk))) {
+				}
+			}
+		};
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				producer.onWritable(response.respondStreaming(HttpResponseStatus.OK, "application/octet-stream", producer));
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		try (Socket socket = new Socket("localhost", 10000)) {
+			socket.setSoTimeout(5000);
+			socket.setReceiveBufferSize(16 * 1024);
+			socket.getOutputStream().write("GET /stream HTTP/1.1\r\nHost: localhost:10000\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			socket.getOutputStream().flush();
+
+			// Read slowly so the server has to wait on us
+			final InputStream in = socket.getInputStream();
+			final byte[] buffer = new byte[8192];
+			long total = 0;
+			while(total < 4 * 1024 * 1024) {
+				final int read = in.read(buffer);
+				Assertions.assertNotEquals(-1, read);
+				total += read;
+				if (total % 8 == 0) {
+					Thread.sleep(1);
+				}
+			}
+		}
+		Assertions.assertTrue(closed.await(5, TimeUnit.SECONDS));
+		Assertions.assertTrue(writableCalls.get() > 1);
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+	}
+}
@@ -0,0 +1,155 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import com.denaliai.fw.utility.Pipe;
+import com.denaliai.fw.utility.http.MinimalHTTPRequest;
+import com.denaliai.fw.utility.http.MinimalHTTPResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+public class HttpServer_Timeouts_Test extends TestBase {
+
+	private static HttpServer newServer() {
+		return HttpServer.builder()
+			.listenPort(10000)
+			.readTimeout(300)
+			.keepAliveIdleTimeout(1500)
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				final String uri = request.requestURI();
+				if (uri.equals("/slow")) {
+					// Takes longer than the read timeout
+					Application.getTaskPool().schedule(() -> {
+						response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), uri));
+					}, 800, TimeUnit.MILLISECONDS);
+				} else {
+					response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), uri));
+				}
+			})
+			.onStreamingRequest((requestMethod, requestURI) -> requestURI.startsWith("/upload"), new HttpServer.IStreamingRequestHandler() {
+				@Override
+				public void onRequest(HttpServer.IHttpRequest request, HttpServer.IHttpResponse response) {
+				}
+
+				@Override
+				public void onData(HttpServer.IHttpRequest request, HttpServer.IHttpResponse response, Pipe.IConsumer body, boolean isLast) {
+					ByteBuf buf;
+					while((buf = body.poll()) != null) {
+						buf.release();
+					}
+					if (isLast) {
+						response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), request.requestURI()));
+					}
+				}
+			})
+			.build();
+	}
+
+	@Test
+	public void testSlowHandler() {
+		HttpServer httpServer = newServer();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		MinimalHTTPResponse response = MinimalHTTPRequest.get("localhost", 10000, "/slow");
+		Assertions.assertEquals(200, response.code);
+		Assertions.assertEquals("/slow", response.body);
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+	}
+
+	@Test
+	public void testPartialRequest() throws IOException {
+		HttpServer httpServer = newServer();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		try (Socket socket = new Socket("localhost", 10000)) {
+			socket.setSoTimeout(5000);
+			final long start = System.currentTimeMillis();
+			socket.getOutputStream().write("GET /partial HTTP/1.1\r\n".getBytes(StandardCharsets.US_ASCII));
+			socket.getOutputStream().flush();
+			Assertions.assertEquals(-1, socket.getInputStream().read());
+			// The read timeout closes it, not the idle timeout
+			Assertions.assertTrue(System.currentTimeMillis() - start < 1200);
+		}
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+	}
+
+	@Test
+	public void testPartialStreamedBody() throws IOException {
+		HttpServer httpServer = newServer();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		try (Socket socket = new Socket("localhost", 10000)) {
+			socket.setSoTimeout(5000);
+			final long start = System.currentTimeMillis();
+			socket.getOutputStream().write("POST /upload HTTP/1.1\r\nHost: localhost:10000\r\nContent-Length: 100\r\n\r\nhalf".getBytes(StandardCharsets.US_ASCII));
+			socket.getOutputStream().flush();
+			Assertions.assertEquals(-1, socket.getInputStream().read());
+			// The rest of the body never came, the read timeout closes it
+			Assertions.assertTrue(System.currentTimeMillis() - start < 1200);
+		}
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+	}
+
+	@Test
+	public void testKeepAliveIdle() throws Exception {
+		HttpServer httpServer = newServer();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		try (Socket socket = new Socket("localhost", 10000)) {
+			socket.setSoTimeout(5000);
+			final OutputStream out = socket.getOutputStream();
+			final InputStream in = new BufferedInputStream(socket.getInputStream());
+			out.write("GET /a HTTP/1.1\r\nHost: localhost:10000\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			Assertions.assertEquals("/a", readBody(in));
+
+			// Idle for longer than the read timeout is fine
+			Thread.sleep(700);
+			out.write("GET /b HTTP/1.1\r\nHost: localhost:10000\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			Assertions.assertEquals("/b", readBody(in));
+
+			final long start = System.currentTimeMillis();
+			Assertions.assertEquals(-1, in.read());
+			Assertions.assertTrue(System.currentTimeMillis() - start >= 1000);
+		}
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+	}
+
+	private static String readBody(InputStream in) throws IOException {
+		int contentLength = 0;
+		final StringBuilder line = new StringBuilder();
+		while(true) {
+			final int b = in.read();
+			Assertions.assertNotEquals(-1, b);
+			if (b == '\r') {
+				continue;
+			}
+			if (b != '\n') {
+				line.append((char)b);
+				continue;
+			}
+			if (line.length() == 0) {
+				break;
+			}
+			final String header = line.toString().toLowerCase();
+			if (header.startsWith("content-length:")) {
+				contentLength = Integer.parseInt(header.substring("content-length:".length()).trim());
+			}
+			line.setLength(0);
+		}
+		final byte[] body = new byte[contentLength];
+		new DataInputStream(in).readFully(body);
+		return new String(body, StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,149 @@
+package com.denaliai.fw.http;
+
+import com.denaliai.fw.Application;
+import com.denaliai.fw.utility.Pipe;
+import com.denaliai.fw.utility.http.MinimalHTTPRequest;
+import com.denaliai.fw.utility.http.MinimalHTTPResponse;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.*;
+import io.netty.handler.codec.http.*;
+import io.netty.handler.codec.http.websocketx.*;
+import io.netty.handler.codec.http.websocketx.extensions.compression.WebSocketClientCompressionHandler;
+import io.netty.util.CharsetUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class HttpServer_WebSocket_Test extends TestBase {
+
+	@Test
+	public void test() throws Exception {
+		runEcho(false);
+	}
+
+	@Test
+	public void testCompression() throws Exception {
+		runEcho(true);
+	}
+
+	private void runEcho(boolean compression) throws Exception {
+		final CountDownLatch disconnected = new CountDownLatch(1);
+		HttpServer httpServer = HttpServer.builder()
+			.listenPort(10000)
+			.webSocketCompression(compression)
+			.webSocket("/echo", true, new EchoHandler(disconnected))
+			.onRequest((HttpServer.IHttpRequest request, HttpServer.IHttpResponse response)->{
+				response.respondOk(ByteBufUtil.writeAscii(Application.ioBufferAllocator(), "HTTP " + request.requestURI()));
+			})
+			.build();
+		Assertions.assertTrue(httpServer.start().awaitUninterruptibly(1000));
+
+		// Without the upgrade it is a normal request
+		MinimalHTTPResponse response = MinimalHTTPRequest.get("localhost", 10000, "/echo");
+		Assertions.assertEquals(200, response.code);
+		Assertions.assertEquals("HTTP /echo", response.body);
+
+		final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+		final CountDownLatch handshakeDone = new CountDownLatch(1);
+		final CompletableFuture<String> extensions = new CompletableFuture<>();
+		final WebSocketClientHandshaker handshaker = WebSocketClientHandshakerFactory.newHandshaker(new URI("ws://localhost:10000/echo?name=test"), WebSocketVersion.V13, null, true, new DefaultHttpHeaders());
+		final Channel channel = new Bootstrap()
+			.group(Application.getIOPool())
+			.channel(Application.socketChannelClass())
+			.handler(new ChannelInitializer<Channel>() {
+				@Override
+				protected void initChannel(Channel ch) {
+					ch.pipeline().addLast(new HttpClientCodec());
+					ch.pipeline().addLast(new HttpObjectAggregator(8192));
+					ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+						@Override
+						public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+							if (msg instanceof FullHttpResponse) {
+								extensions.complete(String.valueOf(((FullHttpResponse)msg).headers().get(HttpHeaderNames.SEC_WEBSOCKET_EXTENSIONS)));
+							}
+							super.channelRead(ctx, msg);
+						}
+					});
+					if (compression) {
+						ch.pipeline().addLast(WebSocketClientCompressionHandler.INSTANCE);
+					}
+					ch.pipeline().addLast(new WebSocketClientProtocolHandler(handshaker));
+					ch.pipeline().addLast(new SimpleChannelInboundHandler<TextWebSocketFrame>() {
+						@Override
+						protected void channelRead0(ChannelHandlerContext ctx, TextWebSocketFrame frame) {
+							received.add(frame.text());
+						}
+
+						@Override
+						public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+							if (evt == WebSocketClientProtocolHandler.ClientHandshakeStateEvent.HANDSHAKE_COMPLETE) {
+								handshakeDone.countDown();
+							}
+							super.userEventTriggered(ctx, evt);
+						}
+					});
+				}
+			})
+			.connect("localhost", 10000).sync().channel();
+		try {
+			Assertions.assertTrue(handshakeDone.await(5, TimeUnit.SECONDS));
+			Assertions.assertEquals(compression, extensions.get().contains("permessage-deflate"));
+			Assertions.assertEquals("welcome test", received.poll(5, TimeUnit.SECONDS));
+
+			channel.writeAndFlush(new TextWebSocketFrame("hello"));
+			Assertions.assertEquals("echo hello", received.poll(5, TimeUnit.SECONDS));
+			channel.writeAndFlush(new TextWebSocketFrame("world"));
+			Assertions.assertEquals("echo world", received.poll(5, TimeUnit.SECONDS));
+
+			channel.writeAndFlush(new CloseWebSocketFrame(1000, null));
+			Assertions.assertTrue(channel.closeFuture().await(5, TimeUnit.SECONDS));
+		} finally {
+			channel.close().sync();
+		}
+		Assertions.assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+
+		Assertions.assertTrue(httpServer.stop().awaitUninterruptibly(1000));
+	}
+
+	private static class EchoHandler implements HttpServer.IWebSocketHandler {
+		private final CountDownLatch m_disconnected;
+
+		EchoHandler(CountDownLatch disconnected) {
+			m_disconnected = disconnected;
+		}
+
+		@Override
+		public void onConnect(HttpServer.IWebSocketConnection connection, Pipe.IProducer outProducer) {
+			final String uri = connection.requestURI();
+			outProducer.submit(ByteBufUtil.writeUtf8(Application.ioBufferAllocator(), "welcome " + uri.substring(uri.indexOf('=') + 1)));
+		}
+
+		@Override
+		public void onData(HttpServer.IWebSocketConnection connection, Pipe.IConsumer inConsumer, Pipe.IProducer outProducer) {
+			while(true) {
+				final ByteBuf message = inConsumer.poll();
+				if (message == null) {
+					break;
+				}
+				final String text = message.toString(CharsetUtil.UTF_8);
+				message.release();
+				outProducer.submit(ByteBufUtil.writeUtf8(Application.ioBufferAllocator(), "echo " + text));
+			}
+		}
+
+		@Override
+		public void onDisconnect(HttpServer.IWebSocketConnection connection, Pipe.IConsumer inConsumer, Pipe.IProducer outProducer) {
+			inConsumer.close();
+			outProducer.close();
+			m_disconnected.countDown();
+		}
+	}
+}
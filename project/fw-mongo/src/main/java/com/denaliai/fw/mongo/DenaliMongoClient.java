@@ -38,7 +38,7 @@ public class DenaliMongoClient {
 			throw new IllegalStateException("DenaliMongoClient is already started");
 		}
 		MongoClientSettings.Builder builder = MongoClientSettings.builder()
-			.streamFactoryFactory(NettyStreamFactoryFactory.builder().allocator(Application.allocator()).eventLoopGroup(Application.getIOPool()).build())
+			.streamFactoryFactory(NettyStreamFactoryFactory.builder().allocator(Application.allocator()).eventLoopGroup(Application.getIOPool()).socketChannelClass(Application.socketChannelClass()).build())
 //			.applyToServerSettings((serverSettings) -> {
 //				serverSettings.addServerListener(new ServerListener() {
 //					@Override
@@ -8,7 +8,6 @@ import com.denaliai.fw.utility.concurrent.PerpetualWork;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.*;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.timeout.ReadTimeoutHandler;
 import io.netty.util.*;
 import io.netty.util.concurrent.Future;
@@ -70,7 +69,7 @@ public class SocketClient {
 
 	private void init() {
 		m_clientBootstrap.group(Application.getIOPool())
-			.channel(NioSocketChannel.class)
+			.channel(Application.socketChannelClass())
 			.handler(new SocketHandler())
 			.option(ChannelOption.ALLOCATOR, Application.allocator())
 			.option(ChannelOption.SO_KEEPALIVE, true)
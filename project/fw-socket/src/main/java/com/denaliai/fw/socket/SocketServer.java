@@ -9,8 +9,6 @@ import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.*;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.timeout.ReadTimeoutHandler;
 import io.netty.util.*;
 import io.netty.util.concurrent.Future;
@@ -74,7 +72,7 @@ public final class SocketServer {
 
 	private void init() {
 		m_serverBootstrap.group(Application.getIOPool(), Application.getIOPool())
-			.channel(NioServerSocketChannel.class)
+			.channel(Application.serverSocketChannelClass())
 			.handler(new ServerSocketHandler())
 			.option(ChannelOption.ALLOCATOR, Application.allocator())
 			.option(ChannelOption.SO_BACKLOG, SERVER_BACKLOG)
@@ -332,7 +330,7 @@ public final class SocketServer {
 			if (LOG.isDebugEnabled()) {
 				LOG.debug("[{}] ServerSocketHandler.channelRead(): {} {}", ctx.channel(), msg.getClass().getName(), msg.toString());
 			}
-			if (msg instanceof NioSocketChannel) {
+			if (msg instanceof SocketChannel) {
 				// This increments our child socket's "use" of the server
 				serverRetain();
 